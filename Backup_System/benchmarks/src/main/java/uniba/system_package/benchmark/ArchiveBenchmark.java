@@ -0,0 +1,86 @@
+package uniba.system_package.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uniba.system_package.storage.CompressionCodec;
+import uniba.system_package.storage.StorageManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a backup archive of a synthetic dataset ({@link StorageManager#compressFiles}) and
+ * restores one ({@link StorageManager#extractBackupFile}), for every codec. The extraction
+ * overwrites the files restored by the previous invocation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchiveBenchmark {
+    // See SyntheticDataset for the shapes
+    @Param({"manySmall", "fewHuge"})
+    public String shape;
+
+    @Param({"gzip", "zstd", "lz4", "none"})
+    public String codec;
+
+    private Path directory;
+    private SyntheticDataset dataset;
+    private StorageManager storageManager;
+    private Path archive;
+    private Path restoreArchive;
+    private Path extractionDir;
+
+    @Setup(Level.Trial)
+    public void createDataset() throws IOException {
+        directory = Files.createTempDirectory("archive-benchmark");
+        dataset = SyntheticDataset.create(directory.resolve("data"), shape);
+        storageManager = new StorageManager();
+        storageManager.setCompression(CompressionCodec.fromName(codec), CompressionCodec.DEFAULT_LEVEL);
+        archive = directory.resolve("backup.tar.gz");
+        restoreArchive = directory.resolve("restore.tar.gz");
+        extractionDir = directory.resolve("restored");
+        if (!storageManager.compressFiles(dataset.getFiles(), restoreArchive.toString())) {
+            throw new IllegalStateException("Could not write the archive to restore");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDataset() throws IOException {
+        SyntheticDataset.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public void compressFiles(ThroughputCounters counters) {
+        if (!storageManager.compressFiles(dataset.getFiles(), archive.toString())) {
+            throw new IllegalStateException("Archive was not written");
+        }
+        counters.megabytes += dataset.getMegabytes();
+        counters.files += dataset.getFileCount();
+    }
+
+    @Benchmark
+    public void extractBackupFile(ThroughputCounters counters) {
+        if (!storageManager.extractBackupFile(restoreArchive, extractionDir)) {
+            throw new IllegalStateException("Archive was not extracted");
+        }
+        counters.megabytes += dataset.getMegabytes();
+        counters.files += dataset.getFileCount();
+    }
+}
@@ -0,0 +1,125 @@
+package uniba.system_package.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uniba.system_package.storage.TarEntry;
+import uniba.system_package.storage.TarOutputStream;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies one file into an uncompressed archive, comparing the ways file contents can get there:
+ * <ul>
+ *     <li>{@code legacy}: the loop archives were written with before, {@code InputStream.read}
+ *     into a 1 KB array;</li>
+ *     <li>{@code stream}: {@link TarOutputStream} writing to a stream (FileChannel reads into a
+ *     direct buffer, memory mapped for large files), as with a compressing codec;</li>
+ *     <li>{@code channel}: {@link TarOutputStream} writing to the archive file's channel
+ *     ({@code transferTo}, or mapped reads when a content hash is needed), as with codec "none".</li>
+ * </ul>
+ * The source file stays in the page cache, so this measures the CPU and system call cost of
+ * the copy rather than the disk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchiveCopyBenchmark {
+    private static final int MB = 1024 * 1024;
+
+    @Param({"1", "16", "256"})
+    public int fileSizeMb;
+
+    @Param({"legacy", "stream", "channel"})
+    public String copyPath;
+
+    // Server backups also compute the SHA-256 of every file for the file-state index
+    @Param({"false", "true"})
+    public boolean contentHash;
+
+    private Path directory;
+    private Path source;
+    private Path archive;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        directory = Files.createTempDirectory("archive-copy-benchmark");
+        source = directory.resolve("data.bin");
+        archive = directory.resolve("archive.tar");
+        byte[] buffer = new byte[MB];
+        Random random = new Random(42);
+        try (OutputStream out = Files.newOutputStream(source)) {
+            for (int i = 0; i < fileSizeMb; i++) {
+                random.nextBytes(buffer);
+                out.write(buffer);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(archive);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void copyFile(ThroughputCounters counters) throws IOException {
+        MessageDigest digest = contentHash ? newSha256() : null;
+        try (FileOutputStream out = new FileOutputStream(archive.toFile())) {
+            if (copyPath.equals("legacy")) {
+                legacyCopy(out, digest);
+            } else {
+                TarOutputStream tarOut = new TarOutputStream(out, copyPath.equals("channel") ? out.getChannel() : null);
+                tarOut.putFile(source, TarEntry.forPath(source, "data.bin"), false, digest);
+                tarOut.finish();
+            }
+        }
+        counters.megabytes += fileSizeMb;
+        counters.files++;
+    }
+
+    private void legacyCopy(OutputStream out, MessageDigest digest) throws IOException {
+        try (InputStream in = new FileInputStream(source.toFile())) {
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                if (digest != null) {
+                    digest.update(buffer, 0, length);
+                }
+                out.write(buffer, 0, length);
+            }
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package uniba.system_package.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uniba.system_package.backup.BackupCatalog;
+import uniba.system_package.backup.BackupManager;
+import uniba.system_package.backup.BackupMetadata;
+import uniba.system_package.scheduler.Scheduler;
+import uniba.system_package.storage.StorageManager;
+import uniba.system_package.utils.ConfigurationManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lists a directory of backup archives, as retention does ({@link StorageManager#listBackupFiles})
+ * and as filling a new catalog does ({@link BackupManager#getAllBackups(Path)}), which also parses
+ * every file name, and answers the same questions from a {@link BackupCatalog} holding the backups:
+ * loading it, listing everything, the latest backup per target and a time range of one target.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BackupListingBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int backupCount;
+
+    private Path directory;
+    private Path configFile;
+    private StorageManager storageManager;
+    private Scheduler scheduler;
+    private BackupManager backupManager;
+    private Path catalogFile;
+    private BackupCatalog catalog;
+    private long rangeStart;
+
+    @Setup(Level.Trial)
+    public void createBackups() throws IOException {
+        directory = Files.createTempDirectory("listing-benchmark");
+        SyntheticDataset.createBackups(directory, backupCount);
+        storageManager = new StorageManager();
+
+        // The BackupManager needs a configuration; the bundled one will do
+        configFile = Files.createTempFile("config", ".yaml");
+        try (InputStream config = BackupManager.class.getClassLoader().getResourceAsStream("config.yaml")) {
+            Files.copy(config, configFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        ConfigurationManager configurationManager = new ConfigurationManager();
+        configurationManager.loadConfiguration(configFile.toString());
+        scheduler = new Scheduler();
+        backupManager = new BackupManager(configurationManager, storageManager, scheduler);
+
+        catalogFile = directory.resolveSibling(directory.getFileName() + ".catalog");
+        List<BackupMetadata> backups = backupManager.getAllBackups(directory);
+        BackupCatalog.open(catalogFile).addAll(backups);
+        catalog = BackupCatalog.open(catalogFile);
+        rangeStart = backups.get(backups.size() / 2).getStartTime();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteBackups() throws IOException {
+        scheduler.stop();
+        Files.deleteIfExists(configFile);
+        Files.deleteIfExists(catalogFile);
+        SyntheticDataset.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public List<String> listBackupFiles(ThroughputCounters counters) {
+        List<String> backups = storageManager.listBackupFiles(directory.toString());
+        counters.files += backups.size();
+        return backups;
+    }
+
+    @Benchmark
+    public List<BackupMetadata> getAllBackups(ThroughputCounters counters) {
+        List<BackupMetadata> backups = backupManager.getAllBackups(directory);
+        counters.files += backups.size();
+        return backups;
+    }
+
+    @Benchmark
+    public BackupCatalog openCatalog(ThroughputCounters counters) {
+        BackupCatalog loaded = BackupCatalog.open(catalogFile);
+        counters.files += loaded.size();
+        return loaded;
+    }
+
+    @Benchmark
+    public List<BackupMetadata> catalogList(ThroughputCounters counters) {
+        List<BackupMetadata> backups = catalog.list();
+        counters.files += backups.size();
+        return backups;
+    }
+
+    @Benchmark
+    public Map<String, BackupMetadata> catalogLatestPerTarget() {
+        return catalog.latestPerTarget();
+    }
+
+    /**
+     * One day of backups of one target.
+     */
+    @Benchmark
+    public List<BackupMetadata> catalogTimeRange(ThroughputCounters counters) {
+        List<BackupMetadata> backups = catalog.list("Target3", null, rangeStart, rangeStart + 86_400_000L);
+        counters.files += backups.size();
+        return backups;
+    }
+}
@@ -0,0 +1,176 @@
+package uniba.system_package.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uniba.system_package.storage.ErasureCodedStorage;
+import uniba.system_package.storage.FanOutOutputStream;
+import uniba.system_package.storage.LocalStorageBackend;
+import uniba.system_package.storage.ReedSolomon;
+import uniba.system_package.storage.StorageBackend;
+import uniba.system_package.storage.SuccessPolicy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares full replicas with erasure coding for storing one archive on three destinations
+ * (local directories, so this measures CPU and copying rather than a network):
+ * <ul>
+ *     <li>{@code replicate-3}: three copies through a {@link FanOutOutputStream} (3x the size stored);</li>
+ *     <li>{@code erasure-k+m}: Reed-Solomon shards through {@link ErasureCodedStorage}
+ *     (1.5x stored). Like the replicas, each of these layouts survives the loss of any one
+ *     destination.</li>
+ * </ul>
+ * {@code encode} is the coding step alone on one stripe held in memory (copying the data into
+ * the replicas, or computing the parity), {@code store} writes the archive to the destinations,
+ * {@code restore} reads it back, and {@code restoreDegraded} reads it back with the first
+ * destination lost, which makes erasure coding rebuild data from parity. The bytes stored per
+ * layout are printed once per trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedundancyBenchmark {
+    private static final int MB = 1024 * 1024;
+    private static final int DESTINATIONS = 3;
+
+    @Param({"replicate-3", "erasure-2+1", "erasure-4+2", "erasure-6+3"})
+    public String layout;
+
+    @Param({"256"})
+    public int fileSizeMb;
+
+    private Path directory;
+    private Path source;
+    private List<StorageBackend> destinations;
+    private ErasureCodedStorage erasureCoding; // Null for replicas
+    private ReedSolomon codec;
+    private byte[][] stripe;
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        directory = Files.createTempDirectory("redundancy-benchmark");
+        source = directory.resolve("data.bin");
+        byte[] buffer = new byte[MB];
+        Random random = new Random(42);
+        try (OutputStream out = Files.newOutputStream(source)) {
+            for (int i = 0; i < fileSizeMb; i++) {
+                random.nextBytes(buffer);
+                out.write(buffer);
+            }
+        }
+
+        destinations = new ArrayList<>();
+        for (int i = 0; i < DESTINATIONS; i++) {
+            destinations.add(new LocalStorageBackend("destination" + i, directory.resolve("destination" + i), 1));
+        }
+        if (layout.startsWith("erasure-")) {
+            String[] shards = layout.substring("erasure-".length()).split("\\+");
+            erasureCoding = new ErasureCodedStorage(Integer.parseInt(shards[0]), Integer.parseInt(shards[1]),
+                    SuccessPolicy.ALL, 64L * MB);
+            codec = erasureCoding.getCodec();
+        }
+        stripe = new byte[codec != null ? codec.getTotalShards() : DESTINATIONS][ErasureCodedStorage.BLOCK_SIZE];
+        for (int i = 0; i < (codec != null ? codec.getDataShards() : 1); i++) {
+            random.nextBytes(stripe[i]);
+        }
+
+        store("restore.bin");
+        long stored = 0;
+        for (int i = 0; i < DESTINATIONS; i++) {
+            try (Stream<Path> files = Files.list(directory.resolve("destination" + i))) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    stored += Files.size(file);
+                }
+            }
+        }
+        System.out.printf("%n%s stores %.1f MB for %d MB of data%n", layout, stored / (double) MB, fileSizeMb);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        for (StorageBackend destination : destinations) {
+            destination.close();
+        }
+        if (erasureCoding != null) {
+            erasureCoding.close();
+        }
+        SyntheticDataset.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public void encode(ThroughputCounters counters) {
+        if (codec != null) {
+            codec.encodeParity(stripe, 0, stripe[0].length);
+            counters.megabytes += codec.getDataShards() * (double) stripe[0].length / MB;
+        } else {
+            for (int copy = 1; copy < stripe.length; copy++) {
+                System.arraycopy(stripe[0], 0, stripe[copy], 0, stripe[0].length);
+            }
+            counters.megabytes += stripe[0].length / (double) MB;
+        }
+    }
+
+    @Benchmark
+    public void store(ThroughputCounters counters) throws IOException {
+        store("store.bin");
+        counters.megabytes += fileSizeMb;
+        counters.files++;
+    }
+
+    @Benchmark
+    public long restore(ThroughputCounters counters) throws IOException {
+        return restore(destinations, counters);
+    }
+
+    @Benchmark
+    public long restoreDegraded(ThroughputCounters counters) throws IOException {
+        return restore(destinations.subList(1, DESTINATIONS), counters);
+    }
+
+    private void store(String name) throws IOException {
+        OutputStream out = erasureCoding != null ? erasureCoding.open(name, destinations)
+                : new FanOutOutputStream(name, destinations, 64L * MB);
+        try (InputStream in = Files.newInputStream(source)) {
+            in.transferTo(out);
+        }
+        out.close();
+    }
+
+    private long restore(List<StorageBackend> available, ThroughputCounters counters) throws IOException {
+        long length = 0;
+        try (InputStream in = erasureCoding != null ? erasureCoding.openInput("restore.bin", available)
+                : available.get(0).openInput("restore.bin", 0)) {
+            byte[] buffer = new byte[MB];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                length += read;
+            }
+        }
+        counters.megabytes += fileSizeMb;
+        counters.files++;
+        return length;
+    }
+}
@@ -0,0 +1,112 @@
+package uniba.system_package.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uniba.system_package.backup.BackupMetadata;
+import uniba.system_package.backup.RetentionEngine;
+import uniba.system_package.storage.RetentionPolicy;
+import uniba.system_package.storage.StorageManager;
+import uniba.system_package.utils.ConfigurationManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies a retention limit to a directory of backup archives, with
+ * {@link StorageManager#deleteOldBackups} (sorts by name),
+ * {@link RetentionPolicy#deleteOldBackups} (sorts by modification time) and a
+ * {@link RetentionEngine} planning per target from metadata and deleting on several threads.
+ * The archives are created again before every invocation, outside of the measured time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RetentionBenchmark {
+    @Param({"100", "10000"})
+    public int backupCount;
+
+    @Param({"10"})
+    public int backupsToKeep;
+
+    private Path directory;
+    private List<String> backups;
+    private List<BackupMetadata> metadata;
+    private RetentionEngine retentionEngine;
+    private final StorageManager storageManager = new StorageManager();
+    private final RetentionPolicy retentionPolicy = new RetentionPolicy();
+
+    @Setup(Level.Trial)
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("retention-benchmark");
+        ConfigurationManager.Config.RetentionPolicy policy = new ConfigurationManager.Config.RetentionPolicy();
+        policy.setFullBackupsToKeep(1);
+        policy.setIncrementalBackupsToKeep(backupsToKeep);
+        retentionEngine = new RetentionEngine(policy);
+    }
+
+    @Setup(Level.Invocation)
+    public void createBackups() throws IOException {
+        SyntheticDataset.deleteRecursively(directory);
+        backups = SyntheticDataset.createBackups(directory, backupCount);
+        metadata = new ArrayList<>();
+        for (String backup : backups) {
+            BackupMetadata parsed = BackupMetadata.fromBackupName(Paths.get(backup).getFileName().toString());
+            parsed.setLocation(backup);
+            metadata.add(parsed);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDirectory() throws IOException {
+        SyntheticDataset.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public void storageManagerDeleteOldBackups(ThroughputCounters counters) {
+        storageManager.deleteOldBackups(backups, backupsToKeep);
+        counters.files += Math.max(0, backupCount - backupsToKeep);
+    }
+
+    /**
+     * Keeps the last full and {@code backupsToKeep} incremental backups of each of the ten
+     * targets, with their chains.
+     */
+    @Benchmark
+    public void retentionEngine(ThroughputCounters counters) {
+        RetentionEngine.Plan plan = retentionEngine.plan(metadata);
+        List<BackupMetadata> deleted = retentionEngine.execute(plan, backup -> {
+            try {
+                Files.deleteIfExists(Paths.get(backup.getLocation()));
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }, batch -> { });
+        counters.files += deleted.size();
+    }
+
+    @Benchmark
+    public void retentionPolicyDeleteOldBackups(ThroughputCounters counters) {
+        retentionPolicy.deleteOldBackups(backups, backupsToKeep);
+        counters.files += Math.max(0, backupCount - backupsToKeep);
+    }
+}
@@ -0,0 +1,161 @@
+package uniba.system_package.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * A generated directory of files to back up. Its shape is either a preset, "manySmall"
+ * (20000 files of 4 KB) or "fewHuge" (4 files of 128 MB), or "&lt;count&gt;x&lt;size&gt;" with
+ * an optional k, m or g suffix, e.g. "1000x64k". Files are spread over directories of 100
+ * and hold text-like data that compresses roughly like logs or source code.
+ */
+public final class SyntheticDataset {
+    private static final int FILES_PER_DIRECTORY = 100;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final Path root;
+    private final List<String> files;
+    private final long totalBytes;
+
+    private SyntheticDataset(Path root, List<String> files, long totalBytes) {
+        this.root = root;
+        this.files = files;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Creates the files of a dataset below {@code root}. The content only depends on the shape.
+     */
+    public static SyntheticDataset create(Path root, String shape) throws IOException {
+        String spec = switch (shape) {
+            case "manySmall" -> "20000x4k";
+            case "fewHuge" -> "4x128m";
+            default -> shape;
+        };
+        String[] parts = spec.toLowerCase(Locale.ROOT).split("x");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid dataset shape: " + shape);
+        }
+        int fileCount = Integer.parseInt(parts[0]);
+        long fileSize = parseSize(parts[1]);
+
+        Random random = new Random(42);
+        String[] words = vocabulary(random);
+        byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, Math.max(fileSize, 1))];
+        List<String> files = new ArrayList<>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            Path directory = root.resolve("dir" + (i / FILES_PER_DIRECTORY));
+            Files.createDirectories(directory);
+            Path file = directory.resolve("file" + i + ".txt");
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (long written = 0; written < fileSize; written += chunk.length) {
+                    fillWithText(chunk, words, random);
+                    out.write(chunk, 0, (int) Math.min(chunk.length, fileSize - written));
+                }
+            }
+            files.add(file.toString());
+        }
+        return new SyntheticDataset(root, files, (long) fileCount * fileSize);
+    }
+
+    private static long parseSize(String size) {
+        char unit = size.charAt(size.length() - 1);
+        long factor = switch (unit) {
+            case 'k' -> 1024L;
+            case 'm' -> 1024L * 1024;
+            case 'g' -> 1024L * 1024 * 1024;
+            default -> 1L;
+        };
+        return Long.parseLong(factor == 1 ? size : size.substring(0, size.length() - 1)) * factor;
+    }
+
+    private static String[] vocabulary(Random random) {
+        String[] words = new String[4096];
+        for (int i = 0; i < words.length; i++) {
+            char[] word = new char[3 + random.nextInt(8)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            words[i] = new String(word);
+        }
+        return words;
+    }
+
+    // Random words, separated by spaces and now and then by line breaks
+    private static void fillWithText(byte[] buffer, String[] words, Random random) {
+        int position = 0;
+        while (position < buffer.length) {
+            byte[] word = words[random.nextInt(words.length)].getBytes(StandardCharsets.US_ASCII);
+            int length = Math.min(word.length, buffer.length - position);
+            System.arraycopy(word, 0, buffer, position, length);
+            position += length;
+            if (position < buffer.length) {
+                buffer[position++] = (byte) (random.nextInt(12) == 0 ? '\n' : ' ');
+            }
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public List<String> getFiles() {
+        return files;
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    public double getMegabytes() {
+        return totalBytes / (1024.0 * 1024.0);
+    }
+
+    /**
+     * Creates empty backup archives named like the backup system names them, for ten targets,
+     * one hour apart and with matching modification times, the oldest first.
+     *
+     * @return The paths of the archives.
+     */
+    public static List<String> createBackups(Path directory, int count) throws IOException {
+        Files.createDirectories(directory);
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        long startMillis = System.currentTimeMillis() - count * 3_600_000L;
+        List<String> backups = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String type = i % 7 == 0 ? "full" : "incremental";
+            String name = "backup_Target" + (i % 10) + "_" + type + "_" + start.plusHours(i).format(formatter) + ".tar.gz";
+            Path backup = Files.createFile(directory.resolve(name));
+            Files.setLastModifiedTime(backup, FileTime.fromMillis(startMillis + i * 3_600_000L));
+            backups.add(backup.toString());
+        }
+        return backups;
+    }
+
+    /**
+     * Deletes a directory with everything in it.
+     */
+    public static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package uniba.system_package;
 
 import uniba.system_package.backup.BackupManager;
-import uniba.system_package.backup.BackupMetadata;
 import uniba.system_package.cli.CLI;
 import uniba.system_package.scheduler.Scheduler;
 import uniba.system_package.storage.StorageManager;
@@ -10,8 +9,6 @@ import uniba.system_package.utils.ConfigurationManager;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
 
 
 
@@ -53,11 +50,8 @@ public class Main {
         StorageManager storageManager = new StorageManager();
         Scheduler scheduler = new Scheduler();
 
-        // Step 3: Initialize Backup Metadata Map
-        Map<String, BackupMetadata> backupMetadataMap = new HashMap<>();
-
-        // Step 4: Initialize BackupManager
-        BackupManager backupManager = new BackupManager(configurationManager, storageManager, scheduler, backupMetadataMap);
+        // Step 3: Initialize BackupManager (loads the backup catalog)
+        BackupManager backupManager = new BackupManager(configurationManager, storageManager, scheduler);
 
         // Start scheduled backups
         try {
@@ -68,7 +62,7 @@ public class Main {
             e.printStackTrace();
         }
 
-        // Step 5: Initialize and Start the CLI
+        // Step 4: Initialize and Start the CLI
         CLI cli = new CLI(backupManager, configurationManager);
         try {
             System.out.println("Starting CLI...");
@@ -78,7 +72,7 @@ public class Main {
             e.printStackTrace();
         }
 
-        // Step 6: Graceful Shutdown
+        // Step 5: Graceful Shutdown
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down backup system...");
             try {
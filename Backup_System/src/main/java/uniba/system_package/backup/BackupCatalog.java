@@ -0,0 +1,435 @@
+package uniba.system_package.backup;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers every stored backup, so listing them, the status and retention do not have to
+ * list the backup directory and parse file names. The catalog is a log: every added or
+ * removed backup is appended to one file as a checksummed record, and the file is only
+ * rewritten when most of its records are outdated. On startup it is read into memory and
+ * indexed by target, type and start time.
+ * <p>
+ * A record cut short by a crash during an append is dropped when the catalog is loaded.
+ */
+public class BackupCatalog {
+    private static final Logger logger = LogManager.getLogger(BackupCatalog.class);
+
+    public static final String CATALOG_PATH = "/backups/catalog";
+
+    private static final int MAGIC = 0x424b4354; // "BKCT"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final int MIN_RECORDS_TO_COMPACT = 1024;
+
+    private static final Comparator<BackupMetadata> BY_TIME =
+            Comparator.comparingLong(BackupMetadata::getStartTime).thenComparing(BackupMetadata::getBackupId);
+
+    private final Path catalogFile;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, BackupMetadata> byId = new HashMap<>();
+    private final NavigableSet<BackupMetadata> byTime = new TreeSet<>(BY_TIME);
+    private final Map<String, NavigableSet<BackupMetadata>> byTarget = new HashMap<>();
+    private final Map<String, NavigableSet<BackupMetadata>> byTargetAndType = new HashMap<>();
+    private final Map<String, String> names = new HashMap<>(); // One instance of every target name, type and status
+    private long records; // Records in the file, including those of replaced and removed backups
+    private boolean created;
+
+    private BackupCatalog(Path catalogFile) {
+        this.catalogFile = catalogFile;
+    }
+
+    /**
+     * Loads the catalog. A missing or unreadable catalog yields an empty one, which
+     * {@link #isCreated()} reports so the caller can fill it from the stored backups.
+     */
+    public static BackupCatalog open(Path catalogFile) {
+        BackupCatalog catalog = new BackupCatalog(catalogFile);
+        long validLength = HEADER_LENGTH;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(catalogFile)))) {
+            if (Files.size(catalogFile) < HEADER_LENGTH || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unknown catalog format");
+            }
+            byte[] payload;
+            while ((payload = readRecord(in)) != null) {
+                catalog.apply(payload);
+                catalog.records++;
+                validLength += 4 + payload.length + 4;
+            }
+        } catch (NoSuchFileException e) {
+            logger.info("No backup catalog at {}; starting a new one.", catalogFile);
+            catalog.created = true;
+            return catalog;
+        } catch (IOException e) {
+            logger.warn("Backup catalog {} is unreadable ({}); starting a new one.", catalogFile, e.getMessage());
+            catalog.clear();
+            catalog.created = true;
+            try {
+                Files.move(catalogFile, catalogFile.resolveSibling(catalogFile.getFileName() + ".unreadable"),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException moveFailure) {
+                logger.error("Cannot move the unreadable catalog {} aside: {}", catalogFile, moveFailure.getMessage());
+            }
+            return catalog;
+        }
+
+        try (FileChannel channel = FileChannel.open(catalogFile, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                logger.warn("Dropping {} bytes of an incomplete record at the end of the backup catalog {}.",
+                        channel.size() - validLength, catalogFile);
+                channel.truncate(validLength);
+            }
+        } catch (IOException e) {
+            logger.error("Cannot truncate the backup catalog {}: {}", catalogFile, e.getMessage());
+        }
+        logger.info("Loaded {} backups from the catalog {}.", catalog.byId.size(), catalogFile);
+        return catalog;
+    }
+
+    /**
+     * Reads one record.
+     *
+     * @return Its payload, or null at the end of the file and at an incomplete or damaged record.
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > 1024 * 1024) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return in.readInt() == (int) crc.getValue() ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether the catalog did not exist (or could not be read) and was started empty.
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    /**
+     * Records stored backups. The ID of a backup identifies it in the catalog; adding one
+     * with a known ID replaces the earlier entry.
+     */
+    public void addAll(Collection<BackupMetadata> backups) throws IOException {
+        if (backups.isEmpty()) {
+            return;
+        }
+        List<byte[]> payloads = new ArrayList<>();
+        for (BackupMetadata backup : backups) {
+            payloads.add(encodeAdd(backup));
+        }
+        update(payloads);
+    }
+
+    public void add(BackupMetadata backup) throws IOException {
+        addAll(List.of(backup));
+    }
+
+    /**
+     * Forgets backups that were deleted. Unknown IDs are ignored.
+     */
+    public void removeAll(Collection<String> backupIds) throws IOException {
+        List<byte[]> payloads = new ArrayList<>();
+        for (String backupId : backupIds) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeByte(REMOVE);
+            out.writeUTF(backupId);
+            payloads.add(buffer.toByteArray());
+        }
+        if (!payloads.isEmpty()) {
+            update(payloads);
+        }
+    }
+
+    public void remove(String backupId) throws IOException {
+        removeAll(List.of(backupId));
+    }
+
+    private void update(List<byte[]> payloads) throws IOException {
+        lock.writeLock().lock();
+        try {
+            append(payloads);
+            for (byte[] payload : payloads) {
+                apply(payload);
+            }
+            records += payloads.size();
+            if (records >= MIN_RECORDS_TO_COMPACT && records > 2L * byId.size()) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(List<byte[]> payloads) throws IOException {
+        Files.createDirectories(catalogFile.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(catalogFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            if (channel.size() == 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            writeRecords(out, payloads);
+            ByteBuffer data = ByteBuffer.wrap(buffer.toByteArray());
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Rewrites the catalog with one record per stored backup.
+     */
+    private void compact() throws IOException {
+        Path tempFile = Files.createTempFile(catalogFile.toAbsolutePath().getParent(), catalogFile.getFileName().toString(), ".tmp");
+        try {
+            List<byte[]> payloads = new ArrayList<>();
+            for (BackupMetadata backup : byTime) {
+                payloads.add(encodeAdd(backup));
+            }
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(buffer);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeRecords(out, payloads);
+                ByteBuffer data = ByteBuffer.wrap(buffer.toByteArray());
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(false);
+            }
+            Files.move(tempFile, catalogFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Compacted the backup catalog from {} to {} records.", records, payloads.size());
+            records = payloads.size();
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static void writeRecords(DataOutputStream out, List<byte[]> payloads) throws IOException {
+        for (byte[] payload : payloads) {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeInt((int) crc.getValue());
+        }
+    }
+
+    private static byte[] encodeAdd(BackupMetadata backup) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(ADD);
+        out.writeUTF(backup.getBackupId());
+        out.writeUTF(backup.getTargetName());
+        out.writeUTF(backup.getBackupType());
+        out.writeUTF(backup.getStatus() != null ? backup.getStatus() : "");
+        out.writeUTF(backup.getLocation() != null ? backup.getLocation() : "");
+        out.writeLong(backup.getBackupSize());
+        out.writeLong(backup.getStartTime());
+        out.writeLong(backup.getEndTime());
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Applies a record to the in-memory indexes.
+     */
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte kind = in.readByte();
+        String backupId = in.readUTF();
+        BackupMetadata previous = byId.remove(backupId);
+        if (previous != null) {
+            unindex(previous);
+        }
+        if (kind == REMOVE) {
+            return;
+        }
+        if (kind != ADD) {
+            throw new IOException("unknown record type " + kind);
+        }
+        BackupMetadata backup = new BackupMetadata();
+        backup.setBackupId(backupId);
+        backup.setTargetName(intern(in.readUTF()));
+        backup.setBackupType(intern(in.readUTF()));
+        String status = intern(in.readUTF());
+        backup.setStatus(status.isEmpty() ? null : status);
+        String location = in.readUTF();
+        backup.setLocation(location.isEmpty() ? null : location);
+        backup.setBackupSize(in.readLong());
+        backup.setStartTime(in.readLong());
+        backup.setEndTime(in.readLong());
+
+        byId.put(backupId, backup);
+        byTime.add(backup);
+        byTarget.computeIfAbsent(backup.getTargetName(), key -> new TreeSet<>(BY_TIME)).add(backup);
+        byTargetAndType.computeIfAbsent(key(backup.getTargetName(), backup.getBackupType()), key -> new TreeSet<>(BY_TIME)).add(backup);
+    }
+
+    private String intern(String name) {
+        String known = names.putIfAbsent(name, name);
+        return known != null ? known : name;
+    }
+
+    private void unindex(BackupMetadata backup) {
+        byTime.remove(backup);
+        removeFrom(byTarget, backup.getTargetName(), backup);
+        removeFrom(byTargetAndType, key(backup.getTargetName(), backup.getBackupType()), backup);
+    }
+
+    private static void removeFrom(Map<String, NavigableSet<BackupMetadata>> index, String key, BackupMetadata backup) {
+        NavigableSet<BackupMetadata> backups = index.get(key);
+        if (backups != null && backups.remove(backup) && backups.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private void clear() {
+        byId.clear();
+        byTime.clear();
+        byTarget.clear();
+        byTargetAndType.clear();
+        records = 0;
+    }
+
+    private static String key(String targetName, String backupType) {
+        return targetName + '\0' + backupType.toLowerCase();
+    }
+
+    public BackupMetadata get(String backupId) {
+        lock.readLock().lock();
+        try {
+            return byId.get(backupId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * All backups, oldest first.
+     */
+    public List<BackupMetadata> list() {
+        return list(null, null, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * The backups matching a query, oldest first.
+     *
+     * @param targetName Only backups of this target, or null for all targets.
+     * @param backupType Only backups of this type ("full" or "incremental"), or null for all types.
+     * @param from       Earliest start time in milliseconds, inclusive.
+     * @param to         Latest start time in milliseconds, inclusive.
+     */
+    public List<BackupMetadata> list(String targetName, String backupType, long from, long to) {
+        lock.readLock().lock();
+        try {
+            NavigableSet<BackupMetadata> backups = select(targetName, backupType);
+            if (backups == null || from > to) {
+                return new ArrayList<>();
+            }
+            List<BackupMetadata> result = new ArrayList<>();
+            for (BackupMetadata backup : backups.subSet(probe(from, ""), true, probe(to, "\uffff"), true)) {
+                if (targetName != null || backupType == null || backupType.equalsIgnoreCase(backup.getBackupType())) {
+                    result.add(backup);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The latest backup of a target.
+     *
+     * @param backupType Only backups of this type, or null for any type.
+     * @return The backup, or null if the target has none.
+     */
+    public BackupMetadata latest(String targetName, String backupType) {
+        lock.readLock().lock();
+        try {
+            NavigableSet<BackupMetadata> backups = select(targetName, backupType);
+            return backups != null && !backups.isEmpty() ? backups.last() : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The latest backup of every target that has one, by target name.
+     */
+    public Map<String, BackupMetadata> latestPerTarget() {
+        lock.readLock().lock();
+        try {
+            Map<String, BackupMetadata> latest = new TreeMap<>();
+            byTarget.forEach((target, backups) -> latest.put(target, backups.last()));
+            return latest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private NavigableSet<BackupMetadata> select(String targetName, String backupType) {
+        if (targetName == null) {
+            return byTime;
+        }
+        return backupType == null ? byTarget.get(targetName) : byTargetAndType.get(key(targetName, backupType));
+    }
+
+    private static BackupMetadata probe(long startTime, String backupId) {
+        BackupMetadata probe = new BackupMetadata();
+        probe.setBackupId(backupId);
+        probe.setStartTime(startTime);
+        return probe;
+    }
+}
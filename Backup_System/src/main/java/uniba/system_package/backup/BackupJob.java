@@ -3,29 +3,86 @@ package uniba.system_package.backup;
 import uniba.system_package.utils.LogManager;
 import org.slf4j.Logger;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.locks.Lock;
+
 public class BackupJob {
     private static final Logger logger = LogManager.getLogger(BackupJob.class);
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
 
     private BackupTarget target;
     private String backupType; // "full" or "incremental"
     private BackupMetadata metadata;
+    private BackupCatalog catalog; // Null: the backup is not recorded
+    private Lock backupLock; // Held while the backup runs and is recorded; null: not locked
+    private long cpuTimeNanos; // CPU time spent by the thread that executed the job
 
     public BackupJob(BackupTarget target, String backupType) {
+        this(target, backupType, null);
+    }
+
+    /**
+     * @param catalog Catalog that records the backup once it is stored, or null.
+     */
+    public BackupJob(BackupTarget target, String backupType, BackupCatalog catalog) {
+        this(target, backupType, catalog, null);
+    }
+
+    /**
+     * @param catalog    Catalog that records the backup once it is stored, or null.
+     * @param backupLock Lock of the target, see {@link TargetRegistry#getBackupLock}, or null.
+     */
+    public BackupJob(BackupTarget target, String backupType, BackupCatalog catalog, Lock backupLock) {
         this.target = target;
         this.backupType = backupType;
         this.metadata = new BackupMetadata(target.getName(), backupType);
+        this.catalog = catalog;
+        this.backupLock = backupLock;
     }
 
     public void run(BackupManager backupManager) {
+        execute();
+        logMetadata(backupManager);
+    }
+
+    /**
+     * Performs the backup without sending the result notification, so callers
+     * running several jobs can decide when (and in which order) to notify.
+     * A successful backup gets the name of its archive as ID and is added to the catalog.
+     * While another backup of the same target runs, the job waits for it.
+     *
+     * @return The metadata of the finished job.
+     */
+    public BackupMetadata execute() {
+        if (backupLock == null) {
+            return executeLocked();
+        }
+        if (!backupLock.tryLock()) {
+            logger.info("Another backup of target '{}' is running; the {} backup waits for it.", target.getName(), backupType);
+            backupLock.lock();
+        }
+        try {
+            return executeLocked();
+        } finally {
+            backupLock.unlock();
+        }
+    }
+
+    private BackupMetadata executeLocked() {
         logger.info("Starting {} backup job for target: {}", backupType, target.getName());
         metadata.setStartTime(System.currentTimeMillis());
+        long cpuStart = currentThreadCpuTime();
 
+        BackupResult result = BackupResult.failure();
         try {
-            boolean success = target.performBackup();
-            if (success) {
+            result = target.performBackup(backupType);
+            if (result.isSuccess()) {
                 metadata.setStatus("success");
-                metadata.setLocation("/backups/" + target.getName() + "_" + backupType + ".tar.gz");
-                metadata.setBackupSize(1024 * 1024 * 10); // Simulate 10MB size
+                metadata.setBackupId(result.getBackupId());
+                metadata.setLocation(result.getLocation());
+                metadata.setBackupSize(result.getSize());
             } else {
                 metadata.setStatus("failure");
             }
@@ -34,19 +91,64 @@ public class BackupJob {
             logger.error("Backup failed for target: {}", target.getName(), e);
         } finally {
             metadata.setEndTime(System.currentTimeMillis());
+            cpuTimeNanos += currentThreadCpuTime() - cpuStart;
         }
 
-        logMetadata(backupManager);
-    }
+        if ("success".equals(metadata.getStatus())) {
+            record(result);
+        }
 
-    private void logMetadata(BackupManager backupManager) {
         logger.info("Backup completed. Metadata: {}", metadata);
+        return metadata;
+    }
+
+    /**
+     * Adds a stored backup to the catalog and then saves its file-state index. If the backup
+     * cannot be catalogued, the index is not saved, so the next incremental backup contains
+     * its changes again.
+     */
+    private void record(BackupResult result) {
+        try {
+            if (catalog != null) {
+                catalog.add(metadata);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to add backup {} to the catalog: {}", metadata.getBackupId(), e.getMessage(), e);
+            return;
+        }
+        try {
+            result.commit();
+        } catch (IOException e) {
+            logger.error("Failed to save the file-state index after backup {}: {}", metadata.getBackupId(), e.getMessage(), e);
+        }
+    }
 
+    private void logMetadata(BackupManager backupManager) {
         // Notify via BackupManager
         backupManager.notifyBackupResult(metadata);
     }
 
+    /**
+     * Adds CPU time spent on work that belongs to this job but ran outside
+     * {@link #execute()}, e.g. the remote upload.
+     */
+    void addCpuTime(long nanos) {
+        this.cpuTimeNanos += nanos;
+    }
+
+    static long currentThreadCpuTime() {
+        return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : 0L;
+    }
+
+    public long getCpuTimeNanos() {
+        return cpuTimeNanos;
+    }
+
+    public BackupTarget getTarget() {
+        return target;
+    }
+
     public BackupMetadata getMetadata() {
         return metadata;
     }
-}
\ No newline at end of file
+}
@@ -5,8 +5,22 @@ import org.quartz.SchedulerException;
 import org.slf4j.Logger;
 import uniba.system_package.notification.NotificationManager;
 import uniba.system_package.scheduler.Scheduler;
-import uniba.system_package.storage.RetentionPolicy;
+import uniba.system_package.storage.ArchiveSource;
+import uniba.system_package.storage.BandwidthGovernor;
+import uniba.system_package.storage.ReadGovernor;
+import uniba.system_package.storage.ChunkStore;
+import uniba.system_package.storage.CompressionCodec;
+import uniba.system_package.storage.DirectoryScanner;
+import uniba.system_package.storage.ErasureCodedStorage;
+import uniba.system_package.storage.FanOutUploader;
+import uniba.system_package.storage.LocalStorageBackend;
+import uniba.system_package.storage.SegmentedSftpUploader;
+import uniba.system_package.storage.SftpSessionPool;
+import uniba.system_package.storage.SftpStorageBackend;
+import uniba.system_package.storage.StorageBackend;
+import uniba.system_package.storage.StorageListingCache;
 import uniba.system_package.storage.StorageManager;
+import uniba.system_package.storage.SuccessPolicy;
 import uniba.system_package.utils.ConfigurationManager;
 import uniba.system_package.utils.LogManager;
 
@@ -18,29 +32,62 @@ import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class BackupManager {
     private static final Logger logger = LogManager.getLogger(BackupManager.class);
 
     private final ConfigurationManager configurationManager;
     private final StorageManager storageManager;
-    private final RetentionPolicy retentionPolicy;
+    private final RetentionEngine retentionEngine;
     private final Scheduler scheduler;
     private final NotificationManager notificationManager;
-    private final Map<String, BackupMetadata> backupTargets;
-
-    public BackupManager(ConfigurationManager configurationManager, StorageManager storageManager, Scheduler scheduler, Map<String, BackupMetadata> backupTargets) {
+    private final BackupCatalog catalog; // Every stored backup, indexed by target, type and time
+    private final SftpSessionPool sessionPool; // SSH sessions shared by all uploads
+    private final BandwidthGovernor bandwidthGovernor; // Limits shared by all uploads
+    private final ReadGovernor readGovernor; // Read limits per device, shared by all targets
+    private final Map<String, StorageBackend> storageBackends; // By name, shared by all targets
+    private final StorageListingCache listings; // Recent listings of the storage backends
+    private final RemoteRetention remoteRetention; // Retention for the copies on the storage backends
+    private final FanOutUploader fanOutUploader; // Uploads each backup to all destinations of its target
+    private final ErasureCodedStorage erasureCoding; // Null: backups are copied whole to every destination
+    private final TargetRegistry targets; // Servers and databases, built once
+
+    public BackupManager(ConfigurationManager configurationManager, StorageManager storageManager, Scheduler scheduler) {
         this.configurationManager = configurationManager;
         this.storageManager = new StorageManager();
-        this.retentionPolicy = new RetentionPolicy();
+        this.retentionEngine = new RetentionEngine(configurationManager.getRetentionPolicy());
         this.scheduler = scheduler;
-        this.backupTargets = backupTargets;
+        this.catalog = openCatalog();
+
+        ConfigurationManager.Config.RemoteStorage remoteConfig = configurationManager.getRemoteStorage();
+        this.sessionPool = new SftpSessionPool(remoteConfig.getMaxSessions(), remoteConfig.getMaxChannelsPerSession(),
+                remoteConfig.getIdleTimeoutSeconds() * 1000L);
+        this.storageManager.setSessionPool(sessionPool);
+        this.bandwidthGovernor = new BandwidthGovernor(configurationManager.getBandwidth());
+        this.storageManager.setBandwidthGovernor(bandwidthGovernor);
+        this.readGovernor = new ReadGovernor(configurationManager.getReadThrottle());
+        this.storageManager.setReadGovernor(readGovernor);
+        this.storageManager.setRestoreThreads(configurationManager.getExecution().getRestoreThreads());
+        this.storageBackends = createStorageBackends();
+        this.listings = new StorageListingCache(remoteConfig.getListingCacheSeconds() * 1000L);
+        this.remoteRetention = new RemoteRetention(catalog, listings,
+                configurationManager.getRetentionPolicy().getDeleteThreads());
+        this.fanOutUploader = new FanOutUploader(SuccessPolicy.fromName(remoteConfig.getSuccessPolicy()),
+                remoteConfig.getFanOutBufferMb() * 1024L * 1024L);
+        this.erasureCoding = remoteConfig.isErasureCoded() ? createErasureCoding(remoteConfig) : null;
+        this.targets = createTargetRegistry();
 
         // Initialize NotificationManager
         ConfigurationManager.Config.Email emailConfig = configurationManager.getEmail();
@@ -61,6 +108,25 @@ public class BackupManager {
         }
     }
 
+    /**
+     * Loads the backup catalog. When there is none yet, it is filled once with the backups
+     * found in the backup directory and the chunk repository.
+     */
+    private BackupCatalog openCatalog() {
+        BackupCatalog catalog = BackupCatalog.open(Paths.get(BackupCatalog.CATALOG_PATH));
+        if (catalog.isCreated()) {
+            List<BackupMetadata> stored = new ArrayList<>(getAllBackups(Paths.get("/backups")));
+            stored.addAll(getAllBackups(Paths.get(StorageManager.REPOSITORY_PATH, "manifests")));
+            try {
+                catalog.addAll(stored);
+                logger.info("Added {} stored backups to the new catalog.", stored.size());
+            } catch (IOException e) {
+                logger.error("Failed to add the stored backups to the catalog: {}", e.getMessage(), e);
+            }
+        }
+        return catalog;
+    }
+
     /**
      * Configures and starts scheduled backups.
      */
@@ -79,6 +145,13 @@ public class BackupManager {
             scheduler.scheduleCronBackup("incremental",
                     () -> startBackup("incremental"), incrementalBackupCron);
 
+            // Schedule synthetic full backups, if configured
+            String syntheticFullBackupCron = configurationManager.getSchedule().getSyntheticFullBackup();
+            if (syntheticFullBackupCron != null && !syntheticFullBackupCron.isBlank()) {
+                scheduler.scheduleCronBackup("synthetic-full",
+                        this::startSyntheticFullBackups, syntheticFullBackupCron);
+            }
+
             logger.info("Scheduled full and incremental backups successfully.");
         } catch (Exception e) {
             logger.error("Error configuring scheduled backups: {}", e.getMessage(), e);
@@ -93,44 +166,269 @@ public class BackupManager {
     public void startBackup(String backupType) {
         logger.info("Starting {} backup process...", backupType);
 
-        List<BackupTarget> backupTargets = addBackupTargets();
+        List<BackupJob> jobs = new ArrayList<>();
+        for (BackupTarget target : targets.getEnabledTargets()) {
+            jobs.add(new BackupJob(target, backupType, catalog, targets.getBackupLock(target.getName())));
+        }
+        if (jobs.size() < targets.getTargets().size()) {
+            logger.info("Skipping {} disabled targets.", targets.getTargets().size() - jobs.size());
+        }
 
-        for (BackupTarget target : backupTargets) {
-            BackupJob job = new BackupJob(target, backupType);
-            job.run(this); // Pass BackupManager instance to run method
+        ConfigurationManager.Config.Execution execution = configurationManager.getExecution();
+        ParallelBackupExecutor executor = new ParallelBackupExecutor(
+                execution.getMaxConcurrentBackups(), execution.getMaxConcurrentBackupsPerHost());
+        List<CompletableFuture<Void>> uploads = Collections.synchronizedList(new ArrayList<>());
+        ParallelBackupExecutor.RunSummary summary = executor.execute(jobs, job -> uploads.add(uploadToStorageBackend(job)));
 
-            // Handle remote storage integration
-            BackupMetadata metadata = job.getMetadata();
-            if ("success".equals(metadata.getStatus())) {
-                ConfigurationManager.Config.RemoteStorage remoteConfig = configurationManager.getRemoteStorage();
-                String remotePath = remoteConfig.getRemotePath() + "/" + metadata.getTargetName() + "_" + backupType + ".tar.gz";
+        // Uploads run on the threads of the storage backends while the workers archive further targets
+        if (!uploads.isEmpty()) {
+            logger.info("Waiting for {} uploads to finish...", uploads.size());
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0])).join();
+        }
 
-                if (!storageManager.uploadToSFTP(metadata.getLocation(), remotePath,
-                        remoteConfig.getHost(), remoteConfig.getUser(), remoteConfig.getPassword())) {
-                    logger.error("Failed to store backup remotely for target: {}", metadata.getTargetName());
-                } else {
-                    logger.info("Backup for target {} successfully uploaded to remote location: {}", metadata.getTargetName(), remotePath);
-                }
-            }
+        // Notify in configuration order, independent of which job finished first
+        for (BackupJob job : summary.getJobs()) {
+            notifyBackupResult(job.getMetadata());
         }
 
         applyRetentionPolicies();
         logger.info("{} backup process completed.", backupType);
     }
 
+    /**
+     * Makes a synthetic full backup of every target, one after the other, and applies the
+     * retention policies afterwards.
+     */
+    public void startSyntheticFullBackups() {
+        logger.info("Starting synthetic full backup process...");
+        for (BackupTarget target : targets.getEnabledTargets()) {
+            createSyntheticFullBackup(target.getName());
+        }
+        applyRetentionPolicies();
+        logger.info("Synthetic full backup process completed.");
+    }
+
+    /**
+     * Makes a synthetic full backup of a target: its latest full backup and the incremental
+     * backups after it, read locally or from its destinations, are merged on this host into a
+     * new full archive, without reading anything from the target itself. The result holds the
+     * state of the latest incremental backup but is named with the time it was made, so
+     * backups taken until then keep their own chains. It is compressed like the backups of the
+     * target and stored, catalogued and uploaded like a full backup.
+     *
+     * @return true if a synthetic full backup was stored, or none was needed because the latest backup is a full one;
+     * false also if there is no target with that name.
+     */
+    public boolean createSyntheticFullBackup(String targetName) {
+        BackupTarget target = targets.find(targetName);
+        if (target == null) {
+            logger.error("Cannot make a synthetic full backup: no server or database named '{}'.", targetName);
+            return false;
+        }
+        targetName = target.getName();
+        BackupMetadata latest = catalog.latest(targetName, null);
+        if (latest == null) {
+            logger.warn("Target '{}' has no backups to make a synthetic full backup from.", targetName);
+            return false;
+        }
+        if ("full".equalsIgnoreCase(latest.getBackupType())) {
+            logger.info("The latest backup of '{}' is a full backup already; no synthetic full backup needed.", targetName);
+            return true;
+        }
+        if (latest.getLocation() != null && latest.getLocation().endsWith(ChunkStore.MANIFEST_EXTENSION)) {
+            logger.warn("Backups of '{}' are kept in the chunk repository and cannot be merged.", targetName);
+            return false;
+        }
+
+        BackupMetadata metadata = new BackupMetadata(targetName, "full");
+        metadata.setStartTime(System.currentTimeMillis());
+        String name = BackupMetadata.backupName(targetName, "full",
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(metadata.getStartTime()), ZoneId.systemDefault()));
+        StorageManager targetStorage = target.getStorageManager();
+        String archivePath = Paths.get("/backups", name + targetStorage.getCompressionCodec().getArchiveExtension()).toString();
+        boolean success;
+        try {
+            List<ArchiveSource> chain = findBackupChain(latest);
+            if (chain.isEmpty()) {
+                logger.error("No full backup found that incremental backup {} is based on.", latest.getBackupId());
+                return false;
+            }
+            ArchiveSource incremental = findArchive(latest);
+            if (incremental == null) {
+                throw new IOException("Backup " + latest.getBackupId() + " is not available locally or on a destination");
+            }
+            chain.add(incremental);
+
+            logger.info("Making a synthetic full backup of '{}' from {} archives up to {}", targetName, chain.size(), latest.getBackupId());
+            success = storageManager.mergeArchives(chain, targetStorage.getCompressionCodec(), targetStorage.getCompressionLevel(), archivePath);
+        } catch (IOException e) {
+            logger.error("Cannot make a synthetic full backup of '{}': {}", targetName, e.getMessage(), e);
+            success = false;
+        }
+
+        metadata.setEndTime(System.currentTimeMillis());
+        metadata.setStatus(success ? "success" : "failure");
+        if (success) {
+            metadata.setBackupId(name);
+            metadata.setLocation(archivePath);
+            try {
+                metadata.setBackupSize(Files.size(Paths.get(archivePath)));
+                catalog.add(metadata);
+            } catch (IOException e) {
+                logger.error("Failed to add backup {} to the catalog: {}", name, e.getMessage(), e);
+            }
+            uploadToStorageBackend(metadata, storageBackendsForTarget(targetName)).join();
+        }
+        notifyBackupResult(metadata);
+        return success;
+    }
+
+    /**
+     * Starts uploading a successful backup to the storage backends of its target.
+     *
+     * @return Completes when the upload is done, also if it failed (which is logged).
+     */
+    private CompletableFuture<Void> uploadToStorageBackend(BackupJob job) {
+        List<StorageBackend> backends = job.getTarget().getStorageBackends();
+        if (StorageManager.isStreaming(configurationManager.getRemoteStorage(), backends)) {
+            backends.forEach(listings::invalidate);
+            return CompletableFuture.completedFuture(null); // The archive was already streamed while it was written
+        }
+        return uploadToStorageBackend(job.getMetadata(), backends);
+    }
+
+    /**
+     * Starts uploading the local archive of a successful backup to storage backends.
+     *
+     * @return Completes when the upload is done, also if it failed (which is logged).
+     */
+    private CompletableFuture<Void> uploadToStorageBackend(BackupMetadata metadata, List<StorageBackend> backends) {
+        backends.forEach(listings::invalidate); // Listed before this backup was stored
+        if (backends.isEmpty() || !"success".equals(metadata.getStatus())) {
+            return CompletableFuture.completedFuture(null); // Nothing to upload
+        }
+        if (metadata.getLocation() == null || metadata.getLocation().startsWith(StorageManager.REPOSITORY_PATH)) {
+            return CompletableFuture.completedFuture(null); // Deduplicated backups stay in the local chunk repository
+        }
+        Path location = Paths.get(metadata.getLocation());
+        String name = location.getFileName().toString();
+
+        CompletableFuture<List<StorageBackend>> upload = erasureCoding != null
+                ? erasureCoding.upload(location, name, backends) : fanOutUploader.upload(location, name, backends);
+        return upload.handle((succeeded, error) -> {
+            backends.forEach(listings::invalidate);
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                logger.error("Failed to store backup remotely for target {}: {}", metadata.getTargetName(), cause.getMessage());
+            } else {
+                for (StorageBackend backend : succeeded) {
+                    logger.info("Backup for target {} successfully uploaded to {}/{}", metadata.getTargetName(), backend.getLocation(), name);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Sets up erasure-coded storage, warning if the default destinations are too few for it:
+     * then a destination holds more shards of each backup than may be lost.
+     */
+    private ErasureCodedStorage createErasureCoding(ConfigurationManager.Config.RemoteStorage remoteConfig) {
+        ErasureCodedStorage storage = new ErasureCodedStorage(remoteConfig.getDataShards(), remoteConfig.getParityShards(),
+                SuccessPolicy.fromName(remoteConfig.getSuccessPolicy()), remoteConfig.getFanOutBufferMb() * 1024L * 1024L);
+        int destinations = storageBackendsFor(null).size();
+        int totalShards = storage.getCodec().getTotalShards();
+        if (destinations > 0 && (totalShards + destinations - 1) / destinations > remoteConfig.getParityShards()) {
+            logger.warn("{} shards on {} destinations: losing one destination can make backups unrecoverable.",
+                    totalShards, destinations);
+        }
+        return storage;
+    }
+
+    /**
+     * Creates the configured storage backends, plus one named {@value ConfigurationManager.Config.StorageBackend#REMOTE_STORAGE}
+     * for the remoteStorage section if it names a host. SFTP backends share the session pool and
+     * one uploader, so the limits of the remoteStorage section apply to all of them.
+     */
+    private Map<String, StorageBackend> createStorageBackends() {
+        ConfigurationManager.Config.RemoteStorage remoteConfig = configurationManager.getRemoteStorage();
+        SegmentedSftpUploader uploader = new SegmentedSftpUploader(sessionPool, remoteConfig.getParallelStreams(),
+                remoteConfig.getMinSegmentSizeMb() * 1024L * 1024L, remoteConfig.isVerifyUploads(),
+                Paths.get(StorageManager.UPLOAD_STATE_PATH));
+        uploader.setBandwidthGovernor(bandwidthGovernor);
+
+        List<ConfigurationManager.Config.StorageBackend> configs = new ArrayList<>();
+        if (remoteConfig.getHost() != null && !remoteConfig.getHost().isBlank()) {
+            ConfigurationManager.Config.StorageBackend remote = new ConfigurationManager.Config.StorageBackend();
+            remote.setName(ConfigurationManager.Config.StorageBackend.REMOTE_STORAGE);
+            remote.setHost(remoteConfig.getHost());
+            remote.setPort(remoteConfig.getPort());
+            remote.setUser(remoteConfig.getUser());
+            remote.setPassword(remoteConfig.getPassword());
+            remote.setPath(remoteConfig.getRemotePath());
+            configs.add(remote);
+        }
+        configs.addAll(configurationManager.getStorageBackends());
+
+        Map<String, StorageBackend> backends = new LinkedHashMap<>();
+        for (ConfigurationManager.Config.StorageBackend config : configs) {
+            if ("local".equalsIgnoreCase(config.getType())) {
+                LocalStorageBackend backend = new LocalStorageBackend(config.getName(), Paths.get(config.getPath()),
+                        config.getMaxConcurrentTransfers());
+                backend.setBandwidthGovernor(bandwidthGovernor);
+                backends.put(config.getName(), backend);
+            } else {
+                SftpStorageBackend backend = new SftpStorageBackend(config.getName(), config.getHost(), config.getPort(),
+                        config.getUser(), config.getPassword(), config.getPath(), sessionPool, uploader,
+                        config.getMaxConcurrentTransfers());
+                backend.setBandwidthGovernor(bandwidthGovernor);
+                backend.setRetryPolicy(remoteConfig.getMaxRetries(), remoteConfig.getRetryDelaySeconds() * 1000L,
+                        remoteConfig.getMaxRetryDelaySeconds() * 1000L);
+                backends.put(config.getName(), backend);
+            }
+            logger.info("Storage backend '{}': {}", config.getName(), backends.get(config.getName()).getLocation());
+        }
+        return backends;
+    }
+
+    /**
+     * The backends a target is configured to upload to.
+     *
+     * @param name Backend name from the target configuration, null for the destinations of the remoteStorage section.
+     * @return The backends, empty if the backups of the target stay local.
+     */
+    private List<StorageBackend> storageBackendsFor(String name) {
+        if (ConfigurationManager.Config.StorageBackend.NONE.equals(name)) {
+            return List.of();
+        }
+        List<String> names = configurationManager.getRemoteStorage().getDestinations();
+        if (name != null || names == null) {
+            names = List.of(name != null ? name : ConfigurationManager.Config.StorageBackend.REMOTE_STORAGE);
+        }
+        List<StorageBackend> backends = new ArrayList<>();
+        for (String backendName : names) {
+            if (storageBackends.containsKey(backendName)) {
+                backends.add(storageBackends.get(backendName));
+            }
+        }
+        return backends;
+    }
+
 
 
     /**
-     * Adds servers and databases to the backup target list.
+     * Builds the servers and databases of the configuration once, each with its own
+     * StorageManager, and registers them by name. Targets disabled in the configuration
+     * start disabled.
      *
-     * @return List of BackupTarget objects.
+     * @return The registry shared by the CLI, the scheduler and this manager.
      */
-    private List<BackupTarget> addBackupTargets() {
-        List<BackupTarget> backupTargets = new ArrayList<>();
+    private TargetRegistry createTargetRegistry() {
+        TargetRegistry backupTargets = new TargetRegistry();
 
         // Convert Config.Server to Server (implements BackupTarget)
         configurationManager.getServers().forEach(serverConfig -> {
-            backupTargets.add(new Server(
+            Server server = new Server(
                     serverConfig.getName(),
                     serverConfig.getHost(),
                     serverConfig.getUser(),
@@ -138,13 +436,24 @@ public class BackupManager {
                     serverConfig.getPathsToBackup(),
                     serverConfig.getPreBackupScript(),
                     serverConfig.getPostBackupScript()
-            ));
+            );
+            server.setRemoteStorage(configurationManager.getRemoteStorage());
+            server.setStorageFormat(serverConfig.getStorageFormat());
+            server.setCompression(CompressionCodec.fromName(serverConfig.getCompression()), serverConfig.getCompressionLevel());
+            server.setDetectSparseFiles(serverConfig.isSparseFiles());
+            server.setScanner(new DirectoryScanner(serverConfig.getIncludePatterns(), serverConfig.getExcludePatterns(),
+                    configurationManager.getExecution().getScanThreads()));
+            server.setStorageBackends(storageBackendsFor(serverConfig.getStorageBackend()));
+            server.setReadGovernor(readGovernor);
+            server.setErasureCoding(erasureCoding);
+            server.setEnabled(serverConfig.isEnabled());
+            backupTargets.register(server);
         });
 
         // Convert Config.Database to Database (implements BackupTarget)
         configurationManager.getDatabases().forEach(databaseConfig -> {
 
-            BackupTarget databaseTarget = new Database(
+            Database databaseTarget = new Database(
                     databaseConfig.getName(),
                     databaseConfig.getType(),
                     databaseConfig.getHost(),
@@ -153,7 +462,14 @@ public class BackupManager {
                     databaseConfig.getPreBackupScript(),
                     databaseConfig.getPostBackupScript()
             );
-            backupTargets.add(databaseTarget);
+            databaseTarget.setRemoteStorage(configurationManager.getRemoteStorage());
+            databaseTarget.setStorageFormat(databaseConfig.getStorageFormat());
+            databaseTarget.setCompression(CompressionCodec.fromName(databaseConfig.getCompression()), databaseConfig.getCompressionLevel());
+            databaseTarget.setStorageBackends(storageBackendsFor(databaseConfig.getStorageBackend()));
+            databaseTarget.setReadGovernor(readGovernor);
+            databaseTarget.setErasureCoding(erasureCoding);
+            databaseTarget.setEnabled(databaseConfig.isEnabled());
+            backupTargets.register(databaseTarget);
         });
 
         return backupTargets;
@@ -165,27 +481,107 @@ public class BackupManager {
      * Applies retention policies to manage old backups.
      */
     private void applyRetentionPolicies() {
-        logger.info("Applying retention policies...");
-        try {
-            List<String> allBackups = storageManager.listBackupFiles("/backups");
-            int fullBackupsToKeep = configurationManager.getRetentionPolicy().getFullBackupsToKeep();
+        applyRetention(false);
+    }
 
-            storageManager.deleteOldBackups(allBackups, fullBackupsToKeep);
-            logger.info("Retention policies applied successfully.");
+    /**
+     * Plans which backups the retention policy keeps and deletes, per target, from the catalog.
+     * With applyToDestinations, the storage backends are listed and reconciled with the catalog
+     * first, and a deleted backup is deleted locally and from every backend. With dryRun,
+     * nothing is deleted and the catalog is left as it is; the plan can be shown instead.
+     *
+     * @return The plan.
+     */
+    public synchronized RetentionEngine.Plan applyRetention(boolean dryRun) {
+        logger.info("Applying retention policies{}...", dryRun ? " (dry run)" : "");
+        boolean destinations = configurationManager.getRetentionPolicy().isApplyToDestinations() && !storageBackends.isEmpty();
+        RemoteRetention.Inventory inventory = destinations ? remoteRetention.inventory(storageBackends.values()) : null;
+        List<BackupMetadata> backups = destinations
+                ? remoteRetention.reconcile(inventory, this::storageBackendsForTarget, erasureCoding != null, dryRun)
+                : catalog.list().stream().filter(backup -> backup.getLocation() != null).toList();
+        RetentionEngine.Plan plan = retentionEngine.plan(backups);
+        logger.info("Retention keeps {} backups and deletes {}.", plan.getKeep().size(), plan.getDelete().size());
+        if (dryRun || plan.getDelete().isEmpty()) {
+            return plan;
+        }
+        try {
+            Set<BackupMetadata> deletedLocally = ConcurrentHashMap.newKeySet();
+            List<BackupMetadata> deleted = retentionEngine.execute(plan, backup -> {
+                boolean gone = deleteLocalBackup(backup);
+                if (gone) {
+                    deletedLocally.add(backup);
+                }
+                return gone;
+            }, batch -> destinations ? remoteRetention.delete(batch, inventory) : CompletableFuture.completedFuture(Set.copyOf(batch)), batch -> {
+                List<String> deletedIds = new ArrayList<>();
+                batch.forEach(backup -> deletedIds.add(backup.getBackupId()));
+                try {
+                    catalog.removeAll(deletedIds);
+                } catch (IOException e) {
+                    logger.error("Failed to remove deleted backups from the catalog: {}", e.getMessage(), e);
+                }
+            });
+            // Backups still on a backend but gone locally stay in the catalog without a location, to be deleted next time
+            deleted.forEach(deletedLocally::remove);
+            for (BackupMetadata backup : deletedLocally) {
+                if (backup.getLocation() != null) {
+                    BackupMetadata remoteOnly = new BackupMetadata(backup);
+                    remoteOnly.setLocation(null);
+                    catalog.add(remoteOnly);
+                }
+            }
+            if (deleted.stream().anyMatch(backup -> backup.getLocation() != null
+                    && backup.getLocation().endsWith(ChunkStore.MANIFEST_EXTENSION))) {
+                storageManager.pruneRepository();
+            }
+            logger.info("Retention policies applied successfully; {} backups deleted.", deleted.size());
         } catch (Exception e) {
             logger.error("Error applying retention policies: {}", e.getMessage(), e);
         }
+        return plan;
+    }
+
+    /**
+     * Deletes the local archive or manifest of a backup.
+     *
+     * @return true if it is gone, also if it was gone already.
+     */
+    private boolean deleteLocalBackup(BackupMetadata backup) {
+        Path location = backup.getLocation() != null ? Paths.get(backup.getLocation()) : findLocalArchive(backup.getBackupId());
+        if (location == null) {
+            return true;
+        }
+        try {
+            if (Files.deleteIfExists(location)) {
+                logger.info("Deleted old backup file: {}", location);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to delete old backup file: {}", location, e);
+            return false;
+        }
     }
 
     /**
-     * Stops the scheduler safely.
+     * Stops the scheduler safely, the threads of the storage backends and the pooled SFTP sessions.
      */
     public void stopScheduler() {
         scheduler.stop();
+        fanOutUploader.close();
+        if (erasureCoding != null) {
+            erasureCoding.close();
+        }
+        storageBackends.values().forEach(StorageBackend::close);
+        sessionPool.close();
     }
 
     // Send email after each backup
     public void notifyBackupResult(BackupMetadata metadata) {
+        TargetRegistry.TargetStats stats = targets.getStats(metadata.getTargetName());
+        if (stats != null) {
+            stats.record(metadata);
+        }
+
         String subject = "Backup Result: " + metadata.getTargetName();
         String message = notificationManager.formatBackupResultMessage(
                 metadata.getBackupType(),
@@ -207,51 +603,42 @@ public class BackupManager {
         // 1) Log the request
         logger.info("Request received to start a manual '{}' backup for target '{}'.", backupType, targetName);
 
-        // 2) Validate the backup type if you're strictly allowing only "full" or "incremental"
-        if (!"full".equalsIgnoreCase(backupType) && !"incremental".equalsIgnoreCase(backupType)) {
-            logger.warn("Invalid backup type '{}' provided. Only 'full' or 'incremental' are allowed.", backupType);
+        // 2) Validate the backup type: "synthetic" merges stored backups into a new full one
+        if (!"full".equalsIgnoreCase(backupType) && !"incremental".equalsIgnoreCase(backupType)
+                && !"synthetic".equalsIgnoreCase(backupType)) {
+            logger.warn("Invalid backup type '{}' provided. Only 'full', 'incremental' or 'synthetic' are allowed.", backupType);
             return false;
         }
 
-        // 3) Load all possible targets (Servers + Databases) from config
-        List<BackupTarget> backupTargets = addBackupTargets();
-        if (backupTargets.isEmpty()) {
-            logger.warn("No backup targets found in the configuration. Unable to proceed with backup.");
+        // 3) Look up the target by name (case-insensitive, like the config entries)
+        BackupTarget target = targets.find(targetName);
+        if (target == null) {
+            logger.warn("No target named '{}' found. Backup not performed.", targetName);
             return false;
         }
+        if (!target.isEnabled()) {
+            logger.warn("Target '{}' is disabled. Backup not performed.", target.getName());
+            return false;
+        }
+        logger.info("Found target '{}'. Starting '{}' backup...", target.getName(), backupType);
 
-        boolean foundTarget = false;
-
-        // 4) Search for the matching target by name
-        for (BackupTarget target : backupTargets) {
-            // Compare case-insensitive to match your config entries
-            if (target.getName().equalsIgnoreCase(targetName)) {
-                foundTarget = true;
-                logger.info("Found target '{}'. Starting '{}' backup...", target.getName(), backupType);
-
-                // 5) Create and run the BackupJob
-                BackupJob job = new BackupJob(target, backupType);
-                try {
-                    job.run(this);
-                } catch (Exception e) {
-                    logger.error("Error while running backup job for target '{}': {}", target.getName(), e.getMessage(), e);
+        // 4) Create and run the BackupJob, or merge the stored backups for a synthetic full backup
+        try {
+            if ("synthetic".equalsIgnoreCase(backupType)) {
+                if (!createSyntheticFullBackup(target.getName())) {
                     return false;
                 }
-
-                // 6) Once the job completes, apply retention policies to remove old backups if needed
-                applyRetentionPolicies();
-                logger.info("Retention policies applied after manual backup for '{}'.", target.getName());
-
-                // We only wanted to back up one target, so we can break out of the loop
-                break;
+            } else {
+                new BackupJob(target, backupType, catalog, targets.getBackupLock(target.getName())).run(this);
             }
-        }
-
-        // 7) If we never found a target with the given name, log and return false
-        if (!foundTarget) {
-            logger.warn("No target named '{}' found. Backup not performed.", targetName);
+        } catch (Exception e) {
+            logger.error("Error while running backup job for target '{}': {}", target.getName(), e.getMessage(), e);
             return false;
         }
+
+        // 5) Once the job completes, apply retention policies to remove old backups if needed
+        applyRetentionPolicies();
+        logger.info("Retention policies applied after manual backup for '{}'.", target.getName());
         logger.info("Manual '{}' backup for target '{}' completed successfully.", backupType, targetName);
         return true;
     }
@@ -268,8 +655,9 @@ public class BackupManager {
         logger.info("Scheduling a '{}' backup for target '{}' with cron '{}'", backupType, targetName, cronExpression);
 
         // 1. Validate backup type
-        if (!"full".equalsIgnoreCase(backupType) && !"incremental".equalsIgnoreCase(backupType)) {
-            logger.warn("Invalid backup type '{}'. Only 'full' or 'incremental' are allowed.", backupType);
+        if (!"full".equalsIgnoreCase(backupType) && !"incremental".equalsIgnoreCase(backupType)
+                && !"synthetic".equalsIgnoreCase(backupType)) {
+            logger.warn("Invalid backup type '{}'. Only 'full', 'incremental' or 'synthetic' are allowed.", backupType);
             return false;
         }
 
@@ -304,15 +692,7 @@ public class BackupManager {
         }
 
         // 5. Find the target
-        List<BackupTarget> backupTargets = addBackupTargets();
-        BackupTarget matchedTarget = null;
-        for (BackupTarget target : backupTargets) {
-            if (target.getName().equalsIgnoreCase(targetName)) {
-                matchedTarget = target;
-                break;
-            }
-        }
-
+        BackupTarget matchedTarget = targets.find(targetName);
         if (matchedTarget == null) {
             logger.warn("No target named '{}' found. Cannot schedule backup.", targetName);
             return false;
@@ -330,26 +710,40 @@ public class BackupManager {
     }
 
 
+    /**
+     * Describes the scheduler and, for every configured target and every target with stored
+     * backups, its latest backup (from the catalog) and its next scheduled one.
+     */
     public SystemStatus getSystemStatus() {
         boolean schedulerActive = scheduler.isRunning();
 
-        Map<String, String> lastBackupTimes = new HashMap<>();
-        Map<String, String> nextBackupTimes = new HashMap<>();
+        Map<String, String> lastBackupTimes = new TreeMap<>();
+        Map<String, String> nextBackupTimes = new TreeMap<>();
+        Map<String, String> targetStates = new TreeMap<>();
 
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
 
-        for (String target : backupTargets.keySet()) {
-            BackupMetadata lastBackup = backupTargets.get(target);
+        Map<String, BackupMetadata> latest = catalog.latestPerTarget();
+        Set<String> targetNames = new TreeSet<>(latest.keySet());
+        targets.getTargets().forEach(target -> targetNames.add(target.getName()));
+        for (String target : targetNames) {
+            BackupMetadata lastBackup = latest.get(target);
             String lastTime = (lastBackup != null)
-                    ? formatter.format(Instant.ofEpochSecond(lastBackup.getStartTime()))
+                    ? formatter.format(Instant.ofEpochMilli(lastBackup.getStartTime())) + " (" + lastBackup.getBackupType() + ")"
                     : "No backups yet";
             lastBackupTimes.put(target, lastTime);
 
-            String nextTime = scheduler.getNextRunTime(target);
-            nextBackupTimes.put(target, (nextTime != null) ? nextTime : "Not scheduled");
+            Date nextTime = scheduler.getNextRunTimeForTarget(target);
+            nextBackupTimes.put(target, (nextTime != null) ? formatter.format(nextTime.toInstant()) : "Not scheduled");
+
+            BackupTarget backupTarget = targets.find(target);
+            if (backupTarget != null) {
+                targetStates.put(target, (backupTarget.isEnabled() ? "enabled" : "disabled") + ", "
+                        + targets.getStats(target).describe());
+            }
         }
 
-        return new SystemStatus(schedulerActive, lastBackupTimes, nextBackupTimes);
+        return new SystemStatus(schedulerActive, lastBackupTimes, nextBackupTimes, targetStates);
     }
 
     /**
@@ -359,19 +753,70 @@ public class BackupManager {
      * @return true if the restore is successful, false otherwise.
      */
     public boolean restoreBackupById(String backupId) {
+        return restoreBackupById(backupId, List.of());
+    }
+
+    /**
+     * Restores a whole backup, or only some files or directories of it, by its unique ID.
+     * Archives that are no longer kept locally are streamed from a destination of their target
+     * straight into the extraction, without downloading them first. Single paths are read
+     * through the index of the archives, remotely with ranged reads.
+     *
+     * @param backupId The unique ID of the backup to restore.
+     * @param paths    Files or directories to restore; empty for the whole backup.
+     * @return true if the restore is successful, false otherwise.
+     */
+    public boolean restoreBackupById(String backupId, List<String> paths) {
         logger.info("Starting restore process for backup ID: {}", backupId);
 
         try {
-            // Locate the backup file by its ID
-            Path backupPath = Paths.get("/backups/", backupId + ".tar.gz");
+            // Locate the backup by its ID, in the catalog first and by its file name otherwise
+            BackupMetadata requested = catalog.get(backupId);
+            Path backupPath = requested != null && requested.getLocation() != null ? Paths.get(requested.getLocation())
+                    : findLocalArchive(backupId);
+            ArchiveSource remoteArchive = null;
+            if (backupPath == null || !backupPath.toFile().exists()) {
+                // Deduplicated backups are identified by their manifest name
+                Path manifestPath = Paths.get(StorageManager.REPOSITORY_PATH, "manifests", backupId + ChunkStore.MANIFEST_EXTENSION);
+                if (manifestPath.toFile().exists()) {
+                    backupPath = manifestPath;
+                } else {
+                    remoteArchive = findRemoteArchive(backupId);
+                }
+            }
 
-            if (!backupPath.toFile().exists()) {
+            if (remoteArchive == null && (backupPath == null || !backupPath.toFile().exists())) {
                 logger.error("Backup file not found for ID: {}", backupId);
                 return false;
             }
+            if (!paths.isEmpty() && remoteArchive == null && backupPath.toString().endsWith(ChunkStore.MANIFEST_EXTENSION)) {
+                logger.error("Restoring single paths is not supported for deduplicated backups; restore {} as a whole.", backupId);
+                return false;
+            }
 
-            // Restore the backup (unpack or import)
-            boolean restoreSuccess = storageManager.restoreBackup(backupPath);
+            // Restore the backup (unpack or import); incremental backups need their whole chain
+            if (requested == null) {
+                requested = parseBackupMetadata(backupId);
+            }
+            ArchiveSource archive = remoteArchive != null ? remoteArchive : ArchiveSource.of(backupPath);
+            Path extractionDir = Path.of("restored_backups", backupId);
+            boolean restoreSuccess;
+            if (requested != null && "incremental".equalsIgnoreCase(requested.getBackupType())) {
+                List<ArchiveSource> chain = findBackupChain(requested);
+                if (chain.isEmpty()) {
+                    logger.error("No full backup found that incremental backup {} is based on.", backupId);
+                    return false;
+                }
+                chain.add(archive);
+                restoreSuccess = paths.isEmpty() ? storageManager.restoreBackupChain(chain, extractionDir)
+                        : storageManager.restorePaths(chain, paths, extractionDir);
+            } else if (!paths.isEmpty()) {
+                restoreSuccess = storageManager.restorePaths(List.of(archive), paths, extractionDir);
+            } else if (remoteArchive != null) {
+                restoreSuccess = storageManager.restoreBackupChain(List.of(remoteArchive), extractionDir);
+            } else {
+                restoreSuccess = storageManager.restoreBackup(backupPath);
+            }
 
             if (restoreSuccess) {
                 logger.info("Backup ID {} restored successfully.", backupId);
@@ -386,6 +831,207 @@ public class BackupManager {
         }
     }
 
+    /**
+     * The local archive of a backup, whichever codec it was written with.
+     *
+     * @return The archive path, or null if the archive is not kept locally.
+     */
+    private static Path findLocalArchive(String backupId) {
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            Path archive = Paths.get("/backups", backupId + codec.getArchiveExtension());
+            if (Files.isRegularFile(archive)) {
+                return archive;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the archive of a backup that is not kept locally on the destinations of its
+     * target, whichever codec it was written with.
+     *
+     * @return The archive, or null if no destination has it.
+     */
+    private ArchiveSource findRemoteArchive(String backupId) {
+        BackupMetadata metadata = parseBackupMetadata(backupId);
+        List<StorageBackend> backends = storageBackendsForTarget(metadata != null ? metadata.getTargetName() : null);
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            ArchiveSource archive = findRemoteArchive(backupId + codec.getArchiveExtension(), backends);
+            if (archive != null) {
+                return archive;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds an archive on the given destinations, to read it from there: rebuilt from its
+     * shards when erasure coding is on, otherwise from the first destination that has a copy.
+     *
+     * @return The archive, or null if no destination has it.
+     */
+    private ArchiveSource findRemoteArchive(String name, List<StorageBackend> backends) {
+        if (erasureCoding != null) {
+            ArchiveSource shards = ArchiveSource.erasureCoded(name, backends);
+            try {
+                shards.size(); // Reads the headers of the shards
+                logger.info("Reading {} from its shards", name);
+                return shards;
+            } catch (IOException e) {
+                logger.debug("{} is not available as shards: {}", name, e.getMessage());
+            }
+        }
+        for (StorageBackend backend : backends) {
+            try {
+                if (backend.stat(name).join() != null) {
+                    logger.info("Reading {} from {}", name, backend.getLocation());
+                    return ArchiveSource.of(backend, name);
+                }
+            } catch (Exception e) {
+                logger.debug("{} is not available from {}: {}", name, backend.getLocation(), e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The backends of the server or database with the given name, or the default destinations.
+     */
+    private List<StorageBackend> storageBackendsForTarget(String targetName) {
+        BackupTarget target = targetName != null ? targets.find(targetName) : null;
+        return target != null ? target.getStorageBackends() : storageBackendsFor(null);
+    }
+
+    /**
+     * The archive of a catalogued backup: the local file if it is still kept, otherwise the
+     * copy on a destination of its target.
+     *
+     * @return The archive, or null if it is neither local nor on a destination.
+     */
+    private ArchiveSource findArchive(BackupMetadata backup) {
+        Path local = backup.getLocation() != null ? Paths.get(backup.getLocation()) : findLocalArchive(backup.getBackupId());
+        return local != null && Files.isRegularFile(local) ? ArchiveSource.of(local) : findRemoteArchive(backup.getBackupId());
+    }
+
+    /**
+     * Finds the archives an incremental backup depends on: the latest full backup of the same
+     * target before it and every incremental backup in between, oldest first. The chain is
+     * taken from the catalog; only if the catalog has no full backup before the incremental
+     * are the backup directory and the destinations listed. Archives that are no longer kept
+     * locally are looked up on the destinations of the target.
+     *
+     * @param incremental The incremental backup, from the catalog or parsed from its archive name.
+     * @return The archives of the chain without the incremental itself, or an empty list if there is no full backup.
+     * @throws IOException If an archive of the chain is neither local nor on a destination.
+     */
+    private List<ArchiveSource> findBackupChain(BackupMetadata incremental) throws IOException {
+        String targetName = incremental.getTargetName();
+        BackupMetadata full = catalog.latest(targetName, "full");
+        if (full != null && full.getStartTime() >= incremental.getStartTime()) {
+            List<BackupMetadata> earlier = catalog.list(targetName, "full", Long.MIN_VALUE, incremental.getStartTime() - 1);
+            full = earlier.isEmpty() ? null : earlier.get(earlier.size() - 1);
+        }
+        if (full == null) {
+            logger.info("The catalog has no full backup of '{}' before {}; looking for one in the stored backups.",
+                    targetName, incremental.getBackupId());
+            return findBackupChainInListings(incremental);
+        }
+
+        List<BackupMetadata> chain = new ArrayList<>();
+        chain.add(full);
+        chain.addAll(catalog.list(targetName, "incremental", full.getStartTime() + 1, incremental.getStartTime() - 1));
+        List<ArchiveSource> result = new ArrayList<>();
+        for (BackupMetadata backup : chain) {
+            ArchiveSource archive = findArchive(backup);
+            if (archive == null) {
+                throw new IOException("Backup " + backup.getBackupId() + " of the chain is not available locally or on a destination");
+            }
+            result.add(archive);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the chain of an incremental backup like {@link #findBackupChain}, from the names of
+     * the archives in the backup directory and on the destinations of the target.
+     */
+    private List<ArchiveSource> findBackupChainInListings(BackupMetadata incremental) throws IOException {
+        Set<String> names = new TreeSet<>();
+        try (var files = Files.list(Paths.get("/backups"))) {
+            files.forEach(file -> names.add(file.getFileName().toString()));
+        }
+        for (StorageBackend backend : storageBackendsForTarget(incremental.getTargetName())) {
+            try {
+                for (StorageBackend.StoredFile file : listings.list(backend).join()) {
+                    names.add(file.name().replaceFirst("\\.ec\\d{3}$", "")); // Shards count as their archive
+                }
+            } catch (Exception e) {
+                logger.warn("Cannot list the backups on {}: {}", backend.getLocation(), e.getMessage());
+            }
+        }
+
+        List<String> archives = new ArrayList<>();
+        List<BackupMetadata> metadata = new ArrayList<>();
+        for (String name : names) {
+            BackupMetadata candidate = CompressionCodec.archiveExtensionOf(name) != null ? parseBackupMetadata(name) : null;
+            if (candidate != null && candidate.getTargetName().equals(incremental.getTargetName())
+                    && candidate.getStartTime() < incremental.getStartTime()) {
+                archives.add(name);
+                metadata.add(candidate);
+            }
+        }
+
+        int latestFull = -1;
+        for (int i = 0; i < metadata.size(); i++) {
+            if ("full".equalsIgnoreCase(metadata.get(i).getBackupType())
+                    && (latestFull < 0 || metadata.get(i).getStartTime() > metadata.get(latestFull).getStartTime())) {
+                latestFull = i;
+            }
+        }
+        if (latestFull < 0) {
+            return new ArrayList<>();
+        }
+
+        long fullTime = metadata.get(latestFull).getStartTime();
+        List<Integer> chain = new ArrayList<>();
+        for (int i = 0; i < metadata.size(); i++) {
+            if (i == latestFull || ("incremental".equalsIgnoreCase(metadata.get(i).getBackupType())
+                    && metadata.get(i).getStartTime() > fullTime)) {
+                chain.add(i);
+            }
+        }
+        chain.sort((a, b) -> Long.compare(metadata.get(a).getStartTime(), metadata.get(b).getStartTime()));
+
+        List<ArchiveSource> result = new ArrayList<>();
+        for (int i : chain) {
+            Path local = Paths.get("/backups", archives.get(i));
+            ArchiveSource archive = Files.isRegularFile(local) ? ArchiveSource.of(local)
+                    : findRemoteArchive(archives.get(i), storageBackendsForTarget(incremental.getTargetName()));
+            if (archive == null) {
+                throw new IOException("Backup " + archives.get(i) + " of the chain is not available locally or on a destination");
+            }
+            result.add(archive);
+        }
+        return result;
+    }
+
+    /**
+     * Changes an upload bandwidth limit at runtime; running transfers adapt right away.
+     *
+     * @param destination       Remote host whose limit is changed, or null for the limit of all uploads.
+     * @param megabitsPerSecond New limit in Mbit/s (0 for no limit), or null to return to the configured limit.
+     */
+    public void setBandwidthLimit(String destination, Double megabitsPerSecond) {
+        bandwidthGovernor.setOverride(destination, megabitsPerSecond != null ? BandwidthGovernor.toBytesPerSecond(megabitsPerSecond) : null);
+    }
+
+    /**
+     * Describes the upload bandwidth limits that apply right now.
+     */
+    public String getBandwidthLimits() {
+        return bandwidthGovernor.describe();
+    }
+
     /**
      * Enables a target (server or database) by name.
      *
@@ -393,17 +1039,9 @@ public class BackupManager {
      * @return true if the target was found and enabled, false otherwise.
      */
     public boolean enableTarget(String targetName) {
-        List<BackupTarget> targets = addBackupTargets();
-        for (BackupTarget target : targets) {
-            if (target.getName().equalsIgnoreCase(targetName)) {
-                if (target instanceof Server) {
-                    ((Server) target).setEnabled(true);
-                } else if (target instanceof Database) {
-                    ((Database) target).setEnabled(true);
-                }
-                logger.info("Target '{}' has been enabled.", targetName);
-                return true;
-            }
+        if (targets.setEnabled(targetName, true)) {
+            logger.info("Target '{}' has been enabled.", targetName);
+            return true;
         }
         logger.warn("Target '{}' not found. Cannot enable it.", targetName);
         return false;
@@ -417,17 +1055,9 @@ public class BackupManager {
      * @return true if the target was found and disabled, false otherwise.
      */
     public boolean disableTarget(String targetName) {
-        List<BackupTarget> targets = addBackupTargets();
-        for (BackupTarget target : targets) {
-            if (target.getName().equalsIgnoreCase(targetName)) {
-                if (target instanceof Server) {
-                    ((Server) target).setEnabled(false);
-                } else if (target instanceof Database) {
-                    ((Database) target).setEnabled(false);
-                }
-                logger.info("Target '{}' has been disabled.", targetName);
-                return true;
-            }
+        if (targets.setEnabled(targetName, false)) {
+            logger.info("Target '{}' has been disabled.", targetName);
+            return true;
         }
         logger.warn("Target '{}' not found. Cannot disable it.", targetName);
         return false;
@@ -435,16 +1065,37 @@ public class BackupManager {
 
 
     /**
-     * Retrieves all backups as a list of BackupMetadata.
+     * Retrieves all backups as a list of BackupMetadata, oldest first, from the catalog.
      *
      * @return List of BackupMetadata objects representing all stored backups.
      */
     public List<BackupMetadata> getAllBackups() {
+        return catalog.list();
+    }
+
+    public BackupCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * The servers and databases, shared with the CLI and the scheduler.
+     */
+    public TargetRegistry getTargetRegistry() {
+        return targets;
+    }
+
+    /**
+     * Retrieves the backups stored in a directory as a list of BackupMetadata, by listing the
+     * directory and parsing the file names. Only needed to fill a new catalog.
+     *
+     * @param backupsDir Directory holding the backup archives.
+     * @return List of BackupMetadata objects representing the backups in the directory.
+     */
+    public List<BackupMetadata> getAllBackups(Path backupsDir) {
         logger.info("Retrieving all backups...");
         List<BackupMetadata> backups = new ArrayList<>();
 
         try {
-            Path backupsDir = Paths.get("/backups");
             if (!Files.exists(backupsDir) || !Files.isDirectory(backupsDir)) {
                 logger.warn("Backups directory does not exist or is not a directory: {}", backupsDir);
                 return backups;
@@ -454,8 +1105,12 @@ public class BackupManager {
                 try {
                     // Parse backup metadata from file name or content
                     String fileName = file.getFileName().toString();
-                    BackupMetadata metadata = parseBackupMetadata(fileName);
+                    BackupMetadata metadata = CompressionCodec.archiveExtensionOf(fileName) != null || fileName.endsWith(ChunkStore.MANIFEST_EXTENSION)
+                            ? parseBackupMetadata(fileName) : null;
                     if (metadata != null) {
+                        metadata.setStatus("success");
+                        metadata.setLocation(file.toString());
+                        metadata.setBackupSize(Files.size(file));
                         backups.add(metadata);
                     }
                 } catch (Exception e) {
@@ -478,32 +1133,12 @@ public class BackupManager {
      */
 
     private BackupMetadata parseBackupMetadata(String fileName) {
-        try {
-            // Example: backup_Server1_full_20250101.tar.gz
-            String[] parts = fileName.split("_");
-            if (parts.length < 4) {
-                logger.warn("Invalid backup file name format: {}", fileName);
-                return null;
-            }
-
-            String targetName = parts[1];
-            String backupType = parts[2];
-            String timestamp = parts[3].replace(".tar.gz", "");
-
-            // Convert timestamp string to long (epoch time)
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
-            LocalDateTime dateTime = LocalDateTime.parse(timestamp, formatter);
-            long epochTime = dateTime.toEpochSecond(ZoneOffset.UTC);
-
-            BackupMetadata metadata = new BackupMetadata();
-            metadata.setTargetName(targetName);
-            metadata.setBackupType(backupType);
-            metadata.setStartTime(epochTime); // Set as a long
-            return metadata;
-        } catch (Exception e) {
-            logger.error("Error parsing metadata from file name '{}': {}", fileName, e.getMessage(), e);
-            return null;
+        // Example: backup_Server1_full_20250101020000.tar.gz
+        BackupMetadata metadata = BackupMetadata.fromBackupName(fileName);
+        if (metadata == null) {
+            logger.warn("Invalid backup file name format: {}", fileName);
         }
+        return metadata;
     }
 
 
@@ -3,6 +3,10 @@ package uniba.system_package.backup;
 /**
  * Represents metadata for a backup operation.
  */
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.UUID;
 
 public class BackupMetadata {
@@ -25,12 +29,66 @@ public class BackupMetadata {
 
     }
 
+    /**
+     * Copies the metadata of another backup, e.g. to change it without changing the original.
+     */
+    public BackupMetadata(BackupMetadata other) {
+        this.backupId = other.backupId;
+        this.targetName = other.targetName;
+        this.backupType = other.backupType;
+        this.status = other.status;
+        this.location = other.location;
+        this.backupSize = other.backupSize;
+        this.startTime = other.startTime;
+        this.endTime = other.endTime;
+    }
+
+    /**
+     * Builds the name of a backup archive, e.g. backup_Server1_full_20250101020000.
+     * The backup ID used by restore_backup is this name.
+     */
+    public static String backupName(String targetName, String backupType, LocalDateTime time) {
+        return "backup_" + targetName + "_" + backupType + "_" + time.format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+    }
+
+    /**
+     * Reads the metadata back from the name of a backup archive or manifest, the reverse of
+     * {@link #backupName}. The backup ID is the name without its extension and the start
+     * time is the time in the name, in milliseconds.
+     *
+     * @return The metadata, or null if the file name is not a backup name.
+     */
+    public static BackupMetadata fromBackupName(String fileName) {
+        String name = fileName.replaceFirst("(\\.tar(\\.gz|\\.zst|\\.lz4)?|\\.manifest)$", "");
+        int typeEnd = name.lastIndexOf('_');
+        int targetEnd = typeEnd > 0 ? name.lastIndexOf('_', typeEnd - 1) : -1;
+        if (!name.startsWith("backup_") || targetEnd <= "backup_".length()) {
+            return null;
+        }
+        LocalDateTime time;
+        try {
+            time = LocalDateTime.parse(name.substring(typeEnd + 1), DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+        BackupMetadata metadata = new BackupMetadata();
+        metadata.backupId = name;
+        metadata.setTargetName(name.substring("backup_".length(), targetEnd));
+        metadata.setBackupType(name.substring(targetEnd + 1, typeEnd));
+        metadata.setStartTime(time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        return metadata;
+    }
+
     // Getters and setters
 
     public String getBackupId() {
         return backupId;
     }
 
+    public void setBackupId(String backupId) {
+        this.backupId = backupId;
+    }
+
     public String getTargetName() {
         return targetName;
     }
@@ -0,0 +1,81 @@
+package uniba.system_package.backup;
+
+import uniba.system_package.storage.FileStateIndex;
+
+import java.io.IOException;
+
+/**
+ * What one run of {@link BackupTarget#performBackup(String)} stored. It is returned to the job
+ * that started the run instead of being kept on the target, so a job never reads the backup
+ * of another run of the same target.
+ */
+public class BackupResult {
+    private static final BackupResult FAILURE = new BackupResult(false, null, null, 0, null);
+
+    private final boolean success;
+    private final String backupId;
+    private final String location;
+    private final long size;
+    private final FileStateIndex index; // Updated for this backup, saved once it is recorded; null if none
+
+    private BackupResult(boolean success, String backupId, String location, long size, FileStateIndex index) {
+        this.success = success;
+        this.backupId = backupId;
+        this.location = location;
+        this.size = size;
+        this.index = index;
+    }
+
+    /**
+     * The result of a backup that was not stored.
+     */
+    public static BackupResult failure() {
+        return FAILURE;
+    }
+
+    /**
+     * The result of a stored backup.
+     *
+     * @param backupId The name of the backup, see {@link BackupMetadata#backupName}.
+     * @param location The archive or manifest path, or null if the archive was only streamed to the storage backends.
+     * @param size     The size of the stored backup in bytes, as written or streamed.
+     */
+    public static BackupResult stored(String backupId, String location, long size) {
+        return new BackupResult(true, backupId, location, size, null);
+    }
+
+    /**
+     * The same result with the file-state index the backup was compared with, already updated
+     * for it. The index is only saved by {@link #commit()}, so a backup that is not recorded,
+     * e.g. because the post-backup script failed, leaves the next incremental backup
+     * comparing with the previous state and nothing it contained is missing from the chain.
+     */
+    public BackupResult withIndex(FileStateIndex index) {
+        return new BackupResult(success, backupId, location, size, index);
+    }
+
+    /**
+     * Saves the file-state index, once the backup is catalogued.
+     */
+    public void commit() throws IOException {
+        if (index != null) {
+            index.save();
+        }
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getBackupId() {
+        return backupId;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
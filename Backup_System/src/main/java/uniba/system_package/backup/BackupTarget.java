@@ -1,5 +1,10 @@
 package uniba.system_package.backup;
 
+import uniba.system_package.storage.StorageBackend;
+import uniba.system_package.storage.StorageManager;
+
+import java.util.List;
+
 /**
  * A common interface for all backup targets (e.g., servers, databases).
  */
@@ -7,9 +12,10 @@ public interface BackupTarget {
     /**
      * Perform the backup operation for the target.
      *
-     * @return true if the backup is successful, false otherwise.
+     * @param backupType The type of backup ("full" or "incremental").
+     * @return What was stored, or {@link BackupResult#failure()} if the backup failed.
      */
-    boolean performBackup();
+    BackupResult performBackup(String backupType);
 
     /**
      * Get the name of the backup target.
@@ -17,4 +23,40 @@ public interface BackupTarget {
      * @return The name of the target.
      */
     String getName();
+
+    /**
+     * Get the host the target lives on.
+     *
+     * @return The host name of the target.
+     */
+    String getHost();
+
+    /**
+     * Get the storage backends the backups of the target are uploaded to.
+     *
+     * @return The backends, empty if the backups are only kept locally.
+     */
+    List<StorageBackend> getStorageBackends();
+
+    /**
+     * Get the storage manager that writes the backups of the target.
+     *
+     * @return The storage manager, with the compression configured for the target.
+     */
+    StorageManager getStorageManager();
+
+    /**
+     * Whether backups of the target run; a disabled target is skipped.
+     *
+     * @return true if the target is enabled.
+     */
+    boolean isEnabled();
+
+    /**
+     * Enable or disable the target, atomically.
+     *
+     * @param enabled The new state.
+     * @return Whether the target was enabled before.
+     */
+    boolean setEnabled(boolean enabled);
 }
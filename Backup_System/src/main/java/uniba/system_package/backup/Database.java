@@ -2,10 +2,19 @@ package uniba.system_package.backup;
 
 import org.slf4j.Logger;
 import uniba.system_package.scripts.ScriptExecutor;
+import uniba.system_package.storage.CompressionCodec;
+import uniba.system_package.storage.ErasureCodedStorage;
+import uniba.system_package.storage.ReadGovernor;
+import uniba.system_package.storage.StorageBackend;
 import uniba.system_package.storage.StorageManager;
+import uniba.system_package.utils.ConfigurationManager;
 import uniba.system_package.utils.LogManager;
 
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Database implements BackupTarget {
     private static final Logger logger = LogManager.getLogger(Database.class);
@@ -18,6 +27,9 @@ public class Database implements BackupTarget {
     private final String preBackupScript; // Path to pre-backup script
     private final String postBackupScript; // Path to post-backup script
     private final StorageManager storageManager;
+    private ConfigurationManager.Config.RemoteStorage remoteStorage; // Used when archives are streamed to remote storage
+    private List<StorageBackend> storageBackends = List.of(); // Where backups are uploaded, none if they stay local
+    private String storageFormat = "archive"; // "archive" or "dedup"
 
     public Database(String name, String type, String host, String user, String password,
                     String preBackupScript, String postBackupScript) {
@@ -35,20 +47,65 @@ public class Database implements BackupTarget {
         return name;
     }
 
-    private boolean enabled = true;
-    public void setEnabled(boolean enabled) {
-        this.enabled = enabled;
+    @Override
+    public String getHost() {
+        return host;
+    }
+
+    public void setRemoteStorage(ConfigurationManager.Config.RemoteStorage remoteStorage) {
+        this.remoteStorage = remoteStorage;
+    }
+
+    public void setStorageFormat(String storageFormat) {
+        this.storageFormat = storageFormat;
+    }
+
+    public void setCompression(CompressionCodec codec, int level) {
+        storageManager.setCompression(codec, level);
     }
 
+    public void setStorageBackends(List<StorageBackend> storageBackends) {
+        this.storageBackends = storageBackends;
+    }
+
+    @Override
+    public List<StorageBackend> getStorageBackends() {
+        return storageBackends;
+    }
+
+    @Override
+    public StorageManager getStorageManager() {
+        return storageManager;
+    }
+
+    public void setReadGovernor(ReadGovernor readGovernor) {
+        storageManager.setReadGovernor(readGovernor);
+    }
+
+    /**
+     * Streams archives as erasure-coded shards; null for full copies.
+     */
+    public void setErasureCoding(ErasureCodedStorage erasureCoding) {
+        storageManager.setErasureCoding(erasureCoding);
+    }
+
+    private final AtomicBoolean enabled = new AtomicBoolean(true); // Changed from the CLI while backups run
+
+    @Override
+    public boolean setEnabled(boolean enabled) {
+        return this.enabled.getAndSet(enabled);
+    }
+
+    @Override
     public boolean isEnabled() {
-        return enabled;
+        return enabled.get();
     }
     @Override
-    public boolean performBackup() {
+    public BackupResult performBackup(String backupType) {
 
-        if (!enabled) {
+        if (!enabled.get()) {
             logger.info("Backup skipped for database '{}' because it is disabled.", name);
-            return false;
+            return BackupResult.failure();
         }
 
         logger.info("Starting database backup for: {}", name);
@@ -61,29 +118,42 @@ public class Database implements BackupTarget {
             logger.info("Executing pre-backup script for database: {}", name);
             if (!scriptExecutor.executeScript(preBackupScript)) {
                 logger.error("Pre-backup script failed for database: {}", name);
-                return false;
+                return BackupResult.failure();
             }
         }
 
+        BackupResult result;
         try {
             String dumpFilePath = "/dumps/" + name + ".sql";
             if (storageManager.createDatabaseDump(type, host, user, password, dumpFilePath)) {
                 logger.info("Database dump created successfully at: {}", dumpFilePath);
             } else {
                 logger.error("Failed to create database dump for: {}", name);
-                return false;
+                return BackupResult.failure();
+            }
+
+            // A dump is always complete, so incremental database backups contain the whole dump
+            String backupName = BackupMetadata.backupName(name, backupType, LocalDateTime.now());
+            if ("dedup".equalsIgnoreCase(storageFormat)) {
+                String manifest = storageManager.storeDeduplicated(List.of(dumpFilePath), backupName);
+                result = manifest != null ? BackupResult.stored(backupName, manifest, Files.size(Paths.get(manifest))) : BackupResult.failure();
+            } else {
+                String backupArchivePath = "/backups/" + backupName + storageManager.getCompressionCodec().getArchiveExtension();
+                long size = storageManager.storeArchive(List.of(dumpFilePath), backupArchivePath, remoteStorage, storageBackends);
+                // Streamed without a local copy: the archive is only on the storage backends
+                String location = Files.isRegularFile(Paths.get(backupArchivePath)) ? backupArchivePath : null;
+                result = size >= 0 ? BackupResult.stored(backupName, location, size) : BackupResult.failure();
             }
 
-            String backupArchivePath = "/backups/" + name + ".tar.gz";
-            if (storageManager.compressFiles(List.of(dumpFilePath), backupArchivePath)) {
-                logger.info("Database backup successfully stored at: {}", backupArchivePath);
+            if (result.isSuccess()) {
+                logger.info("Database backup successfully stored at: {}", result.getLocation() != null ? result.getLocation() : "the storage backends");
             } else {
                 logger.error("Failed to compress database dump for: {}", name);
-                return false;
+                return BackupResult.failure();
             }
         } catch (Exception e) {
             logger.error("Backup failed for database: {}", name, e);
-            return false;
+            return BackupResult.failure();
         }
 
         // Execute post-backup script
@@ -91,10 +161,10 @@ public class Database implements BackupTarget {
             logger.info("Executing post-backup script for database: {}", name);
             if (!scriptExecutor.executeScript(postBackupScript)) {
                 logger.error("Post-backup script failed for database: {}", name);
-                return false;
+                return BackupResult.failure();
             }
         }
 
-        return true;
+        return result;
     }
 }
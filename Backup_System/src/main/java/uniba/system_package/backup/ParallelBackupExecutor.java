@@ -0,0 +1,188 @@
+package uniba.system_package.backup;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs backup jobs for several targets at once.
+ * <p>
+ * At most {@code maxConcurrent} jobs run at the same time and at most
+ * {@code maxPerHost} of them against the same host. Jobs that would exceed
+ * the per-host limit wait in the queue without holding a worker thread.
+ */
+public class ParallelBackupExecutor {
+    private static final Logger logger = LogManager.getLogger(ParallelBackupExecutor.class);
+
+    private final int maxConcurrent;
+    private final int maxPerHost;
+
+    public ParallelBackupExecutor(int maxConcurrent, int maxPerHost) {
+        if (maxConcurrent <= 0 || maxPerHost <= 0) {
+            throw new IllegalArgumentException("Concurrency limits must be positive.");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxPerHost = maxPerHost;
+    }
+
+    /**
+     * Executes all jobs and waits for them to finish.
+     *
+     * @param jobs      The jobs to run, in the order their results should be reported.
+     * @param afterJob  Work to run on the worker thread once a job finished (e.g. starting the remote upload).
+     * @return A summary of the run; its jobs keep the order of {@code jobs}.
+     */
+    public RunSummary execute(List<BackupJob> jobs, Consumer<BackupJob> afterJob) {
+        long wallStart = System.nanoTime();
+        if (jobs.isEmpty()) {
+            return new RunSummary(jobs, 0L);
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(maxConcurrent, jobs.size()), new Namer());
+        Dispatcher dispatcher = new Dispatcher(jobs, workers, afterJob);
+        try {
+            dispatcher.dispatch();
+            dispatcher.awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for backup jobs to finish.");
+        } finally {
+            workers.shutdown();
+        }
+
+        RunSummary summary = new RunSummary(jobs, System.nanoTime() - wallStart);
+        logger.info("{}", summary);
+        return summary;
+    }
+
+    /**
+     * Hands queued jobs to the pool whenever both the global and the per-host limit allow it.
+     */
+    private class Dispatcher {
+        private final LinkedList<BackupJob> pending;
+        private final ExecutorService workers;
+        private final Consumer<BackupJob> afterJob;
+        private final Map<String, Integer> runningPerHost = new HashMap<>();
+        private final CountDownLatch done;
+        private int running;
+
+        Dispatcher(List<BackupJob> jobs, ExecutorService workers, Consumer<BackupJob> afterJob) {
+            this.pending = new LinkedList<>(jobs);
+            this.workers = workers;
+            this.afterJob = afterJob;
+            this.done = new CountDownLatch(jobs.size());
+        }
+
+        synchronized void dispatch() {
+            Iterator<BackupJob> it = pending.iterator();
+            while (running < maxConcurrent && it.hasNext()) {
+                BackupJob job = it.next();
+                String host = hostOf(job);
+                int onHost = runningPerHost.getOrDefault(host, 0);
+                if (onHost >= maxPerHost) {
+                    continue;
+                }
+                it.remove();
+                runningPerHost.put(host, onHost + 1);
+                running++;
+                workers.submit(() -> runJob(job, host));
+            }
+        }
+
+        private void runJob(BackupJob job, String host) {
+            try {
+                job.execute();
+                if (afterJob != null) {
+                    long cpuStart = BackupJob.currentThreadCpuTime();
+                    afterJob.accept(job);
+                    job.addCpuTime(BackupJob.currentThreadCpuTime() - cpuStart);
+                }
+            } catch (Exception e) {
+                logger.error("Unexpected error in backup job for target '{}': {}", job.getTarget().getName(), e.getMessage(), e);
+            } finally {
+                synchronized (this) {
+                    running--;
+                    runningPerHost.merge(host, -1, Integer::sum);
+                }
+                done.countDown();
+                dispatch();
+            }
+        }
+
+        void awaitCompletion() throws InterruptedException {
+            done.await();
+        }
+
+        private String hostOf(BackupJob job) {
+            String host = job.getTarget().getHost();
+            return host == null ? "" : host.toLowerCase();
+        }
+    }
+
+    private static class Namer implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "backup-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Wall-clock versus CPU time of one backup run.
+     */
+    public static class RunSummary {
+        private final List<BackupJob> jobs;
+        private final long wallClockNanos;
+
+        RunSummary(List<BackupJob> jobs, long wallClockNanos) {
+            this.jobs = new ArrayList<>(jobs);
+            this.wallClockNanos = wallClockNanos;
+        }
+
+        public List<BackupJob> getJobs() {
+            return jobs;
+        }
+
+        public long getWallClockMillis() {
+            return wallClockNanos / 1_000_000;
+        }
+
+        public long getTotalCpuMillis() {
+            return jobs.stream().mapToLong(BackupJob::getCpuTimeNanos).sum() / 1_000_000;
+        }
+
+        /**
+         * Sum of the individual job durations, i.e. how long the run would have taken sequentially.
+         */
+        public long getTotalJobMillis() {
+            return jobs.stream()
+                    .mapToLong(job -> job.getMetadata().getEndTime() - job.getMetadata().getStartTime())
+                    .sum();
+        }
+
+        public long getFailedCount() {
+            return jobs.stream().filter(job -> !"success".equals(job.getMetadata().getStatus())).count();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Backup run finished: %d targets (%d failed), wall-clock %d ms, job time %d ms, CPU time %d ms",
+                    jobs.size(), getFailedCount(), getWallClockMillis(), getTotalJobMillis(), getTotalCpuMillis());
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package uniba.system_package.backup;
+
+import org.slf4j.Logger;
+import uniba.system_package.storage.CompressionCodec;
+import uniba.system_package.storage.StorageBackend;
+import uniba.system_package.storage.StorageListingCache;
+import uniba.system_package.utils.LogManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies retention to the copies of backups on the storage backends, which local retention
+ * never touched. Each backend is listed once per run (through the {@link StorageListingCache},
+ * all backends at the same time); the listing is reconciled with the catalog, so backups that
+ * are only stored remotely are planned with the same policy as local ones, and the files of a
+ * batch are deleted with a few {@link StorageBackend#deleteAll} calls per backend, each over
+ * one connection.
+ */
+public class RemoteRetention {
+    private static final Logger logger = LogManager.getLogger(RemoteRetention.class);
+
+    // An archive and the files stored with it: its checksum, erasure-coded shards and unfinished uploads
+    private static final Pattern STORED_FILE = Pattern.compile("(.+)\\.tar(?:\\.gz|\\.zst|\\.lz4)?(\\.ec\\d{3})?(\\.sha256|\\.part)?");
+    private static final int MISSING_EXAMPLES = 5;
+
+    private final BackupCatalog catalog;
+    private final StorageListingCache listings;
+    private final int deleteThreads;
+
+    /**
+     * @param deleteThreads Files of a batch are split into this many deleteAll calls per backend.
+     */
+    public RemoteRetention(BackupCatalog catalog, StorageListingCache listings, int deleteThreads) {
+        this.catalog = catalog;
+        this.listings = listings;
+        this.deleteThreads = deleteThreads;
+    }
+
+    /**
+     * Lists the backends, all at the same time and bypassing cached listings. A backend that
+     * cannot be listed is left out and logged.
+     */
+    public Inventory inventory(Collection<StorageBackend> backends) {
+        Map<StorageBackend, CompletableFuture<List<StorageBackend.StoredFile>>> listed = new LinkedHashMap<>();
+        for (StorageBackend backend : backends) {
+            listed.put(backend, listings.refresh(backend));
+        }
+        Inventory inventory = new Inventory();
+        listed.forEach((backend, files) -> {
+            try {
+                Map<String, List<StorageBackend.StoredFile>> backups = new TreeMap<>();
+                for (StorageBackend.StoredFile file : files.join()) {
+                    Matcher matcher = STORED_FILE.matcher(file.name());
+                    if (matcher.matches() && BackupMetadata.fromBackupName(matcher.group(1)) != null) {
+                        backups.computeIfAbsent(matcher.group(1), id -> new ArrayList<>()).add(file);
+                    }
+                }
+                inventory.files.put(backend, backups);
+            } catch (Exception e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                logger.error("Cannot list the backups on {}; retention leaves it alone this time: {}",
+                        backend.getLocation(), cause.getMessage());
+                inventory.unlisted.add(backend);
+            }
+        });
+        return inventory;
+    }
+
+    /**
+     * Brings the catalog in line with the listed backends: backups found only on a backend are
+     * added (without a location, as they have no local copy), and backups without a local copy
+     * that no backend holds any more are removed. Backups kept locally but missing on a
+     * destination of their target are logged.
+     *
+     * @param destinations The backends a target uploads to.
+     * @param erasureCoded Backups are spread as shards, so a destination holds only some of them.
+     * @param dryRun       Leave the catalog unchanged.
+     * @return Every known backup, to plan retention with.
+     */
+    public List<BackupMetadata> reconcile(Inventory inventory, Function<String, List<StorageBackend>> destinations,
+                                          boolean erasureCoded, boolean dryRun) {
+        Map<String, BackupMetadata> known = new LinkedHashMap<>();
+        catalog.list().forEach(backup -> known.put(backup.getBackupId(), backup));
+
+        List<BackupMetadata> found = new ArrayList<>();
+        for (String id : inventory.backupIds()) {
+            if (!known.containsKey(id)) {
+                BackupMetadata backup = BackupMetadata.fromBackupName(id);
+                backup.setStatus("success");
+                backup.setBackupSize(inventory.archiveSize(id));
+                found.add(backup);
+                known.put(id, backup);
+            }
+        }
+
+        List<String> vanished = new ArrayList<>();
+        if (inventory.unlisted.isEmpty()) {
+            for (BackupMetadata backup : catalog.list()) {
+                if (backup.getLocation() == null && !inventory.holdsAny(backup.getBackupId())) {
+                    vanished.add(backup.getBackupId());
+                    known.remove(backup.getBackupId());
+                }
+            }
+        }
+        logger.info("Storage backends hold {} backups; {} are not in the catalog, {} catalog entries are on no backend any more.",
+                inventory.backupIds().size(), found.size(), vanished.size());
+        if (!dryRun) {
+            try {
+                catalog.addAll(found);
+                catalog.removeAll(vanished);
+            } catch (IOException e) {
+                logger.error("Failed to reconcile the catalog with the storage backends: {}", e.getMessage(), e);
+            }
+        }
+
+        Map<StorageBackend, List<String>> missing = new LinkedHashMap<>();
+        for (BackupMetadata backup : known.values()) {
+            if (backup.getLocation() == null || CompressionCodec.archiveExtensionOf(backup.getLocation()) == null
+                    || !"success".equals(backup.getStatus())) {
+                continue; // Only local archives are uploaded; chunk repository backups stay local
+            }
+            List<StorageBackend> targetDestinations = new ArrayList<>(destinations.apply(backup.getTargetName()));
+            targetDestinations.removeAll(inventory.unlisted);
+            if (erasureCoded) {
+                if (!targetDestinations.isEmpty() && targetDestinations.stream().noneMatch(backend -> inventory.holds(backend, backup.getBackupId()))) {
+                    missing.computeIfAbsent(targetDestinations.get(0), backend -> new ArrayList<>()).add(backup.getBackupId());
+                }
+            } else {
+                for (StorageBackend backend : targetDestinations) {
+                    if (!inventory.holds(backend, backup.getBackupId())) {
+                        missing.computeIfAbsent(backend, key -> new ArrayList<>()).add(backup.getBackupId());
+                    }
+                }
+            }
+        }
+        missing.forEach((backend, ids) -> logger.warn("{} local backups are missing on {}{}, e.g. {}", ids.size(), backend.getLocation(),
+                erasureCoded ? " and the other destinations" : "", ids.subList(0, Math.min(MISSING_EXAMPLES, ids.size()))));
+
+        return new ArrayList<>(known.values());
+    }
+
+    /**
+     * Deletes the files of a batch of backups from every backend holding them. On each backend
+     * the files are split into at most deleteThreads parts, each deleted over one connection;
+     * the backends are worked on at the same time.
+     *
+     * @return Completes with the backups that are gone from every listed backend.
+     */
+    public CompletableFuture<Set<BackupMetadata>> delete(List<BackupMetadata> batch, Inventory inventory) {
+        List<CompletableFuture<List<String>>> deletions = new ArrayList<>();
+        Map<StorageBackend, List<String>> filesByBackend = new LinkedHashMap<>();
+        for (Map.Entry<StorageBackend, Map<String, List<StorageBackend.StoredFile>>> entry : inventory.files.entrySet()) {
+            List<String> names = new ArrayList<>();
+            for (BackupMetadata backup : batch) {
+                entry.getValue().getOrDefault(backup.getBackupId(), List.of()).forEach(file -> names.add(file.name()));
+            }
+            if (names.isEmpty()) {
+                continue;
+            }
+            StorageBackend backend = entry.getKey();
+            filesByBackend.put(backend, names);
+            int partSize = (names.size() + deleteThreads - 1) / deleteThreads;
+            for (int start = 0; start < names.size(); start += partSize) {
+                List<String> part = names.subList(start, Math.min(start + partSize, names.size()));
+                deletions.add(backend.deleteAll(part).whenComplete((gone, error) -> {
+                    if (error != null) {
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        logger.error("Failed to delete {} files from {}: {}", part.size(), backend.getLocation(), cause.getMessage());
+                        listings.invalidate(backend); // Some of them may be gone nonetheless
+                    } else {
+                        listings.removed(backend, gone);
+                        logger.debug("Deleted {} files from {}", gone.size(), backend.getLocation());
+                    }
+                }).exceptionally(error -> List.of()));
+            }
+        }
+
+        return CompletableFuture.allOf(deletions.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Set<String> gone = new HashSet<>();
+            deletions.forEach(deletion -> gone.addAll(deletion.join()));
+            Set<BackupMetadata> deleted = new LinkedHashSet<>();
+            for (BackupMetadata backup : batch) {
+                if (inventory.files.values().stream().allMatch(backups -> gone.containsAll(
+                        backups.getOrDefault(backup.getBackupId(), List.of()).stream().map(StorageBackend.StoredFile::name).toList()))) {
+                    deleted.add(backup);
+                }
+            }
+            filesByBackend.forEach((backend, names) -> logger.info("Deleted the files of {} backups from {}.",
+                    batch.stream().filter(backup -> deleted.contains(backup) && inventory.holds(backend, backup.getBackupId())).count(),
+                    backend.getLocation()));
+            return deleted;
+        });
+    }
+
+    /**
+     * The backups found on the storage backends, from one listing each.
+     */
+    public static class Inventory {
+        private final Map<StorageBackend, Map<String, List<StorageBackend.StoredFile>>> files = new LinkedHashMap<>(); // Backup ID -> its files
+        private final List<StorageBackend> unlisted = new ArrayList<>();
+
+        /**
+         * The IDs of the backups any backend holds, sorted by name.
+         */
+        public Set<String> backupIds() {
+            Set<String> ids = new TreeSet<>();
+            for (StorageBackend backend : files.keySet()) {
+                files.get(backend).keySet().stream().filter(id -> holds(backend, id)).forEach(ids::add);
+            }
+            return ids;
+        }
+
+        /**
+         * Whether the backend holds the archive of a backup or shards of it; a checksum or an
+         * unfinished upload alone does not count.
+         */
+        public boolean holds(StorageBackend backend, String backupId) {
+            return files.getOrDefault(backend, Map.of()).getOrDefault(backupId, List.of()).stream()
+                    .anyMatch(file -> !file.name().endsWith(".sha256") && !file.name().endsWith(".part"));
+        }
+
+        public boolean holdsAny(String backupId) {
+            return files.keySet().stream().anyMatch(backend -> holds(backend, backupId));
+        }
+
+        /**
+         * Backends that could not be listed.
+         */
+        public List<StorageBackend> getUnlisted() {
+            return unlisted;
+        }
+
+        /**
+         * Size of the archive of a backup: of a whole copy if a backend has one, otherwise of all its shards.
+         */
+        long archiveSize(String backupId) {
+            long shards = 0;
+            for (Map<String, List<StorageBackend.StoredFile>> backups : files.values()) {
+                for (StorageBackend.StoredFile file : backups.getOrDefault(backupId, List.of())) {
+                    if (CompressionCodec.archiveExtensionOf(file.name()) != null) {
+                        return file.size();
+                    }
+                    if (file.name().matches(".*\\.ec\\d{3}")) {
+                        shards += file.size();
+                    }
+                }
+            }
+            return shards;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package uniba.system_package.backup;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.ConfigurationManager;
+import uniba.system_package.utils.LogManager;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.IsoFields;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Decides which backups to keep, separately for every target, with grandfather-father-son
+ * rules: the latest backup of each of the last {@code keepDaily} days, {@code keepWeekly}
+ * weeks, {@code keepMonthly} months and {@code keepYearly} years, the last
+ * {@code fullBackupsToKeep} full and {@code incrementalBackupsToKeep} incremental backups,
+ * and always the latest backup. An incremental backup can only be restored with the full
+ * backup before it and every incremental in between, so keeping one keeps that whole chain.
+ * <p>
+ * Plans are made from metadata alone (the catalog or a listing), without touching a file.
+ */
+public class RetentionEngine {
+    private static final Logger logger = LogManager.getLogger(RetentionEngine.class);
+
+    private static final Comparator<BackupMetadata> BY_TIME =
+            Comparator.comparingLong(BackupMetadata::getStartTime).thenComparing(BackupMetadata::getBackupId);
+
+    private final ConfigurationManager.Config.RetentionPolicy policy;
+
+    public RetentionEngine(ConfigurationManager.Config.RetentionPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Decides which of the backups to keep and which to delete.
+     */
+    public Plan plan(Collection<BackupMetadata> backups) {
+        Map<String, List<BackupMetadata>> byTarget = new TreeMap<>();
+        for (BackupMetadata backup : backups) {
+            byTarget.computeIfAbsent(backup.getTargetName(), target -> new ArrayList<>()).add(backup);
+        }
+        Plan plan = new Plan();
+        for (List<BackupMetadata> targetBackups : byTarget.values()) {
+            targetBackups.sort(BY_TIME);
+            planTarget(targetBackups, plan);
+        }
+        plan.delete.sort(BY_TIME.reversed());
+        return plan;
+    }
+
+    private void planTarget(List<BackupMetadata> backups, Plan plan) {
+        int count = backups.size();
+        // The full backup each backup depends on (itself for a full backup), -1 for none
+        int[] base = new int[count];
+        int lastFull = -1;
+        for (int i = 0; i < count; i++) {
+            if (isFull(backups.get(i))) {
+                lastFull = i;
+            }
+            base[i] = lastFull;
+        }
+
+        Map<Integer, List<String>> reasons = new TreeMap<>();
+        keep(reasons, count - 1, "latest");
+        int fulls = 0;
+        int incrementals = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            if (isFull(backups.get(i)) && fulls < policy.getFullBackupsToKeep()) {
+                keep(reasons, i, "full " + ++fulls);
+            } else if (!isFull(backups.get(i)) && incrementals < policy.getIncrementalBackupsToKeep()) {
+                keep(reasons, i, "incremental " + ++incrementals);
+            }
+        }
+        keepPerPeriod(backups, reasons, "daily", policy.getKeepDaily(), time -> time.toLocalDate());
+        keepPerPeriod(backups, reasons, "weekly", policy.getKeepWeekly(),
+                time -> time.get(IsoFields.WEEK_BASED_YEAR) + "-W" + time.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+        keepPerPeriod(backups, reasons, "monthly", policy.getKeepMonthly(), YearMonth::from);
+        keepPerPeriod(backups, reasons, "yearly", policy.getKeepYearly(), ZonedDateTime::getYear);
+
+        // Kept incrementals keep their chain; going newest first, each chain is walked only once
+        boolean[] kept = new boolean[count];
+        reasons.keySet().forEach(i -> kept[i] = true);
+        for (int i = count - 1; i >= 0; i--) {
+            if (!kept[i] || isFull(backups.get(i))) {
+                continue;
+            }
+            for (int j = i - 1; j >= 0 && base[j] == base[i]; j--) {
+                if (kept[j]) {
+                    break;
+                }
+                kept[j] = true;
+                keep(reasons, j, "chain of " + backups.get(i).getBackupId());
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (kept[i]) {
+                plan.keep.put(backups.get(i), String.join(", ", reasons.get(i)));
+            } else {
+                plan.delete.add(backups.get(i));
+            }
+        }
+    }
+
+    /**
+     * Keeps the latest backup of each of the last `periods` periods that have backups.
+     */
+    private static void keepPerPeriod(List<BackupMetadata> backups, Map<Integer, List<String>> reasons, String rule,
+                                      int periods, Function<ZonedDateTime, Object> period) {
+        Set<Object> seen = new HashSet<>();
+        for (int i = backups.size() - 1; i >= 0 && seen.size() < periods; i--) {
+            Object key = period.apply(Instant.ofEpochMilli(backups.get(i).getStartTime()).atZone(ZoneId.systemDefault()));
+            if (seen.add(key)) {
+                keep(reasons, i, rule + " " + key);
+            }
+        }
+    }
+
+    private static void keep(Map<Integer, List<String>> reasons, int index, String reason) {
+        if (index >= 0) {
+            reasons.computeIfAbsent(index, i -> new ArrayList<>()).add(reason);
+        }
+    }
+
+    private static boolean isFull(BackupMetadata backup) {
+        return "full".equalsIgnoreCase(backup.getBackupType());
+    }
+
+    /**
+     * Deletes the backups of a plan, newest first so a chain never loses its full backup
+     * before its incrementals. They are deleted in batches of {@code deleteBatchSize} on
+     * {@code deleteThreads} threads; a batch is finished before the next one starts.
+     *
+     * @param deleter    Deletes one backup; returns true if it is gone afterwards.
+     * @param afterBatch Receives the backups deleted in each batch, e.g. to update the catalog.
+     * @return The backups that were deleted.
+     */
+    public List<BackupMetadata> execute(Plan plan, Predicate<BackupMetadata> deleter, Consumer<List<BackupMetadata>> afterBatch) {
+        return execute(plan, deleter, batch -> CompletableFuture.completedFuture(Set.copyOf(batch)), afterBatch);
+    }
+
+    /**
+     * Deletes the backups of a plan like {@link #execute(Plan, Predicate, Consumer)}, while the
+     * other copies of each batch (e.g. on storage backends) are deleted at the same time, a
+     * whole batch at once. A backup counts as deleted when both are gone.
+     *
+     * @param copyDeleter Deletes the other copies of a batch; completes with the backups whose copies are gone.
+     */
+    public List<BackupMetadata> execute(Plan plan, Predicate<BackupMetadata> deleter,
+                                        Function<List<BackupMetadata>, CompletableFuture<Set<BackupMetadata>>> copyDeleter,
+                                        Consumer<List<BackupMetadata>> afterBatch) {
+        List<BackupMetadata> deleted = new ArrayList<>();
+        if (plan.delete.isEmpty()) {
+            return deleted;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(policy.getDeleteThreads(), plan.delete.size()), runnable -> {
+            Thread thread = new Thread(runnable, "retention-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int start = 0; start < plan.delete.size() && !Thread.currentThread().isInterrupted(); start += policy.getDeleteBatchSize()) {
+                List<BackupMetadata> batch = plan.delete.subList(start, Math.min(start + policy.getDeleteBatchSize(), plan.delete.size()));
+                CompletableFuture<Set<BackupMetadata>> copies = copyDeleter.apply(batch);
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (BackupMetadata backup : batch) {
+                    results.add(pool.submit(() -> deleter.test(backup)));
+                }
+                Set<BackupMetadata> copiesDeleted = Set.of();
+                try {
+                    copiesDeleted = copies.get();
+                } catch (ExecutionException e) {
+                    logger.error("Failed to delete the copies of {} backups: {}", batch.size(), e.getCause().getMessage(), e.getCause());
+                }
+                List<BackupMetadata> batchDeleted = new ArrayList<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        if (results.get(i).get() && copiesDeleted.contains(batch.get(i))) {
+                            batchDeleted.add(batch.get(i));
+                        }
+                    } catch (ExecutionException e) {
+                        logger.error("Failed to delete backup {}: {}", batch.get(i).getBackupId(), e.getCause().getMessage(), e.getCause());
+                    }
+                }
+                afterBatch.accept(batchDeleted);
+                deleted.addAll(batchDeleted);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Retention was interrupted after deleting {} backups.", deleted.size());
+        } finally {
+            pool.shutdownNow();
+        }
+        return deleted;
+    }
+
+    /**
+     * The outcome of planning: the backups to keep, with the rules that keep them, and the
+     * backups to delete, newest first.
+     */
+    public static class Plan {
+        private final Map<BackupMetadata, String> keep = new LinkedHashMap<>();
+        private final List<BackupMetadata> delete = new ArrayList<>();
+
+        public Map<BackupMetadata, String> getKeep() {
+            return keep;
+        }
+
+        public List<BackupMetadata> getDelete() {
+            return delete;
+        }
+
+        /**
+         * One line per backup, by target and oldest first, for a dry run.
+         */
+        public String describe() {
+            List<BackupMetadata> all = new ArrayList<>(keep.keySet());
+            all.addAll(delete);
+            all.sort(Comparator.comparing(BackupMetadata::getTargetName).thenComparing(BY_TIME));
+            StringBuilder description = new StringBuilder();
+            for (BackupMetadata backup : all) {
+                String reason = keep.get(backup);
+                description.append(reason != null ? "  keep    " : "  delete  ").append(backup.getBackupId());
+                if (reason != null) {
+                    description.append("  (").append(reason).append(')');
+                }
+                description.append(System.lineSeparator());
+            }
+            description.append(keep.size()).append(" backups kept, ").append(delete.size()).append(" deleted.");
+            return description.toString();
+        }
+    }
+}
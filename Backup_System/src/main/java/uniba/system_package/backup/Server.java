@@ -2,10 +2,24 @@ package uniba.system_package.backup;
 
 import org.slf4j.Logger;
 import uniba.system_package.scripts.ScriptExecutor;
+import uniba.system_package.storage.CompressionCodec;
+import uniba.system_package.storage.DirectoryScanner;
+import uniba.system_package.storage.FileStateIndex;
+import uniba.system_package.storage.ErasureCodedStorage;
+import uniba.system_package.storage.ReadGovernor;
+import uniba.system_package.storage.StorageBackend;
 import uniba.system_package.storage.StorageManager;
+import uniba.system_package.utils.ConfigurationManager;
 import uniba.system_package.utils.LogManager;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Server implements BackupTarget {
     private static final Logger logger = LogManager.getLogger(Server.class);
@@ -18,6 +32,10 @@ public class Server implements BackupTarget {
     private final String preBackupScript; // Path to pre-backup script
     private final String postBackupScript; // Path to post-backup script
     private final StorageManager storageManager;
+    private ConfigurationManager.Config.RemoteStorage remoteStorage; // Used when archives are streamed to remote storage
+    private List<StorageBackend> storageBackends = List.of(); // Where backups are uploaded, none if they stay local
+    private String storageFormat = "archive"; // "archive" or "dedup"
+    private DirectoryScanner scanner = new DirectoryScanner(null, null, 0); // Walks pathsToBackup
 
     public Server(String name, String host, String user, String password, List<String> pathsToBackup,
                   String preBackupScript, String postBackupScript) {
@@ -35,25 +53,77 @@ public class Server implements BackupTarget {
         return name;
     }
 
+    @Override
+    public String getHost() {
+        return host;
+    }
+
+    public void setRemoteStorage(ConfigurationManager.Config.RemoteStorage remoteStorage) {
+        this.remoteStorage = remoteStorage;
+    }
+
+    public void setStorageFormat(String storageFormat) {
+        this.storageFormat = storageFormat;
+    }
+
+    public void setCompression(CompressionCodec codec, int level) {
+        storageManager.setCompression(codec, level);
+    }
+
+    public void setDetectSparseFiles(boolean detectSparseFiles) {
+        storageManager.setDetectSparseFiles(detectSparseFiles);
+    }
+
+    public void setScanner(DirectoryScanner scanner) {
+        this.scanner = scanner;
+    }
+
+    public void setStorageBackends(List<StorageBackend> storageBackends) {
+        this.storageBackends = storageBackends;
+    }
+
+    @Override
+    public List<StorageBackend> getStorageBackends() {
+        return storageBackends;
+    }
+
+    @Override
+    public StorageManager getStorageManager() {
+        return storageManager;
+    }
+
+    public void setReadGovernor(ReadGovernor readGovernor) {
+        storageManager.setReadGovernor(readGovernor);
+    }
+
+    /**
+     * Streams archives as erasure-coded shards; null for full copies.
+     */
+    public void setErasureCoding(ErasureCodedStorage erasureCoding) {
+        storageManager.setErasureCoding(erasureCoding);
+    }
+
     public List<String> getPathsToBackup() {
         return pathsToBackup;
     }
 
-    public void setEnabled(boolean enabled) {
-        this.enabled = enabled;
+    @Override
+    public boolean setEnabled(boolean enabled) {
+        return this.enabled.getAndSet(enabled);
     }
 
-    private boolean enabled = true; // Default to enabled
+    private final AtomicBoolean enabled = new AtomicBoolean(true); // Default to enabled; changed from the CLI while backups run
 
+    @Override
     public boolean isEnabled() {
-        return enabled;
+        return enabled.get();
     }
     @Override
-    public boolean performBackup() {
+    public BackupResult performBackup(String backupType) {
         logger.info("Starting backup for server: {}", name);
-        if (!enabled) {
+        if (!enabled.get()) {
             logger.info("Backup skipped for server '{}' because it is disabled.", name);
-            return false;
+            return BackupResult.failure();
         }
 
         logger.info("Starting backup for server: {}", name);
@@ -66,21 +136,29 @@ public class Server implements BackupTarget {
             logger.info("Executing pre-backup script for server: {}", name);
             if (!scriptExecutor.executeScript(preBackupScript)) {
                 logger.error("Pre-backup script failed for server: {}", name);
-                return false;
+                return BackupResult.failure();
             }
         }
 
+        BackupResult result;
         try {
-            String backupArchivePath = "/backups/" + name + ".tar.gz";
-            if (storageManager.compressFiles(pathsToBackup, backupArchivePath)) {
-                logger.info("Backup successfully stored at: {}", backupArchivePath);
+            String backupName = BackupMetadata.backupName(name, backupType, LocalDateTime.now());
+            if ("dedup".equalsIgnoreCase(storageFormat)) {
+                String manifest = storageManager.storeDeduplicated(scanner.scanAll(pathsToBackup), backupName);
+                result = manifest != null ? BackupResult.stored(backupName, manifest, Files.size(Paths.get(manifest))) : BackupResult.failure();
+            } else {
+                result = storeArchive(backupType, backupName, "/backups/" + backupName + storageManager.getCompressionCodec().getArchiveExtension());
+            }
+
+            if (result.isSuccess()) {
+                logger.info("Backup successfully stored at: {}", result.getLocation() != null ? result.getLocation() : "the storage backends");
             } else {
                 logger.error("Failed to create backup archive for server: {}", name);
-                return false;
+                return BackupResult.failure();
             }
         } catch (Exception e) {
             logger.error("Backup failed for server: {}", name, e);
-            return false;
+            return BackupResult.failure();
         }
 
         // Execute post-backup script
@@ -88,11 +166,54 @@ public class Server implements BackupTarget {
             logger.info("Executing post-backup script for server: {}", name);
             if (!scriptExecutor.executeScript(postBackupScript)) {
                 logger.error("Post-backup script failed for server: {}", name);
-                return false;
+                return BackupResult.failure();
             }
         }
 
-        return true;
+        return result;
     }
 
+    /**
+     * Writes the archive of a full or incremental backup and updates the file-state index,
+     * which the job saves once the backup is catalogued.
+     * An incremental backup only contains files that changed since the previous backup,
+     * plus the list of files deleted since then. The directories are scanned while the
+     * archive is written. Files below paths the scan could not read are not listed as deleted
+     * and keep their state in the index, so they are compared again by the next backup.
+     *
+     * @return The stored archive, with no location if it was only streamed to the storage backends,
+     * or a failure if it could not be written.
+     */
+    private BackupResult storeArchive(String backupType, String backupName, String backupArchivePath) throws IOException {
+        FileStateIndex index = FileStateIndex.load(Paths.get(StorageManager.INDEX_PATH, name + ".idx"));
+        boolean incremental = "incremental".equalsIgnoreCase(backupType);
+        if (incremental && index.isEmpty()) {
+            logger.warn("No previous backup state for server '{}'. The incremental backup will contain all files.", name);
+        }
+
+        DirectoryScanner.Scan scan = scanner.start(pathsToBackup);
+        FileStateIndex.ChangeSet changes = new FileStateIndex.ChangeSet();
+        Iterable<String> files = index.select(scan, changes, incremental);
+        Map<String, String> contentHashes = new HashMap<>();
+        long size;
+        try {
+            size = storageManager.storeArchive(files, () -> incremental ? changes.getDeletedPaths() : List.of(),
+                    backupArchivePath, remoteStorage, storageBackends, contentHashes);
+        } finally {
+            scan.cancel(); // No-op after a complete scan, stops the scanner threads otherwise
+        }
+        if (size < 0) {
+            return BackupResult.failure();
+        }
+        logger.info("{} backup of server '{}': {} of {} files archived, {} deleted since the last backup.",
+                backupType, name, contentHashes.size(), scan.getFileCount(), changes.getDeletedPaths().size());
+        if (scan.getErrorCount() > 0) {
+            logger.warn("{} paths of server '{}' could not be read, e.g. {}; the files below them keep their last known state.",
+                    scan.getErrorCount(), name, scan.getFailedPaths().get(0));
+        }
+        index.update(changes, contentHashes);
+        // Streamed without a local copy: the archive is only on the storage backends
+        String location = Files.isRegularFile(Paths.get(backupArchivePath)) ? backupArchivePath : null;
+        return BackupResult.stored(backupName, location, size).withIndex(index);
+    }
 }
\ No newline at end of file
@@ -6,11 +6,14 @@ public class SystemStatus {
     private final boolean schedulerActive;
     private final Map<String, String> lastBackupTimes;
     private final Map<String, String> nextBackupTimes;
+    private final Map<String, String> targetStates; // Enabled or not, and backups since the start
 
-    public SystemStatus(boolean schedulerActive, Map<String, String> lastBackupTimes, Map<String, String> nextBackupTimes) {
+    public SystemStatus(boolean schedulerActive, Map<String, String> lastBackupTimes, Map<String, String> nextBackupTimes,
+                        Map<String, String> targetStates) {
         this.schedulerActive = schedulerActive;
         this.lastBackupTimes = lastBackupTimes;
         this.nextBackupTimes = nextBackupTimes;
+        this.targetStates = targetStates;
     }
 
     public boolean isSchedulerActive() {
@@ -24,4 +27,8 @@ public class SystemStatus {
     public Map<String, String> getNextBackupTimes() {
         return nextBackupTimes;
     }
+
+    public Map<String, String> getTargetStates() {
+        return targetStates;
+    }
 }
@@ -0,0 +1,183 @@
+package uniba.system_package.backup;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The backup targets (servers and databases) of the configuration, built once and shared by
+ * the CLI, the scheduler and the BackupManager, so state set on a target, such as whether it
+ * is enabled, stays with it for every later backup. Targets are looked up by name, ignoring
+ * case and surrounding blanks, with one map lookup, and each carries its runtime statistics.
+ * Safe for concurrent use.
+ */
+public class TargetRegistry {
+    private static final Logger logger = LogManager.getLogger(TargetRegistry.class);
+
+    private final Map<String, Registration> registrations = new ConcurrentHashMap<>(); // By normalized name
+    private final List<BackupTarget> targets = new CopyOnWriteArrayList<>(); // Configuration order
+
+    /**
+     * The key a target name is registered and looked up with.
+     */
+    public static String normalize(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a target. A second target with the same name (ignoring case) is not added, like
+     * the first match won when targets were searched in configuration order.
+     *
+     * @return true if the target was added.
+     */
+    public boolean register(BackupTarget target) {
+        Registration registration = new Registration(target);
+        if (registrations.putIfAbsent(normalize(target.getName()), registration) != null) {
+            logger.warn("Target '{}' is configured more than once; only the first one is used.", target.getName());
+            return false;
+        }
+        targets.add(target);
+        return true;
+    }
+
+    /**
+     * @return The target with that name, or null if there is none.
+     */
+    public BackupTarget find(String name) {
+        Registration registration = registrations.get(normalize(name));
+        return registration != null ? registration.target : null;
+    }
+
+    /**
+     * @return The runtime statistics of the target with that name, or null if there is none.
+     */
+    public TargetStats getStats(String name) {
+        Registration registration = registrations.get(normalize(name));
+        return registration != null ? registration.stats : null;
+    }
+
+    /**
+     * The lock a backup of the target holds from its start until it is catalogued, so two
+     * runs of one target, such as overlapping schedules or a manual backup during a scheduled
+     * one, run one after the other.
+     *
+     * @return The lock, or null if there is no target with that name.
+     */
+    public Lock getBackupLock(String name) {
+        Registration registration = registrations.get(normalize(name));
+        return registration != null ? registration.backupLock : null;
+    }
+
+    /**
+     * All targets, in configuration order.
+     */
+    public List<BackupTarget> getTargets() {
+        return List.copyOf(targets);
+    }
+
+    /**
+     * The targets that are enabled right now, in configuration order.
+     */
+    public List<BackupTarget> getEnabledTargets() {
+        List<BackupTarget> enabled = new ArrayList<>();
+        for (BackupTarget target : targets) {
+            if (target.isEnabled()) {
+                enabled.add(target);
+            }
+        }
+        return enabled;
+    }
+
+    /**
+     * Enables or disables a target for all later backups, scheduled or manual.
+     *
+     * @return true if the target exists, false otherwise.
+     */
+    public boolean setEnabled(String name, boolean enabled) {
+        BackupTarget target = find(name);
+        if (target == null) {
+            return false;
+        }
+        boolean previous = target.setEnabled(enabled);
+        if (previous == enabled) {
+            logger.info("Target '{}' was already {}.", target.getName(), enabled ? "enabled" : "disabled");
+        }
+        return true;
+    }
+
+    private static class Registration {
+        private final BackupTarget target;
+        private final TargetStats stats = new TargetStats();
+        private final Lock backupLock = new ReentrantLock();
+
+        Registration(BackupTarget target) {
+            this.target = target;
+        }
+    }
+
+    /**
+     * What happened to the backups of one target since the application started. Updated by
+     * the threads that finish backups, read by the CLI.
+     */
+    public static class TargetStats {
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong bytesStored = new AtomicLong();
+        private volatile BackupMetadata lastBackup;
+
+        /**
+         * Counts a finished backup of the target.
+         */
+        public void record(BackupMetadata backup) {
+            if ("success".equals(backup.getStatus())) {
+                successes.incrementAndGet();
+                bytesStored.addAndGet(backup.getBackupSize());
+            } else {
+                failures.incrementAndGet();
+            }
+            lastBackup = backup;
+        }
+
+        public long getSuccesses() {
+            return successes.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getBytesStored() {
+            return bytesStored.get();
+        }
+
+        /**
+         * @return The last finished backup, or null if none finished since the start.
+         */
+        public BackupMetadata getLastBackup() {
+            return lastBackup;
+        }
+
+        /**
+         * One line for the status display.
+         */
+        public String describe() {
+            String description = successes.get() + " succeeded, " + failures.get() + " failed, "
+                    + String.format("%.1f", bytesStored.get() / (1024.0 * 1024.0)) + " MB stored";
+            BackupMetadata last = lastBackup;
+            if (last != null) {
+                description += "; last " + last.getBackupType() + " " + last.getStatus() + " in "
+                        + String.format("%.1f", (last.getEndTime() - last.getStartTime()) / 1000.0) + " s";
+            }
+            return description;
+        }
+    }
+}
@@ -2,9 +2,13 @@ package uniba.system_package.cli;
 
 import uniba.system_package.backup.BackupManager;
 import uniba.system_package.backup.BackupMetadata;
+import uniba.system_package.backup.RetentionEngine;
 import uniba.system_package.backup.SystemStatus;
 import uniba.system_package.scripts.ScriptExecutor;
 import uniba.system_package.utils.ConfigurationManager;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.*;
@@ -145,6 +149,14 @@ public class CLI {
                 validateScript(args);
                 System.out.println();
                 break;
+            case "set_bandwidth":
+                setBandwidth(args);
+                System.out.println();
+                break;
+            case "apply_retention":
+                applyRetention(args);
+                System.out.println();
+                break;
             case "exit":
                 exit();
                 System.out.println();
@@ -169,6 +181,8 @@ public class CLI {
             System.out.println("  enable_server       Turn on backups for a server.");
             System.out.println("  disable_server      Turn off backups for a server.");
             System.out.println("  validate_script     Check if a script is valid.");
+            System.out.println("  set_bandwidth       Show or change the upload bandwidth limits.");
+            System.out.println("  apply_retention     Delete old backups now, or show what would be deleted.");
             System.out.println("  exit                Exit the program.");
             System.out.println("\nTo see more about one command, use: help --cmd <COMMAND_NAME>\n");
             System.out.println();
@@ -179,20 +193,22 @@ public class CLI {
                     System.out.println("Usage: schedule_backup --target <TARGET_NAME> --type <TYPE> --schedule <CRON_EXPRESSION>");
                     System.out.println("Example: schedule_backup --target Server1 --type full --schedule \"0 2 * * 0\"");
                     System.out.println("Sets up a backup schedule using a cron expression.");
+                    System.out.println("Type 'synthetic' merges the stored full and incremental backups into a new full one.");
                     System.out.println();
                     break;
                 case "run_backup":
                     System.out.println();
-                    System.out.println("Usage: run_backup --target <TARGET_NAME>");
+                    System.out.println("Usage: run_backup --target <TARGET_NAME> [--type full|incremental|synthetic]");
                     System.out.println("Example: run_backup --target Server1");
                     System.out.println("Manually triggers a backup for the given target right away.");
+                    System.out.println("Type 'synthetic' merges the stored full and incremental backups into a new full one.");
                     System.out.println();
                     break;
                 case "restore_backup":
                     System.out.println();
-                    System.out.println("Usage: restore_backup --id <BACKUP_ID>");
-                    System.out.println("Example: restore_backup --id 12345");
-                    System.out.println("Restores the backup with that ID.");
+                    System.out.println("Usage: restore_backup --id <BACKUP_ID> [--path <FILE_OR_DIRECTORY>]");
+                    System.out.println("Example: restore_backup --id 12345 --path /etc/app/app.conf");
+                    System.out.println("Restores the backup with that ID, or with --path only that file or directory.");
                     System.out.println();
                     break;
                 case "status":
@@ -230,6 +246,23 @@ public class CLI {
                     System.out.println("Checks if the given script can run properly.");
                     System.out.println();
                     break;
+                case "set_bandwidth":
+                    System.out.println();
+                    System.out.println("Usage: set_bandwidth [--limit <MBIT_PER_SECOND|off|auto>] [--destination <HOST>]");
+                    System.out.println("Example: set_bandwidth --limit 50");
+                    System.out.println("Example: set_bandwidth --limit 10 --destination 192.168.1.100");
+                    System.out.println("Limits the uploads (of one destination host) right away, also running ones.");
+                    System.out.println("'off' removes the limit, 'auto' returns to the configured limits. Without --limit, shows the limits.");
+                    System.out.println();
+                    break;
+                case "apply_retention":
+                    System.out.println();
+                    System.out.println("Usage: apply_retention [--dry-run]");
+                    System.out.println("Example: apply_retention --dry-run");
+                    System.out.println("Applies the retention policy to the backups of every target.");
+                    System.out.println("With --dry-run nothing is deleted; every backup is listed with the rule that keeps it.");
+                    System.out.println();
+                    break;
                 case "exit":
                     System.out.println();
                     System.out.println("Usage: exit");
@@ -256,8 +289,9 @@ public class CLI {
         String backupType = args.get("type");
         String cronExpression = args.get("schedule");
 
-        if (!"full".equalsIgnoreCase(backupType) && !"incremental".equalsIgnoreCase(backupType)) {
-            System.out.println("Error: Invalid backup type. Must be 'full' or 'incremental'.");
+        if (!"full".equalsIgnoreCase(backupType) && !"incremental".equalsIgnoreCase(backupType)
+                && !"synthetic".equalsIgnoreCase(backupType)) {
+            System.out.println("Error: Invalid backup type. Must be 'full', 'incremental' or 'synthetic'.");
             return;
         }
 
@@ -303,12 +337,13 @@ public class CLI {
         }
 
         String backupId = args.get("id");
-        System.out.println("Restoring backup with ID: " + backupId);
+        List<String> paths = args.containsKey("path") && !args.get("path").isBlank() ? List.of(args.get("path")) : List.of();
+        System.out.println("Restoring " + (paths.isEmpty() ? "backup" : paths.get(0) + " from backup") + " with ID: " + backupId);
 
         // Step 2: Call BackupManager to handle restoration
         boolean success;
         try {
-            success = backupManager.restoreBackupById(backupId);
+            success = backupManager.restoreBackupById(backupId, paths);
         } catch (Exception e) {
             System.out.println("Error: An exception occurred while restoring the backup: " + e.getMessage());
             e.printStackTrace();
@@ -343,6 +378,12 @@ public class CLI {
             status.getNextBackupTimes().forEach((target, time) -> {
                 System.out.println("  " + target + ": " + (time != null ? time : "Not scheduled"));
             });
+
+            // Display the state of the configured targets since the start
+            System.out.println("\nTargets:");
+            status.getTargetStates().forEach((target, state) -> {
+                System.out.println("  " + target + ": " + state);
+            });
         } catch (Exception e) {
             System.out.println("Error: Unable to fetch system status: " + e.getMessage());
             e.printStackTrace();
@@ -353,16 +394,19 @@ public class CLI {
         System.out.println("Showing all backups we have...");
         try {
             List<BackupMetadata> backups = backupManager.getAllBackups();
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
 
-            System.out.printf("%-10s %-20s %-15s %-20s\n", "BackupID", "TargetName", "Type", "StartTime");
-            System.out.println("---------------------------------------------------------------");
+            System.out.printf("%-45s %-20s %-15s %-20s %12s\n", "BackupID", "TargetName", "Type", "StartTime", "Size (MB)");
+            System.out.println("-------------------------------------------------------------------------------------------------------------------");
             for (BackupMetadata backup : backups) {
-                System.out.printf("%-10s %-20s %-15s %-20s\n",
+                System.out.printf("%-45s %-20s %-15s %-20s %12.1f\n",
                         backup.getBackupId(),
                         backup.getTargetName(),
                         backup.getBackupType(),
-                        backup.getStartTime());
+                        formatter.format(Instant.ofEpochMilli(backup.getStartTime())),
+                        backup.getBackupSize() / (1024.0 * 1024.0));
             }
+            System.out.println(backups.size() + " backups.");
         } catch (Exception e) {
             System.out.println("Error: Unable to fetch backups: " + e.getMessage());
             e.printStackTrace();
@@ -447,6 +491,49 @@ public class CLI {
     
     
 
+    private void setBandwidth(Map<String, String> args) {
+        if (args.containsKey("limit")) {
+            String limit = args.get("limit");
+            String destination = args.containsKey("destination") && !args.get("destination").isBlank() ? args.get("destination") : null;
+            Double megabitsPerSecond;
+            if (limit.equalsIgnoreCase("auto")) {
+                megabitsPerSecond = null;
+            } else if (limit.equalsIgnoreCase("off")) {
+                megabitsPerSecond = 0.0;
+            } else {
+                try {
+                    megabitsPerSecond = Double.parseDouble(limit);
+                } catch (NumberFormatException e) {
+                    megabitsPerSecond = -1.0;
+                }
+                if (megabitsPerSecond < 0) {
+                    System.out.println("Error: Invalid limit '" + limit + "'. Use Mbit/s, 'off' or 'auto'.");
+                    return;
+                }
+            }
+            backupManager.setBandwidthLimit(destination, megabitsPerSecond);
+            System.out.println("Bandwidth limit updated.");
+        }
+        System.out.println("Upload bandwidth limits:");
+        System.out.println(backupManager.getBandwidthLimits());
+    }
+
+    private void applyRetention(Map<String, String> args) {
+        boolean dryRun = args.containsKey("dry-run");
+        System.out.println(dryRun ? "Planning retention (dry run)..." : "Applying retention...");
+        try {
+            RetentionEngine.Plan plan = backupManager.applyRetention(dryRun);
+            if (dryRun) {
+                System.out.println(plan.describe());
+            } else {
+                System.out.println(plan.getKeep().size() + " backups kept, " + plan.getDelete().size() + " selected for deletion (failures are logged).");
+            }
+        } catch (Exception e) {
+            System.out.println("Error: Unable to apply retention: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
     private void exit() {
         System.out.println("Exiting the CLI. Goodbye!");
         isRunning = false;
@@ -8,6 +8,7 @@ import uniba.system_package.backup.BackupManager;
 import uniba.system_package.backup.BackupTarget;
 import uniba.system_package.utils.LogManager;
 
+import java.util.Date;
 import java.util.List;
 
 public class Scheduler {
@@ -109,7 +110,15 @@ public class Scheduler {
             String backupType = dataMap.getString("backupType");
             String targetName = dataMap.getString("targetName");
 
-            if (backupType != null && targetName != null) {
+            Object task = dataMap.get("task");
+            if (task instanceof Runnable runnable) {
+                // Global schedule, see scheduleCronBackup
+                try {
+                    runnable.run();
+                } catch (Exception e) {
+                    logger.error("Error executing scheduled backup task: {}", e.getMessage(), e);
+                }
+            } else if (backupType != null && targetName != null) {
                 BackupManager backupManager;
                 try {
                     backupManager = (BackupManager) context.getScheduler().getContext().get("backupManager");
@@ -141,6 +150,33 @@ public class Scheduler {
         }
     }
 
+    /**
+     * Next time a backup of a target runs, by a schedule of its own or the global one.
+     *
+     * @return The time, or null if no backup of the target is scheduled.
+     */
+    public Date getNextRunTimeForTarget(String targetName) {
+        List<String> jobNames = List.of(targetName + "-full-backup", targetName + "-incremental-backup",
+                targetName + "-synthetic-backup", "full-backup", "incremental-backup", "synthetic-full-backup");
+        Date next = null;
+        try {
+            for (JobKey jobKey : quartzScheduler.getJobKeys(GroupMatcher.jobGroupEquals("backup-jobs"))) {
+                if (!jobNames.contains(jobKey.getName())) {
+                    continue;
+                }
+                for (Trigger trigger : quartzScheduler.getTriggersOfJob(jobKey)) {
+                    Date fireTime = trigger.getNextFireTime();
+                    if (fireTime != null && (next == null || fireTime.before(next))) {
+                        next = fireTime;
+                    }
+                }
+            }
+        } catch (SchedulerException e) {
+            logger.error("Failed to retrieve next run time for target '{}': {}", targetName, e.getMessage(), e);
+        }
+        return next;
+    }
+
     public String getNextRunTime(String jobName) {
         try {
 
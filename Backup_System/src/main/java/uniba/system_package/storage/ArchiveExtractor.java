@@ -0,0 +1,787 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts backup archives into a directory: tar archives (compressed with any
+ * {@link CompressionCodec}) with permissions, ownership, modification times, symbolic links
+ * and sparse files, and the zip archives written by earlier versions.
+ * <p>
+ * Entries are never written outside the extraction directory, neither through ".." in
+ * their names nor through symbolic links extracted before them.
+ * <p>
+ * Single files or directories can be extracted without reading the whole archive, using the
+ * {@link ArchiveIndex} at its end: each entry is decompressed from the last restart point
+ * before it and checked against the checksum in the index. Whole archives with an index are
+ * extracted on several threads, see {@link #setThreads}.
+ */
+public class ArchiveExtractor {
+    private static final Logger logger = LogManager.getLogger(ArchiveExtractor.class);
+
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int SMALL_FILE_SIZE = 1024 * 1024;    // Files read whole and written by the writer threads
+    private static final int MAX_BUFFERED = 64 * 1024 * 1024; // Bytes of such files read ahead of the writers
+
+    private final Path extractionDir;
+    private final Path realExtractionDir;
+    private final Set<Path> verifiedDirectories = ConcurrentHashMap.newKeySet();
+    private volatile boolean restoreOwnership = true;
+    private int threads = 1;
+    private final AtomicLong filesExtracted = new AtomicLong();
+    private final AtomicLong bytesExtracted = new AtomicLong();
+
+    public ArchiveExtractor(Path extractionDir) throws IOException {
+        Files.createDirectories(extractionDir);
+        this.extractionDir = extractionDir.normalize();
+        this.realExtractionDir = extractionDir.toRealPath();
+    }
+
+    /**
+     * Extracts whole archives that have an index on this many threads; 1 (the default)
+     * extracts one entry after the other.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Regular files extracted by this extractor so far.
+     */
+    public long getFilesExtracted() {
+        return filesExtracted.get();
+    }
+
+    /**
+     * Bytes of file content extracted by this extractor so far.
+     */
+    public long getBytesExtracted() {
+        return bytesExtracted.get();
+    }
+
+    /**
+     * Extracts one local archive, see {@link #extract(ArchiveSource)}.
+     */
+    public void extract(Path archive) throws IOException {
+        extract(ArchiveSource.of(archive));
+    }
+
+    /**
+     * Extracts one archive. Files recorded as deleted in the archive are removed from the
+     * extraction directory. With more than one thread, archives with an index are extracted
+     * in parallel (see {@link #extractParallel}), others one entry after the other. Remote
+     * archives are streamed into the extraction directory as they are read.
+     */
+    public void extract(ArchiveSource archive) throws IOException {
+        long start = System.nanoTime();
+        long files = filesExtracted.get();
+        long bytes = bytesExtracted.get();
+        ArchiveIndex index = threads > 1 && archive.isRandomAccess() ? ArchiveIndex.read(archive) : null;
+        int workers = 1;
+        if (index != null && index.getRestartPoints().size() > 1) {
+            workers = extractParallel(archive, index);
+        } else {
+            extract(archive.open(0, Long.MAX_VALUE), null);
+        }
+
+        bytes = bytesExtracted.get() - bytes;
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        logger.info("Extracted {} files ({} MB) from {} in {} s on {} threads: {} MB/s", filesExtracted.get() - files,
+                bytes / (1024 * 1024), archive.getName(), String.format("%.1f", seconds), workers,
+                String.format("%.1f", bytes / seconds / (1024 * 1024)));
+    }
+
+    /**
+     * Extracts the entries of an archive at or below the given paths (files or directories,
+     * relative like the entry names). With an index, only those entries are read; archives
+     * without one are read through.
+     *
+     * @return The number of entries extracted.
+     */
+    public int extract(ArchiveSource archive, Collection<String> paths) throws IOException {
+        ArchiveIndex index = !archive.isRandomAccess() ? null : ArchiveIndex.read(archive,
+                name -> name.equals(StorageManager.DELETED_ENTRIES_NAME) || ArchiveIndex.matches(name, paths));
+        if (index == null) {
+            logger.info("{} has no index or cannot be read from an offset; reading the whole archive.", archive.getName());
+            return extract(archive.open(0, Long.MAX_VALUE), paths);
+        }
+
+        Map<Path, TarEntry> directories = new LinkedHashMap<>();
+        int extracted = 0;
+        PositionInputStream in = null;
+        try {
+            for (ArchiveIndex.Entry indexed : index.getEntries()) {
+                // Decompress on from where the previous entry ended, unless a restart point is closer
+                long[] restartPoint = index.restartPointFor(indexed.offset());
+                if (in == null || in.position > indexed.offset() || restartPoint[1] > in.position) {
+                    if (in != null) {
+                        in.close();
+                    }
+                    in = new PositionInputStream(new BufferedInputStream(
+                            index.getCodec().decompress(archive.open(restartPoint[0])), BUFFER_SIZE), restartPoint[1]);
+                }
+                in.skipNBytes(indexed.offset() - in.position);
+
+                TarInputStream tarIn = new TarInputStream(in);
+                TarEntry entry = tarIn.getNextEntry();
+                if (entry == null || !entryName(entry).equals(indexed.name())) {
+                    throw new IOException("The index of " + archive.getName() + " does not match its entry " + indexed.name());
+                }
+                if (indexed.name().equals(StorageManager.DELETED_ENTRIES_NAME)) {
+                    applyDeletions(tarIn, paths);
+                } else {
+                    extractEntry(tarIn, entry, directories, indexed.sha256());
+                    extracted++;
+                }
+            }
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+        restoreDirectoryAttributes(directories);
+        return extracted;
+    }
+
+    /**
+     * Extracts a whole archive on the worker threads. The restart points of the index cut the
+     * uncompressed archive into segments that are decompressed independently, and each worker
+     * extracts the entries whose headers are in its segment. Small files are read into memory
+     * and written by a second set of threads, as creating many files takes longer than
+     * decompressing them. Files reaching into later segments are created at their final size
+     * first and then written in parts, each part by the worker decompressing it, so large files
+     * are restored by several threads as well.
+     * <p>
+     * Symbolic links are only created once all files are written, so no link can redirect a
+     * file being written at the same time. The checksums and attributes of the files written in
+     * parts, the deletions and the attributes of directories follow.
+     *
+     * @return The number of threads used.
+     */
+    private int extractParallel(ArchiveSource archive, ArchiveIndex index) throws IOException {
+        List<long[]> restartPoints = index.getRestartPoints();
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < restartPoints.size(); i++) {
+            boolean last = i + 1 == restartPoints.size();
+            segments.add(new Segment(restartPoints.get(i)[0], last ? Long.MAX_VALUE : restartPoints.get(i + 1)[0],
+                    restartPoints.get(i)[1], last ? Long.MAX_VALUE : restartPoints.get(i + 1)[1]));
+        }
+
+        // Entries belong to the segment of their header; files written in parts are created up front
+        Set<ArchiveIndex.Entry> inParts = new HashSet<>();
+        int current = 0;
+        for (ArchiveIndex.Entry indexed : index.getEntries()) {
+            while (current + 1 < segments.size() && segments.get(current + 1).start <= indexed.offset()) {
+                current++;
+            }
+            Segment owner = segments.get(current);
+            owner.entries.add(indexed);
+            long dataEnd = indexed.dataOffset() + indexed.size();
+            if (indexed.type() == TarEntry.TYPE_FILE && indexed.dataOffset() >= 0 && dataEnd > owner.end
+                    && !indexed.name().equals(StorageManager.DELETED_ENTRIES_NAME)) { // Deletions are read whole by their segment
+                Path target = resolveEntry(indexed.name());
+                createParentDirectories(target);
+                Files.deleteIfExists(target); // Never write through an existing symbolic link
+                try (RandomAccessFile file = new RandomAccessFile(target.toFile(), "rw")) {
+                    file.setLength(indexed.size());
+                }
+                for (int i = current + 1; i < segments.size() && segments.get(i).start < dataEnd; i++) {
+                    segments.get(i).continued = indexed;
+                }
+                inParts.add(indexed);
+            }
+        }
+
+        List<Segment> work = segments.stream().filter(segment -> !segment.entries.isEmpty() || segment.continued != null).toList();
+        int workers = Math.max(1, Math.min(threads, work.size()));
+        ExecutorService pool = newPool(workers, "restore-");
+        Extraction extraction = new Extraction(newPool(threads, "restore-write-"));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Segment segment : work) {
+                futures.add(pool.submit(() -> {
+                    extractSegment(archive, index.getCodec(), segment, inParts, extraction);
+                    return null;
+                }));
+            }
+            awaitAll(futures);
+            awaitAll(new ArrayList<>(extraction.writes));
+
+            futures.clear();
+            for (ArchiveIndex.Entry indexed : inParts) {
+                futures.add(pool.submit(() -> {
+                    finishParts(indexed, extraction.partHeaders.get(indexed));
+                    return null;
+                }));
+            }
+            awaitAll(futures);
+        } finally {
+            pool.shutdownNow();
+            extraction.writers.shutdownNow();
+        }
+
+        for (TarEntry link : extraction.links.values()) {
+            createSymbolicLink(resolveEntry(link.getName()), link);
+        }
+        if (extraction.deletions != null) {
+            applyDeletions(new ByteArrayInputStream(extraction.deletions), null);
+        }
+        restoreDirectoryAttributes(extraction.directories);
+        return workers;
+    }
+
+    private static ExecutorService newPool(int threads, String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Decompresses a segment from its restart point and extracts the entries whose headers are
+     * in it, and the part of a file written in parts that lies in it.
+     */
+    private void extractSegment(ArchiveSource archive, CompressionCodec codec, Segment segment,
+                                Set<ArchiveIndex.Entry> inParts, Extraction extraction) throws IOException {
+        try (PositionInputStream in = new PositionInputStream(new BufferedInputStream(
+                codec.decompress(archive.open(segment.compressedStart, segment.compressedEnd)), BUFFER_SIZE), segment.start)) {
+            if (segment.continued != null) {
+                writePart(in, segment.continued, segment);
+            }
+            for (ArchiveIndex.Entry indexed : segment.entries) {
+                in.skipNBytes(indexed.offset() - in.position);
+                TarInputStream tarIn = new TarInputStream(in);
+                TarEntry entry = tarIn.getNextEntry();
+                if (entry == null || !entryName(entry).equals(indexed.name())) {
+                    throw new IOException("The index of " + archive.getName() + " does not match its entry " + indexed.name());
+                }
+                if (indexed.name().equals(StorageManager.DELETED_ENTRIES_NAME)) {
+                    extraction.deletions = indexed.dataOffset() + indexed.size() > segment.end
+                            ? readPastSegment(archive, codec, segment, indexed) : tarIn.readAllBytes();
+                } else if (inParts.contains(indexed)) {
+                    extraction.partHeaders.put(indexed, entry);
+                    writePart(in, indexed, segment);
+                } else if (entry.isSymbolicLink()) {
+                    extraction.links.put(indexed.offset(), entry);
+                } else if (entry.isFile() && !entry.isSparse() && entry.getSize() <= SMALL_FILE_SIZE) {
+                    writeLater(tarIn, entry, indexed.sha256(), extraction);
+                } else {
+                    extractEntry(tarIn, entry, extraction.directories, indexed.sha256());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the content of an entry that goes on beyond the end of its segment, decompressing
+     * from the restart point of the segment on into the following ones.
+     */
+    private static byte[] readPastSegment(ArchiveSource archive, CompressionCodec codec, Segment segment,
+                                          ArchiveIndex.Entry indexed) throws IOException {
+        try (PositionInputStream in = new PositionInputStream(new BufferedInputStream(
+                codec.decompress(archive.open(segment.compressedStart, Long.MAX_VALUE)), BUFFER_SIZE), segment.start)) {
+            in.skipNBytes(indexed.dataOffset() - in.position);
+            byte[] content = in.readNBytes((int) indexed.size());
+            if (content.length < indexed.size()) {
+                throw new IOException("Archive data of " + indexed.name() + " is truncated");
+            }
+            return content;
+        }
+    }
+
+    /**
+     * Reads a small file and leaves writing it to the writer threads, so the worker can go on
+     * decompressing while the file is created.
+     */
+    private void writeLater(TarInputStream tarIn, TarEntry entry, String sha256, Extraction extraction) throws IOException {
+        Path target = resolveEntry(entry.getName());
+        byte[] content = tarIn.readNBytes((int) entry.getSize());
+        if (content.length < entry.getSize()) {
+            throw new IOException("Archive data of " + entry.getName() + " is truncated");
+        }
+        try {
+            extraction.buffered.acquire(content.length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction interrupted");
+        }
+        extraction.writes.add(extraction.writers.submit(() -> {
+            try {
+                if (sha256 != null && !HexFormat.of().formatHex(newSha256().digest(content)).equals(sha256)) {
+                    throw new IOException("Checksum mismatch for " + entry.getName());
+                }
+                createParentDirectories(target);
+                Files.deleteIfExists(target); // Never write through an existing symbolic link
+                Files.write(target, content, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                restoreAttributes(target, entry);
+                filesExtracted.incrementAndGet();
+                bytesExtracted.addAndGet(content.length);
+            } finally {
+                extraction.buffered.release(content.length);
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Writes the part of the content of a file that lies in a segment, at its place in the file.
+     */
+    private void writePart(PositionInputStream in, ArchiveIndex.Entry indexed, Segment segment) throws IOException {
+        long from = Math.max(segment.start, indexed.dataOffset());
+        long to = Math.min(segment.end, indexed.dataOffset() + indexed.size());
+        if (in.position > from) {
+            throw new IOException("The index does not match the data of " + indexed.name());
+        }
+        if (from >= to) {
+            return;
+        }
+        in.skipNBytes(from - in.position);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (FileChannel file = FileChannel.open(resolveEntry(indexed.name()), StandardOpenOption.WRITE)) {
+            long position = from - indexed.dataOffset();
+            while (in.position < to) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, to - in.position));
+                if (read < 0) {
+                    throw new IOException("Archive data of " + indexed.name() + " is truncated");
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                while (data.hasRemaining()) {
+                    position += file.write(data, position);
+                }
+            }
+        }
+        bytesExtracted.addAndGet(to - from);
+    }
+
+    /**
+     * Checks a file written in parts against the index and restores its attributes.
+     */
+    private void finishParts(ArchiveIndex.Entry indexed, TarEntry entry) throws IOException {
+        Path target = resolveEntry(indexed.name());
+        if (indexed.sha256() != null) {
+            MessageDigest digest = newSha256();
+            hashFile(target, digest);
+            if (!HexFormat.of().formatHex(digest.digest()).equals(indexed.sha256())) {
+                Files.delete(target);
+                throw new IOException("Checksum mismatch for " + indexed.name());
+            }
+        }
+        restoreAttributes(target, entry);
+        filesExtracted.incrementAndGet();
+    }
+
+    /**
+     * Waits for all tasks; if one fails, cancels the others and throws its exception.
+     */
+    private static void awaitAll(List<Future<?>> futures) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction interrupted");
+        }
+    }
+
+    /**
+     * Extracts a whole archive, or with paths only the entries at or below them.
+     */
+    private int extract(InputStream archive, Collection<String> paths) throws IOException {
+        try (InputStream in = new BufferedInputStream(CompressionCodec.open(archive), BUFFER_SIZE)) {
+            in.mark(ZIP_MAGIC.length);
+            byte[] magic = in.readNBytes(ZIP_MAGIC.length);
+            in.reset();
+            if (Arrays.equals(magic, ZIP_MAGIC)) {
+                return extractZip(in, paths);
+            } else {
+                return extractTar(in, paths);
+            }
+        }
+    }
+
+    private int extractTar(InputStream in, Collection<String> paths) throws IOException {
+        TarInputStream tarIn = new TarInputStream(in);
+        Map<Path, TarEntry> directories = new LinkedHashMap<>();
+        int extracted = 0;
+        TarEntry entry;
+        while ((entry = tarIn.getNextEntry()) != null) {
+            if (entry.getName().equals(StorageManager.DELETED_ENTRIES_NAME)) {
+                applyDeletions(tarIn, paths);
+            } else if (paths == null || ArchiveIndex.matches(entryName(entry), paths)) {
+                extractEntry(tarIn, entry, directories, null);
+                extracted++;
+            }
+        }
+        restoreDirectoryAttributes(directories);
+        return extracted;
+    }
+
+    /**
+     * Extracts the entry the stream is positioned at. Directories are only created; their
+     * attributes are restored at the end.
+     *
+     * @param sha256 Expected checksum of the content of a regular file, or null.
+     */
+    private void extractEntry(TarInputStream tarIn, TarEntry entry, Map<Path, TarEntry> directories, String sha256) throws IOException {
+        Path target = resolveEntry(entry.getName());
+        if (entry.isDirectory()) {
+            Files.createDirectories(target);
+            directories.put(target, entry);
+            return;
+        }
+        if (entry.isSymbolicLink()) {
+            createSymbolicLink(target, entry);
+        } else if (entry.isFile()) {
+            createParentDirectories(target);
+            MessageDigest digest = sha256 != null ? newSha256() : null;
+            long size;
+            if (entry.isSparse()) {
+                writeSparseFile(tarIn, target, entry);
+                size = entry.getRealSize();
+                if (digest != null) {
+                    hashFile(target, digest);
+                }
+            } else {
+                size = Files.copy(digest != null ? new DigestInputStream(tarIn, digest) : tarIn, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (digest != null && !HexFormat.of().formatHex(digest.digest()).equals(sha256)) {
+                Files.delete(target);
+                throw new IOException("Checksum mismatch for " + entry.getName());
+            }
+            restoreAttributes(target, entry);
+            filesExtracted.incrementAndGet();
+            bytesExtracted.addAndGet(size);
+        } else {
+            logger.warn("Skipping unsupported archive entry '{}' of type '{}'.", entry.getName(), entry.getType());
+        }
+    }
+
+    private void createSymbolicLink(Path target, TarEntry entry) throws IOException {
+        createSymbolicLink(target, entry.getLinkName());
+        restoreOwnership(target, entry);
+    }
+
+    /**
+     * Creates a symbolic link below the extraction directory, replacing what is there.
+     */
+    void createSymbolicLink(Path target, String linkTarget) throws IOException {
+        createParentDirectories(target);
+        Files.deleteIfExists(target);
+        Files.createSymbolicLink(target, Paths.get(linkTarget));
+        verifiedDirectories.clear(); // The link may replace a directory checked before
+    }
+
+    private static void hashFile(Path file, MessageDigest digest) throws IOException {
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    /**
+     * Like tar, sets directory attributes last: a read-only directory could not be filled.
+     */
+    private void restoreDirectoryAttributes(Map<Path, TarEntry> directories) throws IOException {
+        for (Map.Entry<Path, TarEntry> directory : directories.entrySet()) {
+            restoreAttributes(directory.getKey(), directory.getValue());
+        }
+    }
+
+    /**
+     * The entry name as in the index: without the trailing slash of directories.
+     */
+    private static String entryName(TarEntry entry) {
+        String name = entry.getName();
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Writes only the data regions of a sparse file, so the holes stay unallocated.
+     */
+    private void writeSparseFile(InputStream in, Path target, TarEntry entry) throws IOException {
+        Files.deleteIfExists(target); // Never write through an existing symbolic link
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (RandomAccessFile file = new RandomAccessFile(target.toFile(), "rw")) {
+            file.setLength(entry.getRealSize());
+            for (long[] region : entry.getSparseMap()) {
+                file.seek(region[0]);
+                long remaining = region[1];
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException("Sparse file data is truncated: " + entry.getName());
+                    }
+                    file.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+    }
+
+    /**
+     * Archives of earlier versions: zip files whose symbolic links are stored as directories.
+     */
+    private int extractZip(InputStream in, Collection<String> paths) throws IOException {
+        ZipInputStream zipIn = new ZipInputStream(in);
+        int extracted = 0;
+        ZipEntry entry;
+        while ((entry = zipIn.getNextEntry()) != null) {
+            if (entry.getName().equals(StorageManager.DELETED_ENTRIES_NAME)) {
+                applyDeletions(zipIn, paths);
+                zipIn.closeEntry();
+                continue;
+            }
+            String name = entry.getName().endsWith("/") ? entry.getName().substring(0, entry.getName().length() - 1) : entry.getName();
+            if (paths != null && !ArchiveIndex.matches(name, paths)) {
+                continue;
+            }
+
+            Path filePath = resolveEntry(entry.getName());
+            if (entry.isDirectory()) {
+                Files.createDirectories(filePath);
+            } else {
+                createParentDirectories(filePath);
+                bytesExtracted.addAndGet(Files.copy(zipIn, filePath, StandardCopyOption.REPLACE_EXISTING));
+                filesExtracted.incrementAndGet();
+            }
+            zipIn.closeEntry();
+            extracted++;
+        }
+        return extracted;
+    }
+
+    /**
+     * Removes the files listed in a deletion entry from the extraction directory. A deleted
+     * directory is listed after its contents and only removed if nothing else is left in it.
+     *
+     * @param paths Only remove files at or below these paths; null for all.
+     */
+    private void applyDeletions(InputStream deletionList, Collection<String> paths) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(deletionList, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank() || (paths != null && !ArchiveIndex.matches(line, paths))) {
+                continue;
+            }
+            Path target = resolveEntry(line);
+            Path parent = target.getParent();
+            try {
+                if (Files.isDirectory(parent) && parent.toRealPath().startsWith(realExtractionDir)
+                        && Files.deleteIfExists(target)) {
+                    logger.debug("Removed file deleted in a later backup: {}", line);
+                }
+            } catch (DirectoryNotEmptyException e) {
+                logger.debug("Keeping directory {} deleted in a later backup: it still holds other files.", line);
+            }
+        }
+    }
+
+    private void restoreAttributes(Path target, TarEntry entry) throws IOException {
+        restoreOwnership(target, entry);
+        try {
+            // Permission bits only: the setuid, setgid and sticky bits cannot be set from Java
+            Files.setPosixFilePermissions(target, permissions(entry.getMode()));
+        } catch (UnsupportedOperationException e) {
+            // No POSIX permissions on this file system
+        }
+        Files.setLastModifiedTime(target, entry.getLastModifiedTime());
+    }
+
+    /**
+     * Restores the owner and group by id. Only root may give files away; for other users the
+     * first failure switches restoring ownership off for the rest of the extraction.
+     */
+    private void restoreOwnership(Path target, TarEntry entry) {
+        if (!restoreOwnership) {
+            return;
+        }
+        try {
+            Files.setAttribute(target, "unix:uid", (int) entry.getUid(), LinkOption.NOFOLLOW_LINKS);
+            Files.setAttribute(target, "unix:gid", (int) entry.getGid(), LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            logger.debug("Cannot restore file ownership ({}); keeping the current user.", e.getMessage());
+            restoreOwnership = false;
+        }
+    }
+
+    static Set<PosixFilePermission> permissions(int mode) {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        PosixFilePermission[] bits = PosixFilePermission.values(); // OWNER_READ ... OTHERS_EXECUTE
+        for (int i = 0; i < bits.length; i++) {
+            if ((mode & (0400 >> i)) != 0) {
+                permissions.add(bits[i]);
+            }
+        }
+        return permissions;
+    }
+
+    /**
+     * Resolves an archive entry name below the extraction directory, rejecting names that would escape it.
+     */
+    Path resolveEntry(String entryName) throws IOException {
+        Path resolved = extractionDir.resolve(entryName).normalize();
+        if (!resolved.startsWith(extractionDir)) {
+            throw new IOException("Archive entry outside of the extraction directory: " + entryName);
+        }
+        return resolved;
+    }
+
+    /**
+     * Creates the parent directories of an entry and makes sure they really are inside the
+     * extraction directory (a symbolic link extracted earlier could point elsewhere).
+     */
+    void createParentDirectories(Path target) throws IOException {
+        Path parent = target.getParent();
+        if (verifiedDirectories.contains(parent)) {
+            return;
+        }
+        Files.createDirectories(parent);
+        if (!parent.toRealPath().startsWith(realExtractionDir)) {
+            throw new IOException("Archive entry outside of the extraction directory: " + target);
+        }
+        verifiedDirectories.add(parent);
+    }
+
+    /**
+     * A part of the uncompressed archive that can be decompressed on its own: from a restart
+     * point to the next one.
+     */
+    private static class Segment {
+        private final long compressedStart;
+        private final long compressedEnd; // Exclusive; Long.MAX_VALUE for the last segment
+        private final long start;
+        private final long end;
+        private final List<ArchiveIndex.Entry> entries = new ArrayList<>(); // Entries whose header starts here
+        private ArchiveIndex.Entry continued; // File written in parts whose content goes on in this segment
+
+        Segment(long compressedStart, long compressedEnd, long start, long end) {
+            this.compressedStart = compressedStart;
+            this.compressedEnd = compressedEnd;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * State shared by the threads of a parallel extraction, and what they leave for when all
+     * segments are extracted.
+     */
+    private static class Extraction {
+        private final ExecutorService writers;
+        private final Semaphore buffered = new Semaphore(MAX_BUFFERED); // Bytes of small files waiting to be written
+        private final Queue<Future<?>> writes = new ConcurrentLinkedQueue<>();
+        private final Map<Path, TarEntry> directories = new ConcurrentHashMap<>();
+        private final Map<Long, TarEntry> links = new ConcurrentSkipListMap<>(); // By offset, created in archive order
+        private final Map<ArchiveIndex.Entry, TarEntry> partHeaders = new ConcurrentHashMap<>();
+        private volatile byte[] deletions;
+
+        Extraction(ExecutorService writers) {
+            this.writers = writers;
+        }
+    }
+
+    /**
+     * Keeps track of the offset in the uncompressed archive.
+     */
+    private static class PositionInputStream extends FilterInputStream {
+        private long position;
+
+        PositionInputStream(InputStream in, long position) {
+            super(in);
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package uniba.system_package.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The index at the end of an archive: for every entry the offset of its header in the
+ * uncompressed tar stream, its size and the SHA-256 of its content, and the restart points
+ * of the compression (see {@link RestartableCompressionOutputStream}). With it, a single entry
+ * is read by decompressing from the last restart point before it, instead of the whole archive,
+ * and the segments between the restart points can be decompressed in parallel.
+ * <p>
+ * The index is stored deflated in a footer that the archive's own decoder skips or passes
+ * through after the end of the tar data, so the archive stays readable by gzip, zstd, lz4
+ * and tar: a gzip member of stored blocks, a zstd/lz4 skippable frame, or plain bytes for
+ * uncompressed archives. The footer ends with a fixed trailer (offset and length of the index,
+ * magic), which for gzip is followed by the 8-byte member trailer.
+ */
+public class ArchiveIndex {
+    private static final byte[] MAGIC = "BKINDEX1".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2; // 1: without the data offsets
+    private static final int TRAILER_SIZE = 16 + MAGIC.length;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int MAX_STORED_BLOCK = 65535;
+    private static final int SKIPPABLE_FRAME_MAGIC = 0x184D2A5E; // zstd and lz4 skip frames 0x184D2A50-0x184D2A5F
+
+    /**
+     * An archive entry.
+     *
+     * @param name   Entry name as written (relative path without a trailing slash).
+     * @param type   Tar type flag, see {@link TarEntry}.
+     * @param offset     Offset of its first header block in the uncompressed archive.
+     * @param dataOffset Offset of the content of a regular file in the uncompressed archive,
+     *                   or -1 if it is not stored as it is (sparse files) or unknown.
+     * @param size       Size of the content (the real size of sparse files).
+     * @param sha256     Hex SHA-256 of the content, or null if it was not computed.
+     */
+    public record Entry(String name, char type, long offset, long dataOffset, long size, String sha256) {
+    }
+
+    private final CompressionCodec codec;
+    private final List<long[]> restartPoints;
+    private final List<Entry> entries;
+
+    private ArchiveIndex(CompressionCodec codec, List<long[]> restartPoints, List<Entry> entries) {
+        this.codec = codec;
+        this.restartPoints = restartPoints;
+        this.entries = entries;
+    }
+
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * The entries that were read, in archive order.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * The last restart point at or before an offset of the uncompressed archive.
+     *
+     * @return {compressed offset, uncompressed offset}.
+     */
+    public long[] restartPointFor(long offset) {
+        if (codec == CompressionCodec.NONE) {
+            return new long[]{offset, offset};
+        }
+        int low = 0;
+        int high = restartPoints.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (restartPoints.get(middle)[1] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return restartPoints.get(low);
+    }
+
+    /**
+     * Where decompressing can start: {compressed offset, uncompressed offset} pairs, in order.
+     * Uncompressed archives are cut every {@link RestartableCompressionOutputStream#RESTART_INTERVAL}
+     * bytes up to the last entry read.
+     */
+    public List<long[]> getRestartPoints() {
+        if (codec != CompressionCodec.NONE) {
+            return restartPoints;
+        }
+        long end = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).offset();
+        List<long[]> points = new ArrayList<>();
+        for (long offset = 0; offset <= end; offset += RestartableCompressionOutputStream.RESTART_INTERVAL) {
+            points.add(new long[]{offset, offset});
+        }
+        return points;
+    }
+
+    /**
+     * Whether an entry name is one of the paths or below one of them. The paths are relative
+     * like entry names; an empty path matches everything.
+     */
+    public static boolean matches(String name, Collection<String> paths) {
+        for (String path : paths) {
+            if (path.isEmpty() || name.equals(path) || name.startsWith(path + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the index of an archive.
+     *
+     * @return The index, or null if the archive has none (e.g. it was written by an earlier version).
+     */
+    public static ArchiveIndex read(ArchiveSource archive) throws IOException {
+        return read(archive, name -> true);
+    }
+
+    /**
+     * Reads the index of an archive, keeping only the entries whose name is accepted.
+     *
+     * @return The index, or null if the archive has none.
+     */
+    public static ArchiveIndex read(ArchiveSource archive, Predicate<String> names) throws IOException {
+        long size = archive.size();
+        if (size < TRAILER_SIZE + GZIP_TRAILER_SIZE) {
+            return null;
+        }
+        byte[] tail;
+        try (InputStream in = archive.open(size - TRAILER_SIZE - GZIP_TRAILER_SIZE)) {
+            tail = in.readNBytes(TRAILER_SIZE + GZIP_TRAILER_SIZE);
+        }
+        boolean gzip;
+        if (Arrays.equals(tail, tail.length - MAGIC.length, tail.length, MAGIC, 0, MAGIC.length)) {
+            gzip = false;
+        } else if (Arrays.equals(tail, TRAILER_SIZE - MAGIC.length, TRAILER_SIZE, MAGIC, 0, MAGIC.length)) {
+            gzip = true;
+        } else {
+            return null;
+        }
+        ByteBuffer trailer = ByteBuffer.wrap(tail, gzip ? 0 : GZIP_TRAILER_SIZE, TRAILER_SIZE);
+        long offset = trailer.getLong();
+        long length = trailer.getLong();
+        if (offset < 0 || length < 0 || offset + length > size) {
+            throw new IOException("Invalid archive index trailer in " + archive.getName());
+        }
+
+        // Gzip: the offset is where the footer member starts, else where the index starts
+        try (InputStream footer = archive.open(offset);
+             InputStream index = gzip ? new GZIPInputStream(footer, 64 * 1024) : footer;
+             DataInputStream in = new DataInputStream(
+                     new InflaterInputStream(new LimitedInputStream(index, length), new Inflater(), 64 * 1024))) {
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported archive index version in " + archive.getName());
+            }
+            CompressionCodec codec = CompressionCodec.fromName(in.readUTF());
+            List<Entry> entries = new ArrayList<>();
+            byte type;
+            while ((type = in.readByte()) != 0) {
+                String name = in.readUTF();
+                long entryOffset = in.readLong();
+                long dataOffset = version >= 2 ? in.readLong() : -1;
+                long entrySize = in.readLong();
+                byte[] hash = new byte[in.readUnsignedByte()];
+                in.readFully(hash);
+                if (names.test(name)) {
+                    entries.add(new Entry(name, (char) type, entryOffset, dataOffset, entrySize,
+                            hash.length > 0 ? HexFormat.of().formatHex(hash) : null));
+                }
+            }
+            int count = in.readInt();
+            List<long[]> restartPoints = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                restartPoints.add(new long[]{in.readLong(), in.readLong()});
+            }
+            if (restartPoints.isEmpty()) {
+                throw new IOException("Archive index of " + archive.getName() + " has no restart points");
+            }
+            return new ArchiveIndex(codec, restartPoints, entries);
+        }
+    }
+
+    /**
+     * Collects the index while an archive is written and writes it as the archive's footer.
+     * The records are deflated as they are added, so large archives keep little in memory.
+     */
+    public static class Writer {
+        private final CompressionCodec codec;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream records;
+
+        public Writer(CompressionCodec codec) throws IOException {
+            this.codec = codec;
+            this.records = new DataOutputStream(new DeflaterOutputStream(buffer));
+            records.writeInt(VERSION);
+            records.writeUTF(codec.name());
+        }
+
+        /**
+         * Adds an entry; see {@link Entry} for the values.
+         */
+        public void add(String name, char type, long offset, long dataOffset, long size, byte[] sha256) throws IOException {
+            records.writeByte(type);
+            records.writeUTF(name);
+            records.writeLong(offset);
+            records.writeLong(dataOffset);
+            records.writeLong(size);
+            records.writeByte(sha256 != null ? sha256.length : 0);
+            if (sha256 != null) {
+                records.write(sha256);
+            }
+        }
+
+        /**
+         * Writes the footer after the compressed archive data.
+         *
+         * @param restartPoints From {@link RestartableCompressionOutputStream#getRestartPoints()}.
+         * @param footerOffset  Offset in the archive file the footer starts at, i.e. the length of the archive data.
+         */
+        public void writeFooter(OutputStream out, List<long[]> restartPoints, long footerOffset) throws IOException {
+            records.writeByte(0);
+            records.writeInt(restartPoints.size());
+            for (long[] restartPoint : restartPoints) {
+                records.writeLong(restartPoint[0]);
+                records.writeLong(restartPoint[1]);
+            }
+            records.close();
+            byte[] index = buffer.toByteArray();
+
+            switch (codec) {
+                case GZIP -> writeGzipFooter(out, index, footerOffset);
+                case ZSTD, LZ4 -> {
+                    ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                            .putInt(SKIPPABLE_FRAME_MAGIC).putInt(index.length + TRAILER_SIZE);
+                    out.write(header.array());
+                    out.write(index);
+                    out.write(trailer(footerOffset + header.capacity(), index.length));
+                }
+                default -> {
+                    out.write(index);
+                    out.write(trailer(footerOffset, index.length));
+                }
+            }
+            out.flush();
+        }
+
+        /**
+         * A gzip member holding the index and the trailer in stored (uncompressed) deflate
+         * blocks, the trailer in a block of its own, so it ends up right before the member trailer.
+         */
+        private static void writeGzipFooter(OutputStream out, byte[] index, long footerOffset) throws IOException {
+            byte[] trailer = trailer(footerOffset, index.length);
+            CRC32 crc = new CRC32();
+            crc.update(index);
+            crc.update(trailer);
+
+            out.write(GZIP_HEADER);
+            for (int position = 0; position < index.length; position += MAX_STORED_BLOCK) {
+                writeStoredBlock(out, index, position, Math.min(MAX_STORED_BLOCK, index.length - position), false);
+            }
+            writeStoredBlock(out, trailer, 0, trailer.length, true);
+            out.write(ByteBuffer.allocate(GZIP_TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt((int) crc.getValue()).putInt(index.length + trailer.length).array());
+        }
+
+        private static void writeStoredBlock(OutputStream out, byte[] data, int offset, int length, boolean last) throws IOException {
+            out.write(last ? 1 : 0); // BFINAL, BTYPE 00 (stored), padding to the byte boundary
+            out.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+                    .putShort((short) length).putShort((short) ~length).array());
+            out.write(data, offset, length);
+        }
+
+        private static byte[] trailer(long indexOffset, long indexLength) {
+            return ByteBuffer.allocate(TRAILER_SIZE).putLong(indexOffset).putLong(indexLength).put(MAGIC).array();
+        }
+    }
+
+    /**
+     * Reads at most a given number of bytes from a stream.
+     */
+    private static class LimitedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges a full backup and the incremental backups after it into one archive: a synthetic
+ * full backup holding what restoring the whole chain would produce, i.e. of every path the
+ * version in the newest archive, unless a later archive lists it as deleted. Entries are
+ * copied as they are stored (header, sparse map and content), so nothing is read from the
+ * backed-up systems; content is checked against the index of its archive on the way.
+ * <p>
+ * The entry lists come from the indexes of the archives (archives without one are read
+ * through once), then each archive that still contributes entries is decompressed once, in
+ * order, and the result is compressed again with its own index, like any other archive.
+ */
+public class ArchiveMerger {
+    private static final Logger logger = LogManager.getLogger(ArchiveMerger.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+
+    private final CompressionCodec codec;
+    private final int level;
+    private long entriesWritten;
+    private long bytesWritten;
+
+    /**
+     * @param codec Codec the merged archive is compressed with.
+     * @param level Compression level, {@link CompressionCodec#DEFAULT_LEVEL} for the codec's default.
+     */
+    public ArchiveMerger(CompressionCodec codec, int level) {
+        this.codec = codec;
+        this.level = level;
+    }
+
+    /**
+     * Entries written by the last merge.
+     */
+    public long getEntriesWritten() {
+        return entriesWritten;
+    }
+
+    /**
+     * Bytes of file content written by the last merge.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Writes the merged archive, followed by its {@link ArchiveIndex}. The stream is finished
+     * but not closed.
+     *
+     * @param chain The full backup first, then its incremental backups, oldest first.
+     * @throws IOException If an archive cannot be read, is a zip archive of an earlier version,
+     *                     or its content does not match its index.
+     */
+    public void merge(List<ArchiveSource> chain, OutputStream out) throws IOException {
+        // The archive whose version of each path ends up in the merged archive
+        List<Contents> contents = new ArrayList<>();
+        Map<String, Integer> source = new HashMap<>();
+        Map<String, Integer> deletedIn = new HashMap<>();
+        for (int i = 0; i < chain.size(); i++) {
+            Contents archiveContents = readContents(chain.get(i));
+            contents.add(archiveContents);
+            for (String name : archiveContents.names) {
+                source.put(name, i);
+            }
+            for (String name : archiveContents.deleted) {
+                deletedIn.put(name, i);
+            }
+        }
+        // Deletions are applied after the entries of their archive, as when restoring
+        source.entrySet().removeIf(entry -> deletedIn.getOrDefault(entry.getKey(), -1) >= entry.getValue());
+        int[] remaining = new int[chain.size()];
+        source.values().forEach(i -> remaining[i]++);
+
+        entriesWritten = 0;
+        bytesWritten = 0;
+        RestartableCompressionOutputStream compressed = new RestartableCompressionOutputStream(out, codec, level);
+        TarOutputStream tarOut = new TarOutputStream(compressed);
+        ArchiveIndex.Writer index = new ArchiveIndex.Writer(codec);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int i = 0; i < chain.size(); i++) {
+            ArchiveSource archive = chain.get(i);
+            logger.info("Taking {} entries from {}", remaining[i], archive.getName());
+            if (remaining[i] == 0) {
+                continue; // Everything in it was replaced or deleted later
+            }
+            try (InputStream in = new BufferedInputStream(CompressionCodec.open(archive.open(0, Long.MAX_VALUE)), BUFFER_SIZE)) {
+                TarInputStream tarIn = new TarInputStream(in);
+                TarEntry entry;
+                while (remaining[i] > 0 && (entry = tarIn.getNextEntry()) != null) {
+                    String name = entryName(entry);
+                    if (!Integer.valueOf(i).equals(source.get(name))) {
+                        continue;
+                    }
+                    source.remove(name);
+                    remaining[i]--;
+                    copyEntry(tarIn, entry, name, contents.get(i).sha256.get(name), archive, tarOut, index, buffer);
+                }
+            }
+            if (remaining[i] > 0) {
+                throw new IOException(archive.getName() + " ended before " + remaining[i] + " of its entries");
+            }
+        }
+        tarOut.close(); // Ends the compressed stream, `out` stays open
+
+        long dataLength = codec == CompressionCodec.NONE ? tarOut.getPosition() : compressed.getCompressedLength();
+        index.writeFooter(out, compressed.getRestartPoints(), dataLength);
+    }
+
+    /**
+     * Copies one entry and adds it to the index. Content is hashed and compared with the
+     * checksum from the index of its archive; sparse files keep the checksum of their index.
+     */
+    private void copyEntry(TarInputStream tarIn, TarEntry entry, String name, String sha256, ArchiveSource archive,
+                           TarOutputStream tarOut, ArchiveIndex.Writer index, byte[] buffer) throws IOException {
+        long offset = tarOut.getPosition();
+        tarOut.putEntry(entry);
+        entriesWritten++;
+        if (!entry.isFile()) {
+            tarOut.closeEntry();
+            index.add(name, entry.getType(), offset, -1, 0, null);
+            return;
+        }
+
+        MessageDigest digest = newSha256();
+        long remaining = entry.getSize();
+        while (remaining > 0) {
+            int read = tarIn.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException(archive.getName() + " ends within " + name);
+            }
+            tarOut.write(buffer, 0, read);
+            digest.update(buffer, 0, read);
+            remaining -= read;
+        }
+        tarOut.closeEntry();
+        bytesWritten += entry.getSize();
+
+        byte[] hash;
+        if (entry.isSparse()) {
+            hash = sha256 != null ? HexFormat.of().parseHex(sha256) : null; // Hashed over the whole file, holes included
+        } else {
+            hash = digest.digest();
+            if (sha256 != null && !sha256.equals(HexFormat.of().formatHex(hash))) {
+                throw new IOException("The content of " + name + " in " + archive.getName() + " does not match its checksum");
+            }
+        }
+        index.add(name, entry.getType(), offset, entry.isSparse() ? -1 : tarOut.getEntryDataOffset(),
+                entry.isSparse() ? entry.getRealSize() : entry.getSize(), hash);
+    }
+
+    /**
+     * The entry names, checksums and deletions of an archive, from its index if it has one.
+     */
+    private static Contents readContents(ArchiveSource archive) throws IOException {
+        Contents contents = new Contents();
+        ArchiveIndex index = archive.isRandomAccess() ? ArchiveIndex.read(archive) : null;
+        if (index != null) {
+            for (ArchiveIndex.Entry entry : index.getEntries()) {
+                if (entry.name().equals(StorageManager.DELETED_ENTRIES_NAME)) {
+                    readDeletions(archive, index, entry, contents.deleted);
+                } else {
+                    contents.names.add(entry.name());
+                    if (entry.sha256() != null) {
+                        contents.sha256.put(entry.name(), entry.sha256());
+                    }
+                }
+            }
+            return contents;
+        }
+
+        logger.info("{} has no index; reading it through to list its entries.", archive.getName());
+        try (InputStream in = new BufferedInputStream(CompressionCodec.open(archive.open(0, Long.MAX_VALUE)), BUFFER_SIZE)) {
+            in.mark(ZIP_MAGIC.length);
+            byte[] magic = in.readNBytes(ZIP_MAGIC.length);
+            in.reset();
+            if (Arrays.equals(magic, ZIP_MAGIC)) {
+                throw new IOException(archive.getName() + " is a zip archive of an earlier version and cannot be merged");
+            }
+            TarInputStream tarIn = new TarInputStream(in);
+            TarEntry entry;
+            while ((entry = tarIn.getNextEntry()) != null) {
+                if (entry.getName().equals(StorageManager.DELETED_ENTRIES_NAME)) {
+                    parseDeletions(tarIn, contents.deleted);
+                } else {
+                    contents.names.add(entryName(entry));
+                }
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Reads the deletion list of an archive at its offset, decompressing from the restart point before it.
+     */
+    private static void readDeletions(ArchiveSource archive, ArchiveIndex index, ArchiveIndex.Entry entry,
+                                      Set<String> deleted) throws IOException {
+        long[] restartPoint = index.restartPointFor(entry.offset());
+        try (InputStream in = new BufferedInputStream(index.getCodec().decompress(archive.open(restartPoint[0])), BUFFER_SIZE)) {
+            in.skipNBytes(entry.offset() - restartPoint[1]);
+            TarInputStream tarIn = new TarInputStream(in);
+            TarEntry deletions = tarIn.getNextEntry();
+            if (deletions == null || !deletions.getName().equals(StorageManager.DELETED_ENTRIES_NAME)) {
+                throw new IOException("The index of " + archive.getName() + " does not match its entry " + entry.name());
+            }
+            parseDeletions(tarIn, deleted);
+        }
+    }
+
+    private static void parseDeletions(InputStream deletionList, Set<String> deleted) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(deletionList, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isBlank()) {
+                deleted.add(line);
+            }
+        }
+    }
+
+    private static String entryName(TarEntry entry) {
+        String name = entry.getName();
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static class Contents {
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, String> sha256 = new HashMap<>();
+        private final Set<String> deleted = new HashSet<>();
+    }
+}
@@ -0,0 +1,151 @@
+package uniba.system_package.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+/**
+ * An archive that can be read from any offset, so single entries can be restored without
+ * reading the whole archive: a local file, or a file in a {@link StorageBackend}, where each
+ * read is a ranged read. Archives in storage backends are streamed straight into the
+ * extraction, without a local copy, and read ahead of it (see {@link PrefetchingInputStream}).
+ */
+public interface ArchiveSource {
+
+    /**
+     * Name of the archive, for log messages.
+     */
+    String getName();
+
+    long size() throws IOException;
+
+    /**
+     * Opens a stream reading the archive from the given offset to its end. Closing it early
+     * ends the read.
+     */
+    InputStream open(long offset) throws IOException;
+
+    /**
+     * Opens a stream like {@link #open(long)} for reading a larger part of the archive. Remote
+     * archives are read ahead of the caller on a background thread, up to the given offset.
+     *
+     * @param prefetchEnd Offset up to which data may be read ahead, Long.MAX_VALUE for the rest of the archive.
+     */
+    default InputStream open(long offset, long prefetchEnd) throws IOException {
+        return open(offset);
+    }
+
+    /**
+     * Whether reading from an offset is cheap. Archives that can only be read from the start
+     * are extracted in one pass, without using their index.
+     */
+    default boolean isRandomAccess() {
+        return true;
+    }
+
+    static ArchiveSource of(Path archive) {
+        return new ArchiveSource() {
+            @Override
+            public String getName() {
+                return archive.toString();
+            }
+
+            @Override
+            public long size() throws IOException {
+                return Files.size(archive);
+            }
+
+            @Override
+            public InputStream open(long offset) throws IOException {
+                FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+                return Channels.newInputStream(channel.position(offset));
+            }
+        };
+    }
+
+    static ArchiveSource of(StorageBackend backend, String name) {
+        return new ArchiveSource() {
+            private long size = -1;
+
+            @Override
+            public String getName() {
+                return backend.getLocation() + "/" + name;
+            }
+
+            @Override
+            public long size() throws IOException {
+                if (size < 0) {
+                    StorageBackend.StoredFile file;
+                    try {
+                        file = backend.stat(name).join();
+                    } catch (CompletionException e) {
+                        throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                    }
+                    if (file == null) {
+                        throw new IOException(getName() + " does not exist");
+                    }
+                    size = file.size();
+                }
+                return size;
+            }
+
+            @Override
+            public InputStream open(long offset) throws IOException {
+                return backend.openInput(name, offset);
+            }
+
+            @Override
+            public InputStream open(long offset, long prefetchEnd) throws IOException {
+                return new PrefetchingInputStream(open(offset), prefetchEnd - offset);
+            }
+        };
+    }
+
+    /**
+     * An archive stored as erasure-coded shards on the backends, rebuilt while it is read. It
+     * can only be read from the start: reading from an offset decodes everything before it.
+     */
+    static ArchiveSource erasureCoded(String name, List<StorageBackend> backends) {
+        return new ArchiveSource() {
+            @Override
+            public String getName() {
+                return name + " (erasure-coded)";
+            }
+
+            @Override
+            public long size() throws IOException {
+                ErasureCodedInputStream in = new ErasureCodedInputStream(name, backends);
+                in.close();
+                return in.getLength();
+            }
+
+            @Override
+            public InputStream open(long offset) throws IOException {
+                ErasureCodedInputStream in = new ErasureCodedInputStream(name, backends);
+                try {
+                    in.skipNBytes(offset);
+                } catch (IOException e) {
+                    in.close();
+                    throw e;
+                }
+                return in;
+            }
+
+            @Override
+            public InputStream open(long offset, long prefetchEnd) throws IOException {
+                return new PrefetchingInputStream(open(offset), prefetchEnd - offset);
+            }
+
+            @Override
+            public boolean isRandomAccess() {
+                return false;
+            }
+        };
+    }
+}
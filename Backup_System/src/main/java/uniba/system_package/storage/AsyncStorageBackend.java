@@ -0,0 +1,52 @@
+package uniba.system_package.storage;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the operations of a storage backend on a few threads of its own.
+ */
+abstract class AsyncStorageBackend implements StorageBackend {
+    private final String name;
+    private final ExecutorService executor;
+
+    /**
+     * @param concurrency Operations of the backend running at the same time.
+     */
+    AsyncStorageBackend(String name, int concurrency) {
+        this.name = name;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "storage-" + name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Runs an operation on the threads of the backend; the future fails with what it throws.
+     */
+    <T> CompletableFuture<T> submit(Callable<T> operation) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return operation.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,156 @@
+package uniba.system_package.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes one deduplicated backup: every file with the list of chunks it is made of.
+ * The chunks themselves live in the {@link ChunkStore}.
+ */
+public class BackupManifest {
+    private static final int MAGIC = 0x424b4d46; // "BKMF"
+    private static final int VERSION = 2; // 2 added the permission bits of files
+
+    private final String backupName;
+    private final long createdAt;
+    private final List<Entry> entries = new ArrayList<>();
+
+    public BackupManifest(String backupName, long createdAt) {
+        this.backupName = backupName;
+        this.createdAt = createdAt;
+    }
+
+    public String getBackupName() {
+        return backupName;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public void addEntry(Entry entry) {
+        entries.add(entry);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(backupName);
+        data.writeLong(createdAt);
+        data.writeInt(entries.size());
+        for (Entry entry : entries) {
+            data.writeUTF(entry.getPath());
+            data.writeBoolean(entry.isSymbolicLink());
+            if (entry.isSymbolicLink()) {
+                data.writeUTF(entry.getLinkTarget());
+                continue;
+            }
+            data.writeLong(entry.getSize());
+            data.writeLong(entry.getLastModified());
+            data.writeInt(entry.getMode());
+            data.writeInt(entry.getChunks().size());
+            for (String chunk : entry.getChunks()) {
+                data.write(ChunkStore.decodeHash(chunk));
+            }
+        }
+        data.flush();
+    }
+
+    public static BackupManifest readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a backup manifest.");
+        }
+        int version = data.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported manifest version: " + version);
+        }
+
+        BackupManifest manifest = new BackupManifest(data.readUTF(), data.readLong());
+        int count = data.readInt();
+        byte[] hash = new byte[ChunkStore.HASH_LENGTH];
+        for (int i = 0; i < count; i++) {
+            String path = data.readUTF();
+            if (data.readBoolean()) {
+                manifest.addEntry(Entry.symbolicLink(path, data.readUTF()));
+                continue;
+            }
+            long size = data.readLong();
+            long lastModified = data.readLong();
+            Entry entry = Entry.file(path, size, lastModified, version >= 2 ? data.readInt() : -1);
+            int chunks = data.readInt();
+            for (int c = 0; c < chunks; c++) {
+                data.readFully(hash);
+                entry.getChunks().add(ChunkStore.encodeHash(hash));
+            }
+            manifest.addEntry(entry);
+        }
+        return manifest;
+    }
+
+    /**
+     * One file or symbolic link of the backup.
+     */
+    public static class Entry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final int mode; // Permission bits, -1 if unknown (manifests of version 1)
+        private final String linkTarget;
+        private final List<String> chunks = new ArrayList<>();
+
+        private Entry(String path, long size, long lastModified, int mode, String linkTarget) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.mode = mode;
+            this.linkTarget = linkTarget;
+        }
+
+        public static Entry file(String path, long size, long lastModified, int mode) {
+            return new Entry(path, size, lastModified, mode, null);
+        }
+
+        public static Entry symbolicLink(String path, String linkTarget) {
+            return new Entry(path, 0, 0, -1, linkTarget);
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public int getMode() {
+            return mode;
+        }
+
+        public boolean isSymbolicLink() {
+            return linkTarget != null;
+        }
+
+        public String getLinkTarget() {
+            return linkTarget;
+        }
+
+        public List<String> getChunks() {
+            return chunks;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.ConfigurationManager;
+import uniba.system_package.utils.LogManager;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the bandwidth of all uploads, so backups do not saturate a shared uplink. Upload
+ * streams wrapped by {@link #wrap} draw tokens from two token buckets: one for all uploads
+ * together and one per destination host.
+ * <p>
+ * The limits come from the configuration: defaults plus time-of-day profiles (the first
+ * profile whose days and hours contain the current time applies). Limits set at runtime
+ * through {@link #setOverride} take precedence until they are cleared. Changes take effect
+ * within a fraction of a second, also for transfers that are running.
+ */
+public class BandwidthGovernor {
+    private static final Logger logger = LogManager.getLogger(BandwidthGovernor.class);
+
+    public static final long UNLIMITED = TokenBucket.UNLIMITED;
+
+    private static final int CHUNK_SIZE = 64 * 1024;         // Bytes taken from the buckets at a time
+    private static final long PROFILE_CHECK_NANOS = 1_000_000_000L;
+
+    private final long defaultLimit;
+    private final long defaultPerDestinationLimit;
+    private final List<Profile> profiles;
+
+    private final TokenBucket global = new TokenBucket(CHUNK_SIZE);
+    private final Map<String, TokenBucket> destinations = new ConcurrentHashMap<>();
+    private final Map<String, Long> destinationOverrides = new ConcurrentHashMap<>();
+    private volatile Long globalOverride; // Null: the configured limit applies
+    private volatile Profile activeProfile;
+    private volatile long nextProfileCheck = System.nanoTime();
+
+    /**
+     * A governor without limits, until some are set with {@link #setOverride}.
+     */
+    public BandwidthGovernor() {
+        this(new ConfigurationManager.Config.Bandwidth());
+    }
+
+    public BandwidthGovernor(ConfigurationManager.Config.Bandwidth config) {
+        this.defaultLimit = toBytesPerSecond(config.getLimitMbps());
+        this.defaultPerDestinationLimit = toBytesPerSecond(config.getPerDestinationMbps());
+        this.profiles = new ArrayList<>();
+        for (ConfigurationManager.Config.Bandwidth.Profile profile : config.getProfiles()) {
+            String name = profile.getName() != null ? profile.getName() : profile.getStart() + "-" + profile.getEnd();
+            profiles.add(new Profile(name, parseDays(profile.getDays()), LocalTime.parse(profile.getStart()),
+                    LocalTime.parse(profile.getEnd()), toBytesPerSecond(profile.getLimitMbps()),
+                    toBytesPerSecond(profile.getPerDestinationMbps())));
+        }
+        applyLimits();
+    }
+
+    /**
+     * Wraps an upload stream so it keeps to the limits for the destination host.
+     */
+    public OutputStream wrap(OutputStream out, String destination) {
+        return new ThrottledOutputStream(out, destination);
+    }
+
+    /**
+     * Wraps an upload stream if there is a governor.
+     */
+    public static OutputStream wrap(BandwidthGovernor governor, OutputStream out, String destination) {
+        return governor != null ? governor.wrap(out, destination) : out;
+    }
+
+    /**
+     * Overrides the configured limit at runtime.
+     *
+     * @param destination Host whose limit is set, or null for the limit of all uploads together.
+     * @param limit       Bytes per second ({@link #UNLIMITED} for none), or null to return to the configured limit.
+     */
+    public void setOverride(String destination, Long limit) {
+        if (destination == null) {
+            globalOverride = limit;
+        } else if (limit == null) {
+            destinationOverrides.remove(destination);
+        } else {
+            destinationOverrides.put(destination, limit);
+        }
+        applyLimits();
+        logger.info("Bandwidth limit {} set to {}.", destination == null ? "for all uploads" : "for " + destination,
+                limit == null ? "the configured value" : format(limit));
+    }
+
+    /**
+     * Describes the limits that apply right now, for display.
+     */
+    public String describe() {
+        refreshProfile();
+        Profile profile = activeProfile;
+        StringBuilder description = new StringBuilder();
+        description.append("All uploads: ").append(format(global.getRate()))
+                .append(globalOverride != null ? " (set at runtime)" : profile != null ? " (profile " + profile.name() + ")" : "");
+        description.append("\nPer destination: ").append(format(perDestinationLimit(null)));
+        for (Map.Entry<String, Long> override : destinationOverrides.entrySet()) {
+            description.append("\n  ").append(override.getKey()).append(": ").append(format(override.getValue())).append(" (set at runtime)");
+        }
+        return description.toString();
+    }
+
+    /**
+     * Mbit/s as in the configuration, 0 or less for no limit.
+     */
+    public static long toBytesPerSecond(double megabitsPerSecond) {
+        return megabitsPerSecond <= 0 ? UNLIMITED : Math.max(1, (long) (megabitsPerSecond * 1_000_000 / 8));
+    }
+
+    private static String format(long bytesPerSecond) {
+        return bytesPerSecond == UNLIMITED ? "unlimited" : String.format(Locale.ROOT, "%.1f Mbit/s", bytesPerSecond * 8 / 1_000_000.0);
+    }
+
+    /**
+     * Parses days like "MON-FRI" or "SAT,SUN"; empty or null means every day.
+     */
+    public static Set<DayOfWeek> parseDays(String days) {
+        if (days == null || days.isBlank()) {
+            return EnumSet.allOf(DayOfWeek.class);
+        }
+        Set<DayOfWeek> result = EnumSet.noneOf(DayOfWeek.class);
+        for (String part : days.split(",")) {
+            String[] range = part.trim().split("-");
+            if (range.length > 2) {
+                throw new IllegalArgumentException("Invalid days: " + days);
+            }
+            DayOfWeek first = parseDay(range[0]);
+            DayOfWeek last = range.length == 2 ? parseDay(range[1]) : first;
+            for (DayOfWeek day = first; ; day = day.plus(1)) {
+                result.add(day);
+                if (day == last) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static DayOfWeek parseDay(String day) {
+        String name = day.trim().toUpperCase(Locale.ROOT);
+        for (DayOfWeek candidate : DayOfWeek.values()) {
+            if (name.length() >= 3 && candidate.name().startsWith(name)) {
+                return candidate;
+            }
+        }
+        throw new IllegalArgumentException("Invalid day: " + day);
+    }
+
+    private void refreshProfile() {
+        long now = System.nanoTime();
+        if (now - nextProfileCheck < 0) {
+            return;
+        }
+        nextProfileCheck = now + PROFILE_CHECK_NANOS;
+        Profile current = currentProfile();
+        if (current != activeProfile) {
+            logger.info("Bandwidth profile {} is now active.", current != null ? current.name() : "(default)");
+            activeProfile = current;
+            applyLimits();
+        }
+    }
+
+    private Profile currentProfile() {
+        LocalDateTime now = LocalDateTime.now();
+        for (Profile profile : profiles) {
+            if (profile.contains(now)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void applyLimits() {
+        activeProfile = currentProfile();
+        Long override = globalOverride;
+        global.setRate(override != null ? override : activeProfile != null ? activeProfile.limit() : defaultLimit);
+        for (Map.Entry<String, TokenBucket> destination : destinations.entrySet()) {
+            destination.getValue().setRate(perDestinationLimit(destination.getKey()));
+        }
+    }
+
+    private long perDestinationLimit(String destination) {
+        Long override = destination != null ? destinationOverrides.get(destination) : null;
+        if (override != null) {
+            return override;
+        }
+        Profile profile = activeProfile;
+        return profile != null ? profile.perDestinationLimit() : defaultPerDestinationLimit;
+    }
+
+    private TokenBucket bucketFor(String destination) {
+        return destinations.computeIfAbsent(destination, key -> {
+            TokenBucket bucket = new TokenBucket(CHUNK_SIZE);
+            bucket.setRate(perDestinationLimit(key));
+            return bucket;
+        });
+    }
+
+    private void acquire(TokenBucket destination, int bytes) throws InterruptedIOException {
+        refreshProfile();
+        destination.acquire(bytes);
+        global.acquire(bytes);
+    }
+
+    /**
+     * The days and hours in which a profile applies. The end may be before the start for
+     * profiles that span midnight; the days are those on which the profile starts.
+     */
+    private record Profile(String name, Set<DayOfWeek> days, LocalTime start, LocalTime end, long limit, long perDestinationLimit) {
+        boolean contains(LocalDateTime time) {
+            LocalTime timeOfDay = time.toLocalTime();
+            if (!start.isAfter(end)) {
+                return days.contains(time.getDayOfWeek()) && !timeOfDay.isBefore(start) && timeOfDay.isBefore(end);
+            }
+            return (days.contains(time.getDayOfWeek()) && !timeOfDay.isBefore(start))
+                    || (days.contains(time.getDayOfWeek().minus(1)) && timeOfDay.isBefore(end));
+        }
+    }
+
+    private class ThrottledOutputStream extends FilterOutputStream {
+        private final TokenBucket destination;
+
+        ThrottledOutputStream(OutputStream out, String destination) {
+            super(out);
+            this.destination = bucketFor(destination);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            acquire(destination, 1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = Math.min(len, CHUNK_SIZE);
+                acquire(destination, chunk);
+                out.write(b, off, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+    }
+}
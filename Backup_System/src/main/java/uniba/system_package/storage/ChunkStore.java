@@ -0,0 +1,335 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deduplicating backup repository.
+ * <p>
+ * Files are split with {@link ContentDefinedChunker}; every chunk is stored once,
+ * compressed, under {@code chunks/<first two hex digits>/<sha256>}. A backup is a
+ * {@link BackupManifest} under {@code manifests/<backup name>.manifest} listing the
+ * chunks of each file.
+ * <p>
+ * Backups and restores hold the read lock of the repository, pruning holds its write lock: a
+ * backup that finds a chunk already stored relies on it until its manifest is written, so
+ * no chunk may be pruned in between.
+ */
+public class ChunkStore {
+    private static final Logger logger = LogManager.getLogger(ChunkStore.class);
+
+    public static final String MANIFEST_EXTENSION = ".manifest";
+    static final int HASH_LENGTH = 32;
+
+    // One lock per repository, shared by all ChunkStore instances of this process
+    private static final Map<Path, ReadWriteLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path chunksDir;
+    private final Path manifestsDir;
+    private final ContentDefinedChunker chunker;
+    private final ReadWriteLock lock;
+
+    public ChunkStore(Path repositoryPath) {
+        this(repositoryPath, new ContentDefinedChunker());
+    }
+
+    public ChunkStore(Path repositoryPath, ContentDefinedChunker chunker) {
+        this.chunksDir = repositoryPath.resolve("chunks");
+        this.manifestsDir = repositoryPath.resolve("manifests");
+        this.chunker = chunker;
+        this.lock = LOCKS.computeIfAbsent(repositoryPath.toAbsolutePath().normalize(), path -> new ReentrantReadWriteLock());
+    }
+
+    /**
+     * Stores the given files and writes the manifest of the backup.
+     *
+     * @param filePaths  Files to back up.
+     * @param backupName Name of the backup, used as the manifest file name.
+     * @return The path of the written manifest.
+     */
+    public Path backup(List<String> filePaths, String backupName) throws IOException {
+        lock.readLock().lock();
+        try {
+            return writeBackup(filePaths, backupName);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Path writeBackup(List<String> filePaths, String backupName) throws IOException {
+        Files.createDirectories(manifestsDir);
+        BackupManifest manifest = new BackupManifest(backupName, System.currentTimeMillis());
+        long totalBytes = 0;
+        long storedBytes = 0;
+
+        for (String filePath : filePaths) {
+            Path path = Paths.get(filePath);
+            if (Files.isSymbolicLink(path)) {
+                manifest.addEntry(BackupManifest.Entry.symbolicLink(filePath, Files.readSymbolicLink(path).toString()));
+                continue;
+            }
+            if (!Files.isRegularFile(path)) {
+                logger.warn("File not found: {}. Skipping.", filePath);
+                continue;
+            }
+
+            TarEntry attributes = TarEntry.forPath(path, filePath);
+            BackupManifest.Entry entry = BackupManifest.Entry.file(filePath, attributes.getSize(),
+                    attributes.getLastModified(), attributes.getMode());
+            try (InputStream in = Files.newInputStream(path)) {
+                ContentDefinedChunker.Reader reader = chunker.open(in);
+                byte[] chunk;
+                while ((chunk = reader.next()) != null) {
+                    totalBytes += chunk.length;
+                    String hash = hash(chunk);
+                    storedBytes += putChunk(hash, chunk);
+                    entry.getChunks().add(hash);
+                }
+            }
+            manifest.addEntry(entry);
+        }
+
+        Path manifestPath = manifestsDir.resolve(backupName + MANIFEST_EXTENSION);
+        Path tempFile = Files.createTempFile(manifestsDir, backupName, ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            manifest.writeTo(out);
+        }
+        Files.move(tempFile, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        logger.info("Deduplicated backup '{}' written: {} files, {} bytes read, {} bytes of new chunks stored.",
+                backupName, manifest.getEntries().size(), totalBytes, storedBytes);
+        return manifestPath;
+    }
+
+    /**
+     * Rebuilds all files of a backup below the given directory, with the same checks as
+     * {@link ArchiveExtractor}: no entry may lead outside the directory, files are never
+     * written through an existing symbolic link, and symbolic links are created after all
+     * files. Every chunk is checked against its hash and every file against its size.
+     *
+     * @param manifestPath  The manifest of the backup.
+     * @param extractionDir Directory receiving the restored files.
+     */
+    public void restore(Path manifestPath, Path extractionDir) throws IOException {
+        lock.readLock().lock(); // The manifest may be deleted by retention, but its chunks are not pruned meanwhile
+        try {
+            restoreFiles(manifestPath, extractionDir);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void restoreFiles(Path manifestPath, Path extractionDir) throws IOException {
+        BackupManifest manifest;
+        try (InputStream in = Files.newInputStream(manifestPath)) {
+            manifest = BackupManifest.readFrom(in);
+        }
+
+        ArchiveExtractor extractor = new ArchiveExtractor(extractionDir);
+        List<BackupManifest.Entry> links = new ArrayList<>();
+        for (BackupManifest.Entry entry : manifest.getEntries()) {
+            if (entry.isSymbolicLink()) {
+                links.add(entry);
+                continue;
+            }
+            Path target = extractor.resolveEntry(relativize(entry.getPath()).toString());
+            extractor.createParentDirectories(target);
+            Files.deleteIfExists(target); // Never write through an existing symbolic link
+            long written = 0;
+            try (OutputStream out = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                for (String hash : entry.getChunks()) {
+                    byte[] chunk = getChunk(hash);
+                    out.write(chunk);
+                    written += chunk.length;
+                }
+            }
+            if (written != entry.getSize()) {
+                throw new IOException("Restored " + written + " of " + entry.getSize() + " bytes of " + entry.getPath());
+            }
+            if (entry.getMode() >= 0) {
+                try {
+                    Files.setPosixFilePermissions(target, ArchiveExtractor.permissions(entry.getMode()));
+                } catch (UnsupportedOperationException e) {
+                    // No POSIX permissions on this file system
+                }
+            }
+            Files.setLastModifiedTime(target, FileTime.fromMillis(entry.getLastModified()));
+        }
+        for (BackupManifest.Entry link : links) {
+            extractor.createSymbolicLink(extractor.resolveEntry(relativize(link.getPath()).toString()), link.getLinkTarget());
+        }
+        logger.info("Restored {} entries of backup '{}' to {}", manifest.getEntries().size(), manifest.getBackupName(), extractionDir);
+    }
+
+    /**
+     * Deletes chunks no longer referenced by any manifest, e.g. after old manifests
+     * were removed by the retention policy.
+     *
+     * @return The number of deleted chunks.
+     */
+    public int pruneUnreferencedChunks() throws IOException {
+        lock.writeLock().lock(); // Waits for running backups to write their manifests
+        try {
+            return pruneChunks();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int pruneChunks() throws IOException {
+        if (!Files.isDirectory(chunksDir)) {
+            return 0;
+        }
+        Set<String> referenced = new HashSet<>();
+        if (Files.isDirectory(manifestsDir)) {
+            try (Stream<Path> manifests = Files.list(manifestsDir)) {
+                for (Path manifestPath : (Iterable<Path>) manifests.filter(p -> p.toString().endsWith(MANIFEST_EXTENSION))::iterator) {
+                    try (InputStream in = Files.newInputStream(manifestPath)) {
+                        BackupManifest.readFrom(in).getEntries().forEach(entry -> referenced.addAll(entry.getChunks()));
+                    }
+                }
+            }
+        }
+
+        int deleted = 0;
+        try (Stream<Path> chunks = Files.walk(chunksDir)) {
+            for (Path chunk : (Iterable<Path>) chunks.filter(Files::isRegularFile)::iterator) {
+                if (!referenced.contains(chunk.getFileName().toString())) {
+                    Files.deleteIfExists(chunk);
+                    deleted++;
+                }
+            }
+        }
+        logger.info("Pruned {} unreferenced chunks from the repository.", deleted);
+        return deleted;
+    }
+
+    /**
+     * Stores a chunk unless it is already present.
+     *
+     * @return The number of bytes written to disk (0 for a duplicate).
+     */
+    private long putChunk(String hash, byte[] chunk) throws IOException {
+        Path chunkPath = chunkPath(hash);
+        if (Files.exists(chunkPath)) {
+            return 0;
+        }
+
+        Files.createDirectories(chunkPath.getParent());
+        byte[] compressed = deflate(chunk);
+        // Write to a temp file first: parallel backups may store the same chunk at the same time
+        Path tempFile = Files.createTempFile(chunkPath.getParent(), hash, ".tmp");
+        try {
+            Files.write(tempFile, compressed);
+            Files.move(tempFile, chunkPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            return 0;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return compressed.length;
+    }
+
+    private byte[] getChunk(String hash) throws IOException {
+        byte[] chunk = inflate(Files.readAllBytes(chunkPath(hash)));
+        if (!hash.equals(hash(chunk))) {
+            throw new IOException("Chunk is corrupted: " + hash);
+        }
+        return chunk;
+    }
+
+    private Path chunkPath(String hash) {
+        return chunksDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * Turns an absolute source path into a path relative to the extraction directory.
+     */
+    static Path relativize(String sourcePath) {
+        Path path = Paths.get(sourcePath);
+        if (path.getRoot() != null) {
+            path = path.getNameCount() == 0 ? path.getFileSystem().getPath("") : path.subpath(0, path.getNameCount());
+        }
+        return path.normalize();
+    }
+
+    static String hash(byte[] data) {
+        try {
+            return encodeHash(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static String encodeHash(byte[] hash) {
+        return HexFormat.of().formatHex(hash);
+    }
+
+    static byte[] decodeHash(String hash) {
+        return HexFormat.of().parseHex(hash);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2);
+            byte[] buffer = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated chunk data.");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid chunk data: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
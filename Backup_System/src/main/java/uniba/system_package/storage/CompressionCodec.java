@@ -0,0 +1,184 @@
+package uniba.system_package.storage;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression applied to a whole backup archive. The codec of an existing archive is
+ * recognized by its magic bytes, so archives written with different codecs (or without
+ * one, like archives of older versions) can be restored side by side.
+ */
+public enum CompressionCodec {
+    /**
+     * Gzip, compressed in parallel blocks by {@link ParallelGzipOutputStream}. Levels 1-9.
+     * Written as independent members of 16 MB, so it can also be decompressed in parallel.
+     */
+    GZIP(new byte[]{0x1f, (byte) 0x8b}, ".tar.gz", 1, 9, 6) {
+        @Override
+        public OutputStream compress(OutputStream out, int level) throws IOException {
+            return new ParallelGzipOutputStream(out, effectiveLevel(level),
+                    ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, ParallelGzipOutputStream.DEFAULT_MEMBER_SIZE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, 64 * 1024); // Also reads multi-member files
+        }
+    },
+
+    /**
+     * Zstandard, multi-threaded through the bundled native library. Levels 1-22.
+     */
+    ZSTD(new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd}, ".tar.zst", 1, 22, 3) {
+        @Override
+        public OutputStream compress(OutputStream out, int level) throws IOException {
+            ZstdOutputStream zstd = new ZstdOutputStream(out, effectiveLevel(level));
+            zstd.setWorkers(Runtime.getRuntime().availableProcessors());
+            zstd.setChecksum(true);
+            return zstd;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new ZstdInputStream(in);
+        }
+    },
+
+    /**
+     * LZ4 frames; level 1 uses the fast compressor, 2-17 the high-compression one.
+     */
+    LZ4(new byte[]{0x04, 0x22, 0x4d, 0x18}, ".tar.lz4", 1, 17, 1) {
+        @Override
+        public OutputStream compress(OutputStream out, int level) throws IOException {
+            int effective = effectiveLevel(level);
+            LZ4Factory factory = LZ4Factory.fastestInstance();
+            LZ4Compressor compressor = effective == 1 ? factory.fastCompressor() : factory.highCompressor(effective);
+            return new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB, -1L, compressor,
+                    XXHashFactory.fastestInstance().hash32(), LZ4FrameOutputStream.FLG.Bits.BLOCK_INDEPENDENCE,
+                    LZ4FrameOutputStream.FLG.Bits.CONTENT_CHECKSUM);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new LZ4FrameInputStream(in);
+        }
+    },
+
+    /**
+     * No compression.
+     */
+    NONE(new byte[0], ".tar", 0, 0, 0) {
+        @Override
+        public OutputStream compress(OutputStream out, int level) {
+            return out;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+    };
+
+    /**
+     * Level meaning "the codec's default".
+     */
+    public static final int DEFAULT_LEVEL = -1;
+
+    private static final int MAX_MAGIC_LENGTH = 4;
+
+    private final byte[] magic;
+    private final String archiveExtension;
+    private final int minLevel;
+    private final int maxLevel;
+    private final int defaultLevel;
+
+    CompressionCodec(byte[] magic, String archiveExtension, int minLevel, int maxLevel, int defaultLevel) {
+        this.magic = magic;
+        this.archiveExtension = archiveExtension;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+        this.defaultLevel = defaultLevel;
+    }
+
+    /**
+     * Wraps a stream so everything written to it is compressed. Closing (or, for gzip,
+     * finishing) the returned stream writes the end of the compressed data.
+     *
+     * @param level Compression level, or {@link #DEFAULT_LEVEL}.
+     */
+    public abstract OutputStream compress(OutputStream out, int level) throws IOException;
+
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * The file name extension of archives written with this codec, e.g. ".tar.zst".
+     */
+    public String getArchiveExtension() {
+        return archiveExtension;
+    }
+
+    /**
+     * The archive extension a file name ends with, of any codec.
+     *
+     * @return The extension, or null if the name is not the name of an archive.
+     */
+    public static String archiveExtensionOf(String fileName) {
+        for (CompressionCodec codec : values()) {
+            if (fileName.endsWith(codec.archiveExtension)) {
+                return codec.archiveExtension;
+            }
+        }
+        return null;
+    }
+
+    public boolean isValidLevel(int level) {
+        return level == DEFAULT_LEVEL || (level >= minLevel && level <= maxLevel);
+    }
+
+    protected int effectiveLevel(int level) {
+        return level == DEFAULT_LEVEL ? defaultLevel : level;
+    }
+
+    /**
+     * Looks up a codec by its configuration name ("gzip", "zstd", "lz4" or "none").
+     *
+     * @throws IllegalArgumentException If the name is unknown.
+     */
+    public static CompressionCodec fromName(String name) {
+        if (name == null) {
+            return GZIP;
+        }
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Opens a compressed archive, detecting the codec from its first bytes. Data without a
+     * known magic is returned as is.
+     */
+    public static InputStream open(InputStream in) throws IOException {
+        InputStream buffered = in.markSupported() ? in : new BufferedInputStream(in, 64 * 1024);
+        buffered.mark(MAX_MAGIC_LENGTH);
+        byte[] header = buffered.readNBytes(MAX_MAGIC_LENGTH);
+        buffered.reset();
+        for (CompressionCodec codec : values()) {
+            if (codec.magic.length > 0 && header.length >= codec.magic.length
+                    && Arrays.equals(header, 0, codec.magic.length, codec.magic, 0, codec.magic.length)) {
+                return codec.decompress(buffered);
+            }
+        }
+        return buffered;
+    }
+}
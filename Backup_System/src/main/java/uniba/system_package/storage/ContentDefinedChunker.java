@@ -0,0 +1,111 @@
+package uniba.system_package.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Splits a stream into variable-sized chunks whose boundaries depend on the content
+ * (gear rolling hash). Inserting or removing bytes only changes the chunks around the
+ * edit, so unchanged parts of a file produce the same chunks in every backup.
+ */
+public class ContentDefinedChunker {
+    public static final int DEFAULT_MIN_SIZE = 256 * 1024;
+    public static final int DEFAULT_AVG_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    // Fixed seed: chunk boundaries must be identical across runs and hosts
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6261636b7570L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minSize;
+    private final int maxSize;
+    private final long mask;
+
+    public ContentDefinedChunker() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param minSize Smallest chunk (except the last one of a stream).
+     * @param avgSize Expected chunk size, must be a power of two.
+     * @param maxSize Largest chunk.
+     */
+    public ContentDefinedChunker(int minSize, int avgSize, int maxSize) {
+        if (Integer.bitCount(avgSize) != 1 || minSize <= 0 || minSize > avgSize || avgSize > maxSize) {
+            throw new IllegalArgumentException("Invalid chunk sizes: min=" + minSize + ", avg=" + avgSize + ", max=" + maxSize);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        // Use the high bits of the hash, they depend on the most recent bytes
+        this.mask = ~(-1L >>> Integer.numberOfTrailingZeros(avgSize));
+    }
+
+    /**
+     * Returns a reader producing the chunks of the given stream.
+     */
+    public Reader open(InputStream in) {
+        return new Reader(in);
+    }
+
+    public class Reader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[maxSize];
+        private int buffered;
+        private boolean eof;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next chunk.
+         *
+         * @return The chunk bytes, or null at the end of the stream.
+         */
+        public byte[] next() throws IOException {
+            fill();
+            if (buffered == 0) {
+                return null;
+            }
+
+            int cut = findBoundary();
+            byte[] chunk = Arrays.copyOf(buffer, cut);
+            System.arraycopy(buffer, cut, buffer, 0, buffered - cut);
+            buffered -= cut;
+            return chunk;
+        }
+
+        private void fill() throws IOException {
+            while (!eof && buffered < buffer.length) {
+                int read = in.read(buffer, buffered, buffer.length - buffered);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    buffered += read;
+                }
+            }
+        }
+
+        private int findBoundary() {
+            if (buffered <= minSize) {
+                return buffered;
+            }
+            long hash = 0;
+            for (int i = minSize; i < buffered; i++) {
+                hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+                if ((hash & mask) == 0) {
+                    return i + 1;
+                }
+            }
+            return buffered; // No boundary found: max size reached or end of stream
+        }
+    }
+}
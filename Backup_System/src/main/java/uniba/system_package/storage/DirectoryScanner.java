@@ -0,0 +1,344 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks the paths of a backup target in parallel.
+ * <p>
+ * Every directory is listed by its own fork-join task. Files (and symbolic links, which are
+ * not followed) that pass the include/exclude glob rules are put into a bounded queue, so
+ * the archive writer can start while the scan is still running and the scan slows down
+ * when the writer falls behind. Every directory that is not excluded, the roots included,
+ * is put into the queue as well, before its contents, so its permissions, ownership and
+ * time are archived and empty directories are kept; include patterns apply to files only.
+ */
+public class DirectoryScanner {
+    private static final Logger logger = LogManager.getLogger(DirectoryScanner.class);
+
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final ScannedFile END_OF_SCAN = new ScannedFile(null, null);
+
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private final int parallelism;
+
+    /**
+     * @param includePatterns Glob patterns a file must match (any of them); empty or null means all files.
+     * @param excludePatterns Glob patterns of files and directories to skip.
+     * @param parallelism     Number of scanner threads, 0 for one per CPU.
+     */
+    public DirectoryScanner(List<String> includePatterns, List<String> excludePatterns, int parallelism) {
+        if (includePatterns != null) {
+            includePatterns.forEach(pattern -> includes.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern)));
+        }
+        if (excludePatterns != null) {
+            excludePatterns.forEach(pattern -> excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern)));
+        }
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Starts scanning in the background.
+     *
+     * @param roots Files and directories to scan.
+     * @return The running scan; iterate it to consume the files.
+     */
+    public Scan start(List<String> roots) {
+        Scan scan = new Scan();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Thread coordinator = new Thread(() -> {
+            try {
+                List<ScanTask> tasks = new ArrayList<>();
+                for (String root : roots) {
+                    tasks.add(new ScanTask(Paths.get(root), scan, null));
+                }
+                tasks.forEach(pool::execute);
+                tasks.forEach(ScanTask::join);
+            } catch (RuntimeException e) {
+                logger.error("Directory scan failed: {}", e.getMessage(), e);
+                roots.forEach(root -> scan.fail(Paths.get(root))); // Unknown how far the scan got
+            } finally {
+                pool.shutdown();
+                scan.finish();
+            }
+        }, "directory-scan");
+        coordinator.setDaemon(true);
+        coordinator.start();
+        return scan;
+    }
+
+    /**
+     * Scans the roots completely and returns all files found, without the directories.
+     */
+    public List<String> scanAll(List<String> roots) {
+        List<String> files = new ArrayList<>();
+        for (ScannedFile file : start(roots)) {
+            if (!file.isDirectory()) {
+                files.add(file.getPath().toString());
+            }
+        }
+        return files;
+    }
+
+    private boolean isExcluded(Path path) {
+        return matchesAny(excludes, path);
+    }
+
+    private boolean isIncluded(Path path) {
+        return includes.isEmpty() || matchesAny(includes, path);
+    }
+
+    // Patterns may be written against the whole path ("/var/log/**") or only the name ("*.tmp")
+    private static boolean matchesAny(List<PathMatcher> matchers, Path path) {
+        Path fileName = path.getFileName();
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path) || (fileName != null && matcher.matches(fileName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scans one configured path. Files of a directory are handled inline, only
+     * subdirectories become new tasks.
+     */
+    private class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path path;
+        private final Scan scan;
+        private final BasicFileAttributes attributes; // Of the directory; null for a root, which is read first
+
+        ScanTask(Path path, Scan scan, BasicFileAttributes attributes) {
+            this.path = path;
+            this.scan = scan;
+            this.attributes = attributes;
+        }
+
+        @Override
+        protected void compute() {
+            if (attributes != null) {
+                scanDirectory(attributes);
+                return;
+            }
+
+            BasicFileAttributes rootAttributes;
+            try {
+                rootAttributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                logger.warn("{} does not exist; it is treated as empty.", path); // Its files count as deleted
+                return;
+            } catch (IOException e) {
+                logger.warn("Cannot read {}: {}. Skipping.", path, e.getMessage());
+                scan.fail(path);
+                return;
+            }
+            if (rootAttributes.isDirectory()) {
+                scanDirectory(rootAttributes);
+            } else if (isIncluded(path)) {
+                scan.offer(new ScannedFile(path, rootAttributes));
+            }
+        }
+
+        private void scanDirectory(BasicFileAttributes directoryAttributes) {
+            scan.directories.incrementAndGet();
+            scan.offer(new ScannedFile(path, directoryAttributes));
+            List<ScanTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    if (isExcluded(entry)) {
+                        continue;
+                    }
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        logger.warn("Cannot read attributes of {}: {}", entry, e.getMessage());
+                        scan.fail(entry);
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        subdirectories.add(new ScanTask(entry, scan, attributes));
+                    } else if (isIncluded(entry)) {
+                        scan.offer(new ScannedFile(entry, attributes));
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Cannot list directory {}: {}", path, e.getMessage());
+                scan.fail(path);
+                return;
+            }
+            invokeAll(subdirectories);
+        }
+    }
+
+    /**
+     * A file found by the scanner together with the attributes read during the scan.
+     */
+    public static class ScannedFile {
+        private final Path path;
+        private final BasicFileAttributes attributes;
+
+        ScannedFile(Path path, BasicFileAttributes attributes) {
+            this.path = path;
+            this.attributes = attributes;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public BasicFileAttributes getAttributes() {
+            return attributes;
+        }
+
+        public boolean isDirectory() {
+            return attributes.isDirectory();
+        }
+    }
+
+    /**
+     * A running scan. Can be iterated once; the iterator blocks until the next file is found.
+     */
+    public static class Scan implements Iterable<ScannedFile> {
+        private final BlockingQueue<ScannedFile> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong directories = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final Queue<Path> failedPaths = new ConcurrentLinkedQueue<>(); // Could not be read or listed
+        private final long startNanos = System.nanoTime();
+        private volatile long elapsedNanos = -1;
+
+        private volatile boolean cancelled;
+
+        private void offer(ScannedFile file) {
+            if (!file.isDirectory()) {
+                files.incrementAndGet();
+                bytes.addAndGet(file.getAttributes().size());
+            }
+            try {
+                while (!cancelled && !queue.offer(file, 100, TimeUnit.MILLISECONDS)) {
+                    // Queue full: wait for the archive writer
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Directory scan interrupted", e);
+            }
+        }
+
+        private void fail(Path path) {
+            errors.incrementAndGet();
+            failedPaths.add(path);
+        }
+
+        /**
+         * Stops a scan whose consumer gave up (e.g. the archive could not be written),
+         * so the scanner threads do not wait for queue space forever.
+         */
+        public void cancel() {
+            cancelled = true;
+            queue.clear();
+        }
+
+        private void finish() {
+            elapsedNanos = System.nanoTime() - startNanos;
+            logger.info("Scanned {} files ({} bytes) in {} directories in {} ms: {} files/s, {} errors.",
+                    files.get(), bytes.get(), directories.get(), elapsedNanos / 1_000_000,
+                    String.format("%.0f", getFilesPerSecond()), errors.get());
+            try {
+                while (!cancelled && !queue.offer(END_OF_SCAN, 100, TimeUnit.MILLISECONDS)) {
+                    // Queue full: wait for the archive writer
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public long getFileCount() {
+            return files.get();
+        }
+
+        public long getDirectoryCount() {
+            return directories.get();
+        }
+
+        public long getErrorCount() {
+            return errors.get();
+        }
+
+        /**
+         * Files and directories that could not be read or listed, so what is below them is
+         * unknown; complete once the scan is exhausted.
+         */
+        public List<Path> getFailedPaths() {
+            return List.copyOf(failedPaths);
+        }
+
+        /**
+         * Scan rate in files per second, measured until the scan finished (or until now while it runs).
+         */
+        public double getFilesPerSecond() {
+            long elapsed = elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startNanos;
+            return elapsed > 0 ? files.get() * 1_000_000_000.0 / elapsed : 0.0;
+        }
+
+        @Override
+        public Iterator<ScannedFile> iterator() {
+            return new Iterator<>() {
+                private ScannedFile next;
+
+                @Override
+                public boolean hasNext() {
+                    if (next == null) {
+                        try {
+                            next = queue.take();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException("Interrupted while waiting for scanned files", e);
+                        }
+                    }
+                    if (next == END_OF_SCAN) {
+                        return false; // next stays END_OF_SCAN, so further calls return false too
+                    }
+                    return true;
+                }
+
+                @Override
+                public ScannedFile next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    ScannedFile file = next;
+                    next = null;
+                    return file;
+                }
+            };
+        }
+    }
+}
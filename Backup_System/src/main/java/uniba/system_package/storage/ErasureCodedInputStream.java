@@ -0,0 +1,321 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads data written by {@link ErasureCodedOutputStream} back from any k of its shards. Shard
+ * files are opened in the order of their first shard until they hold k good blocks, so no
+ * more is read than needed and each backend is read over a single connection. A file that
+ * cannot be read is dropped and the next one is opened at the current stripe instead; a
+ * block with a wrong CRC only drops that block. Data blocks that were not read, because
+ * they share a file with parity or their file is lost, are rebuilt from the parity.
+ */
+public class ErasureCodedInputStream extends InputStream {
+    private static final Logger logger = LogManager.getLogger(ErasureCodedInputStream.class);
+
+    private final String name;
+    private final Deque<ShardFile> candidates = new ArrayDeque<>(); // Files not opened yet
+    private final List<ShardFile> open = new ArrayList<>();
+    private final CRC32C crc = new CRC32C();
+    private ReedSolomon codec;
+    private int blockSize;
+    private long length;
+    private long stripeCount;
+    private byte[][] shards;
+    private byte[] stripe;
+    private int stripeLength;
+    private int position;
+    private long nextStripe;
+
+    /**
+     * Finds the shard files on the backends and reads their headers and the layout.
+     *
+     * @throws IOException If no shard file with a valid header and trailer is found.
+     */
+    public ErasureCodedInputStream(String name, List<StorageBackend> backends) throws IOException {
+        this.name = name;
+        String prefix = name + ".ec";
+        List<ShardFile> found = new ArrayList<>();
+        for (StorageBackend backend : backends) {
+            try {
+                for (StorageBackend.StoredFile file : backend.list().join()) {
+                    String suffix = file.name().startsWith(prefix) ? file.name().substring(prefix.length()) : "";
+                    if (suffix.length() == 3 && suffix.chars().allMatch(Character::isDigit)) {
+                        try {
+                            found.add(readHeader(backend, file));
+                        } catch (IOException e) {
+                            logger.warn("Shard file {} on {} is unusable: {}", file.name(), backend.getLocation(), e.getMessage());
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Cannot list {}: {}", backend.getLocation(), e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            }
+        }
+        found.sort(Comparator.comparingInt(file -> file.shards[0]));
+
+        for (ShardFile file : found) {
+            if (codec == null) {
+                try {
+                    readLayout(file);
+                } catch (IOException e) {
+                    logger.warn("Shard file {} is unusable: {}", file.file.name(), e.getMessage());
+                    continue;
+                }
+            }
+            if (file.dataShards == codec.getDataShards() && file.parityShards == codec.getParityShards()
+                    && file.blockSize == blockSize && file.file.size() == fileSize(file.shards.length)) {
+                candidates.add(file);
+            } else {
+                logger.warn("Shard file {} does not match the others of {}; ignoring it.", file.file.name(), name);
+            }
+        }
+        if (codec == null) {
+            throw new IOException("No readable shards of " + name + " found");
+        }
+        logger.info("Reading {} ({} bytes) from {} shard files ({} of {} shards needed).", name, length, candidates.size(),
+                codec.getDataShards(), codec.getTotalShards());
+    }
+
+    private ShardFile readHeader(StorageBackend backend, StorageBackend.StoredFile file) throws IOException {
+        byte[] header;
+        try (InputStream in = backend.openInput(file.name(), 0)) {
+            header = in.readNBytes(ErasureCodedOutputStream.headerSize(0));
+            if (header.length == ErasureCodedOutputStream.headerSize(0)) {
+                int count = header[header.length - 1] & 0xFF;
+                header = Arrays.copyOf(header, header.length + count);
+                if (in.readNBytes(header, ErasureCodedOutputStream.headerSize(0), count) != count) {
+                    throw new IOException("Truncated header");
+                }
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        if (header.length <= ErasureCodedOutputStream.headerSize(0)
+                || !Arrays.equals(header, 0, 4, ErasureCodedOutputStream.MAGIC, 0, 4)
+                || buffer.get(4) != ErasureCodedOutputStream.VERSION) {
+            throw new IOException("Invalid header");
+        }
+        int dataShards = buffer.get(5) & 0xFF;
+        int parityShards = buffer.get(6) & 0xFF;
+        if (dataShards < 1 || dataShards + parityShards > ReedSolomon.MAX_SHARDS) {
+            throw new IOException("Invalid shard counts");
+        }
+        int[] fileShards = new int[buffer.get(11) & 0xFF];
+        for (int i = 0; i < fileShards.length; i++) {
+            fileShards[i] = buffer.get(12 + i) & 0xFF;
+            if (fileShards[i] >= dataShards + parityShards) {
+                throw new IOException("Invalid shard index");
+            }
+        }
+        return new ShardFile(backend, file, dataShards, parityShards, buffer.getInt(7), fileShards);
+    }
+
+    private void readLayout(ShardFile file) throws IOException {
+        if (file.blockSize <= 0 || file.file.size() < ErasureCodedOutputStream.headerSize(file.shards.length)
+                + ErasureCodedOutputStream.TRAILER_SIZE) {
+            throw new IOException("Invalid layout");
+        }
+        byte[] trailer;
+        try (InputStream in = file.backend.openInput(file.file.name(), file.file.size() - ErasureCodedOutputStream.TRAILER_SIZE)) {
+            trailer = in.readNBytes(ErasureCodedOutputStream.TRAILER_SIZE);
+        }
+        if (trailer.length != ErasureCodedOutputStream.TRAILER_SIZE) {
+            throw new IOException("Truncated trailer");
+        }
+
+        codec = new ReedSolomon(file.dataShards, file.parityShards);
+        blockSize = file.blockSize;
+        length = ByteBuffer.wrap(trailer).getLong();
+        long stripeData = (long) file.dataShards * blockSize;
+        stripeCount = length >= 0 ? (length + stripeData - 1) / stripeData : 0;
+        if (length < 0 || file.file.size() != fileSize(file.shards.length)) {
+            codec = null;
+            throw new IOException("Size does not match the trailer");
+        }
+        shards = new byte[codec.getTotalShards()][blockSize];
+        stripe = new byte[file.dataShards * blockSize];
+    }
+
+    private long fileSize(int shardCount) {
+        long size = ErasureCodedOutputStream.headerSize(shardCount) + ErasureCodedOutputStream.TRAILER_SIZE;
+        if (stripeCount > 0) {
+            size += (long) shardCount * ((stripeCount - 1) * (blockSize + ErasureCodedOutputStream.CRC_SIZE)
+                    + blockLength(stripeCount - 1) + ErasureCodedOutputStream.CRC_SIZE);
+        }
+        return size;
+    }
+
+    private long stripeOffset(ShardFile file, long stripeIndex) {
+        return ErasureCodedOutputStream.headerSize(file.shards.length)
+                + stripeIndex * file.shards.length * (blockSize + ErasureCodedOutputStream.CRC_SIZE);
+    }
+
+    private int stripeDataLength(long stripeIndex) {
+        long stripeData = (long) codec.getDataShards() * blockSize;
+        return (int) Math.min(stripeData, length - stripeIndex * stripeData);
+    }
+
+    private int blockLength(long stripeIndex) {
+        int dataShards = codec.getDataShards();
+        return (stripeDataLength(stripeIndex) + dataShards - 1) / dataShards;
+    }
+
+    /**
+     * Length of the original data.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == stripeLength) {
+            if (nextStripe == stripeCount) {
+                return -1;
+            }
+            readStripe();
+        }
+        int count = Math.min(len, stripeLength - position);
+        System.arraycopy(stripe, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Reads the next stripe from the open shard files, opening further ones until k blocks
+     * are good, and decodes it if data blocks are missing.
+     */
+    private void readStripe() throws IOException {
+        long stripeIndex = nextStripe++;
+        int blockLength = blockLength(stripeIndex);
+        boolean[] present = new boolean[codec.getTotalShards()];
+        int good = 0;
+        for (ShardFile file : List.copyOf(open)) {
+            good += readBlocks(file, stripeIndex, blockLength, present);
+        }
+        while (good < codec.getDataShards() && !candidates.isEmpty()) {
+            ShardFile file = candidates.poll();
+            try {
+                file.in = file.backend.openInput(file.file.name(), stripeOffset(file, stripeIndex));
+                open.add(file);
+                good += readBlocks(file, stripeIndex, blockLength, present);
+            } catch (IOException e) {
+                logger.warn("Cannot open shard file {}: {}", file.file.name(), e.getMessage());
+            }
+        }
+        if (good < codec.getDataShards()) {
+            throw new IOException("Only " + good + " of the " + codec.getDataShards() + " shards needed to restore "
+                    + name + " are readable");
+        }
+
+        boolean complete = true;
+        for (int shard = 0; shard < codec.getDataShards(); shard++) {
+            complete &= present[shard];
+        }
+        if (!complete) {
+            codec.reconstruct(shards, present, 0, blockLength);
+        }
+        stripeLength = stripeDataLength(stripeIndex);
+        for (int shard = 0, copied = 0; copied < stripeLength; shard++) {
+            int count = Math.min(blockLength, stripeLength - copied);
+            System.arraycopy(shards[shard], 0, stripe, copied, count);
+            copied += count;
+        }
+        position = 0;
+    }
+
+    /**
+     * Reads the blocks of one stripe from a shard file.
+     *
+     * @return The number of good blocks; the file is closed and dropped if it cannot be read.
+     */
+    private int readBlocks(ShardFile file, long stripeIndex, int blockLength, boolean[] present) {
+        int good = 0;
+        try {
+            byte[] storedCrc = new byte[ErasureCodedOutputStream.CRC_SIZE];
+            for (int shard : file.shards) {
+                if (file.in.readNBytes(shards[shard], 0, blockLength) != blockLength
+                        || file.in.readNBytes(storedCrc, 0, storedCrc.length) != storedCrc.length) {
+                    throw new IOException("Unexpected end of file");
+                }
+                crc.reset();
+                crc.update(shards[shard], 0, blockLength);
+                if (ByteBuffer.wrap(storedCrc).getInt() == (int) crc.getValue()) {
+                    present[shard] = true;
+                    good++;
+                } else {
+                    logger.warn("Shard {} of {} is damaged at stripe {}.", shard, name, stripeIndex);
+                }
+            }
+            return good;
+        } catch (IOException e) {
+            logger.warn("Reading shard file {} failed: {}", file.file.name(), e.getMessage());
+            for (int shard : file.shards) {
+                present[shard] = false;
+            }
+            open.remove(file);
+            file.close();
+            return 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ShardFile file : open) {
+            file.close();
+        }
+        open.clear();
+        candidates.clear();
+    }
+
+    /**
+     * A shard file on a backend, with the layout from its header.
+     */
+    private static class ShardFile {
+        private final StorageBackend backend;
+        private final StorageBackend.StoredFile file;
+        private final int dataShards;
+        private final int parityShards;
+        private final int blockSize;
+        private final int[] shards;
+        private InputStream in;
+
+        ShardFile(StorageBackend backend, StorageBackend.StoredFile file, int dataShards, int parityShards, int blockSize, int[] shards) {
+            this.backend = backend;
+            this.file = file;
+            this.dataShards = dataShards;
+            this.parityShards = parityShards;
+            this.blockSize = blockSize;
+            this.shards = shards;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                logger.debug("Closing shard file {} failed: {}", file.name(), e.getMessage());
+            }
+        }
+    }
+}
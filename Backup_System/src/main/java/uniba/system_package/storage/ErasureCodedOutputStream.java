@@ -0,0 +1,276 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Splits a stream into Reed-Solomon shards and writes them to storage backends while the data
+ * is produced. The data is cut into stripes of k blocks; every stripe is extended by m parity
+ * blocks, and block i of every stripe belongs to shard i.
+ * <p>
+ * The shards placed on the same backend are written to one file, {@code <name>.ecNNN} (NNN is
+ * the first of its shards), so a backend needs a single connection however many shards it
+ * holds. Each file is written through a {@link FanOutOutputStream} of its own: a slow backend
+ * only holds up the encoder once its buffer is full, and a failed backend only loses its own
+ * shards. A file starts with a header (magic, version, k, m, block size, its shard indexes),
+ * holds the blocks of its shards with a CRC32C each, stripe by stripe, and ends with the
+ * length of the original data. All stripes are full except the last one, whose blocks are
+ * as long as needed to hold the rest of the data. The SHA-256 of the original data is
+ * stored as {@code <name>.sha256} on every backend that received shards.
+ */
+public class ErasureCodedOutputStream extends OutputStream {
+    private static final Logger logger = LogManager.getLogger(ErasureCodedOutputStream.class);
+
+    static final byte[] MAGIC = {'B', 'K', 'E', 'C'};
+    static final int VERSION = 1;
+    static final int CRC_SIZE = 4;
+    static final int TRAILER_SIZE = 8;
+
+    private final String name;
+    private final ReedSolomon codec;
+    private final byte[] stripe;       // Data of the current stripe, as written
+    private final byte[][] shards;     // The blocks of the current stripe, data and parity
+    private final List<ShardFile> files = new ArrayList<>();
+    private final MessageDigest digest;
+    private final CRC32C crc = new CRC32C();
+    private int stripeLength;
+    private long length;
+    private String checksum;
+    private boolean closed;
+
+    /**
+     * Opens the shard files on their backends.
+     *
+     * @param placement  Backend of every shard to write, by shard index; shards that are not in it are only computed.
+     * @param bufferSize Bytes a backend may fall behind before the encoder waits for it.
+     */
+    public ErasureCodedOutputStream(String name, ReedSolomon codec, int blockSize, Map<Integer, StorageBackend> placement,
+                                    long bufferSize) {
+        this.name = name;
+        this.codec = codec;
+        this.stripe = new byte[codec.getDataShards() * blockSize];
+        this.shards = new byte[codec.getTotalShards()][blockSize];
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        Map<StorageBackend, List<Integer>> groups = new LinkedHashMap<>();
+        new TreeMap<>(placement).forEach((shard, backend) -> groups.computeIfAbsent(backend, key -> new ArrayList<>()).add(shard));
+        for (Map.Entry<StorageBackend, List<Integer>> group : groups.entrySet()) {
+            int[] fileShards = group.getValue().stream().mapToInt(Integer::intValue).toArray();
+            ShardFile file = new ShardFile(group.getKey(), fileShards,
+                    new FanOutOutputStream(fileName(name, fileShards[0]), List.of(group.getKey()), bufferSize));
+            files.add(file);
+
+            ByteBuffer header = ByteBuffer.allocate(headerSize(fileShards.length)).put(MAGIC).put((byte) VERSION)
+                    .put((byte) codec.getDataShards()).put((byte) codec.getParityShards()).putInt(blockSize)
+                    .put((byte) fileShards.length);
+            for (int shard : fileShards) {
+                header.put((byte) shard);
+            }
+            file.write(header.array(), header.capacity());
+        }
+    }
+
+    /**
+     * Name of the shard file in the backends that starts with the given shard.
+     */
+    public static String fileName(String name, int firstShard) {
+        return String.format("%s.ec%03d", name, firstShard);
+    }
+
+    static int headerSize(int shardCount) {
+        return MAGIC.length + 3 + 4 + 1 + shardCount;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        digest.update(b, off, len);
+        while (len > 0) {
+            int count = Math.min(len, stripe.length - stripeLength);
+            System.arraycopy(b, off, stripe, stripeLength, count);
+            stripeLength += count;
+            off += count;
+            len -= count;
+            if (stripeLength == stripe.length) {
+                writeStripe();
+            }
+        }
+    }
+
+    /**
+     * Encodes the current stripe and hands its blocks to the writers of the shard files.
+     */
+    private void writeStripe() throws IOException {
+        int dataShards = codec.getDataShards();
+        int blockLength = (stripeLength + dataShards - 1) / dataShards;
+        for (int shard = 0; shard < dataShards; shard++) {
+            int start = Math.min(shard * blockLength, stripeLength);
+            int count = Math.min(blockLength, stripeLength - start);
+            System.arraycopy(stripe, start, shards[shard], 0, count);
+            Arrays.fill(shards[shard], count, blockLength, (byte) 0);
+        }
+        codec.encodeParity(shards, 0, blockLength);
+
+        byte[] blockCrc = new byte[CRC_SIZE];
+        for (ShardFile file : files) {
+            for (int shard : file.shards) {
+                crc.reset();
+                crc.update(shards[shard], 0, blockLength);
+                ByteBuffer.wrap(blockCrc).putInt((int) crc.getValue());
+                file.write(shards[shard], blockLength);
+                file.write(blockCrc, CRC_SIZE);
+            }
+        }
+        length += stripeLength;
+        stripeLength = 0;
+
+        if (files.stream().allMatch(file -> file.error != null)) {
+            throw new IOException("Writing the shards of " + name + " failed on all destinations");
+        }
+    }
+
+    /**
+     * Writes the last stripe and the trailers, waits for all writers and stores the checksum
+     * of the data. Failed shards do not make this fail; see {@link #getFailures()}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (stripeLength > 0) {
+            writeStripe();
+        }
+        closed = true;
+        byte[] trailer = ByteBuffer.allocate(TRAILER_SIZE).putLong(length).array();
+        for (ShardFile file : files) {
+            file.write(trailer, TRAILER_SIZE);
+            file.finish(false);
+        }
+
+        checksum = HexFormat.of().formatHex(digest.digest());
+        byte[] checksumLine = (checksum + "  " + name + "\n").getBytes(StandardCharsets.UTF_8);
+        for (StorageBackend backend : new LinkedHashSet<>(getStoredShards().values())) {
+            try (OutputStream out = backend.openOutput(name + ".sha256")) {
+                out.write(checksumLine);
+            } catch (IOException e) {
+                logger.warn("Could not store the checksum of {} on {}: {}", name, backend.getLocation(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ends all shard files without trailers or checksum files, e.g. because producing the
+     * data failed.
+     */
+    public void abort() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (ShardFile file : files) {
+            file.finish(true);
+        }
+    }
+
+    /**
+     * Hex SHA-256 of the original data, once the stream is closed.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * The shards written without errors so far (all of them once the stream is closed), with their backends.
+     */
+    public Map<Integer, StorageBackend> getStoredShards() {
+        Map<Integer, StorageBackend> stored = new TreeMap<>();
+        for (ShardFile file : files) {
+            if (file.error == null) {
+                for (int shard : file.shards) {
+                    stored.put(shard, file.backend);
+                }
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * The shards that failed, with the reason.
+     */
+    public Map<Integer, IOException> getFailures() {
+        Map<Integer, IOException> failures = new TreeMap<>();
+        for (ShardFile file : files) {
+            if (file.error != null) {
+                for (int shard : file.shards) {
+                    failures.put(shard, file.error);
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * The shards placed on one backend, and the stream writing their file.
+     */
+    private static class ShardFile {
+        private final StorageBackend backend;
+        private final int[] shards;
+        private final FanOutOutputStream out;
+        private IOException error;
+
+        ShardFile(StorageBackend backend, int[] shards, FanOutOutputStream out) {
+            this.backend = backend;
+            this.shards = shards;
+            this.out = out;
+        }
+
+        void write(byte[] data, int count) {
+            if (error == null) {
+                try {
+                    out.write(data, 0, count);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+
+        void finish(boolean abort) throws IOException {
+            if (abort || error != null) {
+                out.abort();
+            } else {
+                out.close();
+            }
+            if (error == null && !out.getFailures().isEmpty()) {
+                error = out.getFailures().values().iterator().next();
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores backups erasure-coded instead of as full copies: every archive is split into k data
+ * and m parity shards ({@link ErasureCodedOutputStream}), which are spread over the
+ * destinations round-robin (one file per destination), and any k shards are enough to restore it
+ * ({@link ErasureCodedInputStream}). With k = 4 and m = 2 this keeps 1.5 times the archive
+ * size instead of 3 times for three replicas, and still survives the loss of two shards.
+ * <p>
+ * A backup counts as stored when at least k shards were written and the number of written
+ * shards satisfies the {@link SuccessPolicy}. Shards that fail are encoded again from the
+ * local archive and written to the same destination once more before that is decided.
+ */
+public class ErasureCodedStorage implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(ErasureCodedStorage.class);
+
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    private final ReedSolomon codec;
+    private final SuccessPolicy policy;
+    private final long bufferSize;
+    private final ExecutorService executor;
+
+    /**
+     * @param bufferSize Bytes a destination may fall behind the others before encoding waits for it.
+     */
+    public ErasureCodedStorage(int dataShards, int parityShards, SuccessPolicy policy, long bufferSize) {
+        this.codec = new ReedSolomon(dataShards, parityShards);
+        this.policy = policy;
+        this.bufferSize = bufferSize;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "erasure-coding-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public ReedSolomon getCodec() {
+        return codec;
+    }
+
+    /**
+     * The destination of every shard: shard i goes to destination i modulo their number.
+     */
+    public Map<Integer, StorageBackend> placement(List<StorageBackend> destinations) {
+        Map<Integer, StorageBackend> placement = new LinkedHashMap<>();
+        for (int shard = 0; shard < codec.getTotalShards(); shard++) {
+            placement.put(shard, destinations.get(shard % destinations.size()));
+        }
+        return placement;
+    }
+
+    /**
+     * Opens a stream that writes the shards of a file to the destinations as it is written.
+     * Check the result with {@link #isStored} after closing it.
+     */
+    public ErasureCodedOutputStream open(String name, List<StorageBackend> destinations) {
+        return new ErasureCodedOutputStream(name, codec, BLOCK_SIZE, placement(destinations), bufferSize);
+    }
+
+    /**
+     * Whether enough shards were written: at least k, and as many as the policy asks for.
+     */
+    public boolean isStored(int storedShards) {
+        return storedShards >= codec.getDataShards() && policy.isSatisfied(storedShards, codec.getTotalShards());
+    }
+
+    /**
+     * Encodes a local file and uploads its shards to the destinations.
+     *
+     * @return Completes with the backends that received shards; fails if too few shards were stored.
+     */
+    public CompletableFuture<List<StorageBackend>> upload(Path localFile, String name, List<StorageBackend> destinations) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return encode(localFile, name, destinations);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private List<StorageBackend> encode(Path localFile, String name, List<StorageBackend> destinations) throws IOException {
+        Map<Integer, StorageBackend> placement = placement(destinations);
+        Map<Integer, StorageBackend> stored = new LinkedHashMap<>(encode(localFile, name, placement));
+        if (stored.size() < placement.size()) {
+            Map<Integer, StorageBackend> failed = new LinkedHashMap<>(placement);
+            failed.keySet().removeAll(stored.keySet());
+            logger.warn("Writing shards {} of {} again.", failed.keySet(), name);
+            stored.putAll(encode(localFile, name, failed));
+        }
+
+        if (!isStored(stored.size())) {
+            throw new IOException(name + ": " + stored.size() + " of " + codec.getTotalShards() + " shards stored; at least "
+                    + codec.getDataShards() + " and policy " + policy + " required");
+        }
+        logger.info("{} stored as {} of {} shards on {} destinations.", name, stored.size(), codec.getTotalShards(),
+                new LinkedHashSet<>(stored.values()).size());
+        return new ArrayList<>(new LinkedHashSet<>(stored.values()));
+    }
+
+    private Map<Integer, StorageBackend> encode(Path localFile, String name, Map<Integer, StorageBackend> placement) throws IOException {
+        ErasureCodedOutputStream out = new ErasureCodedOutputStream(name, codec, BLOCK_SIZE, placement, bufferSize);
+        try (InputStream in = Files.newInputStream(localFile)) {
+            in.transferTo(out);
+            out.close();
+        } catch (IOException e) {
+            out.abort();
+            if (!out.getStoredShards().isEmpty()) {
+                throw e; // Reading the file failed, not the destinations
+            }
+        }
+        Map<IOException, List<Integer>> failures = new LinkedHashMap<>(); // The shards of a destination fail together
+        out.getFailures().forEach((shard, error) -> failures.computeIfAbsent(error, key -> new ArrayList<>()).add(shard));
+        failures.forEach((error, shards) -> logger.error("Shards {} of {} failed: {}", shards, name, error.getMessage()));
+        return out.getStoredShards();
+    }
+
+    /**
+     * Opens an erasure-coded file for reading from whichever of its shards can be found on the destinations.
+     */
+    public InputStream openInput(String name, List<StorageBackend> destinations) throws IOException {
+        return new ErasureCodedInputStream(name, destinations);
+    }
+
+    /**
+     * Restores an erasure-coded file from the destinations into a local file, checking it
+     * against the stored SHA-256 if one can be read.
+     */
+    public CompletableFuture<Void> download(String name, List<StorageBackend> destinations, Path target) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                decode(name, destinations, target);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private void decode(String name, List<StorageBackend> destinations, Path target) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        try (InputStream in = new DigestInputStream(openInput(name, destinations), digest);
+             OutputStream out = Files.newOutputStream(partial)) {
+            in.transferTo(out);
+        }
+
+        String actual = HexFormat.of().formatHex(digest.digest());
+        String expected = storedChecksum(name, destinations);
+        if (expected != null && !expected.equals(actual)) {
+            Files.deleteIfExists(partial);
+            throw new IOException("Checksum of the restored " + name + " does not match");
+        }
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("{} restored from its shards (sha256 {}{}).", name, actual, expected == null ? ", not verified" : "");
+    }
+
+    private String storedChecksum(String name, List<StorageBackend> destinations) {
+        for (StorageBackend backend : destinations) {
+            try (InputStream in = backend.openInput(name + ".sha256", 0)) {
+                String line = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+                if (!line.isEmpty()) {
+                    return line.split("\\s+")[0];
+                }
+            } catch (IOException e) {
+                logger.debug("No checksum of {} on {}: {}", name, backend.getLocation(), e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,273 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes one stream to several storage backends at once, so the data is produced or read
+ * only once however many copies are kept. Every destination has a thread of its own and a
+ * bounded buffer: a slow destination lets the others run ahead until its buffer is full,
+ * and only then holds up the writer. A destination that fails is dropped; the others go on.
+ * <p>
+ * Closing the stream waits for all destinations, and stores a {@code <name>.sha256} file
+ * with the checksum of the data next to the file on every destination that received it.
+ */
+public class FanOutOutputStream extends OutputStream {
+    private static final Logger logger = LogManager.getLogger(FanOutOutputStream.class);
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+    private static final byte[] END = new byte[0];
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final String name;
+    private final List<Destination> destinations = new ArrayList<>();
+    private final MessageDigest digest;
+    private byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength;
+    private String checksum;
+    private boolean closed;
+
+    /**
+     * Opens the file on all destinations.
+     *
+     * @param name       Name of the file in the backends.
+     * @param bufferSize Bytes a destination may fall behind before the writer waits for it.
+     */
+    public FanOutOutputStream(String name, List<StorageBackend> backends, long bufferSize) {
+        this.name = name;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        int capacity = (int) Math.max(1, bufferSize / CHUNK_SIZE);
+        for (StorageBackend backend : backends) {
+            Destination destination = new Destination(backend, capacity);
+            destinations.add(destination);
+            destination.thread.start();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        digest.update(b, off, len);
+        while (len > 0) {
+            int count = Math.min(len, chunk.length - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, count);
+            chunkLength += count;
+            off += count;
+            len -= count;
+            if (chunkLength == chunk.length) {
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Hands the data written so far to the destinations, without waiting for them.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (chunkLength > 0) {
+            dispatch();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    // Chunks are shared by all destinations and never changed once handed over
+    private void dispatch() throws IOException {
+        byte[] data = chunkLength == chunk.length ? chunk : Arrays.copyOf(chunk, chunkLength);
+        chunk = new byte[CHUNK_SIZE];
+        chunkLength = 0;
+        boolean anyAlive = false;
+        for (Destination destination : destinations) {
+            anyAlive |= destination.offer(data);
+        }
+        if (!anyAlive) {
+            throw new IOException("Writing " + name + " failed on all destinations: " + describeFailures());
+        }
+    }
+
+    /**
+     * Waits until all destinations have received the data and stores the checksum files.
+     * Failed destinations do not make this fail; see {@link #getFailures()}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (chunkLength > 0) {
+            dispatch();
+        }
+        finish();
+        checksum = HexFormat.of().formatHex(digest.digest());
+        byte[] checksumLine = (checksum + "  " + name + "\n").getBytes(StandardCharsets.UTF_8);
+        for (Destination destination : destinations) {
+            if (destination.error == null) {
+                try (OutputStream out = destination.backend.openOutput(name + ".sha256")) {
+                    out.write(checksumLine);
+                } catch (IOException e) {
+                    destination.error = e;
+                }
+            }
+        }
+        for (Destination destination : destinations) {
+            if (destination.error != null) {
+                logger.error("Writing {} to {} failed: {}", name, destination.backend.getLocation(), destination.error.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ends the file on all destinations without a checksum file, e.g. because producing the
+     * data failed. What was written so far stays on the destinations.
+     */
+    public void abort() throws IOException {
+        if (!closed) {
+            chunkLength = 0;
+            finish();
+        }
+    }
+
+    private void finish() throws InterruptedIOException {
+        closed = true;
+        for (Destination destination : destinations) {
+            destination.offer(END);
+        }
+        for (Destination destination : destinations) {
+            try {
+                destination.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the destinations of " + name);
+            }
+        }
+    }
+
+    /**
+     * Hex SHA-256 of the data, once the stream is closed.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * The backends that received the complete file, once the stream is closed.
+     */
+    public List<StorageBackend> getSucceeded() {
+        List<StorageBackend> succeeded = new ArrayList<>();
+        for (Destination destination : destinations) {
+            if (destination.error == null) {
+                succeeded.add(destination.backend);
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * The backends that failed, with the reason.
+     */
+    public Map<StorageBackend, IOException> getFailures() {
+        Map<StorageBackend, IOException> failures = new LinkedHashMap<>();
+        for (Destination destination : destinations) {
+            if (destination.error != null) {
+                failures.put(destination.backend, destination.error);
+            }
+        }
+        return failures;
+    }
+
+    private String describeFailures() {
+        StringBuilder description = new StringBuilder();
+        getFailures().forEach((backend, error) -> description.append(description.length() > 0 ? "; " : "")
+                .append(backend.getName()).append(": ").append(error.getMessage()));
+        return description.toString();
+    }
+
+    /**
+     * A backend with the chunks it still has to write and the thread writing them.
+     */
+    private class Destination {
+        private final StorageBackend backend;
+        private final BlockingQueue<byte[]> queue;
+        private final Thread thread;
+        private volatile IOException error;
+
+        Destination(StorageBackend backend, int capacity) {
+            this.backend = backend;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this::run, "fan-out-" + backend.getName() + "-" + THREAD_COUNTER.incrementAndGet());
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Queues a chunk, waiting while the buffer is full.
+         *
+         * @return false if the destination failed and takes no more data.
+         */
+        boolean offer(byte[] data) throws InterruptedIOException {
+            try {
+                while (error == null) {
+                    if (queue.offer(data, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + backend.getLocation());
+            }
+        }
+
+        private void run() {
+            try (OutputStream out = backend.openOutput(name)) {
+                while (true) {
+                    byte[] data = queue.take();
+                    if (data == END) {
+                        break;
+                    }
+                    out.write(data);
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                error = new InterruptedIOException("Interrupted while writing " + name);
+            } catch (RuntimeException e) {
+                error = new IOException(e.getMessage(), e);
+            }
+            if (error != null) {
+                queue.clear(); // Nothing more is taken; the writer stops queuing on the error
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads backups to several storage backends, reading every file only once: the file is
+ * streamed to all destinations at the same time through a {@link FanOutOutputStream}.
+ * A destination that drops out is retried on its own with {@link StorageBackend#put}, which
+ * reads the file again for that destination only. Whether the upload succeeded is decided
+ * by the {@link SuccessPolicy}.
+ */
+public class FanOutUploader implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(FanOutUploader.class);
+
+    private final SuccessPolicy policy;
+    private final long bufferSize;
+    private final ExecutorService executor;
+
+    /**
+     * @param bufferSize Bytes a destination may fall behind the others before they wait for it.
+     */
+    public FanOutUploader(SuccessPolicy policy, long bufferSize) {
+        this.policy = policy;
+        this.bufferSize = bufferSize;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fan-out-upload-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public SuccessPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Uploads a local file to all destinations.
+     *
+     * @return Completes with the backends that received the file; fails if they do not satisfy the policy.
+     */
+    public CompletableFuture<List<StorageBackend>> upload(Path localFile, String name, List<StorageBackend> destinations) {
+        if (destinations.size() == 1) {
+            return destinations.get(0).put(localFile, name).thenApply(ignored -> destinations);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return fanOut(localFile, name, destinations);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private List<StorageBackend> fanOut(Path localFile, String name, List<StorageBackend> destinations) throws IOException {
+        FanOutOutputStream out = new FanOutOutputStream(name, destinations, bufferSize);
+        try (InputStream in = Files.newInputStream(localFile)) {
+            in.transferTo(out);
+            out.close();
+        } catch (IOException e) {
+            out.abort();
+            if (out.getFailures().size() < destinations.size()) {
+                throw e; // Reading the file failed, not the destinations
+            }
+        }
+
+        List<StorageBackend> succeeded = Collections.synchronizedList(new ArrayList<>(out.getSucceeded()));
+        List<CompletableFuture<Void>> retries = new ArrayList<>();
+        for (StorageBackend backend : out.getFailures().keySet()) {
+            logger.warn("Uploading {} to {} again on its own.", name, backend.getLocation());
+            retries.add(backend.put(localFile, name).handle((ignored, error) -> {
+                if (error == null) {
+                    succeeded.add(backend);
+                } else {
+                    logger.error("Upload of {} to {} failed: {}", name, backend.getLocation(),
+                            error.getCause() != null ? error.getCause().getMessage() : error.getMessage());
+                }
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(retries.toArray(new CompletableFuture<?>[0])).join();
+
+        if (!policy.isSatisfied(succeeded.size(), destinations.size())) {
+            throw new IOException(name + " reached " + succeeded.size() + " of " + destinations.size()
+                    + " destinations, policy " + policy + " not met");
+        }
+        logger.info("{} uploaded to {} of {} destinations.", name, succeeded.size(), destinations.size());
+        return succeeded;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,268 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Remembers the state (size, modification time, inode and content hash) of every file
+ * of a target at its last backup, so an incremental backup only has to read files that
+ * changed since then. Directories are indexed too, without a hash, so deleted directories
+ * are listed as deleted like files. Stored as a compact binary file, one per target.
+ */
+public class FileStateIndex {
+    private static final Logger logger = LogManager.getLogger(FileStateIndex.class);
+
+    private static final int MAGIC = 0x424b4958; // "BKIX"
+    private static final int VERSION = 1;
+    private static final byte[] NO_HASH = new byte[32];
+
+    private static volatile boolean inodeSupported = true;
+
+    private final Path indexFile;
+    private final Map<String, FileState> states = new HashMap<>();
+
+    private FileStateIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Loads the index of a target. A missing or unreadable index file yields an empty
+     * index, which makes every file count as changed.
+     */
+    public static FileStateIndex load(Path indexFile) {
+        FileStateIndex index = new FileStateIndex(indexFile);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unknown index format");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                long inode = in.readLong();
+                byte[] hash = new byte[NO_HASH.length];
+                in.readFully(hash);
+                index.states.put(path, new FileState(size, lastModified, inode, hash));
+            }
+        } catch (NoSuchFileException e) {
+            logger.info("No file-state index at {}; all files are treated as changed.", indexFile);
+        } catch (IOException e) {
+            logger.warn("File-state index {} is unreadable ({}); all files are treated as changed.", indexFile, e.getMessage());
+            index.states.clear();
+        }
+        return index;
+    }
+
+    public boolean isEmpty() {
+        return states.isEmpty();
+    }
+
+    /**
+     * Returns the files that have to be archived while a {@link DirectoryScanner} is still
+     * running: every file for a full backup, only new or changed files otherwise. Directories
+     * are always passed through, since their entries carry no content. Once the scan is
+     * exhausted, the change set also knows the deleted files and directories; files below
+     * paths the scan could not read are never counted as deleted.
+     *
+     * @param scan        The running scan.
+     * @param changes     Receives the state of every scanned file.
+     * @param changedOnly true for an incremental backup.
+     */
+    public Iterable<String> select(DirectoryScanner.Scan scan, ChangeSet changes, boolean changedOnly) {
+        return () -> new Iterator<>() {
+            private final Iterator<DirectoryScanner.ScannedFile> files = scan.iterator();
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && files.hasNext()) {
+                    DirectoryScanner.ScannedFile file = files.next();
+                    if (record(changes, file.getPath(), file.getAttributes()) || !changedOnly || file.isDirectory()) {
+                        next = file.getPath().toString();
+                    }
+                }
+                if (next == null) {
+                    finishScan(changes, scan.getFailedPaths());
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String file = next;
+                next = null;
+                return file;
+            }
+        };
+    }
+
+    /**
+     * Adds one existing file or directory to the change set.
+     *
+     * @return true if the file is new or changed since the last backup.
+     */
+    private boolean record(ChangeSet changes, Path path, BasicFileAttributes attributes) {
+        String filePath = path.toString();
+        FileState current = new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(), inodeOf(path), NO_HASH);
+        changes.current.put(filePath, current);
+        FileState previous = states.get(filePath);
+        if (previous == null || !previous.sameMetadata(current)) {
+            changes.changed.add(filePath);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks every indexed file that was not seen during the scan as deleted, except files at
+     * or below a path that could not be read: they may well still exist. The deleted paths are
+     * sorted in descending order, which puts the contents of a directory before the directory,
+     * so a restore can remove the directory once it is empty.
+     */
+    private void finishScan(ChangeSet changes, List<Path> failedPaths) {
+        if (changes.finished) {
+            return;
+        }
+        changes.finished = true;
+        for (String indexed : states.keySet()) {
+            if (changes.current.containsKey(indexed)) {
+                continue;
+            }
+            Path path = Paths.get(indexed);
+            if (failedPaths.stream().anyMatch(path::startsWith)) {
+                changes.unknown.add(indexed);
+            } else {
+                changes.deleted.add(indexed);
+            }
+        }
+        changes.deleted.sort(Comparator.reverseOrder());
+        if (!changes.unknown.isEmpty()) {
+            logger.warn("{} indexed files were not seen below paths the scan could not read; they are not counted as deleted.",
+                    changes.unknown.size());
+        }
+    }
+
+    /**
+     * Records the result of a successful backup.
+     *
+     * @param changes       The scan the backup was based on.
+     * @param contentHashes SHA-256 (hex) of the files that were read during the backup.
+     */
+    public void update(ChangeSet changes, Map<String, String> contentHashes) {
+        for (String deleted : changes.deleted) {
+            states.remove(deleted);
+        }
+        // Files in changes.unknown keep their state
+        Set<String> changed = new HashSet<>(changes.changed);
+        for (Map.Entry<String, FileState> entry : changes.current.entrySet()) {
+            FileState current = entry.getValue();
+            String hash = contentHashes.get(entry.getKey());
+            if (hash != null) {
+                current = new FileState(current.size, current.lastModified, current.inode, ChunkStore.decodeHash(hash));
+            } else if (states.containsKey(entry.getKey()) && !changed.contains(entry.getKey())) {
+                current = states.get(entry.getKey()); // Unchanged: keep the known hash
+            }
+            states.put(entry.getKey(), current);
+        }
+    }
+
+    /**
+     * Writes the index atomically next to its final location.
+     */
+    public void save() throws IOException {
+        Files.createDirectories(indexFile.getParent());
+        Path tempFile = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(states.size());
+            for (Map.Entry<String, FileState> entry : states.entrySet()) {
+                FileState state = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(state.size);
+                out.writeLong(state.lastModified);
+                out.writeLong(state.inode);
+                out.write(state.hash);
+            }
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long inodeOf(Path path) {
+        if (inodeSupported) {
+            try {
+                Object inode = Files.getAttribute(path, "unix:ino", LinkOption.NOFOLLOW_LINKS);
+                return ((Number) inode).longValue();
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                inodeSupported = false; // Not a Unix file system, rely on size and time only
+            } catch (IOException e) {
+                return 0L;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Result of comparing the files of a target with the index.
+     */
+    public static class ChangeSet {
+        private final Map<String, FileState> current = new LinkedHashMap<>();
+        private final List<String> changed = new ArrayList<>();
+        private final List<String> deleted = new ArrayList<>();
+        private final List<String> unknown = new ArrayList<>(); // Indexed, below a path the scan could not read
+        private boolean finished;
+
+        public ChangeSet() {
+        }
+
+        public List<String> getDeletedPaths() {
+            return deleted;
+        }
+    }
+
+    private static class FileState {
+        private final long size;
+        private final long lastModified;
+        private final long inode;
+        private final byte[] hash;
+
+        FileState(long size, long lastModified, long inode, byte[] hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.inode = inode;
+            this.hash = hash;
+        }
+
+        boolean sameMetadata(FileState other) {
+            return size == other.size && lastModified == other.lastModified && inode == other.inode;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Stores backups in a directory, typically on a mounted network file system (NFS, SMB).
+ * Files are written under a temporary name and renamed when complete, so a partial copy is
+ * never taken for a backup.
+ */
+public class LocalStorageBackend extends AsyncStorageBackend {
+    private static final Logger logger = LogManager.getLogger(LocalStorageBackend.class);
+
+    private static final String PART_SUFFIX = ".part";
+
+    private final Path root;
+    private volatile BandwidthGovernor bandwidthGovernor; // Null: copies are not limited
+
+    /**
+     * @param concurrency Transfers running at the same time.
+     */
+    public LocalStorageBackend(String name, Path root, int concurrency) {
+        super(name, concurrency);
+        this.root = root;
+    }
+
+    /**
+     * Limits copies into the directory like uploads; the directory is the destination.
+     */
+    public void setBandwidthGovernor(BandwidthGovernor bandwidthGovernor) {
+        this.bandwidthGovernor = bandwidthGovernor;
+    }
+
+    @Override
+    public String getLocation() {
+        return root.toUri().toString();
+    }
+
+    @Override
+    public CompletableFuture<Void> put(Path localFile, String name) {
+        return submit(() -> {
+            Files.createDirectories(root);
+            Path target = resolve(name);
+            Path part = resolve(name + PART_SUFFIX);
+            MessageDigest digest = newSha256();
+            try (InputStream in = Files.newInputStream(localFile);
+                 OutputStream out = new DigestOutputStream(BandwidthGovernor.wrap(bandwidthGovernor,
+                         Files.newOutputStream(part), root.toString()), digest)) {
+                in.transferTo(out);
+            }
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            String checksumLine = HexFormat.of().formatHex(digest.digest()) + "  " + name + "\n";
+            Files.writeString(resolve(name + ".sha256"), checksumLine, StandardCharsets.UTF_8);
+            logger.info("Stored {} in {}", name, getLocation());
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> get(String name, Path localFile) {
+        return submit(() -> {
+            Files.copy(resolve(name), localFile, StandardCopyOption.REPLACE_EXISTING);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<StoredFile>> list() {
+        return submit(() -> {
+            List<StoredFile> files = new ArrayList<>();
+            if (!Files.isDirectory(root)) {
+                return files;
+            }
+            try (Stream<Path> entries = Files.list(root)) {
+                for (Path entry : (Iterable<Path>) entries::iterator) {
+                    StoredFile file = stat(entry);
+                    if (file != null) {
+                        files.add(file);
+                    }
+                }
+            }
+            return files;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> delete(String name) {
+        return submit(() -> Files.deleteIfExists(resolve(name)));
+    }
+
+    @Override
+    public CompletableFuture<StoredFile> stat(String name) {
+        return submit(() -> stat(resolve(name)));
+    }
+
+    private static StoredFile stat(Path path) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? new StoredFile(path.getFileName().toString(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis()) : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public OutputStream openOutput(String name) throws IOException {
+        Files.createDirectories(root);
+        return BandwidthGovernor.wrap(bandwidthGovernor, Files.newOutputStream(resolve(name)), root.toString());
+    }
+
+    @Override
+    public InputStream openInput(String name, long offset) throws IOException {
+        FileChannel channel = FileChannel.open(resolve(name), StandardOpenOption.READ);
+        channel.position(offset);
+        return Channels.newInputStream(channel);
+    }
+
+    /**
+     * Resolves a name in the root directory, refusing names that lead out of it.
+     */
+    private Path resolve(String name) throws IOException {
+        Path path = root.resolve(name).normalize();
+        if (!path.getParent().equals(root.normalize())) {
+            throw new IOException("Invalid file name for " + getLocation() + ": " + name);
+        }
+        return path;
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
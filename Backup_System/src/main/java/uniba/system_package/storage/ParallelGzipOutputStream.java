@@ -0,0 +1,259 @@
+package uniba.system_package.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream that compresses independent blocks on several threads, like pigz.
+ * <p>
+ * The input is cut into blocks; every block is deflated on its own (primed with the last
+ * 32 KB of the previous block, so the ratio stays close to single-threaded gzip) and ended
+ * with a sync flush, which makes the compressed blocks concatenable. The blocks are written
+ * in order, followed by an empty final block and the gzip trailer. The result is a normal
+ * gzip file that any gunzip can read.
+ * <p>
+ * With a member size, a new gzip member is started whenever that many bytes were written.
+ * The first block of a member is compressed without a dictionary, so members can be
+ * decompressed independently (and in parallel) at a negligible cost in ratio. Where the
+ * members start is recorded, so a reader can start decompressing at any of them.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    public static final int DEFAULT_MEMBER_SIZE = 16 * 1024 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final byte[] FINAL_BLOCK = {0x03, 0x00}; // Empty final block with fixed Huffman codes
+
+    // Shared by all streams, so parallel backups do not start more compression threads than there are CPUs
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, new Namer());
+
+    private final OutputStream out;
+    private final int level;
+    private final int blockSize;
+    private final long memberSize;
+    private final int maxPendingBlocks;
+    private final Deque<Chunk> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private final List<long[]> members = new ArrayList<>();
+
+    private byte[] block;
+    private int blockLength;
+    private byte[] dictionary;
+    private long memberLength;
+    private long uncompressedLength;
+    private long compressedLength;
+    private boolean closed;
+
+    public ParallelGzipOutputStream(OutputStream out, int level) throws IOException {
+        this(out, level, DEFAULT_BLOCK_SIZE, 0);
+    }
+
+    /**
+     * @param out        Stream receiving the gzip data.
+     * @param level      Deflate level (1-9, or -1 for the default).
+     * @param blockSize  Size of the blocks compressed in parallel.
+     * @param memberSize Uncompressed size after which a new gzip member starts, 0 for a single member.
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int blockSize, long memberSize) throws IOException {
+        this.out = out;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.memberSize = memberSize;
+        this.maxPendingBlocks = THREADS * 2;
+        this.block = new byte[blockSize];
+        out.write(GZIP_HEADER);
+        compressedLength = GZIP_HEADER.length;
+        members.add(new long[]{0, 0});
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            int count = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, count);
+            blockLength += count;
+            off += count;
+            len -= count;
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        if (memberSize > 0 && memberLength >= memberSize) {
+            pending.add(new Chunk(CompletableFuture.completedFuture(endMember(true)), uncompressedLength));
+        }
+        byte[] input = block;
+        int length = blockLength;
+        byte[] previous = memberLength == 0 ? null : dictionary;
+        crc.update(input, 0, length);
+        memberLength += length;
+        uncompressedLength += length;
+
+        pending.add(new Chunk(POOL.submit(() -> deflate(input, length, previous)), -1));
+        dictionary = Arrays.copyOfRange(input, Math.max(0, length - DICTIONARY_SIZE), length);
+        block = new byte[blockSize];
+        blockLength = 0;
+
+        while (pending.size() > maxPendingBlocks) {
+            writeNextBlock();
+        }
+    }
+
+    private byte[] deflate(byte[] input, int length, byte[] previous) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (previous != null) {
+                deflater.setDictionary(previous);
+            }
+            deflater.setInput(input, 0, length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            do {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                compressed.write(buffer, 0, count);
+            } while (count == buffer.length); // A full buffer means the flush is not complete yet
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the end of the current member (final block and trailer), optionally followed by
+     * the header of the next member.
+     */
+    private byte[] endMember(boolean startNext) {
+        byte[] end = new byte[FINAL_BLOCK.length + 8 + (startNext ? GZIP_HEADER.length : 0)];
+        System.arraycopy(FINAL_BLOCK, 0, end, 0, FINAL_BLOCK.length);
+        writeIntLE(end, FINAL_BLOCK.length, (int) crc.getValue());
+        writeIntLE(end, FINAL_BLOCK.length + 4, (int) memberLength); // ISIZE is the length modulo 2^32
+        if (startNext) {
+            System.arraycopy(GZIP_HEADER, 0, end, FINAL_BLOCK.length + 8, GZIP_HEADER.length);
+        }
+        crc.reset();
+        memberLength = 0;
+        return end;
+    }
+
+    private void writeNextBlock() throws IOException {
+        try {
+            Chunk chunk = pending.removeFirst();
+            byte[] data = chunk.data.get();
+            out.write(data);
+            compressedLength += data.length;
+            if (chunk.memberStart >= 0) {
+                members.add(new long[]{compressedLength - GZIP_HEADER.length, chunk.memberStart});
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Block compression failed", e.getCause());
+        }
+    }
+
+    /**
+     * Writes all pending blocks, the final deflate block and the gzip trailer. The underlying
+     * stream is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (blockLength > 0) {
+            submitBlock();
+        }
+        while (!pending.isEmpty()) {
+            writeNextBlock();
+        }
+        byte[] end = endMember(false);
+        out.write(end);
+        compressedLength += end.length;
+        out.flush();
+        closed = true;
+    }
+
+    /**
+     * Where the gzip members written so far start: {compressed offset, uncompressed offset}
+     * pairs, relative to the start of this stream.
+     */
+    public List<long[]> getMembers() {
+        return members;
+    }
+
+    /**
+     * Bytes of gzip data written to the underlying stream so far.
+     */
+    public long getCompressedLength() {
+        return compressedLength;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            pending.forEach(chunk -> chunk.data.cancel(true));
+            out.close();
+        }
+    }
+
+    private static void writeIntLE(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Compressed data to write in order, possibly the end of a member.
+     *
+     * @param memberStart Uncompressed offset of the member that starts after this data, or -1.
+     */
+    private record Chunk(Future<byte[]> data, long memberStart) {
+    }
+
+    private static class Namer implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "compression-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package uniba.system_package.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a stream ahead of its consumer on a background thread, so a slow source (a file read
+ * over the network) keeps transferring while the data read so far is decompressed and written,
+ * instead of idling during every write. At most {@link #BLOCKS} blocks of {@link #BLOCK_SIZE}
+ * bytes are held in memory. Past the read-ahead limit the stream is read directly, so a
+ * ranged read does not fetch much more than it needs.
+ */
+public class PrefetchingInputStream extends InputStream {
+    public static final int BLOCK_SIZE = 1024 * 1024;
+    public static final int BLOCKS = 4;
+
+    private static final byte[] END = new byte[0]; // Nothing more is read ahead
+    private static final ExecutorService POOL;
+
+    static {
+        AtomicInteger counter = new AtomicInteger();
+        POOL = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "prefetch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final InputStream in;
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(BLOCKS);
+    private final Future<?> reader;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private byte[] current;
+    private int position;
+    private boolean prefetchDone; // END was taken; `in` is read directly from here on
+
+    /**
+     * @param in        The stream to read; it is closed with this stream.
+     * @param readAhead Bytes read ahead in the background, Long.MAX_VALUE for the whole stream.
+     */
+    public PrefetchingInputStream(InputStream in, long readAhead) {
+        this.in = in;
+        this.reader = POOL.submit(() -> prefetch(readAhead));
+    }
+
+    private void prefetch(long readAhead) {
+        try {
+            long remaining = readAhead;
+            int read = 0;
+            while (remaining > 0 && read >= 0 && !closed) {
+                byte[] block = new byte[(int) Math.min(BLOCK_SIZE, remaining)];
+                int length = 0;
+                while (length < block.length && !closed && (read = in.read(block, length, block.length - length)) >= 0) {
+                    length += read;
+                }
+                if (length > 0) {
+                    put(length < block.length ? Arrays.copyOf(block, length) : block);
+                    remaining -= length;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            put(END);
+        }
+    }
+
+    /**
+     * Queues a block, waiting for room unless the stream is closed in the meantime.
+     */
+    private void put(byte[] block) {
+        try {
+            while (!closed && !blocks.offer(block, 100, TimeUnit.MILLISECONDS)) {
+                // The consumer has not caught up yet
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || position == current.length) {
+            if (prefetchDone) {
+                if (failure != null) {
+                    throw new IOException(failure.getMessage(), failure);
+                }
+                return in.read(b, off, len);
+            }
+            try {
+                current = blocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data");
+            }
+            position = 0;
+            if (current == END) {
+                prefetchDone = true;
+                current = null;
+            }
+        }
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current != null ? current.length - position : 0;
+    }
+
+    /**
+     * Stops reading ahead, waits for a read in progress and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        blocks.clear();
+        try {
+            reader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Only IOExceptions are thrown, and they are kept in `failure`
+        }
+        in.close();
+    }
+}
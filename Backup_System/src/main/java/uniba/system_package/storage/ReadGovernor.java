@@ -0,0 +1,193 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.ConfigurationManager;
+import uniba.system_package.utils.LogManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Slows down reading the files that are backed up when it makes the disks they are on slow
+ * for everyone else. Every read of the archive pipeline is timed, per device; once a second
+ * the 99th percentile of the read latencies is compared with the configured maximum. Above
+ * it, reads from the device are limited to half of the throughput just measured (but not
+ * below the configured minimum); well below it, the limit is raised by a quarter again
+ * until it is lifted. Waiting for the limit is not counted as latency.
+ */
+public class ReadGovernor {
+    private static final Logger logger = LogManager.getLogger(ReadGovernor.class);
+
+    private static final int MAX_READ_SIZE = 1024 * 1024;       // Largest read the pipeline makes
+    private static final long ADJUST_INTERVAL_NANOS = 1_000_000_000L;
+    private static final int MIN_SAMPLES = 20;                   // Fewer reads give no useful p99
+    private static final int MAX_SAMPLES = 4096;                 // Latencies kept per interval
+    private static final long IDLE_RESET_NANOS = 60_000_000_000L; // A device unused this long starts unlimited again
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double INCREASE_FACTOR = 1.25;
+    private static final double RECOVERY_THRESHOLD = 0.75;        // Of the maximum latency, below which limits are raised
+
+    private final long maxLatencyNanos;
+    private final long minRate;
+    private final Map<Object, Device> devices = new ConcurrentHashMap<>();
+    private volatile boolean unixAttributes = true;
+
+    public ReadGovernor(ConfigurationManager.Config.ReadThrottle config) {
+        this.maxLatencyNanos = (long) (config.getMaxLatencyMs() * 1_000_000);
+        this.minRate = Math.max(1, (long) (config.getMinReadMBps() * 1024 * 1024));
+    }
+
+    public boolean isEnabled() {
+        return maxLatencyNanos > 0;
+    }
+
+    /**
+     * The device a file is on, through which its reads are made.
+     *
+     * @return The device, or null if reads are not throttled.
+     */
+    public Device device(Path file) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Object id = deviceId(file);
+        return devices.computeIfAbsent(id, key -> new Device(key.toString()));
+    }
+
+    /**
+     * Reads through the device if there is one.
+     */
+    public static int read(Device device, FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        return device != null ? device.read(file, buffer, position) : file.read(buffer, position);
+    }
+
+    /**
+     * Reads through the device if there is one.
+     */
+    public static int readNBytes(Device device, InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        return device != null ? device.readNBytes(in, buffer, offset, length) : in.readNBytes(buffer, offset, length);
+    }
+
+    private Object deviceId(Path file) {
+        if (unixAttributes) {
+            try {
+                return Files.getAttribute(file, "unix:dev");
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                unixAttributes = false;
+            } catch (IOException e) {
+                return "unknown";
+            }
+        }
+        try {
+            return Files.getFileStore(file).name();
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+
+    private static String format(long bytesPerSecond) {
+        return String.format(Locale.ROOT, "%.1f MB/s", bytesPerSecond / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Latencies, throughput and read limit of one device.
+     */
+    public final class Device {
+        private final String name;
+        private final TokenBucket bucket = new TokenBucket(MAX_READ_SIZE);
+        private final long[] latencies = new long[MAX_SAMPLES];
+        private int samples;
+        private long intervalBytes;
+        private long intervalStart = System.nanoTime();
+        private long lastRead = intervalStart;
+        private long unlimitedThroughput; // Highest throughput measured without a limit
+
+        private Device(String name) {
+            this.name = name;
+        }
+
+        public int read(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+            bucket.acquire(Math.min(buffer.remaining(), MAX_READ_SIZE));
+            long start = System.nanoTime();
+            int read = file.read(buffer, position);
+            record(Math.max(read, 0), System.nanoTime() - start);
+            return read;
+        }
+
+        public int readNBytes(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+            bucket.acquire(Math.min(length, MAX_READ_SIZE));
+            long start = System.nanoTime();
+            int read = in.readNBytes(buffer, offset, length);
+            record(read, System.nanoTime() - start);
+            return read;
+        }
+
+        private synchronized void record(int bytes, long latency) {
+            long now = System.nanoTime();
+            if (now - lastRead > IDLE_RESET_NANOS && bucket.getRate() != TokenBucket.UNLIMITED) {
+                logger.info("Reads from device {} are no longer limited after being idle.", name);
+                bucket.setRate(TokenBucket.UNLIMITED);
+                resetInterval(now);
+            }
+            lastRead = now;
+            latencies[samples % MAX_SAMPLES] = latency;
+            samples++;
+            intervalBytes += bytes;
+            long elapsed = now - intervalStart;
+            if (elapsed >= ADJUST_INTERVAL_NANOS && samples >= MIN_SAMPLES) {
+                adjust(percentile99(), (long) (intervalBytes * 1e9 / elapsed));
+                resetInterval(now);
+            }
+        }
+
+        private void resetInterval(long now) {
+            samples = 0;
+            intervalBytes = 0;
+            intervalStart = now;
+        }
+
+        private long percentile99() {
+            long[] sorted = Arrays.copyOf(latencies, Math.min(samples, MAX_SAMPLES));
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(sorted.length * 0.99) - 1];
+        }
+
+        private void adjust(long p99, long throughput) {
+            long rate = bucket.getRate();
+            logger.debug("Device {}: read p99 {} ms, {}.", name, millis(p99), format(throughput));
+            if (rate == TokenBucket.UNLIMITED) {
+                unlimitedThroughput = Math.max(unlimitedThroughput, throughput);
+            }
+            if (p99 > maxLatencyNanos) {
+                long base = rate == TokenBucket.UNLIMITED ? throughput : Math.min(rate, throughput);
+                long limited = Math.max(minRate, (long) (base * DECREASE_FACTOR));
+                if (limited != rate) {
+                    bucket.setRate(limited);
+                    logger.info("Read latency p99 of device {} is {} ms (maximum {} ms); limiting reads to {}.",
+                            name, millis(p99), millis(maxLatencyNanos), format(limited));
+                }
+            } else if (rate != TokenBucket.UNLIMITED && p99 < maxLatencyNanos * RECOVERY_THRESHOLD) {
+                long raised = (long) (rate * INCREASE_FACTOR);
+                if (raised >= unlimitedThroughput) {
+                    bucket.setRate(TokenBucket.UNLIMITED);
+                    logger.info("Read latency p99 of device {} is {} ms; reads are no longer limited.", name, millis(p99));
+                } else {
+                    bucket.setRate(raised);
+                    logger.debug("Raising the read limit of device {} to {}.", name, format(raised));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package uniba.system_package.storage;
+
+import java.util.Arrays;
+
+/**
+ * Systematic Reed-Solomon erasure code over GF(2^8): k data shards are extended by m parity
+ * shards, and any k of the k + m shards are enough to rebuild the data. The data shards are
+ * stored as they are, so nothing needs to be decoded as long as they are all there.
+ * <p>
+ * The encoding matrix is a Vandermonde matrix multiplied by the inverse of its top k rows,
+ * which keeps every k rows invertible. Multiplication in the field uses a full 256 x 256
+ * product table: coding a block is one table lookup and one XOR per byte and input shard,
+ * without branches or logarithms in the inner loop. Instances are immutable and can be
+ * shared by threads.
+ */
+public final class ReedSolomon {
+    public static final int MAX_SHARDS = 256;
+
+    private static final int GENERATOR_POLYNOMIAL = 0x11D; // x^8 + x^4 + x^3 + x^2 + 1
+    private static final int SLICE_SIZE = 16 * 1024; // Bytes coded at a time, so all shards stay in the CPU cache
+    private static final byte[] EXP = new byte[2 * 255];
+    private static final int[] LOG = new int[256];
+    private static final byte[][] MULTIPLY = new byte[256][256];
+
+    static {
+        int value = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) value;
+            LOG[value] = i;
+            value <<= 1;
+            if ((value & 0x100) != 0) {
+                value ^= GENERATOR_POLYNOMIAL;
+            }
+        }
+        System.arraycopy(EXP, 0, EXP, 255, 255);
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MULTIPLY[a][b] = EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    private final byte[][] matrix; // (k + m) x k; the top k rows are the identity
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards < 1 || parityShards < 0 || dataShards + parityShards > MAX_SHARDS) {
+            throw new IllegalArgumentException("Invalid shard counts: " + dataShards + " data, " + parityShards + " parity");
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+
+        int totalShards = dataShards + parityShards;
+        byte[][] vandermonde = new byte[totalShards][dataShards];
+        for (int row = 0; row < totalShards; row++) {
+            for (int column = 0; column < dataShards; column++) {
+                vandermonde[row][column] = power(row, column);
+            }
+        }
+        this.matrix = multiply(vandermonde, invert(Arrays.copyOf(vandermonde, dataShards)));
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getTotalShards() {
+        return dataShards + parityShards;
+    }
+
+    /**
+     * Computes the parity shards from the data shards.
+     *
+     * @param shards All shards, data first; the parity shards are overwritten.
+     * @param offset Position of the block in every shard.
+     * @param length Bytes to code in every shard.
+     */
+    public void encodeParity(byte[][] shards, int offset, int length) {
+        checkShards(shards, offset, length);
+        byte[][] data = Arrays.copyOf(shards, dataShards);
+        for (int slice = offset; slice < offset + length; slice += SLICE_SIZE) {
+            int sliceLength = Math.min(SLICE_SIZE, offset + length - slice);
+            for (int parity = 0; parity < parityShards; parity++) {
+                codeRow(matrix[dataShards + parity], data, shards[dataShards + parity], slice, sliceLength);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the missing shards from the ones that are present.
+     *
+     * @param shards  All shards; the missing ones are overwritten and need to have the same size as the others.
+     * @param present Which shards hold valid data.
+     * @param offset  Position of the block in every shard.
+     * @param length  Bytes to rebuild in every shard.
+     * @throws IllegalArgumentException If fewer than k shards are present.
+     */
+    public void reconstruct(byte[][] shards, boolean[] present, int offset, int length) {
+        checkShards(shards, offset, length);
+        int[] rows = new int[dataShards];
+        int found = 0;
+        for (int shard = 0; shard < shards.length && found < dataShards; shard++) {
+            if (present[shard]) {
+                rows[found++] = shard;
+            }
+        }
+        if (found < dataShards) {
+            throw new IllegalArgumentException("Only " + found + " of the " + dataShards + " shards needed are present");
+        }
+
+        // The rows of the present shards map the data to them; their inverse maps them back to the data
+        byte[][] subMatrix = new byte[dataShards][];
+        byte[][] inputs = new byte[dataShards][];
+        for (int i = 0; i < dataShards; i++) {
+            subMatrix[i] = matrix[rows[i]];
+            inputs[i] = shards[rows[i]];
+        }
+        byte[][] decode = invert(subMatrix);
+        byte[][] data = Arrays.copyOf(shards, dataShards);
+        for (int slice = offset; slice < offset + length; slice += SLICE_SIZE) {
+            int sliceLength = Math.min(SLICE_SIZE, offset + length - slice);
+            for (int shard = 0; shard < dataShards; shard++) {
+                if (!present[shard]) {
+                    codeRow(decode[shard], inputs, shards[shard], slice, sliceLength);
+                }
+            }
+            for (int shard = dataShards; shard < shards.length; shard++) {
+                if (!present[shard]) {
+                    codeRow(matrix[shard], data, shards[shard], slice, sliceLength);
+                }
+            }
+        }
+    }
+
+    private void checkShards(byte[][] shards, int offset, int length) {
+        if (shards.length != getTotalShards()) {
+            throw new IllegalArgumentException("Expected " + getTotalShards() + " shards, got " + shards.length);
+        }
+        for (byte[] shard : shards) {
+            if (offset < 0 || length < 0 || offset + length > shard.length) {
+                throw new IllegalArgumentException("Block outside of the shard");
+            }
+        }
+    }
+
+    /**
+     * output = sum of coefficient[i] * inputs[i], byte by byte.
+     */
+    private static void codeRow(byte[] coefficients, byte[][] inputs, byte[] output, int offset, int length) {
+        int end = offset + length;
+        byte[] table = MULTIPLY[coefficients[0] & 0xFF];
+        byte[] input = inputs[0];
+        for (int i = offset; i < end; i++) {
+            output[i] = table[input[i] & 0xFF];
+        }
+        for (int column = 1; column < inputs.length; column++) {
+            table = MULTIPLY[coefficients[column] & 0xFF];
+            input = inputs[column];
+            for (int i = offset; i < end; i++) {
+                output[i] ^= table[input[i] & 0xFF];
+            }
+        }
+    }
+
+    private static byte power(int base, int exponent) {
+        if (exponent == 0) {
+            return 1;
+        }
+        if (base == 0) {
+            return 0;
+        }
+        return EXP[(LOG[base] * exponent) % 255];
+    }
+
+    private static byte[][] multiply(byte[][] left, byte[][] right) {
+        byte[][] result = new byte[left.length][right[0].length];
+        for (int row = 0; row < left.length; row++) {
+            for (int column = 0; column < right[0].length; column++) {
+                int value = 0;
+                for (int i = 0; i < right.length; i++) {
+                    value ^= MULTIPLY[left[row][i] & 0xFF][right[i][column] & 0xFF];
+                }
+                result[row][column] = (byte) value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Inverts a square matrix by Gauss-Jordan elimination.
+     */
+    private static byte[][] invert(byte[][] source) {
+        int size = source.length;
+        byte[][] work = new byte[size][2 * size];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(source[row], 0, work[row], 0, size);
+            work[row][size + row] = 1;
+        }
+        for (int column = 0; column < size; column++) {
+            int pivot = column;
+            while (pivot < size && work[pivot][column] == 0) {
+                pivot++;
+            }
+            if (pivot == size) {
+                throw new IllegalArgumentException("Matrix is singular");
+            }
+            byte[] swap = work[pivot];
+            work[pivot] = work[column];
+            work[column] = swap;
+
+            byte[] scale = MULTIPLY[EXP[255 - LOG[work[column][column] & 0xFF]] & 0xFF];
+            for (int i = 0; i < 2 * size; i++) {
+                work[column][i] = scale[work[column][i] & 0xFF];
+            }
+            for (int row = 0; row < size; row++) {
+                if (row != column && work[row][column] != 0) {
+                    byte[] factor = MULTIPLY[work[row][column] & 0xFF];
+                    for (int i = 0; i < 2 * size; i++) {
+                        work[row][i] ^= factor[work[column][i] & 0xFF];
+                    }
+                }
+            }
+        }
+        byte[][] inverse = new byte[size][];
+        for (int row = 0; row < size; row++) {
+            inverse[row] = Arrays.copyOfRange(work[row], size, 2 * size);
+        }
+        return inverse;
+    }
+}
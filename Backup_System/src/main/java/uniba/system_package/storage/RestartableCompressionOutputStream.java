@@ -0,0 +1,132 @@
+package uniba.system_package.storage;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compresses a stream with a {@link CompressionCodec} so it can also be decompressed from
+ * points in the middle ("restart points"), not only from the start. Gzip archives restart at
+ * every member of the {@link ParallelGzipOutputStream}; zstd and lz4 archives are cut into
+ * frames of {@link #RESTART_INTERVAL} bytes, which their decoders read as one stream. Data
+ * that is not compressed can be read from any offset.
+ * <p>
+ * Together with the offsets of the archive entries, the restart points let a single file be
+ * read from the middle of a large archive after decompressing at most one interval.
+ */
+public class RestartableCompressionOutputStream extends OutputStream {
+    /**
+     * Uncompressed bytes between two restart points (for gzip, the size of its members).
+     */
+    public static final long RESTART_INTERVAL = ParallelGzipOutputStream.DEFAULT_MEMBER_SIZE;
+
+    private final CompressionCodec codec;
+    private final int level;
+    private final CountingOutputStream out;
+    private final List<long[]> restartPoints = new ArrayList<>();
+    private OutputStream frame;
+    private long position;
+    private long frameStart;
+    private boolean closed;
+
+    /**
+     * @param out   Stream receiving the compressed data; it is not closed.
+     * @param level Compression level, or {@link CompressionCodec#DEFAULT_LEVEL}.
+     */
+    public RestartableCompressionOutputStream(OutputStream out, CompressionCodec codec, int level) throws IOException {
+        this.codec = codec;
+        this.level = level;
+        this.out = new CountingOutputStream(out);
+        this.frame = codec.compress(this.out, level);
+        restartPoints.add(new long[]{0, 0});
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        frame.write(b, off, len);
+        position += len;
+        if ((codec == CompressionCodec.ZSTD || codec == CompressionCodec.LZ4) && position - frameStart >= RESTART_INTERVAL) {
+            frame.close(); // Ends the frame, `out` stays open
+            restartPoints.add(new long[]{out.count, position});
+            frame = codec.compress(out, level);
+            frameStart = position;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        frame.flush();
+    }
+
+    /**
+     * Ends the compressed data. The underlying stream is flushed but not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        frame.close();
+        out.flush();
+        if (frame instanceof ParallelGzipOutputStream gzip) {
+            restartPoints.clear();
+            restartPoints.addAll(gzip.getMembers());
+        }
+    }
+
+    /**
+     * Where decompressing can start: {compressed offset, uncompressed offset} pairs, in order.
+     * Complete once the stream is closed. Without compression this is only the start, as the
+     * offsets are the same anyway.
+     */
+    public List<long[]> getRestartPoints() {
+        return restartPoints;
+    }
+
+    /**
+     * Bytes of compressed data written so far. Data that a {@link TarOutputStream} copies to
+     * a channel past this stream is not counted.
+     */
+    public long getCompressedLength() {
+        return out.count;
+    }
+
+    /**
+     * Counts the bytes written and never closes the underlying stream.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package uniba.system_package.storage;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads one file over one or more SFTP channels, resuming where an earlier attempt stopped.
+ * The file is split into byte ranges that are written concurrently, each at its own offset,
+ * into {@code <remoteFile>.part}; once all ranges arrived (and were read back, if verification
+ * is on) the part file is renamed to the final name, so the final name never refers to an
+ * incomplete archive.
+ * <p>
+ * A single SFTP channel rarely fills a long-distance link: its throughput is bounded by the
+ * window of one TCP connection and one SSH channel divided by the round-trip time. The channels
+ * are borrowed from the {@link SftpSessionPool} without waiting, spread over separate sessions
+ * where the pool allows it, and the upload uses as many as it gets.
+ * <p>
+ * How far the server acknowledged every range is written to an {@link UploadCheckpoint} every
+ * {@value #CHECKPOINT_INTERVAL} bytes. A later attempt, also after a restart of the program,
+ * compares the last bytes before each checkpointed position with the part file on the server
+ * and continues from there; ranges that do not match are sent again.
+ * <p>
+ * Like a streamed archive, the upload is followed by {@code <remoteFile>.sha256} with the
+ * SHA-256 of the whole file.
+ */
+public class SegmentedSftpUploader {
+    private static final Logger logger = LogManager.getLogger(SegmentedSftpUploader.class);
+
+    public static final String PART_SUFFIX = ".part";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final long CHECKPOINT_INTERVAL = 64L * 1024 * 1024;
+    private static final long RESUME_CHECK_SIZE = 1024 * 1024; // Bytes compared before a resume point
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final SftpSessionPool sessionPool;
+    private final int streams;
+    private final long minSegmentSize;
+    private final boolean verify;
+    private final Path checkpointDir;
+    private volatile BandwidthGovernor bandwidthGovernor; // Null: not limited
+
+    /**
+     * @param sessionPool    Pool the channels are borrowed from.
+     * @param streams        Channels used at most for one file.
+     * @param minSegmentSize Smallest byte range worth a channel of its own.
+     * @param verify         Read every range back and compare its SHA-256 before the rename.
+     * @param checkpointDir  Directory for the checkpoints of unfinished uploads.
+     */
+    public SegmentedSftpUploader(SftpSessionPool sessionPool, int streams, long minSegmentSize, boolean verify, Path checkpointDir) {
+        if (streams <= 0 || minSegmentSize <= 0) {
+            throw new IllegalArgumentException("Parallel streams and segment size must be positive numbers.");
+        }
+        this.sessionPool = sessionPool;
+        this.streams = streams;
+        this.minSegmentSize = minSegmentSize;
+        this.verify = verify;
+        this.checkpointDir = checkpointDir;
+    }
+
+    public void setBandwidthGovernor(BandwidthGovernor bandwidthGovernor) {
+        this.bandwidthGovernor = bandwidthGovernor;
+    }
+
+    /**
+     * Number of ranges a file of the given size is split into (before the pool is asked for channels).
+     */
+    public int segmentsFor(long size) {
+        return (int) Math.max(1, Math.min(streams, size / minSegmentSize));
+    }
+
+    /**
+     * Uploads a local file to the full remote path, or continues an earlier attempt to do so.
+     *
+     * @return true if the file was uploaded (and verified), false otherwise.
+     */
+    public boolean upload(Path localFile, String remoteFile, String host, int port, String user, String password) {
+        List<SftpSessionPool.Lease> leases = new ArrayList<>();
+        ExecutorService executor = null;
+        UploadCheckpoint checkpoint = null;
+        try {
+            long size = Files.size(localFile);
+            String partFile = remoteFile + PART_SUFFIX;
+            Path checkpointFile = UploadCheckpoint.fileFor(checkpointDir, localFile, remoteFile);
+            leases.add(sessionPool.borrow(host, port, user, password));
+            ChannelSftp first = leases.get(0).getChannel();
+
+            long partSize = remoteSize(first, partFile);
+            checkpoint = UploadCheckpoint.load(checkpointFile, localFile, remoteFile);
+            if (checkpoint != null && (partSize < 0 || partSize > size)) {
+                logger.info("Part file {} does not match the upload checkpoint; starting over.", partFile);
+                checkpoint = null;
+            }
+            if (checkpoint != null) {
+                verifyResumePoints(first, partFile, localFile, checkpoint);
+                logger.info("Resuming upload of {} to {}: {} of {} bytes already on the server.", localFile, remoteFile,
+                        checkpoint.getConfirmedBytes(), size);
+            } else {
+                borrowMore(leases, segmentsFor(size), host, port, user, password);
+                first.put(partFile, ChannelSftp.OVERWRITE).close(); // Creates or truncates the part file
+                partSize = 0;
+                checkpoint = UploadCheckpoint.create(checkpointFile, localFile, remoteFile, split(size, leases.size()));
+                checkpoint.save();
+            }
+
+            List<Integer> pending = new ArrayList<>();
+            for (int range = 0; range < checkpoint.getRangeCount(); range++) {
+                if (checkpoint.getPosition(range) < checkpoint.getEnd(range)) {
+                    pending.add(range);
+                }
+            }
+            borrowMore(leases, Math.min(streams, pending.size()), host, port, user, password);
+            logger.info("Uploading {} ({} bytes) to SFTP server over {} channels: {}", localFile, size,
+                    Math.min(leases.size(), Math.max(1, pending.size())), remoteFile);
+            long start = System.nanoTime();
+            long alreadySent = checkpoint.getConfirmedBytes();
+
+            // Open every stream before the first byte is written: in APPEND mode JSch adds the
+            // current size of the remote file to the offset, and nobody changes it meanwhile
+            List<List<Callable<Void>>> work = new ArrayList<>();
+            leases.forEach(lease -> work.add(new ArrayList<>()));
+            for (int i = 0; i < pending.size(); i++) {
+                int range = pending.get(i);
+                SftpSessionPool.Lease lease = leases.get(i % leases.size());
+                OutputStream out = BandwidthGovernor.wrap(bandwidthGovernor,
+                        lease.getChannel().put(partFile, null, ChannelSftp.APPEND, checkpoint.getPosition(range) - partSize), host);
+                UploadCheckpoint progress = checkpoint;
+                work.get(i % leases.size()).add(() -> sendRange(localFile, progress, range, out));
+            }
+
+            executor = Executors.newFixedThreadPool(leases.size(), runnable -> {
+                Thread thread = new Thread(runnable, "sftp-segment-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            List<Future<Void>> uploads = runAll(executor, work);
+            String checksum = sha256(localFile); // Meanwhile, for the checksum file
+            await(uploads);
+
+            long remoteSize = first.stat(partFile).getSize();
+            if (remoteSize != size) {
+                throw new IOException("Remote file has " + remoteSize + " bytes instead of " + size);
+            }
+            if (verify) {
+                verifyRanges(executor, leases, partFile, localFile, checkpoint);
+            }
+
+            try {
+                first.rm(remoteFile); // SFTP does not rename onto an existing file
+            } catch (SftpException e) {
+                // No previous upload under this name
+            }
+            first.rename(partFile, remoteFile);
+            String checksumLine = checksum + "  " + Path.of(remoteFile).getFileName() + "\n";
+            first.put(new ByteArrayInputStream(checksumLine.getBytes(StandardCharsets.UTF_8)), remoteFile + ".sha256");
+            checkpoint.delete();
+
+            double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+            logger.info("File uploaded to SFTP server: {} ({} channels, {} MB/s, sha256 {})", remoteFile, leases.size(),
+                    String.format("%.1f", (size - alreadySent) / seconds / (1024 * 1024)), checksum);
+            return true;
+        } catch (Exception e) {
+            leases.forEach(SftpSessionPool.Lease::invalidate); // Channels may be left in the middle of a transfer
+            if (checkpoint != null) {
+                logger.error("Error uploading file to SFTP server ({} of {} bytes confirmed): {}", checkpoint.getConfirmedBytes(),
+                        localFile.toFile().length(), e.getMessage(), e);
+            } else {
+                logger.error("Error uploading file to SFTP server: {}", e.getMessage(), e);
+            }
+            return false;
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+                try {
+                    executor.awaitTermination(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            leases.forEach(SftpSessionPool.Lease::close);
+        }
+    }
+
+    private void borrowMore(List<SftpSessionPool.Lease> leases, int wanted, String host, int port, String user, String password)
+            throws InterruptedException {
+        while (leases.size() < wanted) {
+            SftpSessionPool.Lease lease;
+            try {
+                lease = sessionPool.tryBorrow(host, port, user, password);
+            } catch (JSchException e) {
+                logger.debug("No additional SFTP channel for a segmented upload: {}", e.getMessage());
+                return;
+            }
+            if (lease == null) {
+                return; // Use the channels we have rather than wait for other transfers
+            }
+            leases.add(lease);
+        }
+    }
+
+    private static long remoteSize(ChannelSftp channel, String remoteFile) {
+        try {
+            return channel.stat(remoteFile).getSize();
+        } catch (SftpException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Splits the file into ranges of equal size; the last one takes the remainder.
+     *
+     * @return Offset and length of every range.
+     */
+    static List<long[]> split(long size, int count) {
+        List<long[]> ranges = new ArrayList<>();
+        long length = size / count;
+        for (int i = 0; i < count; i++) {
+            long offset = i * length;
+            ranges.add(new long[]{offset, i == count - 1 ? size - offset : length});
+        }
+        return ranges;
+    }
+
+    /**
+     * Sends the rest of one range and moves its checkpoint along with the acknowledgements
+     * of the server.
+     */
+    private static Void sendRange(Path file, UploadCheckpoint checkpoint, int range, OutputStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = checkpoint.getPosition(range);
+        long end = checkpoint.getEnd(range);
+        long unconfirmed = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ); OutputStream remote = out) {
+            while (position < end) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Segment upload cancelled");
+                }
+                buffer.clear().limit((int) Math.min(BUFFER_SIZE, end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("File shrank during the upload: " + file);
+                }
+                remote.write(buffer.array(), 0, read);
+                position += read;
+                unconfirmed += read;
+                if (unconfirmed >= CHECKPOINT_INTERVAL) {
+                    remote.flush(); // Returns once the server acknowledged everything written so far
+                    checkpoint.setPosition(range, position);
+                    checkpoint.save();
+                    unconfirmed = 0;
+                }
+            }
+        }
+        checkpoint.setPosition(range, end);
+        checkpoint.save();
+        return null;
+    }
+
+    /**
+     * Compares the bytes before every checkpointed position with the part file on the server
+     * and sends ranges from their start again if they differ.
+     */
+    private static void verifyResumePoints(ChannelSftp channel, String partFile, Path localFile, UploadCheckpoint checkpoint)
+            throws IOException, SftpException {
+        for (int range = 0; range < checkpoint.getRangeCount(); range++) {
+            long position = checkpoint.getPosition(range);
+            if (position == checkpoint.getStart(range)) {
+                continue;
+            }
+            long from = Math.max(checkpoint.getStart(range), position - RESUME_CHECK_SIZE);
+            byte[] remote = hashRemote(channel, partFile, from, position - from);
+            if (remote == null || !Arrays.equals(remote, hashLocal(localFile, from, position - from))) {
+                logger.warn("Part file {} differs from {} before offset {}; sending the range again.", partFile, localFile, position);
+                checkpoint.setPosition(range, checkpoint.getStart(range));
+            }
+        }
+        checkpoint.save();
+    }
+
+    /**
+     * Reads every range of the part file back, the ranges of a channel one after the other, and
+     * compares it with the local file. Together the ranges cover the whole file. A range that
+     * differs is marked to be sent again by the next attempt.
+     */
+    private static void verifyRanges(ExecutorService executor, List<SftpSessionPool.Lease> leases, String partFile,
+                                     Path localFile, UploadCheckpoint checkpoint) throws Exception {
+        List<List<Callable<Void>>> work = new ArrayList<>();
+        leases.forEach(lease -> work.add(new ArrayList<>()));
+        for (int range = 0; range < checkpoint.getRangeCount(); range++) {
+            int index = range;
+            ChannelSftp channel = leases.get(range % leases.size()).getChannel();
+            work.get(range % leases.size()).add(() -> {
+                long start = checkpoint.getStart(index);
+                long length = checkpoint.getEnd(index) - start;
+                byte[] remote = hashRemote(channel, partFile, start, length);
+                if (remote == null || !Arrays.equals(remote, hashLocal(localFile, start, length))) {
+                    checkpoint.setPosition(index, start);
+                    checkpoint.save();
+                    throw new IOException("Checksum mismatch in range " + index + " at offset " + start + " of " + partFile);
+                }
+                return null;
+            });
+        }
+        await(runAll(executor, work));
+    }
+
+    /**
+     * Runs the lists of tasks in parallel, the tasks of one list one after the other.
+     */
+    private static List<Future<Void>> runAll(ExecutorService executor, List<List<Callable<Void>>> work) {
+        List<Future<Void>> futures = new ArrayList<>();
+        for (List<Callable<Void>> tasks : work) {
+            if (!tasks.isEmpty()) {
+                futures.add(executor.submit(() -> {
+                    for (Callable<Void> task : tasks) {
+                        task.call();
+                    }
+                    return null;
+                }));
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * @return The SHA-256 of the remote bytes, or null if the remote file is shorter.
+     */
+    private static byte[] hashRemote(ChannelSftp channel, String remoteFile, long offset, long length) throws SftpException, IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = length;
+        try (InputStream in = channel.get(remoteFile, null, offset)) {
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    return null;
+                }
+                digest.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return digest.digest();
+    }
+
+    private static byte[] hashLocal(Path file, long offset, long length) throws IOException {
+        MessageDigest digest = newSha256();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(BUFFER_SIZE, end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("File shrank during the upload: " + file);
+                }
+                digest.update(buffer.flip());
+                position += read;
+            }
+        }
+        return digest.digest();
+    }
+
+    private static String sha256(Path file) throws IOException {
+        return HexFormat.of().formatHex(hashLocal(file, 0, Files.size(file)));
+    }
+
+    private static void await(List<Future<Void>> futures) throws Exception {
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
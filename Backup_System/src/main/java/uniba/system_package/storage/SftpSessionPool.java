@@ -0,0 +1,428 @@
+package uniba.system_package.storage;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps SSH sessions to SFTP servers open between uploads, so a backup run does not pay a
+ * full SSH handshake (and a new connection the server may throttle) for every file.
+ * <p>
+ * Sessions are keyed by user, host and port. Every session carries up to
+ * {@code maxChannelsPerSession} SFTP channels at the same time and there are at most
+ * {@code maxSessionsPerKey} sessions per key; further borrowers wait for a channel to be
+ * returned. Returned channels stay open for the next borrower, who first checks them with a
+ * round trip to the server. Sessions without borrowed channels are closed after
+ * {@code idleTimeoutMillis}.
+ */
+public class SftpSessionPool implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(SftpSessionPool.class);
+
+    public static final int DEFAULT_MAX_SESSIONS_PER_KEY = 2;
+    public static final int DEFAULT_MAX_CHANNELS_PER_SESSION = 4;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 30_000;
+    // Keepalives detect connections dropped by firewalls while a session waits in the pool
+    private static final int SERVER_ALIVE_INTERVAL_MILLIS = 15_000;
+    private static final int SERVER_ALIVE_COUNT_MAX = 3;
+
+    // One daemon thread evicts idle sessions for all pools
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sftp-session-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int maxSessionsPerKey;
+    private final int maxChannelsPerSession;
+    private final long idleTimeoutMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition channelReturned = lock.newCondition();
+    private final Map<Key, List<PooledSession>> sessions = new HashMap<>();
+    private final Map<Key, Integer> connecting = new HashMap<>(); // Sessions being opened, per key
+    private final ScheduledFuture<?> eviction;
+    private boolean closed;
+
+    public SftpSessionPool() {
+        this(DEFAULT_MAX_SESSIONS_PER_KEY, DEFAULT_MAX_CHANNELS_PER_SESSION, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxSessionsPerKey     Sessions opened at most to the same user, host and port.
+     * @param maxChannelsPerSession SFTP channels used at the same time on one session.
+     * @param idleTimeoutMillis     Time after which a session without borrowed channels is closed.
+     */
+    public SftpSessionPool(int maxSessionsPerKey, int maxChannelsPerSession, long idleTimeoutMillis) {
+        if (maxSessionsPerKey <= 0 || maxChannelsPerSession <= 0 || idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Session pool limits must be positive numbers.");
+        }
+        this.maxSessionsPerKey = maxSessionsPerKey;
+        this.maxChannelsPerSession = maxChannelsPerSession;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        long checkInterval = Math.max(1000, idleTimeoutMillis / 2);
+        this.eviction = EVICTOR.scheduleWithFixedDelay(this::evictIdleSessions, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows an SFTP channel to the server, reusing an open session (and channel) if there is
+     * one. The lease must be closed to give the channel back.
+     *
+     * @throws JSchException        If no session or channel could be opened.
+     * @throws InterruptedException If interrupted while waiting for a free channel.
+     */
+    public Lease borrow(String host, int port, String user, String password) throws JSchException, InterruptedException {
+        return borrow(new Key(host, port, user, password), false);
+    }
+
+    /**
+     * Borrows an SFTP channel only if one is free right away, for transfers that can make do
+     * with fewer channels. Prefers the session carrying the fewest transfers and opens another
+     * session while the limit allows it, so the channels of one transfer use separate TCP
+     * connections.
+     *
+     * @return The lease, or null if all channels are in use.
+     * @throws JSchException If no session or channel could be opened.
+     */
+    public Lease tryBorrow(String host, int port, String user, String password) throws JSchException, InterruptedException {
+        return borrow(new Key(host, port, user, password), true);
+    }
+
+    private Lease borrow(Key key, boolean spread) throws JSchException, InterruptedException {
+        while (true) {
+            PooledSession session;
+            lock.lock();
+            try {
+                session = reserveChannel(key, spread);
+                if (session == null) {
+                    if (spread) {
+                        return null;
+                    }
+                    // Wait for a returned channel, or for room for another session
+                    channelReturned.await();
+                    continue;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (session.session == null) {
+                session = connect(key, session);
+            }
+            Lease lease = openChannel(session);
+            if (lease != null) {
+                return lease;
+            }
+            // The session turned out to be dead and was dropped; try again with another one
+        }
+    }
+
+    /**
+     * Picks a session with a free channel and reserves the channel. Returns a placeholder
+     * (without a session) when a new session may be opened, or null when the borrower has to wait.
+     *
+     * @param spread Prefer the least busy session, or a new one, over reusing an open channel.
+     */
+    private PooledSession reserveChannel(Key key, boolean spread) {
+        if (closed) {
+            throw new IllegalStateException("The SFTP session pool is closed");
+        }
+        List<PooledSession> keySessions = sessions.computeIfAbsent(key, k -> new ArrayList<>());
+        int opening = connecting.getOrDefault(key, 0);
+        boolean mayConnect = keySessions.size() + opening < maxSessionsPerKey;
+        PooledSession best = null;
+        for (PooledSession candidate : keySessions) {
+            if (candidate.channelsInUse >= maxChannelsPerSession) {
+                continue;
+            }
+            if (spread ? best == null || candidate.channelsInUse < best.channelsInUse
+                    : best == null || candidate.idleChannels.size() > best.idleChannels.size()) {
+                best = candidate; // Prefer sessions with an open channel to reuse, or the least busy one
+            }
+        }
+        if (best != null && !(spread && best.channelsInUse > 0 && mayConnect)) {
+            best.channelsInUse++;
+            return best;
+        }
+        if (mayConnect) {
+            connecting.put(key, opening + 1);
+            PooledSession placeholder = new PooledSession(key, null);
+            placeholder.channelsInUse = 1;
+            return placeholder;
+        }
+        return null;
+    }
+
+    private PooledSession connect(Key key, PooledSession placeholder) throws JSchException {
+        Session session = null;
+        try {
+            session = new JSch().getSession(key.user(), key.host(), key.port());
+            session.setPassword(key.password());
+            session.setConfig("StrictHostKeyChecking", "no");
+            session.setServerAliveInterval(SERVER_ALIVE_INTERVAL_MILLIS);
+            session.setServerAliveCountMax(SERVER_ALIVE_COUNT_MAX);
+            session.connect(CONNECT_TIMEOUT_MILLIS);
+            logger.info("Opened SSH session to {}", key);
+        } finally {
+            lock.lock();
+            try {
+                connecting.merge(key, -1, Integer::sum);
+                if (session != null && session.isConnected()) {
+                    placeholder.session = session;
+                    sessions.computeIfAbsent(key, k -> new ArrayList<>()).add(placeholder);
+                } else {
+                    channelReturned.signalAll(); // Someone else may try to connect instead
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return placeholder;
+    }
+
+    /**
+     * Hands out an idle channel of the session after checking it, or opens a new one. Returns
+     * null (and drops the session) if the session does not work any more.
+     */
+    private Lease openChannel(PooledSession session) throws JSchException {
+        while (true) {
+            ChannelSftp idle;
+            lock.lock();
+            try {
+                idle = session.idleChannels.pollFirst();
+            } finally {
+                lock.unlock();
+            }
+            if (idle == null) {
+                break;
+            }
+            if (idle.isConnected()) {
+                try {
+                    idle.cd(session.home); // Health check, and resets the working directory
+                    return new Lease(session, idle);
+                } catch (SftpException e) {
+                    logger.debug("Discarding pooled SFTP channel to {}: {}", session.key, e.getMessage());
+                }
+            }
+            idle.disconnect();
+        }
+
+        if (!session.session.isConnected()) {
+            logger.info("Pooled SSH session to {} was closed by the server; reconnecting.", session.key);
+            drop(session);
+            return null;
+        }
+        try {
+            ChannelSftp channel = (ChannelSftp) session.session.openChannel("sftp");
+            channel.connect(CONNECT_TIMEOUT_MILLIS);
+            if (session.home == null) {
+                session.home = channel.getHome();
+            }
+            return new Lease(session, channel);
+        } catch (JSchException | SftpException e) {
+            if (session.session.isConnected()) {
+                release(session, null); // The server refused the channel, e.g. MaxSessions reached
+                throw e instanceof JSchException ? (JSchException) e : new JSchException(e.getMessage(), e);
+            }
+            logger.info("Pooled SSH session to {} is broken ({}); reconnecting.", session.key, e.getMessage());
+            drop(session);
+            return null;
+        }
+    }
+
+    /**
+     * Gives a channel back. A null channel only frees the reservation.
+     */
+    private void release(PooledSession session, ChannelSftp channel) {
+        boolean closeSession = false;
+        lock.lock();
+        try {
+            session.channelsInUse--;
+            session.lastUsed = System.currentTimeMillis();
+            if (channel != null && !closed && channel.isConnected() && session.session.isConnected()) {
+                session.idleChannels.addFirst(channel);
+                channel = null;
+            }
+            if (closed && session.channelsInUse == 0) {
+                List<PooledSession> keySessions = sessions.get(session.key);
+                closeSession = keySessions != null && keySessions.remove(session);
+            }
+            channelReturned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (channel != null) {
+            channel.disconnect();
+        }
+        if (closeSession) {
+            session.disconnect();
+        }
+    }
+
+    private void drop(PooledSession session) {
+        lock.lock();
+        try {
+            List<PooledSession> keySessions = sessions.get(session.key);
+            if (keySessions != null) {
+                keySessions.remove(session);
+            }
+            channelReturned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        session.disconnect();
+    }
+
+    private void evictIdleSessions() {
+        List<PooledSession> evicted = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            for (List<PooledSession> keySessions : sessions.values()) {
+                for (Iterator<PooledSession> iterator = keySessions.iterator(); iterator.hasNext(); ) {
+                    PooledSession session = iterator.next();
+                    boolean idle = session.channelsInUse == 0 && now - session.lastUsed >= idleTimeoutMillis;
+                    if (idle || !session.session.isConnected()) {
+                        iterator.remove();
+                        evicted.add(session);
+                    }
+                }
+            }
+            if (!evicted.isEmpty()) {
+                channelReturned.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledSession session : evicted) {
+            logger.info("Closing idle SSH session to {}", session.key);
+            session.disconnect();
+        }
+    }
+
+    /**
+     * Number of open sessions, over all keys.
+     */
+    public int getSessionCount() {
+        lock.lock();
+        try {
+            return sessions.values().stream().mapToInt(List::size).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes all idle sessions; sessions with borrowed channels are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        List<PooledSession> open = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            eviction.cancel(false);
+            for (List<PooledSession> keySessions : sessions.values()) {
+                for (Iterator<PooledSession> iterator = keySessions.iterator(); iterator.hasNext(); ) {
+                    PooledSession session = iterator.next();
+                    if (session.channelsInUse == 0) {
+                        iterator.remove();
+                        open.add(session);
+                    }
+                }
+            }
+            channelReturned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        open.forEach(PooledSession::disconnect);
+    }
+
+    // Sessions are only shared by borrowers with the same credentials
+    private record Key(String host, int port, String user, String password) {
+        @Override
+        public String toString() {
+            return user + "@" + host + ":" + port;
+        }
+    }
+
+    private static class PooledSession {
+        final Key key;
+        Session session;
+        String home; // Initial working directory of the channels
+        int channelsInUse;
+        long lastUsed = System.currentTimeMillis();
+        final Deque<ChannelSftp> idleChannels = new ArrayDeque<>();
+
+        PooledSession(Key key, Session session) {
+            this.key = key;
+            this.session = session;
+        }
+
+        void disconnect() {
+            idleChannels.forEach(ChannelSftp::disconnect);
+            idleChannels.clear();
+            session.disconnect();
+        }
+    }
+
+    /**
+     * A borrowed SFTP channel. Closing the lease gives the channel back to the pool; after a
+     * failed transfer call {@link #invalidate()} first, so the channel is closed instead.
+     */
+    public class Lease implements AutoCloseable {
+        private final PooledSession session;
+        private final ChannelSftp channel;
+        private boolean valid = true;
+        private boolean returned;
+
+        private Lease(PooledSession session, ChannelSftp channel) {
+            this.session = session;
+            this.channel = channel;
+        }
+
+        public ChannelSftp getChannel() {
+            return channel;
+        }
+
+        /**
+         * Marks the channel as unusable, e.g. after an interrupted transfer.
+         */
+        public void invalidate() {
+            valid = false;
+        }
+
+        @Override
+        public void close() {
+            if (returned) {
+                return;
+            }
+            returned = true;
+            if (valid) {
+                release(session, channel);
+            } else {
+                channel.disconnect();
+                release(session, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package uniba.system_package.storage;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stores backups in a directory of an SFTP server. Channels are borrowed from a session pool
+ * shared with other backends; files are uploaded by a {@link SegmentedSftpUploader}, so large
+ * ones go over several channels and failed uploads are retried from where they stopped.
+ */
+public class SftpStorageBackend extends AsyncStorageBackend {
+    private static final Logger logger = LogManager.getLogger(SftpStorageBackend.class);
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+    private final String remoteDir;
+    private final SftpSessionPool sessionPool;
+    private final SegmentedSftpUploader uploader;
+    private volatile BandwidthGovernor bandwidthGovernor; // Null: streamed uploads are not limited
+    private int maxRetries = 3;
+    private long retryDelayMillis = 1000;
+    private long maxRetryDelayMillis = 60_000;
+
+    /**
+     * @param concurrency Transfers running at the same time (each may use several channels).
+     */
+    public SftpStorageBackend(String name, String host, int port, String user, String password, String remoteDir,
+                              SftpSessionPool sessionPool, SegmentedSftpUploader uploader, int concurrency) {
+        super(name, concurrency);
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.password = password;
+        this.remoteDir = remoteDir;
+        this.sessionPool = sessionPool;
+        this.uploader = uploader;
+    }
+
+    /**
+     * Limits streamed uploads; uploads of files are limited through the uploader.
+     */
+    public void setBandwidthGovernor(BandwidthGovernor bandwidthGovernor) {
+        this.bandwidthGovernor = bandwidthGovernor;
+    }
+
+    /**
+     * Sets how often {@link #put} tries again after a failed attempt, and how long it waits
+     * before it does: the delay doubles with every attempt, up to the maximum.
+     */
+    public void setRetryPolicy(int maxRetries, long retryDelayMillis, long maxRetryDelayMillis) {
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = retryDelayMillis;
+        this.maxRetryDelayMillis = maxRetryDelayMillis;
+    }
+
+    @Override
+    public String getLocation() {
+        return "sftp://" + user + "@" + host + ":" + port + remoteDir;
+    }
+
+    /**
+     * Uploads the file. Every attempt continues where the previous one stopped, also after a
+     * restart of the program, and attempts are spaced out by an exponential backoff.
+     */
+    @Override
+    public CompletableFuture<Void> put(Path localFile, String name) {
+        return submit(() -> {
+            String remoteFile = remotePath(name);
+            for (int attempt = 1; attempt <= maxRetries + 1; attempt++) {
+                if (uploader.upload(localFile, remoteFile, host, port, user, password)) {
+                    logger.info("File uploaded successfully to {}", remoteFile);
+                    return null;
+                }
+                if (attempt > maxRetries) {
+                    break;
+                }
+                long delay = retryDelay(attempt);
+                logger.warn("Retrying upload of {} in {} ms... Attempt {}", localFile, delay, attempt + 1);
+                Thread.sleep(delay); // An interruption fails the upload; it resumes with the next upload of the file
+            }
+            throw new IOException("Upload of " + localFile + " to " + getLocation() + " failed after " + (maxRetries + 1) + " attempts");
+        });
+    }
+
+    /**
+     * Exponential backoff with jitter: half of the delay is fixed, the other half random, so
+     * uploads that failed together (e.g. on a dropped link) do not all retry at the same moment.
+     */
+    private long retryDelay(int attempt) {
+        long delay = Math.min(maxRetryDelayMillis, retryDelayMillis << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    @Override
+    public CompletableFuture<Void> get(String name, Path localFile) {
+        return submit(() -> withChannel(channel -> {
+            channel.get(remotePath(name), localFile.toString());
+            return null;
+        }));
+    }
+
+    @Override
+    public CompletableFuture<List<StoredFile>> list() {
+        return submit(() -> withChannel(channel -> {
+            List<StoredFile> files = new ArrayList<>();
+            Vector<?> entries;
+            try {
+                entries = channel.ls(remoteDir);
+            } catch (SftpException e) {
+                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                    return files;
+                }
+                throw e;
+            }
+            for (Object entry : entries) {
+                ChannelSftp.LsEntry lsEntry = (ChannelSftp.LsEntry) entry;
+                if (lsEntry.getAttrs().isReg()) {
+                    files.add(toStoredFile(lsEntry.getFilename(), lsEntry.getAttrs()));
+                }
+            }
+            return files;
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> delete(String name) {
+        return submit(() -> withChannel(channel -> {
+            try {
+                channel.rm(remotePath(name));
+                return true;
+            } catch (SftpException e) {
+                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                    return false;
+                }
+                throw e;
+            }
+        }));
+    }
+
+    /**
+     * Deletes the files over one channel, so a batch costs one round trip per file instead of
+     * borrowing a channel for each.
+     */
+    @Override
+    public CompletableFuture<List<String>> deleteAll(List<String> names) {
+        return submit(() -> withChannel(channel -> {
+            List<String> gone = new ArrayList<>();
+            for (String name : names) {
+                try {
+                    channel.rm(remotePath(name));
+                } catch (SftpException e) {
+                    if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                        throw e;
+                    }
+                }
+                gone.add(name);
+            }
+            return gone;
+        }));
+    }
+
+    @Override
+    public CompletableFuture<StoredFile> stat(String name) {
+        return submit(() -> withChannel(channel -> {
+            try {
+                return toStoredFile(name, channel.stat(remotePath(name)));
+            } catch (SftpException e) {
+                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                    return null;
+                }
+                throw e;
+            }
+        }));
+    }
+
+    private static StoredFile toStoredFile(String name, SftpATTRS attrs) {
+        return new StoredFile(name, attrs.getSize(), attrs.getMTime() * 1000L);
+    }
+
+    @Override
+    public OutputStream openOutput(String name) throws IOException {
+        SftpSessionPool.Lease lease = borrow();
+        try {
+            OutputStream out = BandwidthGovernor.wrap(bandwidthGovernor, lease.getChannel().put(remotePath(name)), host);
+            return new LeasedOutputStream(out, lease);
+        } catch (SftpException e) {
+            lease.close();
+            throw new IOException("Cannot write " + remotePath(name) + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public InputStream openInput(String name, long offset) throws IOException {
+        SftpSessionPool.Lease lease = borrow();
+        try {
+            return new LeasedInputStream(lease.getChannel().get(remotePath(name), null, offset), lease);
+        } catch (SftpException e) {
+            lease.close();
+            throw new IOException("Cannot read " + remotePath(name) + ": " + e.getMessage(), e);
+        }
+    }
+
+    private String remotePath(String name) {
+        if (name.contains("/")) {
+            throw new IllegalArgumentException("Invalid file name for " + getLocation() + ": " + name);
+        }
+        return remoteDir + "/" + name;
+    }
+
+    private SftpSessionPool.Lease borrow() throws IOException {
+        try {
+            return sessionPool.borrow(host, port, user, password);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for an SFTP channel", e);
+        } catch (Exception e) {
+            throw new IOException("Cannot connect to " + getLocation() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private interface SftpOperation<T> {
+        T run(ChannelSftp channel) throws Exception;
+    }
+
+    /**
+     * Runs an operation on a borrowed channel. SFTP errors (e.g. a missing file) leave the
+     * channel usable and are rethrown as {@link IOException}; after any other error the channel
+     * is closed instead of given back to the pool.
+     */
+    private <T> T withChannel(SftpOperation<T> operation) throws Exception {
+        SftpSessionPool.Lease lease = borrow();
+        try {
+            return operation.run(lease.getChannel());
+        } catch (SftpException e) {
+            throw new IOException(getLocation() + ": " + e.getMessage(), e);
+        } catch (Exception e) {
+            lease.invalidate();
+            throw e;
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Gives the channel back when the stream is closed, or closes it if a transfer failed.
+     */
+    private static class LeasedOutputStream extends FilterOutputStream {
+        private final SftpSessionPool.Lease lease;
+
+        LeasedOutputStream(OutputStream out, SftpSessionPool.Lease lease) {
+            super(out);
+            this.lease = lease;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                lease.invalidate();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } catch (IOException e) {
+                lease.invalidate();
+                throw e;
+            } finally {
+                lease.close();
+            }
+        }
+    }
+
+    private static class LeasedInputStream extends FilterInputStream {
+        private final SftpSessionPool.Lease lease;
+
+        LeasedInputStream(InputStream in, SftpSessionPool.Lease lease) {
+            super(in);
+            this.lease = lease;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } catch (IOException e) {
+                lease.invalidate();
+                throw e;
+            } finally {
+                lease.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package uniba.system_package.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A place backups are stored besides the local disk, e.g. a directory on an NFS mount or an
+ * SFTP server. Files are addressed by their name relative to the root of the backend.
+ * <p>
+ * Transfers and listings run asynchronously on threads of the backend, so the caller can go
+ * on with the next backup while earlier ones are uploaded. The futures complete exceptionally
+ * (with the {@link IOException} as cause) when an operation fails.
+ */
+public interface StorageBackend extends AutoCloseable {
+
+    /**
+     * A file stored in a backend.
+     *
+     * @param lastModified Milliseconds since the epoch.
+     */
+    record StoredFile(String name, long size, long lastModified) {
+    }
+
+    /**
+     * The name the backend is configured under.
+     */
+    String getName();
+
+    /**
+     * Where the backend stores files, for log messages (e.g. sftp://user@host:22/backups).
+     */
+    String getLocation();
+
+    /**
+     * Stores a local file under the given name, replacing a file of that name. A
+     * {@code <name>.sha256} file with its checksum is stored next to it.
+     */
+    CompletableFuture<Void> put(Path localFile, String name);
+
+    /**
+     * Copies a stored file to a local file.
+     */
+    CompletableFuture<Void> get(String name, Path localFile);
+
+    /**
+     * Lists the files in the root of the backend.
+     */
+    CompletableFuture<List<StoredFile>> list();
+
+    /**
+     * Deletes a stored file.
+     *
+     * @return Completes with false if there was no such file.
+     */
+    CompletableFuture<Boolean> delete(String name);
+
+    /**
+     * Deletes several stored files, one after the other.
+     *
+     * @return Completes with the names of the files that are gone, also those that did not exist.
+     */
+    default CompletableFuture<List<String>> deleteAll(List<String> names) {
+        CompletableFuture<List<String>> deleted = CompletableFuture.completedFuture(new ArrayList<>());
+        for (String name : names) {
+            deleted = deleted.thenCompose(gone -> delete(name).thenApply(existed -> {
+                gone.add(name);
+                return gone;
+            }));
+        }
+        return deleted;
+    }
+
+    /**
+     * Size and modification time of a stored file.
+     *
+     * @return Completes with null if there is no such file.
+     */
+    CompletableFuture<StoredFile> stat(String name);
+
+    /**
+     * Opens a stream that writes a file of the backend directly, on the calling thread, e.g.
+     * to upload an archive while it is written. The file is complete when the stream is closed.
+     */
+    OutputStream openOutput(String name) throws IOException;
+
+    /**
+     * Opens a stream that reads a stored file from the given offset on, on the calling thread.
+     */
+    InputStream openInput(String name, long offset) throws IOException;
+
+    /**
+     * Stops the threads of the backend once running operations are done.
+     */
+    @Override
+    void close();
+}
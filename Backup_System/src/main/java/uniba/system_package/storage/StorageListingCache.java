@@ -0,0 +1,88 @@
+package uniba.system_package.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the listings of storage backends for a while, so remote retention and restores
+ * do not list a remote directory (one SFTP round trip per few hundred files) again for every
+ * question. Callers asking while a listing is running share it. Files deleted through
+ * {@link #removed} are dropped from the cached listing; anything else that changes a backend
+ * should {@link #invalidate} it.
+ */
+public class StorageListingCache {
+    private final long maxAgeMillis;
+    private final Map<StorageBackend, Listing> listings = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxAgeMillis How long a listing is used, 0 to list every time (callers asking at the same time still share one listing).
+     */
+    public StorageListingCache(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * The files of a backend, from the cache if the listing is recent enough.
+     */
+    public CompletableFuture<List<StorageBackend.StoredFile>> list(StorageBackend backend) {
+        return listings.compute(backend, (key, listing) -> listing != null && listing.isUsable(maxAgeMillis)
+                ? listing : new Listing(backend.list().thenApply(List::copyOf))).files;
+    }
+
+    /**
+     * Lists a backend again, e.g. at the start of a retention run that must see every file.
+     */
+    public CompletableFuture<List<StorageBackend.StoredFile>> refresh(StorageBackend backend) {
+        return listings.compute(backend, (key, listing) -> listing != null && !listing.files.isDone()
+                ? listing : new Listing(backend.list().thenApply(List::copyOf))).files;
+    }
+
+    public void invalidate(StorageBackend backend) {
+        listings.remove(backend);
+    }
+
+    /**
+     * Drops deleted files from the cached listing of a backend.
+     */
+    public void removed(StorageBackend backend, Collection<String> names) {
+        Set<String> deleted = new HashSet<>(names);
+        listings.computeIfPresent(backend, (key, listing) -> {
+            if (!listing.files.isDone() || listing.files.isCompletedExceptionally()) {
+                return null; // Listed before the deletion or failed; list again next time
+            }
+            List<StorageBackend.StoredFile> files = new ArrayList<>(listing.files.join());
+            files.removeIf(file -> deleted.contains(file.name()));
+            return new Listing(CompletableFuture.completedFuture(List.copyOf(files)), listing.created);
+        });
+    }
+
+    private static class Listing {
+        private final CompletableFuture<List<StorageBackend.StoredFile>> files;
+        private final long created;
+
+        Listing(CompletableFuture<List<StorageBackend.StoredFile>> files) {
+            this(files, System.currentTimeMillis());
+        }
+
+        Listing(CompletableFuture<List<StorageBackend.StoredFile>> files, long created) {
+            this.files = files;
+            this.created = created;
+        }
+
+        /**
+         * Running, or listed successfully not longer than maxAgeMillis ago.
+         */
+        boolean isUsable(long maxAgeMillis) {
+            if (!files.isDone()) {
+                return true;
+            }
+            return !files.isCompletedExceptionally() && System.currentTimeMillis() - created < maxAgeMillis;
+        }
+    }
+}
@@ -1,27 +1,56 @@
 package uniba.system_package.storage;
 
-import com.jcraft.jsch.*;
 import org.slf4j.Logger;
+import uniba.system_package.utils.ConfigurationManager;
 import uniba.system_package.utils.LogManager;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 public class StorageManager {
     private static final Logger logger = LogManager.getLogger(StorageManager.class);
 
+    // Location of the deduplicating chunk repository
+    public static final String REPOSITORY_PATH = "/backups/repository";
+
+    // Location of the per-target file-state indexes used by incremental backups
+    public static final String INDEX_PATH = "/backups/index";
+
+    // Checkpoints of uploads that have not finished yet
+    public static final String UPLOAD_STATE_PATH = "/backups/uploads";
+
+    // Archive entry listing the files deleted since the previous backup
+    public static final String DELETED_ENTRIES_NAME = ".backup-deleted";
+
+    private CompressionCodec compressionCodec = CompressionCodec.GZIP;
+    private int compressionLevel = CompressionCodec.DEFAULT_LEVEL;
+    private boolean detectSparseFiles = false;
+    private SftpSessionPool sessionPool; // Created on first use unless one is shared through setSessionPool
+    private SegmentedSftpUploader uploader; // Resumable uploads; created on first use unless configured
+    private BandwidthGovernor bandwidthGovernor; // Null: uploads are not limited
+    private ReadGovernor readGovernor; // Null: source files are read as fast as possible
+    private ErasureCodedStorage erasureCoding; // Null: streamed archives are copied whole to every backend
+    private int restoreThreads = Runtime.getRuntime().availableProcessors();
+
     /**
      * Creates a database dump and stores it at the specified path.
      */
@@ -58,49 +87,408 @@ public class StorageManager {
         }
     }
 
+    /**
+     * Sets the codec and level used for the archives written by this storage manager.
+     */
+    public void setCompression(CompressionCodec codec, int level) {
+        this.compressionCodec = codec;
+        this.compressionLevel = level;
+    }
+
+    public CompressionCodec getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Stores runs of zeros in large files as holes (like {@code tar --sparse}). Such files are
+     * read twice, once to find the holes.
+     */
+    public void setDetectSparseFiles(boolean detectSparseFiles) {
+        this.detectSparseFiles = detectSparseFiles;
+    }
+
+    /**
+     * Uses a session pool shared with other storage managers for all SFTP transfers.
+     */
+    public void setSessionPool(SftpSessionPool sessionPool) {
+        this.sessionPool = sessionPool;
+    }
+
+    /**
+     * Uploads files large enough for it over several SFTP channels at once.
+     *
+     * @param streams        Channels used at most for one file; 1 switches segmented uploads off.
+     * @param minSegmentSize Smallest byte range uploaded over a channel of its own.
+     * @param verify         Read the uploaded ranges back and compare their checksums.
+     */
+    public synchronized void setParallelUpload(int streams, long minSegmentSize, boolean verify) {
+        this.uploader = new SegmentedSftpUploader(sessionPool(), streams, minSegmentSize, verify, Paths.get(UPLOAD_STATE_PATH));
+        this.uploader.setBandwidthGovernor(bandwidthGovernor);
+    }
+
+    /**
+     * Limits the bandwidth of all uploads with a governor shared with other storage managers.
+     */
+    public synchronized void setBandwidthGovernor(BandwidthGovernor bandwidthGovernor) {
+        this.bandwidthGovernor = bandwidthGovernor;
+        if (uploader != null) {
+            uploader.setBandwidthGovernor(bandwidthGovernor);
+        }
+    }
+
+    /**
+     * Throttles reading the files that are archived with a governor shared with other storage managers.
+     */
+    public void setReadGovernor(ReadGovernor readGovernor) {
+        this.readGovernor = readGovernor;
+    }
+
+    /**
+     * Streams archives to the backends as erasure-coded shards instead of full copies.
+     */
+    public void setErasureCoding(ErasureCodedStorage erasureCoding) {
+        this.erasureCoding = erasureCoding;
+    }
+
+    /**
+     * Extracts archives on this many threads when restoring; 0 uses one per CPU, 1 extracts
+     * one entry after the other.
+     */
+    public void setRestoreThreads(int restoreThreads) {
+        this.restoreThreads = restoreThreads > 0 ? restoreThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    private synchronized SegmentedSftpUploader uploader() {
+        if (uploader == null) {
+            setParallelUpload(1, Long.MAX_VALUE, false);
+        }
+        return uploader;
+    }
+
+    private synchronized SftpSessionPool sessionPool() {
+        if (sessionPool == null) {
+            sessionPool = new SftpSessionPool();
+        }
+        return sessionPool;
+    }
+
     /**
      * Compresses a list of files into a single archive, handling symbolic links.
      */
     public boolean compressFiles(List<String> filePaths, String archivePath) {
+        return compressFiles(filePaths, List::of, archivePath, null);
+    }
+
+    /**
+     * Compresses a list of files into a single archive and records the files deleted since the
+     * previous backup in it, so a restore of an incremental chain can remove them again.
+     *
+     * @param filePaths     Files to put into the archive; may be produced while the archive is written.
+     * @param deletedPaths  Files deleted since the previous backup (empty for a full backup). Only
+     *                      queried after all files were archived.
+     * @param archivePath   Path of the archive to write.
+     * @param contentHashes If not null, receives the SHA-256 (hex) of every archived file.
+     * @return true if the archive was written, false otherwise.
+     */
+    public boolean compressFiles(Iterable<String> filePaths, Supplier<List<String>> deletedPaths, String archivePath,
+                                 Map<String, String> contentHashes) {
         logger.info("Starting file compression into: {}", archivePath);
 
-        try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(archivePath))) {
-            for (String filePath : filePaths) {
-                Path path = Paths.get(filePath);
+        try (FileOutputStream out = new FileOutputStream(archivePath)) {
+            // Uncompressed archives let the kernel copy file contents straight into the archive file
+            writeArchive(filePaths, deletedPaths, contentHashes, out,
+                    compressionCodec == CompressionCodec.NONE ? out.getChannel() : null);
+            logger.info("Compression completed successfully.");
+            return true;
+        } catch (IOException e) {
+            logger.error("Error during file compression: {}", e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the tar archive of the given files, compressed by the configured codec, to a stream,
+     * followed by its {@link ArchiveIndex}. The stream is finished but not closed.
+     *
+     * @param channel The channel {@code out} writes to unbuffered if the archive is not compressed, else null.
+     */
+    private void writeArchive(Iterable<String> filePaths, Supplier<List<String>> deletedPaths, Map<String, String> contentHashes,
+                              OutputStream out, WritableByteChannel channel) throws IOException {
+        RestartableCompressionOutputStream compressed = new RestartableCompressionOutputStream(out, compressionCodec, compressionLevel);
+        TarOutputStream tarOut = new TarOutputStream(compressed, channel);
+        tarOut.setReadGovernor(readGovernor);
+        ArchiveIndex.Writer index = new ArchiveIndex.Writer(compressionCodec);
+        for (String filePath : filePaths) {
+            Path path = Paths.get(filePath);
+            String entryName = ChunkStore.relativize(filePath).toString().replace('\\', '/');
+            if (entryName.isEmpty()) {
+                continue; // The file system root itself; restores go into a directory of their own
+            }
 
-                // Handle symbolic links
-                if (Files.isSymbolicLink(path)) {
+            TarEntry entry;
+            try {
+                entry = TarEntry.forPath(path, entryName);
+            } catch (NoSuchFileException e) {
+                logger.warn("File not found: {}. Skipping.", filePath);
+                continue;
+            }
+            long offset = tarOut.getPosition();
+
+            // Handle symbolic links and directories (no data)
+            if (!entry.isFile()) {
+                if (entry.isSymbolicLink()) {
                     logger.info("Storing symbolic link: {}", filePath);
-                    ZipEntry linkEntry = new ZipEntry(filePath + "/");
-                    zipOut.putNextEntry(linkEntry);
-                    zipOut.write(Files.readSymbolicLink(path).toString().getBytes());
-                    zipOut.closeEntry();
-                    continue;
                 }
+                tarOut.putEntry(entry);
+                tarOut.closeEntry();
+                index.add(entryName, entry.getType(), offset, -1, 0, null);
+                continue;
+            }
 
-                // Handle regular files
-                File fileToCompress = path.toFile();
-                if (!fileToCompress.exists()) {
-                    logger.warn("File not found: {}. Skipping.", filePath);
-                    continue;
-                }
+            // Handle regular files; the kernel copies uncompressed archives without a checksum
+            MessageDigest digest = contentHashes != null || channel == null ? newSha256() : null;
+            tarOut.putFile(path, entry, detectSparseFiles, digest);
+            byte[] hash = digest != null ? digest.digest() : null;
+            if (contentHashes != null) {
+                contentHashes.put(filePath, HexFormat.of().formatHex(hash));
+            }
+            index.add(entryName, entry.getType(), offset, entry.isSparse() ? -1 : tarOut.getEntryDataOffset(),
+                    entry.isSparse() ? entry.getRealSize() : entry.getSize(), hash);
+        }
+
+        // Files deleted since the previous backup, one path per line
+        List<String> deleted = deletedPaths.get();
+        if (!deleted.isEmpty()) {
+            StringBuilder deletionList = new StringBuilder();
+            for (String deletedPath : deleted) {
+                deletionList.append(ChunkStore.relativize(deletedPath).toString().replace('\\', '/')).append('\n');
+            }
+            byte[] content = deletionList.toString().getBytes(StandardCharsets.UTF_8);
+            TarEntry entry = new TarEntry(DELETED_ENTRIES_NAME);
+            entry.setSize(content.length);
+            entry.setLastModified(System.currentTimeMillis());
+            long offset = tarOut.getPosition();
+            tarOut.putEntry(entry);
+            index.add(DELETED_ENTRIES_NAME, entry.getType(), offset, tarOut.getEntryDataOffset(), content.length, null);
+            tarOut.write(content);
+            tarOut.closeEntry();
+        }
+        tarOut.close(); // Ends the compressed stream, `out` stays open
 
-                try (var fileInputStream = Files.newInputStream(path)) {
-                    ZipEntry zipEntry = new ZipEntry(fileToCompress.getName());
-                    zipOut.putNextEntry(zipEntry);
+        // Without compression, file contents may have gone to the channel past `compressed`
+        long dataLength = compressionCodec == CompressionCodec.NONE ? tarOut.getPosition() : compressed.getCompressedLength();
+        index.writeFooter(out, compressed.getRestartPoints(), dataLength);
+    }
 
-                    byte[] buffer = new byte[1024];
-                    int length;
-                    while ((length = fileInputStream.read(buffer)) >= 0) {
-                        zipOut.write(buffer, 0, length);
-                    }
-                }
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Writes the archive either to the local disk or, when the remote storage is set to streaming,
+     * straight to the storage backends.
+     *
+     * @param filePaths       Files to put into the archive.
+     * @param archivePath     Local archive path (its file name is also the name in the backends).
+     * @param remoteStorage   Remote storage settings, may be null.
+     * @param storageBackends Backends archives are streamed to; none to keep them local.
+     * @return The size of the archive in bytes, as written or streamed, or -1 if it could not be stored.
+     * Whether a streamed archive is also kept at {@code archivePath} depends on {@code keepLocalCopy}.
+     */
+    public long storeArchive(List<String> filePaths, String archivePath, ConfigurationManager.Config.RemoteStorage remoteStorage,
+                             List<StorageBackend> storageBackends) {
+        return storeArchive(filePaths, List::of, archivePath, remoteStorage, storageBackends, null);
+    }
+
+    /**
+     * Same as {@link #storeArchive(List, String, ConfigurationManager.Config.RemoteStorage, List)},
+     * but also records deleted files and collects the content hashes of the archived files.
+     */
+    public long storeArchive(Iterable<String> filePaths, Supplier<List<String>> deletedPaths, String archivePath,
+                             ConfigurationManager.Config.RemoteStorage remoteStorage, List<StorageBackend> storageBackends,
+                             Map<String, String> contentHashes) {
+        if (!isStreaming(remoteStorage, storageBackends)) {
+            if (!compressFiles(filePaths, deletedPaths, archivePath, contentHashes)) {
+                return -1;
             }
-            logger.info("Compression completed successfully.");
-            return true;
+            try {
+                return Files.size(Paths.get(archivePath));
+            } catch (IOException e) {
+                logger.error("Cannot read the size of archive {}: {}", archivePath, e.getMessage(), e);
+                return -1;
+            }
+        }
+
+        String localCopy = remoteStorage.isKeepLocalCopy() ? archivePath : null;
+        return compressAndUpload(filePaths, deletedPaths, contentHashes, localCopy, storageBackends,
+                Paths.get(archivePath).getFileName().toString(), SuccessPolicy.fromName(remoteStorage.getSuccessPolicy()),
+                remoteStorage.getFanOutBufferMb() * 1024L * 1024L);
+    }
+
+    /**
+     * Whether archives are written straight to the storage backends instead of being uploaded afterwards.
+     */
+    public static boolean isStreaming(ConfigurationManager.Config.RemoteStorage remoteStorage, List<StorageBackend> storageBackends) {
+        return remoteStorage != null && remoteStorage.isStreaming() && !storageBackends.isEmpty();
+    }
+
+    /**
+     * Compresses the files and uploads the archive to all backends while it is being written,
+     * without staging it on the local disk first. A SHA-256 of the archive is computed on the
+     * way and uploaded next to it as {@code <name>.sha256}.
+     *
+     * @param filePaths  Files to put into the archive.
+     * @param localCopy  Optional local path that receives a copy of the archive, or null.
+     * @param backends   Backends the archive is written to at the same time.
+     * @param name       Name of the archive in the backends.
+     * @param policy     How many backends must receive the archive.
+     * @param bufferSize Bytes a backend may fall behind the others before compression waits for it.
+     * @return The number of bytes streamed, or -1 if the upload failed.
+     */
+    private long compressAndUpload(Iterable<String> filePaths, Supplier<List<String>> deletedPaths, Map<String, String> contentHashes,
+                                     String localCopy, List<StorageBackend> backends, String name,
+                                     SuccessPolicy policy, long bufferSize) {
+        if (erasureCoding != null) {
+            return compressAndEncode(filePaths, deletedPaths, contentHashes, localCopy, backends, name);
+        }
+        logger.info("Streaming archive {} to {} storage backends", name, backends.size());
+        FanOutOutputStream remoteOut = new FanOutOutputStream(name, backends, bufferSize);
+        TeeOutputStream out;
+        try {
+            try (OutputStream localOut = localCopy != null ? new FileOutputStream(localCopy) : OutputStream.nullOutputStream()) {
+                out = new TeeOutputStream(remoteOut, localOut);
+                writeArchive(filePaths, deletedPaths, contentHashes, out, null);
+            }
+            remoteOut.close();
+        } catch (Exception e) {
+            try {
+                remoteOut.abort();
+            } catch (IOException abortError) {
+                e.addSuppressed(abortError);
+            }
+            logger.error("Error streaming archive {}: {}", name, e.getMessage(), e);
+            return -1;
+        }
+
+        int succeeded = remoteOut.getSucceeded().size();
+        if (!policy.isSatisfied(succeeded, backends.size())) {
+            logger.error("Archive {} reached {} of {} storage backends, policy {} not met.", name, succeeded, backends.size(), policy);
+            return -1;
+        }
+        logger.info("Archive {} ({} bytes) streamed to {} of {} storage backends (sha256 {})", name, out.getCount(), succeeded,
+                backends.size(), remoteOut.getChecksum());
+        return out.getCount();
+    }
+
+    /**
+     * Like {@link #compressAndUpload}, but writes the archive as erasure-coded shards.
+     */
+    private long compressAndEncode(Iterable<String> filePaths, Supplier<List<String>> deletedPaths, Map<String, String> contentHashes,
+                                     String localCopy, List<StorageBackend> backends, String name) {
+        logger.info("Streaming archive {} as {}+{} shards to {} storage backends", name, erasureCoding.getCodec().getDataShards(),
+                erasureCoding.getCodec().getParityShards(), backends.size());
+        ErasureCodedOutputStream remoteOut = erasureCoding.open(name, backends);
+        TeeOutputStream out;
+        try {
+            try (OutputStream localOut = localCopy != null ? new FileOutputStream(localCopy) : OutputStream.nullOutputStream()) {
+                out = new TeeOutputStream(remoteOut, localOut);
+                writeArchive(filePaths, deletedPaths, contentHashes, out, null);
+            }
+            remoteOut.close();
+        } catch (Exception e) {
+            try {
+                remoteOut.abort();
+            } catch (IOException abortError) {
+                e.addSuppressed(abortError);
+            }
+            logger.error("Error streaming archive {}: {}", name, e.getMessage(), e);
+            return -1;
+        }
+
+        int stored = remoteOut.getStoredShards().size();
+        if (!erasureCoding.isStored(stored)) {
+            logger.error("Only {} of {} shards of archive {} were stored.", stored, erasureCoding.getCodec().getTotalShards(), name);
+            return -1;
+        }
+        logger.info("Archive {} ({} bytes) streamed as {} shards (sha256 {})", name, out.getCount(), stored, remoteOut.getChecksum());
+        return out.getCount();
+    }
+
+    /**
+     * Stores the files in the deduplicating chunk repository instead of a standalone archive.
+     *
+     * @param filePaths  Files to back up.
+     * @param backupName Name of the backup (manifest file name without extension).
+     * @return The path of the written manifest, or null if the backup failed.
+     */
+    public String storeDeduplicated(List<String> filePaths, String backupName) {
+        logger.info("Starting deduplicated backup '{}' into repository: {}", backupName, REPOSITORY_PATH);
+        try {
+            return new ChunkStore(Paths.get(REPOSITORY_PATH)).backup(filePaths, backupName).toString();
         } catch (IOException e) {
-            logger.error("Error during file compression: {}", e.getMessage(), e);
-            return false;
+            logger.error("Error during deduplicated backup '{}': {}", backupName, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Removes the chunks of the chunk repository that no manifest references any more, after
+     * retention deleted manifests.
+     */
+    public void pruneRepository() {
+        if (!Files.isDirectory(Paths.get(REPOSITORY_PATH))) {
+            return;
+        }
+        try {
+            new ChunkStore(Paths.get(REPOSITORY_PATH)).pruneUnreferencedChunks();
+        } catch (IOException e) {
+            logger.error("Failed to prune unreferenced chunks: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes everything to two streams and counts the bytes.
+     */
+    private static class TeeOutputStream extends OutputStream {
+        private final OutputStream first;
+        private final OutputStream second;
+        private long count;
+
+        TeeOutputStream(OutputStream first, OutputStream second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            first.write(b);
+            second.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            first.write(b, off, len);
+            second.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            first.flush();
+            second.flush();
         }
     }
 
@@ -108,33 +496,51 @@ public class StorageManager {
      * Uploads a backup file to a remote server via SFTP.
      */
     public boolean uploadToSFTP(String localFilePath, String remoteDir, String sftpHost, String sftpUser, String sftpPassword) {
-        JSch jsch = new JSch();
-        try {
-            Session session = jsch.getSession(sftpUser, sftpHost, 22);
-            session.setPassword(sftpPassword);
-            session.setConfig("StrictHostKeyChecking", "no");
-            session.connect();
+        return uploadToSFTP(localFilePath, remoteDir, sftpHost, 22, sftpUser, sftpPassword);
+    }
 
-            ChannelSftp channelSftp = (ChannelSftp) session.openChannel("sftp");
-            channelSftp.connect();
-            channelSftp.put(localFilePath, remoteDir);
-            channelSftp.disconnect();
-            session.disconnect();
+    /**
+     * Uploads a backup file to a remote server via SFTP, over a pooled session. Large files
+     * are uploaded in segments over several channels if {@link #setParallelUpload} allows it.
+     */
+    public boolean uploadToSFTP(String localFilePath, String remoteDir, String sftpHost, int sftpPort, String sftpUser, String sftpPassword) {
+        SegmentedSftpUploader uploader = uploader();
+        if (uploader.segmentsFor(new File(localFilePath).length()) > 1) {
+            return uploader.upload(Paths.get(localFilePath), remoteDir, sftpHost, sftpPort, sftpUser, sftpPassword);
+        }
+
+        SftpSessionPool.Lease lease = null;
+        try {
+            lease = sessionPool().borrow(sftpHost, sftpPort, sftpUser, sftpPassword);
+            try (InputStream in = Files.newInputStream(Paths.get(localFilePath));
+                 OutputStream out = BandwidthGovernor.wrap(bandwidthGovernor, lease.getChannel().put(remoteDir), sftpHost)) {
+                in.transferTo(out);
+            }
 
             logger.info("File uploaded to SFTP server: {}", remoteDir);
             return true;
         } catch (Exception e) {
+            if (lease != null) {
+                lease.invalidate();
+            }
             logger.error("Error uploading file to SFTP server: {}", e.getMessage(), e);
             return false;
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
         }
     }
 
     /**
      * Deletes old backup files based on retention policies.
+     *
+     * @return The files that were deleted.
      */
-    public void deleteOldBackups(List<String> backupFiles, int backupsToKeep) {
+    public List<String> deleteOldBackups(List<String> backupFiles, int backupsToKeep) {
+        List<String> deleted = new ArrayList<>();
         if (backupFiles.size() <= backupsToKeep) {
-            return; // No cleanup needed
+            return deleted; // No cleanup needed
         }
 
         backupFiles.sort(Comparator.naturalOrder());
@@ -143,11 +549,13 @@ public class StorageManager {
         for (String file : filesToDelete) {
             try {
                 Files.delete(Paths.get(file));
+                deleted.add(file);
                 logger.info("Deleted old backup file: {}", file);
             } catch (IOException e) {
                 logger.error("Failed to delete old backup file: {}", file, e);
             }
         }
+        return deleted;
     }
 
     /**
@@ -166,59 +574,6 @@ public class StorageManager {
         }
     }
 
-    private static final int MAX_RETRIES = 3;
-
-    /**
-     * Uploads a backup file to a remote server using SFTP.
-     * This method includes a retry mechanism to handle transient errors.
-     */
-    public boolean uploadToRemote(String localFilePath, String remoteDir, String host, int port, String username, String password) {
-        int retries = 0;
-
-        while (retries < MAX_RETRIES) {
-            try {
-                JSch jsch = new JSch();
-                Session session = jsch.getSession(username, host, port);
-                session.setPassword(password);
-
-                // Avoid prompting for key confirmation
-                java.util.Properties config = new java.util.Properties();
-                config.put("StrictHostKeyChecking", "no");
-                session.setConfig(config);
-                session.connect();
-
-                Channel channel = session.openChannel("sftp");
-                channel.connect();
-
-                ChannelSftp sftpChannel = (ChannelSftp) channel;
-                sftpChannel.cd(remoteDir);
-
-                File localFile = new File(localFilePath);
-                try (FileInputStream fis = new FileInputStream(localFile)) {
-                    sftpChannel.put(fis, localFile.getName());
-                }
-
-                sftpChannel.exit();
-                session.disconnect();
-
-                System.out.println("File uploaded successfully to " + remoteDir);
-                return true;
-            } catch (SftpException e) {
-                System.out.println("SFTP error: " + e.getMessage());
-            } catch (JSchException e) {
-                System.out.println("SSH connection error: " + e.getMessage());
-            } catch (Exception e) {
-                System.out.println("Unexpected error: " + e.getMessage());
-            }
-
-            retries++;
-            System.out.println("Retrying upload... Attempt " + (retries + 1));
-        }
-
-        System.out.println("Error: File upload failed after " + MAX_RETRIES + " attempts.");
-        return false;
-    }
-
     /**
      * Restores a backup file by extracting it and optionally performing post-restore actions.
      *
@@ -235,7 +590,10 @@ public class StorageManager {
         }
 
         // Step 2: Define the extraction directory
-        Path extractionDir = Path.of("restored_backups", backupPath.getFileName().toString().replace(".tar.gz", ""));
+        String fileName = backupPath.getFileName().toString();
+        boolean deduplicated = fileName.endsWith(ChunkStore.MANIFEST_EXTENSION);
+        String extension = deduplicated ? ChunkStore.MANIFEST_EXTENSION : CompressionCodec.archiveExtensionOf(fileName);
+        Path extractionDir = Path.of("restored_backups", extension != null ? fileName.substring(0, fileName.length() - extension.length()) : fileName);
         try {
             Files.createDirectories(extractionDir);
         } catch (IOException e) {
@@ -243,8 +601,15 @@ public class StorageManager {
             return false;
         }
 
-        // Step 3: Extract the backup file
-        if (!extractBackupFile(backupPath, extractionDir)) {
+        // Step 3: Extract the backup file (or rebuild it from the chunk repository)
+        if (deduplicated) {
+            try {
+                new ChunkStore(backupPath.getParent().getParent()).restore(backupPath, extractionDir);
+            } catch (IOException e) {
+                logger.error("Failed to rebuild backup from chunks '{}': {}", backupPath, e.getMessage(), e);
+                return false;
+            }
+        } else if (!extractBackupFile(backupPath, extractionDir)) {
             logger.error("Failed to extract backup file: {}", backupPath);
             return false;
         }
@@ -254,26 +619,130 @@ public class StorageManager {
     }
 
     /**
-     * Extracts a `.tar.gz` or `.zip` backup file to the specified directory.
+     * Restores an incremental chain: the full backup followed by its incrementals, oldest first.
+     * Later archives overwrite files of earlier ones and remove the files recorded as deleted,
+     * so the result is the state at the time of the last archive of the chain. Archives in a
+     * storage backend are streamed from it, without a local copy.
+     *
+     * @param chain         Archives of the chain, starting with the full backup.
+     * @param extractionDir Directory receiving the restored files.
+     * @return true if every archive of the chain was restored, false otherwise.
+     */
+    public boolean restoreBackupChain(List<ArchiveSource> chain, Path extractionDir) {
+        logger.info("Restoring backup chain of {} archives into: {}", chain.size(), extractionDir);
+        long start = System.nanoTime();
+        ArchiveExtractor extractor;
+        try {
+            extractor = new ArchiveExtractor(extractionDir); // Creates the directory
+        } catch (IOException e) {
+            logger.error("Failed to create extraction directory '{}': {}", extractionDir, e.getMessage(), e);
+            return false;
+        }
+        extractor.setThreads(restoreThreads);
+        for (ArchiveSource archive : chain) {
+            try {
+                extractor.extract(archive);
+            } catch (IOException e) {
+                logger.error("Failed to extract backup file '{}': {}", archive.getName(), e.getMessage(), e);
+                return false;
+            }
+        }
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        logger.info("Backup chain restored successfully to: {} ({} files, {} MB in {} s: {} MB/s)", extractionDir,
+                extractor.getFilesExtracted(), extractor.getBytesExtracted() / (1024 * 1024), String.format("%.1f", seconds),
+                String.format("%.1f", extractor.getBytesExtracted() / seconds / (1024 * 1024)));
+        return true;
+    }
+
+    /**
+     * Restores single files or directories from a backup, or from an incremental chain (oldest
+     * archive first, like {@link #restoreBackupChain}). Only the entries at or below the paths
+     * are read, through the index of each archive; the archives may be local or in a storage
+     * backend, which is then read with ranged reads.
+     *
+     * @param paths         Files or directories to restore, as source paths or relative like the entry names.
+     * @param extractionDir Directory receiving the restored files.
+     * @return true if every archive was read and at least one entry was restored, false otherwise.
+     */
+    public boolean restorePaths(List<ArchiveSource> chain, List<String> paths, Path extractionDir) {
+        List<String> entryPaths = paths.stream()
+                .map(path -> ChunkStore.relativize(path).toString().replace('\\', '/'))
+                .collect(Collectors.toList());
+        logger.info("Restoring {} from {} archives into: {}", entryPaths, chain.size(), extractionDir);
+
+        int extracted = 0;
+        try {
+            ArchiveExtractor extractor = new ArchiveExtractor(extractionDir);
+            for (ArchiveSource archive : chain) {
+                int count = extractor.extract(archive, entryPaths);
+                logger.info("Restored {} entries from {}", count, archive.getName());
+                extracted += count;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to restore {}: {}", entryPaths, e.getMessage(), e);
+            return false;
+        }
+        if (extracted == 0) {
+            logger.error("Nothing matching {} found in the backup.", entryPaths);
+            return false;
+        }
+        logger.info("Restored {} entries successfully to: {}", extracted, extractionDir);
+        return true;
+    }
+
+    /**
+     * Writes a synthetic full backup: a full backup and its incrementals merged into one
+     * archive on this host (see {@link ArchiveMerger}), without reading the backed-up systems.
+     * The archive is written next to its final path and renamed when it is complete, so a
+     * failed merge never leaves a partial full backup behind.
+     *
+     * @param chain       The full backup first, then its incremental backups, oldest first.
+     * @param codec       Codec of the merged archive.
+     * @param level       Compression level, {@link CompressionCodec#DEFAULT_LEVEL} for the codec's default.
+     * @param archivePath Path of the archive to write.
+     * @return true if the archive was written, false otherwise.
+     */
+    public boolean mergeArchives(List<ArchiveSource> chain, CompressionCodec codec, int level, String archivePath) {
+        logger.info("Merging a chain of {} archives into: {}", chain.size(), archivePath);
+        long start = System.nanoTime();
+        Path target = Paths.get(archivePath);
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        ArchiveMerger merger = new ArchiveMerger(codec, level);
+        try {
+            try (OutputStream out = new FileOutputStream(partial.toFile())) {
+                merger.merge(chain, out);
+            }
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Failed to merge the chain into '{}': {}", archivePath, e.getMessage(), e);
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException deleteError) {
+                logger.warn("Failed to delete the partial archive '{}': {}", partial, deleteError.getMessage());
+            }
+            return false;
+        }
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        logger.info("Chain merged into {} ({} entries, {} MB of content in {} s: {} MB/s)", archivePath, merger.getEntriesWritten(),
+                merger.getBytesWritten() / (1024 * 1024), String.format("%.1f", seconds),
+                String.format("%.1f", merger.getBytesWritten() / seconds / (1024 * 1024)));
+        return true;
+    }
+
+    /**
+     * Extracts a tar backup file of any codec (or a `.zip` one of an earlier version) to the specified directory.
      *
      * @param backupPath     The path to the backup file.
      * @param extractionDir  The directory where the backup should be extracted.
      * @return true if extraction was successful, false otherwise.
      */
-    private boolean extractBackupFile(Path backupPath, Path extractionDir) {
+    public boolean extractBackupFile(Path backupPath, Path extractionDir) {
         logger.info("Extracting backup file: {}", backupPath);
 
-        try (ZipInputStream zipIn = new ZipInputStream(Files.newInputStream(backupPath))) {
-            ZipEntry entry;
-            while ((entry = zipIn.getNextEntry()) != null) {
-                Path filePath = extractionDir.resolve(entry.getName());
-                if (entry.isDirectory()) {
-                    Files.createDirectories(filePath);
-                } else {
-                    Files.copy(zipIn, filePath, StandardCopyOption.REPLACE_EXISTING);
-                }
-                zipIn.closeEntry();
-            }
+        try {
+            ArchiveExtractor extractor = new ArchiveExtractor(extractionDir);
+            extractor.setThreads(restoreThreads);
+            extractor.extract(backupPath);
             logger.info("Extraction completed successfully.");
             return true;
         } catch (IOException e) {
@@ -281,6 +750,4 @@ public class StorageManager {
             return false;
         }
     }
-
-
 }
@@ -0,0 +1,51 @@
+package uniba.system_package.storage;
+
+import java.util.Locale;
+
+/**
+ * How many of the destinations of a fan-out upload must have received a backup for it to
+ * count as stored.
+ */
+public enum SuccessPolicy {
+    /**
+     * Every destination.
+     */
+    ALL {
+        @Override
+        public boolean isSatisfied(int succeeded, int destinations) {
+            return succeeded == destinations;
+        }
+    },
+
+    /**
+     * More than half of the destinations.
+     */
+    QUORUM {
+        @Override
+        public boolean isSatisfied(int succeeded, int destinations) {
+            return succeeded > destinations / 2;
+        }
+    },
+
+    /**
+     * At least one destination.
+     */
+    ANY {
+        @Override
+        public boolean isSatisfied(int succeeded, int destinations) {
+            return succeeded > 0;
+        }
+    };
+
+    public abstract boolean isSatisfied(int succeeded, int destinations);
+
+    /**
+     * The policy of the given name (case-insensitive); null means {@link #ALL}.
+     */
+    public static SuccessPolicy fromName(String name) {
+        if (name == null) {
+            return ALL;
+        }
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,228 @@
+package uniba.system_package.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One member of a tar archive: its header fields plus, for sparse files, the map of the
+ * regions that hold data.
+ */
+public class TarEntry {
+    public static final char TYPE_FILE = '0';
+    public static final char TYPE_HARD_LINK = '1';
+    public static final char TYPE_SYMBOLIC_LINK = '2';
+    public static final char TYPE_DIRECTORY = '5';
+
+    private String name;
+    private char type = TYPE_FILE;
+    private int mode = 0644;
+    private long uid;
+    private long gid;
+    private String userName = "";
+    private String groupName = "";
+    private long size;
+    private long lastModified; // Milliseconds since the epoch
+    private String linkName = "";
+    private List<long[]> sparseMap; // {offset, length} of every data region, null for regular files
+    private long realSize = -1;
+
+    private static final Map<Long, String> USER_NAMES = new ConcurrentHashMap<>();
+    private static final Map<Long, String> GROUP_NAMES = new ConcurrentHashMap<>();
+    private static volatile boolean unixAttributesSupported = true;
+
+    public TarEntry(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates an entry describing a file, directory or symbolic link (which is not followed).
+     * Unix permissions and ownership are used where the file system provides them.
+     *
+     * @param path      The file.
+     * @param entryName The name inside the archive.
+     */
+    public static TarEntry forPath(Path path, String entryName) throws IOException {
+        TarEntry entry = new TarEntry(entryName);
+        boolean directory;
+        boolean symbolicLink;
+        if (unixAttributesSupported) {
+            Map<String, Object> unix;
+            try {
+                unix = Files.readAttributes(path, "unix:mode,uid,gid,size,lastModifiedTime,isDirectory,isSymbolicLink",
+                        LinkOption.NOFOLLOW_LINKS);
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                unixAttributesSupported = false;
+                return forPath(path, entryName);
+            }
+            entry.mode = (Integer) unix.get("mode") & 07777;
+            entry.uid = (Integer) unix.get("uid");
+            entry.gid = (Integer) unix.get("gid");
+            entry.userName = USER_NAMES.computeIfAbsent(entry.uid, uid -> principalName(path, "posix:owner"));
+            entry.groupName = GROUP_NAMES.computeIfAbsent(entry.gid, gid -> principalName(path, "posix:group"));
+            entry.lastModified = ((FileTime) unix.get("lastModifiedTime")).toMillis();
+            entry.size = (Long) unix.get("size");
+            directory = (Boolean) unix.get("isDirectory");
+            symbolicLink = (Boolean) unix.get("isSymbolicLink");
+        } else {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            entry.mode = attributes.isDirectory() ? 0755 : 0644; // No Unix permissions on this file system
+            entry.lastModified = attributes.lastModifiedTime().toMillis();
+            entry.size = attributes.size();
+            directory = attributes.isDirectory();
+            symbolicLink = attributes.isSymbolicLink();
+        }
+
+        if (symbolicLink) {
+            entry.type = TYPE_SYMBOLIC_LINK;
+            entry.linkName = Files.readSymbolicLink(path).toString();
+            entry.size = 0;
+        } else if (directory) {
+            entry.type = TYPE_DIRECTORY;
+            entry.size = 0;
+        }
+        return entry;
+    }
+
+    // User and group names are looked up once per id, not once per file
+    private static String principalName(Path path, String attribute) {
+        try {
+            return ((Principal) Files.getAttribute(path, attribute, LinkOption.NOFOLLOW_LINKS)).getName();
+        } catch (IOException | RuntimeException e) {
+            return "";
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public char getType() {
+        return type;
+    }
+
+    public void setType(char type) {
+        this.type = type;
+    }
+
+    public boolean isFile() {
+        return type == TYPE_FILE;
+    }
+
+    public boolean isDirectory() {
+        return type == TYPE_DIRECTORY;
+    }
+
+    public boolean isSymbolicLink() {
+        return type == TYPE_SYMBOLIC_LINK;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public void setMode(int mode) {
+        this.mode = mode;
+    }
+
+    public long getUid() {
+        return uid;
+    }
+
+    public void setUid(long uid) {
+        this.uid = uid;
+    }
+
+    public long getGid() {
+        return gid;
+    }
+
+    public void setGid(long gid) {
+        this.gid = gid;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public void setUserName(String userName) {
+        this.userName = userName;
+    }
+
+    public String getGroupName() {
+        return groupName;
+    }
+
+    public void setGroupName(String groupName) {
+        this.groupName = groupName;
+    }
+
+    /**
+     * Number of data bytes stored in the archive (for a sparse file: without the holes).
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public FileTime getLastModifiedTime() {
+        return FileTime.fromMillis(lastModified);
+    }
+
+    public String getLinkName() {
+        return linkName;
+    }
+
+    public void setLinkName(String linkName) {
+        this.linkName = linkName;
+    }
+
+    public boolean isSparse() {
+        return sparseMap != null;
+    }
+
+    public List<long[]> getSparseMap() {
+        return sparseMap;
+    }
+
+    /**
+     * Marks the entry as sparse.
+     *
+     * @param sparseMap {offset, length} of every data region, in file order.
+     * @param realSize  Size of the file including holes.
+     */
+    public void setSparse(List<long[]> sparseMap, long realSize) {
+        this.sparseMap = new ArrayList<>(sparseMap);
+        this.realSize = realSize;
+    }
+
+    /**
+     * Size of the file once extracted, including holes.
+     */
+    public long getRealSize() {
+        return realSize >= 0 ? realSize : size;
+    }
+}
@@ -0,0 +1,367 @@
+package uniba.system_package.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a tar archive entry by entry. Understands ustar, pax extended headers, GNU long
+ * names and GNU sparse files (old GNU format and pax format 1.0); reading after
+ * {@link #getNextEntry()} returns the data of that entry.
+ */
+public class TarInputStream extends InputStream {
+    private static final int BLOCK_SIZE = TarOutputStream.BLOCK_SIZE;
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private long entryRemaining;
+    private long entryPadding;
+
+    public TarInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Skips the rest of the current entry and reads the header of the next one.
+     *
+     * @return The next entry, or null at the end of the archive.
+     */
+    public TarEntry getNextEntry() throws IOException {
+        Map<String, String> pax = new HashMap<>();
+        String longName = null;
+        String longLinkName = null;
+        while (true) {
+            skipCurrentEntry();
+            if (in.readNBytes(header, 0, BLOCK_SIZE) < BLOCK_SIZE || isZeroBlock(header)) {
+                return null;
+            }
+            verifyChecksum(header);
+
+            char type = (char) header[156];
+            long size = parseNumber(header, 124, 12);
+            startEntry(size);
+            switch (type) {
+                case 'x':
+                    parsePaxRecords(readEntryData(), pax);
+                    continue;
+                case 'g':
+                    continue; // Global pax headers only carry defaults we do not need
+                case 'L':
+                    longName = parseString(readEntryData());
+                    continue;
+                case 'K':
+                    longLinkName = parseString(readEntryData());
+                    continue;
+                default:
+                    break;
+            }
+
+            TarEntry entry = new TarEntry(longName != null ? longName : headerName(header));
+            entry.setType(type == 0 || type == '7' || type == 'S' ? TarEntry.TYPE_FILE : type);
+            entry.setMode((int) parseNumber(header, 100, 8));
+            entry.setUid(parseNumber(header, 108, 8));
+            entry.setGid(parseNumber(header, 116, 8));
+            entry.setSize(size);
+            entry.setLastModified(parseNumber(header, 136, 12) * 1000L);
+            entry.setLinkName(longLinkName != null ? longLinkName : parseString(header, 157, 100));
+            entry.setUserName(parseString(header, 265, 32));
+            entry.setGroupName(parseString(header, 297, 32));
+            applyPax(entry, pax);
+            if (entry.getSize() != size) {
+                startEntry(entry.getSize()); // Size too large for the header, taken from the pax record
+            }
+            if (entry.getName().endsWith("/") && entry.isFile()) {
+                entry.setType(TarEntry.TYPE_DIRECTORY); // Old archives mark directories by the name only
+            }
+            if (type == 'S') {
+                readOldGnuSparseMap(entry);
+            } else if (pax.containsKey("GNU.sparse.major")) {
+                readSparseMap(entry, pax);
+            }
+            if (!entry.isFile()) {
+                skipCurrentEntry(); // Links and directories carry no data
+            }
+            return entry;
+        }
+    }
+
+    private void startEntry(long size) {
+        entryRemaining = size;
+        entryPadding = Math.floorMod(-size, (long) BLOCK_SIZE);
+    }
+
+    private void skipCurrentEntry() throws IOException {
+        long toSkip = entryRemaining + entryPadding;
+        entryRemaining = 0;
+        entryPadding = 0;
+        while (toSkip > 0) {
+            long skipped = in.skip(toSkip);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected end of tar archive");
+                }
+                skipped = 1;
+            }
+            toSkip -= skipped;
+        }
+    }
+
+    private byte[] readEntryData() throws IOException {
+        if (entryRemaining > Integer.MAX_VALUE - BLOCK_SIZE) {
+            throw new IOException("Extended header too large: " + entryRemaining);
+        }
+        byte[] data = readNBytes((int) entryRemaining);
+        if (data.length < entryRemaining) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        return data;
+    }
+
+    private static void applyPax(TarEntry entry, Map<String, String> pax) throws IOException {
+        try {
+            if (pax.containsKey("path")) {
+                entry.setName(pax.get("path"));
+            }
+            if (pax.containsKey("linkpath")) {
+                entry.setLinkName(pax.get("linkpath"));
+            }
+            if (pax.containsKey("size")) {
+                entry.setSize(Long.parseLong(pax.get("size")));
+            }
+            if (pax.containsKey("uid")) {
+                entry.setUid(Long.parseLong(pax.get("uid")));
+            }
+            if (pax.containsKey("gid")) {
+                entry.setGid(Long.parseLong(pax.get("gid")));
+            }
+            if (pax.containsKey("uname")) {
+                entry.setUserName(pax.get("uname"));
+            }
+            if (pax.containsKey("gname")) {
+                entry.setGroupName(pax.get("gname"));
+            }
+            if (pax.containsKey("mtime")) {
+                entry.setLastModified(Math.round(Double.parseDouble(pax.get("mtime")) * 1000));
+            }
+            if (pax.containsKey("GNU.sparse.name")) {
+                entry.setName(pax.get("GNU.sparse.name"));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid pax header: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the map of a GNU sparse file (format 1.0) from the start of its data. The map
+     * is padded to a full block; the remaining data are the regions, one after the other.
+     */
+    private void readSparseMap(TarEntry entry, Map<String, String> pax) throws IOException {
+        if (!"1".equals(pax.get("GNU.sparse.major")) || !"0".equals(pax.get("GNU.sparse.minor"))) {
+            throw new IOException("Unsupported sparse format " + pax.get("GNU.sparse.major") + "."
+                    + pax.get("GNU.sparse.minor") + " for " + entry.getName());
+        }
+        long dataSize = entryRemaining;
+        long[] consumed = {0};
+        long count = readDecimal(consumed);
+        List<long[]> regions = new ArrayList<>();
+        for (long i = 0; i < count; i++) {
+            regions.add(new long[]{readDecimal(consumed), readDecimal(consumed)});
+        }
+        long padding = Math.floorMod(-consumed[0], (long) BLOCK_SIZE);
+        if (discard(padding) < padding) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        entry.setSparse(regions, Long.parseLong(pax.getOrDefault("GNU.sparse.realsize", "0")));
+        entry.setSize(dataSize - consumed[0] - padding);
+    }
+
+    /**
+     * Reads the map of an old GNU sparse file: four regions in the header, more in extension
+     * blocks of 21 regions that follow the header.
+     */
+    private void readOldGnuSparseMap(TarEntry entry) throws IOException {
+        List<long[]> regions = new ArrayList<>();
+        addSparseRegions(header, 386, 4, regions);
+        boolean extended = header[482] != 0;
+        long realSize = parseNumber(header, 483, 12);
+        byte[] extension = new byte[BLOCK_SIZE];
+        while (extended) {
+            if (in.readNBytes(extension, 0, BLOCK_SIZE) < BLOCK_SIZE) {
+                throw new EOFException("Unexpected end of tar archive");
+            }
+            addSparseRegions(extension, 0, 21, regions);
+            extended = extension[504] != 0;
+        }
+        entry.setSparse(regions, realSize);
+    }
+
+    private static void addSparseRegions(byte[] block, int offset, int count, List<long[]> regions) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int position = offset + i * 24;
+            if (block[position] == 0) {
+                return;
+            }
+            regions.add(new long[]{parseNumber(block, position, 12), parseNumber(block, position + 12, 12)});
+        }
+    }
+
+    private long readDecimal(long[] consumed) throws IOException {
+        long value = 0;
+        int b;
+        while ((b = read()) != '\n') {
+            if (b < '0' || b > '9') {
+                throw new IOException("Invalid sparse map");
+            }
+            value = value * 10 + (b - '0');
+            consumed[0]++;
+        }
+        consumed[0]++;
+        return value;
+    }
+
+    private long discard(long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count && read() >= 0) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (entryRemaining <= 0) {
+            return -1;
+        }
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        entryRemaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (entryRemaining <= 0) {
+            return -1;
+        }
+        int read = in.read(b, off, (int) Math.min(len, entryRemaining));
+        if (read < 0) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        entryRemaining -= read;
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), entryRemaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static void parsePaxRecords(byte[] data, Map<String, String> pax) throws IOException {
+        int position = 0;
+        while (position < data.length) {
+            int space = position;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, position, space - position, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid pax record", e);
+            }
+            if (length <= 0 || position + length > data.length) {
+                throw new IOException("Invalid pax record length: " + length);
+            }
+            String record = new String(data, space + 1, position + length - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                pax.put(record.substring(0, equals), record.substring(equals + 1));
+            }
+            position += length;
+        }
+    }
+
+    private static String headerName(byte[] header) {
+        String name = parseString(header, 0, 100);
+        boolean ustar = header[257] == 'u' && header[262] == 0; // POSIX ustar, not the old GNU format
+        String prefix = ustar ? parseString(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String parseString(byte[] data) {
+        return parseString(data, 0, data.length);
+    }
+
+    private static String parseString(byte[] data, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && data[end] != 0) {
+            end++;
+        }
+        return new String(data, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses an octal field, or a base-256 field (GNU extension, high bit set) for large values.
+     */
+    private static long parseNumber(byte[] data, int offset, int length) throws IOException {
+        if ((data[offset] & 0x80) != 0) {
+            long value = data[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (data[i] & 0xff);
+            }
+            return value;
+        }
+        long value = 0;
+        boolean digits = false;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = data[i];
+            if (b == 0 || (b == ' ' && digits)) {
+                break;
+            }
+            if (b == ' ') {
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Invalid number in tar header");
+            }
+            value = (value << 3) + (b - '0');
+            digits = true;
+        }
+        return value;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void verifyChecksum(byte[] header) throws IOException {
+        long stored = parseNumber(header, 148, 8);
+        long unsigned = 0;
+        long signed = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            byte b = (i >= 148 && i < 156) ? (byte) ' ' : header[i];
+            unsigned += b & 0xff;
+            signed += b;
+        }
+        if (stored != unsigned && stored != signed) {
+            throw new IOException("Not a tar archive or corrupted header (checksum mismatch)");
+        }
+    }
+}
@@ -0,0 +1,579 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a POSIX (pax) tar archive to a stream.
+ * <p>
+ * Plain ustar headers are used where the values fit; long names, large sizes and ids and
+ * non-ASCII names are stored in pax extended headers. Sparse files are written in the
+ * GNU pax format 1.0, which GNU tar and bsdtar extract with their holes.
+ * <p>
+ * File contents are read through a {@link FileChannel}: into a direct buffer, from a memory
+ * mapping for large files, or, when the archive is written uncompressed to a file, copied by
+ * the kernel with {@link FileChannel#transferTo} without passing through the Java heap.
+ * With a {@link ReadGovernor} that throttles reads, files are always read into the buffer,
+ * so every read can be timed and delayed.
+ */
+public class TarOutputStream extends OutputStream {
+    private static final Logger logger = LogManager.getLogger(TarOutputStream.class);
+
+    static final int BLOCK_SIZE = 512;
+    private static final int RECORD_SIZE = 20 * BLOCK_SIZE;
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    // Files at least this large are read from a memory mapping instead of with read calls
+    static final long MMAP_MIN_SIZE = 64L * 1024 * 1024;
+    // Size of the part of a file mapped at once, keeps the address space used bounded
+    private static final long MMAP_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    // Files smaller than this are never checked for holes
+    private static final long SPARSE_MIN_SIZE = 1024 * 1024;
+    // Granularity of hole detection, the block size of common file systems
+    private static final int SPARSE_BLOCK_SIZE = 4096;
+
+    private final OutputStream out;
+    private final WritableByteChannel channel; // Where `out` ends up unchanged, or null
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private ByteBuffer directBuffer; // Allocated on first use, like heapBuffer
+    private byte[] heapBuffer;
+    private long bytesWritten;
+    private ReadGovernor readGovernor; // Null: files are read as fast as possible
+
+    private long entryDataOffset; // Where the data of the current entry starts
+    private long entryRemaining; // Data bytes the current entry still expects
+    private long entryLength;    // Data bytes of the current entry, for padding
+    private boolean entryOpen;
+    private boolean finished;
+
+    public TarOutputStream(OutputStream out) {
+        this(out, null);
+    }
+
+    /**
+     * @param out     The stream the archive is written to.
+     * @param channel The channel that {@code out} writes to without buffering or changing the
+     *                data (e.g. the channel of a {@link java.io.FileOutputStream} when the archive
+     *                is not compressed), or null. File contents are then written to it directly.
+     */
+    public TarOutputStream(OutputStream out, WritableByteChannel channel) {
+        this.out = out;
+        this.channel = channel;
+    }
+
+    /**
+     * Bytes of the archive written so far, i.e. the offset the next entry starts at.
+     */
+    public long getPosition() {
+        return bytesWritten;
+    }
+
+    /**
+     * Offset in the archive the data of the last entry started at, right after its headers
+     * (for sparse entries, where the sparse map starts).
+     */
+    public long getEntryDataOffset() {
+        return entryDataOffset;
+    }
+
+    /**
+     * Throttles reading the files written with {@link #putFile}.
+     */
+    public void setReadGovernor(ReadGovernor readGovernor) {
+        this.readGovernor = readGovernor;
+    }
+
+    /**
+     * Starts a new entry, closing the previous one. Its data (getSize() bytes) must be written
+     * next. For sparse entries the data is the content of the data regions, one after the other.
+     */
+    public void putEntry(TarEntry entry) throws IOException {
+        closeEntry();
+
+        Map<String, String> pax = new LinkedHashMap<>();
+        String name = entry.isDirectory() && !entry.getName().endsWith("/") ? entry.getName() + "/" : entry.getName();
+        byte[] sparseMap = null;
+        long size = entry.getSize();
+        if (entry.isSparse()) {
+            pax.put("GNU.sparse.major", "1");
+            pax.put("GNU.sparse.minor", "0");
+            pax.put("GNU.sparse.name", name);
+            pax.put("GNU.sparse.realsize", Long.toString(entry.getRealSize()));
+            sparseMap = sparseMapBlock(entry.getSparseMap());
+            size += sparseMap.length;
+            name = sparseHeaderName(name);
+        }
+
+        byte[] header = new byte[BLOCK_SIZE];
+        putName(header, name, pax);
+        putNumber(header, 100, 8, entry.getMode(), "mode", pax);
+        putNumber(header, 108, 8, entry.getUid(), "uid", pax);
+        putNumber(header, 116, 8, entry.getGid(), "gid", pax);
+        putNumber(header, 124, 12, size, "size", pax);
+        putNumber(header, 136, 12, Math.floorDiv(entry.getLastModified(), 1000L), "mtime", pax);
+        header[156] = (byte) entry.getType();
+        putString(header, 157, 100, entry.getLinkName(), "linkpath", pax);
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        putString(header, 265, 32, entry.getUserName(), "uname", pax);
+        putString(header, 297, 32, entry.getGroupName(), "gname", pax);
+
+        if (!pax.isEmpty()) {
+            writePaxHeader(name, entry.getLastModified(), pax);
+        }
+        writeChecksum(header);
+        writeBlocks(header, header.length);
+
+        entryDataOffset = bytesWritten;
+        entryLength = size;
+        entryRemaining = size;
+        entryOpen = true;
+        if (sparseMap != null) {
+            write(sparseMap, 0, sparseMap.length);
+        }
+    }
+
+    /**
+     * Writes a regular file as one entry, detecting holes if requested. The entry must have
+     * been created by {@link TarEntry#forPath}. If the file shrinks while it is read, the
+     * missing bytes are written as zeros; if it grows, the additional bytes are left out.
+     *
+     * @param detectSparse Store runs of zero blocks of large files as holes (reads such files twice).
+     * @param digest       Receives the content of the file, may be null.
+     */
+    public void putFile(Path path, TarEntry entry, boolean detectSparse, MessageDigest digest) throws IOException {
+        ReadGovernor.Device device = readGovernor != null ? readGovernor.device(path) : null;
+        if (detectSparse && entry.getSize() >= SPARSE_MIN_SIZE) {
+            List<long[]> regions = findDataRegions(path, entry.getSize(), digest, device);
+            long dataSize = regions.stream().mapToLong(region -> region[1]).sum();
+            if (dataSize < entry.getSize()) {
+                long realSize = entry.getSize();
+                entry.setSparse(regions, realSize);
+                entry.setSize(dataSize);
+                putEntry(entry);
+                try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                    for (long[] region : regions) {
+                        copy(file, region[0], region[1], null, device);
+                    }
+                }
+                closeEntry();
+                return;
+            }
+            digest = null; // Already computed while looking for holes
+        }
+
+        putEntry(entry);
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            copy(file, 0, entry.getSize(), digest, device);
+        }
+        closeEntry();
+    }
+
+    /**
+     * Writes {@code length} bytes of a file, starting at {@code position}, as entry data.
+     * Bytes missing because the file shrank are written as zeros.
+     *
+     * @param device Device the reads are timed and throttled on, or null.
+     */
+    private void copy(FileChannel file, long position, long length, MessageDigest digest, ReadGovernor.Device device) throws IOException {
+        if (length > entryRemaining) {
+            throw new IOException("Entry data exceeds the size in its header");
+        }
+        long copied = 0;
+        if (device != null) {
+            copied = copyBuffered(file, position, length, digest, device);
+        } else {
+            if (channel != null && digest == null) {
+                copied = transfer(file, position, length);
+            } else if (length >= MMAP_MIN_SIZE) {
+                copied = copyMapped(file, position, length, digest);
+            }
+            copied += copyBuffered(file, position + copied, length - copied, digest, null);
+        }
+
+        long missing = length - copied;
+        if (missing > 0) {
+            logger.warn("File shrank while it was archived; padding {} bytes with zeros.", missing);
+            byte[] zeros = heapBuffer();
+            Arrays.fill(zeros, (byte) 0);
+            while (missing > 0) {
+                int count = (int) Math.min(zeros.length, missing);
+                write(zeros, 0, count);
+                missing -= count;
+            }
+        }
+    }
+
+    /**
+     * Lets the kernel copy the file into the archive (copy_file_range or sendfile on Linux).
+     */
+    private long transfer(FileChannel file, long position, long length) throws IOException {
+        out.flush();
+        long copied = 0;
+        while (copied < length) {
+            long count = file.transferTo(position + copied, length - copied, channel);
+            if (count <= 0) {
+                break; // End of file
+            }
+            copied += count;
+            dataWritten(count);
+        }
+        return copied;
+    }
+
+    /**
+     * Reads the file from memory mappings of {@link #MMAP_WINDOW_SIZE}. Stops early at the end
+     * of the file, or if the file is truncated while it is mapped.
+     */
+    private long copyMapped(FileChannel file, long position, long length, MessageDigest digest) throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            long size = Math.min(MMAP_WINDOW_SIZE, Math.min(length - copied, file.size() - position - copied));
+            if (size <= 0) {
+                break;
+            }
+            MappedByteBuffer mapped = file.map(FileChannel.MapMode.READ_ONLY, position + copied, size);
+            try {
+                writeData(mapped, digest);
+            } catch (InternalError e) {
+                // Pages beyond the new end of a truncated file cannot be read (SIGBUS)
+                return copied + mapped.position();
+            }
+            copied += size;
+        }
+        return copied;
+    }
+
+    private long copyBuffered(FileChannel file, long position, long length, MessageDigest digest, ReadGovernor.Device device) throws IOException {
+        if (directBuffer == null) {
+            directBuffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+        }
+        long copied = 0;
+        while (copied < length) {
+            directBuffer.clear().limit((int) Math.min(directBuffer.capacity(), length - copied));
+            int read = ReadGovernor.read(device, file, directBuffer, position + copied);
+            if (read < 0) {
+                break;
+            }
+            directBuffer.flip();
+            writeData(directBuffer, digest);
+            copied += read;
+        }
+        return copied;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer as entry data, to the channel if there is one.
+     * The position of the buffer only advances past bytes that were written.
+     */
+    private void writeData(ByteBuffer data, MessageDigest digest) throws IOException {
+        if (channel != null) {
+            out.flush();
+        }
+        while (data.hasRemaining()) {
+            int count = Math.min(data.remaining(), COPY_BUFFER_SIZE);
+            if (channel != null) {
+                ByteBuffer chunk = data.slice().limit(count);
+                if (digest != null) {
+                    digest.update(chunk.duplicate());
+                }
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+                dataWritten(count);
+            } else {
+                byte[] buffer = heapBuffer();
+                data.slice().get(buffer, 0, count);
+                if (digest != null) {
+                    digest.update(buffer, 0, count);
+                }
+                write(buffer, 0, count);
+            }
+            data.position(data.position() + count);
+        }
+    }
+
+    private byte[] heapBuffer() {
+        if (heapBuffer == null) {
+            heapBuffer = new byte[COPY_BUFFER_SIZE];
+        }
+        return heapBuffer;
+    }
+
+    // Accounts for entry data written to the channel, past `out`
+    private void dataWritten(long count) {
+        entryRemaining -= count;
+        bytesWritten += count;
+    }
+
+    /**
+     * Reads the file once and returns the regions that are not all zeros, in blocks of
+     * {@link #SPARSE_BLOCK_SIZE}. A file ending in a hole gets a final empty region at its
+     * end, as GNU tar expects.
+     */
+    private static List<long[]> findDataRegions(Path path, long size, MessageDigest digest, ReadGovernor.Device device) throws IOException {
+        List<long[]> regions = new ArrayList<>();
+        byte[] buffer = new byte[SPARSE_BLOCK_SIZE * 16];
+        long regionStart = -1;
+        long offset = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while (offset < size && (read = ReadGovernor.readNBytes(device, in, buffer, 0, (int) Math.min(buffer.length, size - offset))) > 0) {
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
+                }
+                for (int start = 0; start < read; start += SPARSE_BLOCK_SIZE) {
+                    int length = Math.min(SPARSE_BLOCK_SIZE, read - start);
+                    boolean zero = isZero(buffer, start, length);
+                    if (!zero && regionStart < 0) {
+                        regionStart = offset + start;
+                    } else if (zero && regionStart >= 0) {
+                        regions.add(new long[]{regionStart, offset + start - regionStart});
+                        regionStart = -1;
+                    }
+                }
+                offset += read;
+            }
+        }
+        if (regionStart >= 0) {
+            regions.add(new long[]{regionStart, offset - regionStart});
+        }
+        if (regions.isEmpty() || regions.get(regions.size() - 1)[0] + regions.get(regions.size() - 1)[1] < offset) {
+            regions.add(new long[]{offset, 0});
+        }
+        if (offset < size) {
+            // File shrank since its size was read: archive what is there as a plain file
+            regions.clear();
+            regions.add(new long[]{0, size});
+        }
+        return regions;
+    }
+
+    private static boolean isZero(byte[] buffer, int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            if (buffer[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ends the current entry, padding its data to a full block.
+     */
+    public void closeEntry() throws IOException {
+        if (!entryOpen) {
+            return;
+        }
+        if (entryRemaining > 0) {
+            throw new IOException("Entry is incomplete, " + entryRemaining + " bytes missing");
+        }
+        int padding = (int) (Math.floorMod(-entryLength, (long) BLOCK_SIZE));
+        if (padding > 0) {
+            out.write(new byte[padding]);
+            bytesWritten += padding;
+        }
+        entryLength = 0;
+        entryOpen = false;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > entryRemaining) {
+            throw new IOException("Entry data exceeds the size in its header");
+        }
+        out.write(b, off, len);
+        entryRemaining -= len;
+        bytesWritten += len;
+    }
+
+    /**
+     * Writes the end-of-archive marker (two empty blocks) and pads the archive to a full
+     * record. The underlying stream is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        closeEntry();
+        Arrays.fill(block, (byte) 0);
+        writeBlocks(block, BLOCK_SIZE);
+        writeBlocks(block, BLOCK_SIZE);
+        int padding = (int) Math.floorMod(-bytesWritten, (long) RECORD_SIZE);
+        out.write(new byte[padding]);
+        bytesWritten += padding;
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBlocks(byte[] data, int length) throws IOException {
+        out.write(data, 0, length);
+        bytesWritten += length;
+    }
+
+    private void writePaxHeader(String name, long lastModified, Map<String, String> records) throws IOException {
+        StringBuilder data = new StringBuilder();
+        for (Map.Entry<String, String> record : records.entrySet()) {
+            data.append(paxRecord(record.getKey(), record.getValue()));
+        }
+        byte[] content = data.toString().getBytes(StandardCharsets.UTF_8);
+
+        TarEntry paxEntry = new TarEntry(paxHeaderName(name));
+        paxEntry.setType('x');
+        paxEntry.setSize(content.length);
+        paxEntry.setLastModified(lastModified);
+        byte[] header = new byte[BLOCK_SIZE];
+        Map<String, String> ignored = new LinkedHashMap<>();
+        putName(header, paxEntry.getName(), ignored);
+        putNumber(header, 100, 8, 0644, "mode", ignored);
+        putNumber(header, 124, 12, content.length, "size", ignored);
+        putNumber(header, 136, 12, Math.max(0, Math.floorDiv(lastModified, 1000L)), "mtime", ignored);
+        header[156] = 'x';
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        writeChecksum(header);
+        writeBlocks(header, header.length);
+
+        out.write(content);
+        bytesWritten += content.length;
+        int padding = (int) Math.floorMod(-content.length, (long) BLOCK_SIZE);
+        out.write(new byte[padding]);
+        bytesWritten += padding;
+    }
+
+    /**
+     * Formats one pax record ("length key=value\n"); the length includes its own digits.
+     */
+    static String paxRecord(String key, String value) {
+        int payload = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int length = payload + Integer.toString(payload).length();
+        if (Integer.toString(length).length() != Integer.toString(payload).length()) {
+            length++;
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    private static byte[] sparseMapBlock(List<long[]> regions) {
+        StringBuilder map = new StringBuilder().append(regions.size()).append('\n');
+        for (long[] region : regions) {
+            map.append(region[0]).append('\n').append(region[1]).append('\n');
+        }
+        byte[] text = map.toString().getBytes(StandardCharsets.US_ASCII);
+        return Arrays.copyOf(text, (text.length + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE);
+    }
+
+    // GNU tar names the header of a sparse file "<dir>/GNUSparseFile.0/<name>"
+    private static String sparseHeaderName(String name) {
+        int slash = name.lastIndexOf('/');
+        return (slash >= 0 ? name.substring(0, slash + 1) : "") + "GNUSparseFile.0/" + name.substring(slash + 1);
+    }
+
+    private static String paxHeaderName(String name) {
+        int slash = name.lastIndexOf('/', name.length() - 2);
+        String baseName = name.substring(slash + 1);
+        return "PaxHeaders/" + baseName;
+    }
+
+    /**
+     * Stores the name in the name field, in the ustar prefix and name fields, or (if it does
+     * not fit or is not ASCII) as a pax "path" record with a truncated name in the header.
+     */
+    private static void putName(byte[] header, String name, Map<String, String> pax) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean ascii = bytes.length == name.length();
+        if (ascii && bytes.length <= 100) {
+            System.arraycopy(bytes, 0, header, 0, bytes.length);
+            return;
+        }
+        if (ascii) {
+            int split = name.lastIndexOf('/', Math.min(name.length() - 2, 155));
+            if (split > 0 && name.length() - split - 1 <= 100) {
+                byte[] prefix = name.substring(0, split).getBytes(StandardCharsets.US_ASCII);
+                byte[] rest = name.substring(split + 1).getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(rest, 0, header, 0, rest.length);
+                System.arraycopy(prefix, 0, header, 345, prefix.length);
+                return;
+            }
+        }
+        pax.put("path", name);
+        System.arraycopy(bytes, 0, header, 0, Math.min(bytes.length, 100));
+    }
+
+    private static void putString(byte[] header, int offset, int length, String value, String paxKey, Map<String, String> pax) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > length || bytes.length != value.length()) {
+            pax.put(paxKey, value);
+        }
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+    }
+
+    /**
+     * Writes an octal number terminated by NUL, or 0 plus a pax record if it does not fit.
+     */
+    private static void putNumber(byte[] header, int offset, int length, long value, String paxKey, Map<String, String> pax) {
+        long max = (1L << (3 * (length - 1))) - 1;
+        if (value < 0 || value > max) {
+            pax.put(paxKey, Long.toString(value));
+            value = 0;
+        }
+        String octal = Long.toOctalString(value);
+        int digits = length - 1;
+        for (int i = 0; i < digits; i++) {
+            int index = octal.length() - digits + i;
+            header[offset + i] = index >= 0 ? (byte) octal.charAt(index) : (byte) '0';
+        }
+        header[offset + digits] = 0;
+    }
+
+    private static void writeChecksum(byte[] header) {
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xff;
+        }
+        String octal = String.format("%06o", sum);
+        System.arraycopy(octal.getBytes(StandardCharsets.US_ASCII), 0, header, 148, 6);
+        header[154] = 0;
+        header[155] = ' ';
+    }
+}
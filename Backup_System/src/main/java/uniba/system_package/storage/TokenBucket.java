@@ -0,0 +1,68 @@
+package uniba.system_package.storage;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Tokens are bytes; they refill at the rate up to a quarter of a second's worth, so short
+ * bursts stay small. A rate of {@link #UNLIMITED} lets everything through. Waiting threads
+ * sleep at most 100 ms at a time, so rate changes are noticed while they wait.
+ */
+final class TokenBucket {
+    static final long UNLIMITED = 0;
+
+    private static final long MAX_SLEEP_NANOS = 100_000_000L;
+
+    private final int minCapacity;
+    private long rate = UNLIMITED;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param minCapacity Tokens the bucket holds at least, the largest amount taken at a time.
+     */
+    TokenBucket(int minCapacity) {
+        this.minCapacity = minCapacity;
+    }
+
+    synchronized long getRate() {
+        return rate;
+    }
+
+    synchronized void setRate(long rate) {
+        refill();
+        this.rate = rate;
+        tokens = Math.min(tokens, capacity());
+    }
+
+    private double capacity() {
+        return Math.max(rate / 4.0, minCapacity);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate != UNLIMITED) {
+            tokens = Math.min(capacity(), tokens + (now - lastRefill) * rate / 1e9);
+        }
+        lastRefill = now;
+    }
+
+    void acquire(int bytes) throws InterruptedIOException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (rate == UNLIMITED || tokens >= bytes) {
+                    tokens = rate == UNLIMITED ? 0 : tokens - bytes;
+                    return;
+                }
+                waitNanos = (long) ((bytes - tokens) * 1e9 / rate);
+            }
+            try {
+                Thread.sleep(Math.max(1, Math.min(waitNanos, MAX_SLEEP_NANOS) / 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+    }
+}
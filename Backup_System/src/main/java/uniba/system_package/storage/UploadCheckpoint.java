@@ -0,0 +1,178 @@
+package uniba.system_package.storage;
+
+import org.slf4j.Logger;
+import uniba.system_package.utils.LogManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Progress of an upload that survives failed attempts and restarts of the program: the
+ * byte ranges of the local file and, for every range, how far the server has acknowledged
+ * it. Bound to the size and modification time of the local file, so a changed file is
+ * uploaded from the start again. Stored as a small binary file per upload.
+ */
+public class UploadCheckpoint {
+    private static final Logger logger = LogManager.getLogger(UploadCheckpoint.class);
+
+    private static final int MAGIC = 0x424b5550; // "BKUP"
+    private static final int VERSION = 1;
+
+    private final Path checkpointFile;
+    private final String remoteFile;
+    private final long localSize;
+    private final long localModified;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] positions;
+
+    private UploadCheckpoint(Path checkpointFile, String remoteFile, long localSize, long localModified, int ranges) {
+        this.checkpointFile = checkpointFile;
+        this.remoteFile = remoteFile;
+        this.localSize = localSize;
+        this.localModified = localModified;
+        this.starts = new long[ranges];
+        this.ends = new long[ranges];
+        this.positions = new long[ranges];
+    }
+
+    /**
+     * Location of the checkpoint of uploading a local file to a remote path.
+     */
+    public static Path fileFor(Path checkpointDir, Path localFile, String remoteFile) {
+        String key = localFile.toAbsolutePath() + "\n" + remoteFile;
+        return checkpointDir.resolve(localFile.getFileName() + "." + Integer.toHexString(key.hashCode()) + ".ckpt");
+    }
+
+    /**
+     * Starts a checkpoint for a new upload; nothing of the ranges is confirmed yet.
+     *
+     * @param ranges Offset and length of every range, in file order.
+     */
+    public static UploadCheckpoint create(Path checkpointFile, Path localFile, String remoteFile, List<long[]> ranges) throws IOException {
+        UploadCheckpoint checkpoint = new UploadCheckpoint(checkpointFile, remoteFile, Files.size(localFile),
+                Files.getLastModifiedTime(localFile).toMillis(), ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            checkpoint.starts[i] = ranges.get(i)[0];
+            checkpoint.ends[i] = ranges.get(i)[0] + ranges.get(i)[1];
+            checkpoint.positions[i] = checkpoint.starts[i];
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Loads the checkpoint of an earlier attempt to upload the local file to the remote path.
+     *
+     * @return The checkpoint, or null if there is none or it belongs to another version of the file.
+     */
+    public static UploadCheckpoint load(Path checkpointFile, Path localFile, String remoteFile) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unknown checkpoint format");
+            }
+            String storedRemoteFile = in.readUTF();
+            long size = in.readLong();
+            long modified = in.readLong();
+            int ranges = in.readInt();
+            if (!storedRemoteFile.equals(remoteFile) || size != Files.size(localFile)
+                    || modified != Files.getLastModifiedTime(localFile).toMillis() || ranges <= 0) {
+                logger.info("Upload checkpoint {} belongs to another version of {}; starting over.", checkpointFile, localFile);
+                return null;
+            }
+            UploadCheckpoint checkpoint = new UploadCheckpoint(checkpointFile, remoteFile, size, modified, ranges);
+            for (int i = 0; i < ranges; i++) {
+                checkpoint.starts[i] = in.readLong();
+                checkpoint.ends[i] = in.readLong();
+                checkpoint.positions[i] = in.readLong();
+                if (checkpoint.positions[i] < checkpoint.starts[i] || checkpoint.positions[i] > checkpoint.ends[i]) {
+                    throw new IOException("inconsistent range " + i);
+                }
+            }
+            return checkpoint;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("Upload checkpoint {} is unreadable ({}); starting over.", checkpointFile, e.getMessage());
+            return null;
+        }
+    }
+
+    public String getRemoteFile() {
+        return remoteFile;
+    }
+
+    public int getRangeCount() {
+        return starts.length;
+    }
+
+    public long getStart(int range) {
+        return starts[range];
+    }
+
+    public long getEnd(int range) {
+        return ends[range];
+    }
+
+    public synchronized long getPosition(int range) {
+        return positions[range];
+    }
+
+    /**
+     * Records that the server acknowledged the range up to (excluding) the position.
+     */
+    public synchronized void setPosition(int range, long position) {
+        positions[range] = position;
+    }
+
+    /**
+     * Bytes of the file the server has acknowledged.
+     */
+    public synchronized long getConfirmedBytes() {
+        long confirmed = 0;
+        for (int i = 0; i < starts.length; i++) {
+            confirmed += positions[i] - starts[i];
+        }
+        return confirmed;
+    }
+
+    /**
+     * Writes the checkpoint atomically next to its final location.
+     */
+    public synchronized void save() throws IOException {
+        Files.createDirectories(checkpointFile.getParent());
+        Path tempFile = Files.createTempFile(checkpointFile.getParent(), checkpointFile.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(remoteFile);
+            out.writeLong(localSize);
+            out.writeLong(localModified);
+            out.writeInt(starts.length);
+            for (int i = 0; i < starts.length; i++) {
+                out.writeLong(starts[i]);
+                out.writeLong(ends[i]);
+                out.writeLong(positions[i]);
+            }
+        }
+        Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Removes the checkpoint once the upload is complete.
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(checkpointFile);
+        } catch (IOException e) {
+            logger.warn("Could not delete upload checkpoint {}: {}", checkpointFile, e.getMessage());
+        }
+    }
+}
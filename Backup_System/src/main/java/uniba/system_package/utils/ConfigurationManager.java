@@ -1,10 +1,19 @@
 package uniba.system_package.utils;
 
 import org.yaml.snakeyaml.Yaml;
+import uniba.system_package.storage.BandwidthGovernor;
+import uniba.system_package.storage.CompressionCodec;
+import uniba.system_package.storage.ReedSolomon;
+import uniba.system_package.storage.SuccessPolicy;
 
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 public class ConfigurationManager {
@@ -50,12 +59,108 @@ public class ConfigurationManager {
             if (retentionPolicy.getIncrementalBackupsToKeep() <= 0) {
                 throw new IllegalArgumentException("Retention policy must specify a positive number of incremental backups to keep.");
             }
+            if (retentionPolicy.getKeepDaily() < 0 || retentionPolicy.getKeepWeekly() < 0
+                    || retentionPolicy.getKeepMonthly() < 0 || retentionPolicy.getKeepYearly() < 0) {
+                throw new IllegalArgumentException("Retention policy daily, weekly, monthly and yearly counts cannot be negative.");
+            }
+            if (retentionPolicy.getDeleteThreads() <= 0 || retentionPolicy.getDeleteBatchSize() <= 0) {
+                throw new IllegalArgumentException("Retention policy delete threads and batch size must be positive numbers.");
+            }
 
             // Validate remote storage
             Config.RemoteStorage remoteStorage = config.getRemoteStorage();
             if (remoteStorage.getHost() == null || remoteStorage.getUser() == null || remoteStorage.getPassword() == null) {
                 throw new IllegalArgumentException("Remote storage configuration must include host, user, and password.");
             }
+            if (remoteStorage.getPort() <= 0 || remoteStorage.getMaxSessions() <= 0
+                    || remoteStorage.getMaxChannelsPerSession() <= 0 || remoteStorage.getIdleTimeoutSeconds() <= 0) {
+                throw new IllegalArgumentException("Remote storage port and session limits must be positive numbers.");
+            }
+            if (remoteStorage.getParallelStreams() <= 0 || remoteStorage.getMinSegmentSizeMb() <= 0) {
+                throw new IllegalArgumentException("Remote storage parallel streams and segment size must be positive numbers.");
+            }
+            if (remoteStorage.getMaxRetries() < 0 || remoteStorage.getRetryDelaySeconds() <= 0
+                    || remoteStorage.getMaxRetryDelaySeconds() < remoteStorage.getRetryDelaySeconds()) {
+                throw new IllegalArgumentException("Remote storage retries must not be negative and retry delays must be positive and ordered.");
+            }
+            if (remoteStorage.getListingCacheSeconds() < 0) {
+                throw new IllegalArgumentException("Remote storage listing cache time cannot be negative.");
+            }
+
+            // Validate execution limits
+            Config.Execution execution = config.getExecution();
+            if (execution != null && (execution.getMaxConcurrentBackups() <= 0 || execution.getMaxConcurrentBackupsPerHost() <= 0)) {
+                throw new IllegalArgumentException("Execution limits must be positive numbers.");
+            }
+            if (execution != null && execution.getScanThreads() < 0) {
+                throw new IllegalArgumentException("The number of scan threads must not be negative.");
+            }
+            if (execution != null && execution.getRestoreThreads() < 0) {
+                throw new IllegalArgumentException("The number of restore threads must not be negative.");
+            }
+
+            // Validate bandwidth limits
+            Config.Bandwidth bandwidth = config.getBandwidth();
+            if (bandwidth != null && !isValidBandwidth(bandwidth)) {
+                throw new IllegalArgumentException("Bandwidth limits must not be negative and profiles need valid days, start and end times.");
+            }
+
+            // Validate source read throttling
+            Config.ReadThrottle readThrottle = config.getReadThrottle();
+            if (readThrottle != null && (readThrottle.getMaxLatencyMs() < 0 || readThrottle.getMinReadMBps() <= 0)) {
+                throw new IllegalArgumentException("The read latency limit must not be negative and the minimum read rate must be positive.");
+            }
+
+            // Validate storage backends
+            Set<String> backendNames = new HashSet<>();
+            for (Config.StorageBackend backend : config.getStorageBackends()) {
+                if (!isValidStorageBackend(backend) || !backendNames.add(backend.getName())) {
+                    throw new IllegalArgumentException("Invalid or duplicate storage backend: " + backend.getName());
+                }
+            }
+            for (Config.Server server : config.getServers()) {
+                if (!isKnownStorageBackend(server.getStorageBackend(), backendNames)) {
+                    throw new IllegalArgumentException("Unknown storage backend for server: " + server.getName());
+                }
+            }
+            for (Config.Database database : config.getDatabases()) {
+                if (!isKnownStorageBackend(database.getStorageBackend(), backendNames)) {
+                    throw new IllegalArgumentException("Unknown storage backend for database: " + database.getName());
+                }
+            }
+            if (remoteStorage.getDestinations() != null) {
+                for (String destination : remoteStorage.getDestinations()) {
+                    if (destination == null || Config.StorageBackend.NONE.equals(destination)
+                            || !isKnownStorageBackend(destination, backendNames)) {
+                        throw new IllegalArgumentException("Unknown remote storage destination: " + destination);
+                    }
+                }
+            }
+            if (!isValidSuccessPolicy(remoteStorage.getSuccessPolicy()) || remoteStorage.getFanOutBufferMb() <= 0) {
+                throw new IllegalArgumentException("Remote storage needs a success policy of all, quorum or any and a positive fan-out buffer.");
+            }
+            if (!isValidRedundancy(remoteStorage)) {
+                throw new IllegalArgumentException("Remote storage redundancy must be replicate or erasure, with at least one data and one parity shard and at most "
+                        + ReedSolomon.MAX_SHARDS + " shards.");
+            }
+
+            // Validate storage formats
+            for (Config.Server server : config.getServers()) {
+                if (!isValidStorageFormat(server.getStorageFormat())) {
+                    throw new IllegalArgumentException("Invalid storage format for server: " + server.getName());
+                }
+                if (!isValidCompression(server.getCompression(), server.getCompressionLevel())) {
+                    throw new IllegalArgumentException("Invalid compression settings for server: " + server.getName());
+                }
+            }
+            for (Config.Database database : config.getDatabases()) {
+                if (!isValidStorageFormat(database.getStorageFormat())) {
+                    throw new IllegalArgumentException("Invalid storage format for database: " + database.getName());
+                }
+                if (!isValidCompression(database.getCompression(), database.getCompressionLevel())) {
+                    throw new IllegalArgumentException("Invalid compression settings for database: " + database.getName());
+                }
+            }
 
             // Validate scripts
             for (Config.Server server : config.getServers()) {
@@ -72,6 +177,72 @@ public class ConfigurationManager {
         }
     }
 
+    private boolean isValidStorageFormat(String storageFormat) {
+        return "archive".equalsIgnoreCase(storageFormat) || "dedup".equalsIgnoreCase(storageFormat);
+    }
+
+    private boolean isValidCompression(String compression, int level) {
+        try {
+            return CompressionCodec.fromName(compression).isValidLevel(level);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private boolean isValidStorageBackend(Config.StorageBackend backend) {
+        if (backend.getName() == null || backend.getName().isBlank() || backend.getPath() == null
+                || Config.StorageBackend.REMOTE_STORAGE.equals(backend.getName()) || Config.StorageBackend.NONE.equals(backend.getName())
+                || backend.getMaxConcurrentTransfers() <= 0) {
+            return false;
+        }
+        if ("sftp".equalsIgnoreCase(backend.getType())) {
+            return backend.getHost() != null && backend.getPort() > 0;
+        }
+        return "local".equalsIgnoreCase(backend.getType());
+    }
+
+    private boolean isValidRedundancy(Config.RemoteStorage remoteStorage) {
+        if (!remoteStorage.isErasureCoded()) {
+            return "replicate".equalsIgnoreCase(remoteStorage.getRedundancy());
+        }
+        return remoteStorage.getDataShards() >= 1 && remoteStorage.getParityShards() >= 1
+                && remoteStorage.getDataShards() + remoteStorage.getParityShards() <= ReedSolomon.MAX_SHARDS;
+    }
+
+    private boolean isValidSuccessPolicy(String policy) {
+        try {
+            SuccessPolicy.fromName(policy);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private boolean isKnownStorageBackend(String name, Set<String> backendNames) {
+        return name == null || Config.StorageBackend.REMOTE_STORAGE.equals(name) || Config.StorageBackend.NONE.equals(name)
+                || backendNames.contains(name);
+    }
+
+    private boolean isValidBandwidth(Config.Bandwidth bandwidth) {
+        if (bandwidth.getLimitMbps() < 0 || bandwidth.getPerDestinationMbps() < 0) {
+            return false;
+        }
+        for (Config.Bandwidth.Profile profile : bandwidth.getProfiles()) {
+            if (profile.getLimitMbps() < 0 || profile.getPerDestinationMbps() < 0
+                    || profile.getStart() == null || profile.getEnd() == null) {
+                return false;
+            }
+            try {
+                BandwidthGovernor.parseDays(profile.getDays());
+                LocalTime.parse(profile.getStart());
+                LocalTime.parse(profile.getEnd());
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private boolean isValidScript(String scriptPath) {
         // Simulate script validation logic, e.g., check file existence and execute permissions
         return scriptPath.endsWith(".sh") || scriptPath.endsWith(".bat"); // Simple validation example
@@ -92,6 +263,11 @@ public class ConfigurationManager {
         return config.getRemoteStorage();
     }
 
+    // Get the configured storage backends besides the remote storage section
+    public List<Config.StorageBackend> getStorageBackends() {
+        return config.getStorageBackends();
+    }
+
     // Get retention policy
     public Config.RetentionPolicy getRetentionPolicy() {
         return config.getRetentionPolicy();
@@ -106,6 +282,30 @@ public class ConfigurationManager {
         return config.getEmail();
     }
 
+    // Get parallel execution settings (defaults apply when the section is missing)
+    public Config.Execution getExecution() {
+        if (config.getExecution() == null) {
+            config.setExecution(new Config.Execution());
+        }
+        return config.getExecution();
+    }
+
+    // Get upload bandwidth limits (no limits when the section is missing)
+    public Config.Bandwidth getBandwidth() {
+        if (config.getBandwidth() == null) {
+            config.setBandwidth(new Config.Bandwidth());
+        }
+        return config.getBandwidth();
+    }
+
+    // Get source read throttling (off when the section is missing)
+    public Config.ReadThrottle getReadThrottle() {
+        if (config.getReadThrottle() == null) {
+            config.setReadThrottle(new Config.ReadThrottle());
+        }
+        return config.getReadThrottle();
+    }
+
     // Inner static classes for mapping the YAML structure
     public static class Config {
         private List<Server> servers;
@@ -114,6 +314,10 @@ public class ConfigurationManager {
         private RetentionPolicy retentionPolicy;
         private Schedule schedule;
         private Email email; // Add email configuration
+        private Execution execution; // Parallel backup execution limits
+        private Bandwidth bandwidth; // Upload bandwidth limits
+        private ReadThrottle readThrottle; // Read limits for the disks that are backed up
+        private List<StorageBackend> storageBackends = new ArrayList<>(); // Named places backups are stored
 
 
         // Getters and Setters
@@ -165,11 +369,44 @@ public class ConfigurationManager {
             this.email = email;
         }
 
+        public Execution getExecution() {
+            return execution;
+        }
+
+        public void setExecution(Execution execution) {
+            this.execution = execution;
+        }
+
+        public Bandwidth getBandwidth() {
+            return bandwidth;
+        }
+
+        public void setBandwidth(Bandwidth bandwidth) {
+            this.bandwidth = bandwidth;
+        }
+
+        public List<StorageBackend> getStorageBackends() {
+            return storageBackends;
+        }
+
+        public void setStorageBackends(List<StorageBackend> storageBackends) {
+            this.storageBackends = storageBackends != null ? storageBackends : new ArrayList<>();
+        }
+
+        public ReadThrottle getReadThrottle() {
+            return readThrottle;
+        }
+
+        public void setReadThrottle(ReadThrottle readThrottle) {
+            this.readThrottle = readThrottle;
+        }
+
 
 
         public static class Schedule {
             private String fullBackup;          // Cron for full backups
             private String incrementalBackup;   // Cron for incremental backups
+            private String syntheticFullBackup; // Cron for full backups merged from stored ones, null = never
 
             public String getFullBackup() {
                 return fullBackup;
@@ -186,6 +423,239 @@ public class ConfigurationManager {
             public void setIncrementalBackup(String incrementalBackup) {
                 this.incrementalBackup = incrementalBackup;
             }
+
+            public String getSyntheticFullBackup() {
+                return syntheticFullBackup;
+            }
+
+            public void setSyntheticFullBackup(String syntheticFullBackup) {
+                this.syntheticFullBackup = syntheticFullBackup;
+            }
+        }
+
+        public static class Execution {
+            private int maxConcurrentBackups = 4;        // Targets backed up at the same time
+            private int maxConcurrentBackupsPerHost = 1; // Targets on the same host backed up at the same time
+            private int scanThreads = 0;                 // Threads walking the directories of a server, 0 = one per CPU
+            private int restoreThreads = 0;              // Threads extracting an archive, 0 = one per CPU
+
+            public int getMaxConcurrentBackups() {
+                return maxConcurrentBackups;
+            }
+
+            public void setMaxConcurrentBackups(int maxConcurrentBackups) {
+                this.maxConcurrentBackups = maxConcurrentBackups;
+            }
+
+            public int getMaxConcurrentBackupsPerHost() {
+                return maxConcurrentBackupsPerHost;
+            }
+
+            public void setMaxConcurrentBackupsPerHost(int maxConcurrentBackupsPerHost) {
+                this.maxConcurrentBackupsPerHost = maxConcurrentBackupsPerHost;
+            }
+
+            public int getScanThreads() {
+                return scanThreads;
+            }
+
+            public void setScanThreads(int scanThreads) {
+                this.scanThreads = scanThreads;
+            }
+
+            public int getRestoreThreads() {
+                return restoreThreads;
+            }
+
+            public void setRestoreThreads(int restoreThreads) {
+                this.restoreThreads = restoreThreads;
+            }
+        }
+
+        public static class StorageBackend {
+            public static final String REMOTE_STORAGE = "remote"; // The backend of the remoteStorage section
+            public static final String NONE = "none";             // Backups are only kept under /backups
+
+            private String name;
+            private String type = "sftp";  // "sftp" or "local" (a directory, e.g. an NFS mount)
+            private String host;
+            private int port = 22;
+            private String user;
+            private String password;
+            private String path;           // Remote directory, or the local directory
+            private int maxConcurrentTransfers = 2; // Uploads to the backend running at the same time
+
+            public String getName() {
+                return name;
+            }
+
+            public void setName(String name) {
+                this.name = name;
+            }
+
+            public String getType() {
+                return type;
+            }
+
+            public void setType(String type) {
+                this.type = type;
+            }
+
+            public String getHost() {
+                return host;
+            }
+
+            public void setHost(String host) {
+                this.host = host;
+            }
+
+            public int getPort() {
+                return port;
+            }
+
+            public void setPort(int port) {
+                this.port = port;
+            }
+
+            public String getUser() {
+                return user;
+            }
+
+            public void setUser(String user) {
+                this.user = user;
+            }
+
+            public String getPassword() {
+                return password;
+            }
+
+            public void setPassword(String password) {
+                this.password = password;
+            }
+
+            public String getPath() {
+                return path;
+            }
+
+            public void setPath(String path) {
+                this.path = path;
+            }
+
+            public int getMaxConcurrentTransfers() {
+                return maxConcurrentTransfers;
+            }
+
+            public void setMaxConcurrentTransfers(int maxConcurrentTransfers) {
+                this.maxConcurrentTransfers = maxConcurrentTransfers;
+            }
+        }
+
+        public static class ReadThrottle {
+            private double maxLatencyMs = 0; // p99 read latency per device above which reads slow down, 0 = off
+            private double minReadMBps = 4;  // Reads are never limited to less than this
+
+            public double getMaxLatencyMs() {
+                return maxLatencyMs;
+            }
+
+            public void setMaxLatencyMs(double maxLatencyMs) {
+                this.maxLatencyMs = maxLatencyMs;
+            }
+
+            public double getMinReadMBps() {
+                return minReadMBps;
+            }
+
+            public void setMinReadMBps(double minReadMBps) {
+                this.minReadMBps = minReadMBps;
+            }
+        }
+
+        public static class Bandwidth {
+            private double limitMbps = 0;           // All uploads together, 0 = unlimited
+            private double perDestinationMbps = 0;  // Uploads to one host, 0 = unlimited
+            private List<Profile> profiles = new ArrayList<>(); // Time-of-day limits, the first match applies
+
+            public double getLimitMbps() {
+                return limitMbps;
+            }
+
+            public void setLimitMbps(double limitMbps) {
+                this.limitMbps = limitMbps;
+            }
+
+            public double getPerDestinationMbps() {
+                return perDestinationMbps;
+            }
+
+            public void setPerDestinationMbps(double perDestinationMbps) {
+                this.perDestinationMbps = perDestinationMbps;
+            }
+
+            public List<Profile> getProfiles() {
+                return profiles;
+            }
+
+            public void setProfiles(List<Profile> profiles) {
+                this.profiles = profiles != null ? profiles : new ArrayList<>();
+            }
+
+            public static class Profile {
+                private String name;
+                private String days;                    // e.g. MON-FRI or SAT,SUN; empty = every day
+                private String start;                   // HH:mm
+                private String end;                     // HH:mm, before start for profiles spanning midnight
+                private double limitMbps = 0;
+                private double perDestinationMbps = 0;
+
+                public String getName() {
+                    return name;
+                }
+
+                public void setName(String name) {
+                    this.name = name;
+                }
+
+                public String getDays() {
+                    return days;
+                }
+
+                public void setDays(String days) {
+                    this.days = days;
+                }
+
+                public String getStart() {
+                    return start;
+                }
+
+                public void setStart(String start) {
+                    this.start = start;
+                }
+
+                public String getEnd() {
+                    return end;
+                }
+
+                public void setEnd(String end) {
+                    this.end = end;
+                }
+
+                public double getLimitMbps() {
+                    return limitMbps;
+                }
+
+                public void setLimitMbps(double limitMbps) {
+                    this.limitMbps = limitMbps;
+                }
+
+                public double getPerDestinationMbps() {
+                    return perDestinationMbps;
+                }
+
+                public void setPerDestinationMbps(double perDestinationMbps) {
+                    this.perDestinationMbps = perDestinationMbps;
+                }
+            }
         }
 
         public static class RemoteStorage {
@@ -193,6 +663,25 @@ public class ConfigurationManager {
             private String user;
             private String password;
             private String remotePath;
+            private boolean streaming = false;     // Upload archives while they are written
+            private boolean keepLocalCopy = true;  // Keep the archive under /backups in streaming mode
+            private int port = 22;
+            private int maxSessions = 2;            // SSH sessions kept open to the server
+            private int maxChannelsPerSession = 4;  // Transfers sharing one SSH session
+            private int idleTimeoutSeconds = 60;    // Idle sessions are closed after this time
+            private int parallelStreams = 1;        // Channels uploading one archive at the same time
+            private int minSegmentSizeMb = 64;      // Smallest part of an archive uploaded over its own channel
+            private boolean verifyUploads = true;   // Read segmented uploads back before renaming them
+            private int maxRetries = 5;             // Further attempts after a failed upload, each resuming it
+            private int retryDelaySeconds = 2;      // Wait before the first retry, doubled for every further one
+            private int maxRetryDelaySeconds = 300;
+            private List<String> destinations;      // Storage backends every backup goes to, null = this section's server
+            private String successPolicy = "all";   // Destinations that must succeed: "all", "quorum" or "any"
+            private int fanOutBufferMb = 64;        // How far one destination may fall behind the others
+            private String redundancy = "replicate"; // "replicate" (full copies) or "erasure" (Reed-Solomon shards)
+            private int dataShards = 4;             // Erasure coding: shards the data is split into
+            private int parityShards = 2;           // Erasure coding: shards that may be lost
+            private int listingCacheSeconds = 300;  // How long a listing of a storage backend is reused
 
             public String getHost() {
                 return host;
@@ -225,11 +714,174 @@ public class ConfigurationManager {
             public void setRemotePath(String remotePath) {
                 this.remotePath = remotePath;
             }
+
+            public boolean isStreaming() {
+                return streaming;
+            }
+
+            public void setStreaming(boolean streaming) {
+                this.streaming = streaming;
+            }
+
+            public boolean isKeepLocalCopy() {
+                return keepLocalCopy;
+            }
+
+            public void setKeepLocalCopy(boolean keepLocalCopy) {
+                this.keepLocalCopy = keepLocalCopy;
+            }
+
+            public int getPort() {
+                return port;
+            }
+
+            public void setPort(int port) {
+                this.port = port;
+            }
+
+            public int getMaxSessions() {
+                return maxSessions;
+            }
+
+            public void setMaxSessions(int maxSessions) {
+                this.maxSessions = maxSessions;
+            }
+
+            public int getMaxChannelsPerSession() {
+                return maxChannelsPerSession;
+            }
+
+            public void setMaxChannelsPerSession(int maxChannelsPerSession) {
+                this.maxChannelsPerSession = maxChannelsPerSession;
+            }
+
+            public int getIdleTimeoutSeconds() {
+                return idleTimeoutSeconds;
+            }
+
+            public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+                this.idleTimeoutSeconds = idleTimeoutSeconds;
+            }
+
+            public int getParallelStreams() {
+                return parallelStreams;
+            }
+
+            public void setParallelStreams(int parallelStreams) {
+                this.parallelStreams = parallelStreams;
+            }
+
+            public int getMinSegmentSizeMb() {
+                return minSegmentSizeMb;
+            }
+
+            public void setMinSegmentSizeMb(int minSegmentSizeMb) {
+                this.minSegmentSizeMb = minSegmentSizeMb;
+            }
+
+            public boolean isVerifyUploads() {
+                return verifyUploads;
+            }
+
+            public void setVerifyUploads(boolean verifyUploads) {
+                this.verifyUploads = verifyUploads;
+            }
+
+            public int getMaxRetries() {
+                return maxRetries;
+            }
+
+            public void setMaxRetries(int maxRetries) {
+                this.maxRetries = maxRetries;
+            }
+
+            public int getRetryDelaySeconds() {
+                return retryDelaySeconds;
+            }
+
+            public void setRetryDelaySeconds(int retryDelaySeconds) {
+                this.retryDelaySeconds = retryDelaySeconds;
+            }
+
+            public int getMaxRetryDelaySeconds() {
+                return maxRetryDelaySeconds;
+            }
+
+            public void setMaxRetryDelaySeconds(int maxRetryDelaySeconds) {
+                this.maxRetryDelaySeconds = maxRetryDelaySeconds;
+            }
+
+            public List<String> getDestinations() {
+                return destinations;
+            }
+
+            public void setDestinations(List<String> destinations) {
+                this.destinations = destinations;
+            }
+
+            public String getSuccessPolicy() {
+                return successPolicy;
+            }
+
+            public void setSuccessPolicy(String successPolicy) {
+                this.successPolicy = successPolicy;
+            }
+
+            public int getFanOutBufferMb() {
+                return fanOutBufferMb;
+            }
+
+            public void setFanOutBufferMb(int fanOutBufferMb) {
+                this.fanOutBufferMb = fanOutBufferMb;
+            }
+
+            public String getRedundancy() {
+                return redundancy;
+            }
+
+            public void setRedundancy(String redundancy) {
+                this.redundancy = redundancy;
+            }
+
+            public boolean isErasureCoded() {
+                return "erasure".equalsIgnoreCase(redundancy);
+            }
+
+            public int getDataShards() {
+                return dataShards;
+            }
+
+            public void setDataShards(int dataShards) {
+                this.dataShards = dataShards;
+            }
+
+            public int getParityShards() {
+                return parityShards;
+            }
+
+            public void setParityShards(int parityShards) {
+                this.parityShards = parityShards;
+            }
+
+            public int getListingCacheSeconds() {
+                return listingCacheSeconds;
+            }
+
+            public void setListingCacheSeconds(int listingCacheSeconds) {
+                this.listingCacheSeconds = listingCacheSeconds;
+            }
         }
 
         public static class RetentionPolicy {
             private int fullBackupsToKeep;
             private int incrementalBackupsToKeep;
+            private int keepDaily = 0;    // Latest backup of each of the last N days, per target
+            private int keepWeekly = 0;   // ... of each of the last N ISO weeks
+            private int keepMonthly = 0;  // ... of each of the last N months
+            private int keepYearly = 0;   // ... of each of the last N years
+            private int deleteThreads = 4;     // Backups deleted at the same time
+            private int deleteBatchSize = 100; // Backups deleted (and removed from the catalog) per batch
+            private boolean applyToDestinations = true; // Also delete the copies on the storage backends
 
             public int getFullBackupsToKeep() {
                 return fullBackupsToKeep;
@@ -246,6 +898,62 @@ public class ConfigurationManager {
             public void setIncrementalBackupsToKeep(int incrementalBackupsToKeep) {
                 this.incrementalBackupsToKeep = incrementalBackupsToKeep;
             }
+
+            public int getKeepDaily() {
+                return keepDaily;
+            }
+
+            public void setKeepDaily(int keepDaily) {
+                this.keepDaily = keepDaily;
+            }
+
+            public int getKeepWeekly() {
+                return keepWeekly;
+            }
+
+            public void setKeepWeekly(int keepWeekly) {
+                this.keepWeekly = keepWeekly;
+            }
+
+            public int getKeepMonthly() {
+                return keepMonthly;
+            }
+
+            public void setKeepMonthly(int keepMonthly) {
+                this.keepMonthly = keepMonthly;
+            }
+
+            public int getKeepYearly() {
+                return keepYearly;
+            }
+
+            public void setKeepYearly(int keepYearly) {
+                this.keepYearly = keepYearly;
+            }
+
+            public int getDeleteThreads() {
+                return deleteThreads;
+            }
+
+            public void setDeleteThreads(int deleteThreads) {
+                this.deleteThreads = deleteThreads;
+            }
+
+            public int getDeleteBatchSize() {
+                return deleteBatchSize;
+            }
+
+            public void setDeleteBatchSize(int deleteBatchSize) {
+                this.deleteBatchSize = deleteBatchSize;
+            }
+
+            public boolean isApplyToDestinations() {
+                return applyToDestinations;
+            }
+
+            public void setApplyToDestinations(boolean applyToDestinations) {
+                this.applyToDestinations = applyToDestinations;
+            }
         }
 
         public static class Server {
@@ -256,6 +964,13 @@ public class ConfigurationManager {
             private List<String> pathsToBackup;
             private String preBackupScript; // Pre-backup script
             private String postBackupScript; // Post-backup script
+            private String storageFormat = "archive"; // "archive" or "dedup" (chunk repository)
+            private String storageBackend; // Name of a storage backend, "none", or null for the remoteStorage section
+            private String compression = "gzip"; // Archive codec: "gzip", "zstd", "lz4" or "none"
+            private int compressionLevel = -1;   // Codec level, -1 for the codec's default
+            private List<String> includePatterns; // Glob patterns of files to back up, all files if empty
+            private List<String> excludePatterns; // Glob patterns of files and directories to skip
+            private boolean sparseFiles = false;  // Store runs of zeros in large files as holes
 
             private boolean enabled = true; // Add this field with default value
 
@@ -315,6 +1030,62 @@ public class ConfigurationManager {
                 this.postBackupScript = postBackupScript;
             }
 
+            public String getStorageFormat() {
+                return storageFormat;
+            }
+
+            public void setStorageFormat(String storageFormat) {
+                this.storageFormat = storageFormat;
+            }
+
+            public String getStorageBackend() {
+                return storageBackend;
+            }
+
+            public void setStorageBackend(String storageBackend) {
+                this.storageBackend = storageBackend;
+            }
+
+            public String getCompression() {
+                return compression;
+            }
+
+            public void setCompression(String compression) {
+                this.compression = compression;
+            }
+
+            public int getCompressionLevel() {
+                return compressionLevel;
+            }
+
+            public void setCompressionLevel(int compressionLevel) {
+                this.compressionLevel = compressionLevel;
+            }
+
+            public List<String> getIncludePatterns() {
+                return includePatterns;
+            }
+
+            public void setIncludePatterns(List<String> includePatterns) {
+                this.includePatterns = includePatterns;
+            }
+
+            public List<String> getExcludePatterns() {
+                return excludePatterns;
+            }
+
+            public void setExcludePatterns(List<String> excludePatterns) {
+                this.excludePatterns = excludePatterns;
+            }
+
+            public boolean isSparseFiles() {
+                return sparseFiles;
+            }
+
+            public void setSparseFiles(boolean sparseFiles) {
+                this.sparseFiles = sparseFiles;
+            }
+
 
             // New methods to handle enabled/disabled state
             public boolean isEnabled() {
@@ -334,6 +1105,10 @@ public class ConfigurationManager {
             private String password;
             private String preBackupScript; // Pre-backup script
             private String postBackupScript; // Post-backup script
+            private String storageFormat = "archive"; // "archive" or "dedup" (chunk repository)
+            private String storageBackend; // Name of a storage backend, "none", or null for the remoteStorage section
+            private String compression = "gzip"; // Archive codec: "gzip", "zstd", "lz4" or "none"
+            private int compressionLevel = -1;   // Codec level, -1 for the codec's default
             private boolean enabled = true; // Add this field with default value
 
             public Database(String name, String type, String host, String user, String password, String preBackupScript, String postBackupScript) {
@@ -406,6 +1181,38 @@ public class ConfigurationManager {
                 this.postBackupScript = postBackupScript;
             }
 
+            public String getStorageFormat() {
+                return storageFormat;
+            }
+
+            public void setStorageFormat(String storageFormat) {
+                this.storageFormat = storageFormat;
+            }
+
+            public String getStorageBackend() {
+                return storageBackend;
+            }
+
+            public void setStorageBackend(String storageBackend) {
+                this.storageBackend = storageBackend;
+            }
+
+            public String getCompression() {
+                return compression;
+            }
+
+            public void setCompression(String compression) {
+                this.compression = compression;
+            }
+
+            public int getCompressionLevel() {
+                return compressionLevel;
+            }
+
+            public void setCompressionLevel(int compressionLevel) {
+                this.compressionLevel = compressionLevel;
+            }
+
             // New methods to handle enabled/disabled state
             public boolean isEnabled() {
                 return enabled;